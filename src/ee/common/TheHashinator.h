@@ -31,8 +31,10 @@
 namespace voltdb {
 
 /**
- * Class that maps values to partitions. It's rather simple
- * really. It'll get more complicated if you give it time.
+ * Class that maps values to partitions. Values are hashed to 64 bits and
+ * placed with a jump consistent hash, so changing the partition count from
+ * N to N + 1 only moves the keys that land in the new partition. This must
+ * produce exactly the same placement as the Java TheHashinator.
  */
 class TheHashinator {
   public:
@@ -82,6 +84,35 @@ class TheHashinator {
 
  private:
 
+    /**
+     * Finalization step of MurmurHash3 to spread every input bit across the key
+     * so that small and sequential values don't cluster in the low partitions.
+     */
+    static uint64_t mix(uint64_t value) {
+        value ^= value >> 33;
+        value *= 0xff51afd7ed558ccdULL;
+        value ^= value >> 33;
+        value *= 0xc4ceb9fe1a85ec53ULL;
+        value ^= value >> 33;
+        return value;
+    }
+
+    /**
+     * Jump consistent hash (Lamping and Veach). The double division is exactly
+     * rounded so Java computes the same result.
+     */
+    static int32_t jumpConsistentHash(uint64_t key, int32_t partitionCount) {
+        int64_t b = -1;
+        int64_t j = 0;
+        while (j < partitionCount) {
+            b = j;
+            key = key * 2862933555777941757ULL + 1;
+            j = static_cast<int64_t>((b + 1) * (static_cast<double>(1LL << 31) /
+                                                static_cast<double>((key >> 33) + 1)));
+        }
+        return static_cast<int32_t>(b);
+    }
+
     /**
      * Given a long value, pick a partition to store the data.
      *
@@ -94,15 +125,13 @@ class TheHashinator {
         // special case this hard to hash value to 0 (in both c++ and java)
         if (value == INT64_MIN) return 0;
 
-        // hash the same way java does
-        int32_t index = static_cast<int32_t>(value^(static_cast<uint64_t>(value) >> 32));
-        return abs(index % partitionCount);
+        return jumpConsistentHash(mix(static_cast<uint64_t>(value)), partitionCount);
     }
 
     /**
      * Designed to mimic Java string hashing where the hash function is defined as
      * s[0]*31^(n-1) + s[1]*31^(n-2) + ... + s[n-1]
-     *
+     * The 32 bit hash is sign extended before it is mixed, as Java does.
      */
     static int32_t hashinate(const char *string, int32_t length, int32_t partitionCount) {
         int32_t hashCode = 0;
@@ -113,7 +142,8 @@ class TheHashinator {
         for (int32_t ii = 0; ii < length; ii++) {
            hashCode = 31 * hashCode + string[offset++];
         }
-        return abs(hashCode % partitionCount);
+        return jumpConsistentHash(mix(static_cast<uint64_t>(static_cast<int64_t>(hashCode))),
+                                  partitionCount);
     }
 
 };
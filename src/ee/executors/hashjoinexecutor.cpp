@@ -0,0 +1,302 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include <algorithm>
+#include <vector>
+#include <string>
+#include <stack>
+#include "hashjoinexecutor.h"
+#include "common/debuglog.h"
+#include "common/common.h"
+#include "common/tabletuple.h"
+#include "common/TupleSchema.h"
+#include "expressions/abstractexpression.h"
+#include "expressions/tuplevalueexpression.h"
+#include "storage/table.h"
+#include "storage/temptable.h"
+#include "storage/tableiterator.h"
+#include "storage/TempTableLimits.h"
+#include "plannodes/hashjoinnode.h"
+
+using namespace std;
+using namespace voltdb;
+
+namespace
+{
+    // FUTURE: these two methods are duped from nestloopexecutor,
+    // see the comment there.
+    bool
+    assignTupleValueIndex(AbstractExpression *ae,
+                          const string &oname,
+                          const string &iname)
+    {
+        // tuple index 0 is always the outer table.
+        // tuple index 1 is always the inner table.
+        TupleValueExpression *tve = dynamic_cast<TupleValueExpression*>(ae);
+        string tname = tve->getTableName();
+
+        if (oname == "temp" && iname == "temp") {
+            VOLT_ERROR("Unsupported join on two temp tables.");
+            return false;
+        }
+
+        if (tname == oname)
+            tve->setTupleIndex(0);
+        else if (tname == iname)
+            tve->setTupleIndex(1);
+        else if (oname == "temp")
+            tve->setTupleIndex(0);
+        else if (iname == "temp")
+            tve->setTupleIndex(1);
+        else {
+            VOLT_ERROR("TableTupleValue in join with unknown table name.");
+            return false;
+        }
+
+        return true;
+    }
+
+    bool
+    assignTupleValueIndexes(AbstractExpression* expression,
+                            const string& outer_name,
+                            const string& inner_name)
+    {
+        const AbstractExpression* predicate = expression;
+        stack<const AbstractExpression*> stack;
+        while (predicate != NULL) {
+            const AbstractExpression *left = predicate->getLeft();
+            const AbstractExpression *right = predicate->getRight();
+
+            if (right != NULL) {
+                if (right->getExpressionType() == EXPRESSION_TYPE_VALUE_TUPLE) {
+                    if (!assignTupleValueIndex(const_cast<AbstractExpression*>(right),
+                                               outer_name,
+                                               inner_name))
+                    {
+                        return false;
+                    }
+                }
+                // remember the right node - must visit its children
+                stack.push(right);
+            }
+            if (left != NULL) {
+                if (left->getExpressionType() == EXPRESSION_TYPE_VALUE_TUPLE) {
+                    if (!assignTupleValueIndex(const_cast<AbstractExpression*>(left),
+                                               outer_name,
+                                               inner_name))
+                    {
+                        return false;
+                    }
+                }
+            }
+
+            predicate = left;
+            if (!predicate && !stack.empty()) {
+                predicate = stack.top();
+                stack.pop();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Evaluate the key expressions on a tuple into the key tuple.
+     * Returns false if any key is NULL, such a tuple can't match anything.
+     */
+    inline bool
+    evaluateKey(TableTuple& key,
+                const vector<AbstractExpression*>& expressions,
+                TableTuple& tuple)
+    {
+        for (int ii = 0; ii < expressions.size(); ii++) {
+            NValue value = expressions[ii]->eval(&tuple, NULL);
+            if (value.isNull()) {
+                return false;
+            }
+            key.setNValue(ii, value);
+        }
+        return true;
+    }
+
+    /**
+     * Charges the memory of a hash table to the fragment's temp table
+     * limits and gives it back however the execution ends.
+     */
+    class TempMemoryCharge {
+    public:
+        TempMemoryCharge(TempTableLimits* limits) : m_limits(limits), m_bytes(0) { }
+
+        ~TempMemoryCharge() {
+            if (m_limits) {
+                m_limits->reduceAllocated(m_bytes);
+            }
+        }
+
+        // May throw if the limit is exceeded, the bytes are still released
+        void increase(int bytes) {
+            if (m_limits) {
+                m_bytes += bytes;
+                m_limits->increaseAllocated(bytes);
+            }
+        }
+
+    private:
+        TempTableLimits* m_limits;
+        int m_bytes;
+    };
+}
+
+HashJoinExecutor::~HashJoinExecutor()
+{
+    if (m_keySchema != NULL) {
+        TupleSchema::freeTupleSchema(m_keySchema);
+    }
+}
+
+bool HashJoinExecutor::p_init(AbstractPlanNode* abstract_node,
+                              TempTableLimits* limits)
+{
+    VOLT_TRACE("init HashJoin Executor");
+
+    HashJoinPlanNode* node = dynamic_cast<HashJoinPlanNode*>(abstract_node);
+    assert(node);
+
+    // Create output table based on output schema from the plan
+    setTempOutputTable(limits);
+    m_limits = limits;
+
+    // The keys of both inputs are stored in the same schema, wide
+    // enough for the values of either side
+    const vector<AbstractExpression*>& outerKeys = node->getOuterKeyExpressions();
+    const vector<AbstractExpression*>& innerKeys = node->getInnerKeyExpressions();
+    assert(outerKeys.size() == innerKeys.size());
+    vector<ValueType> keyColumnTypes;
+    vector<int32_t> keyColumnSizes;
+    vector<bool> keyColumnAllowNull;
+    for (int ii = 0; ii < outerKeys.size(); ii++) {
+        // the planner only hashes keys of the same type
+        assert(outerKeys[ii]->getValueType() == innerKeys[ii]->getValueType());
+        keyColumnTypes.push_back(outerKeys[ii]->getValueType());
+        keyColumnSizes.push_back(std::max(outerKeys[ii]->getValueSize(),
+                                          innerKeys[ii]->getValueSize()));
+        keyColumnAllowNull.push_back(true);
+    }
+    m_keySchema = TupleSchema::createTupleSchema(keyColumnTypes,
+                                                 keyColumnSizes,
+                                                 keyColumnAllowNull,
+                                                 true);
+
+    // The keys are each evaluated against a single tuple, so they keep
+    // tuple index 0. Only the predicate sees both tuples.
+    return assignTupleValueIndexes(node->getPredicate(),
+                                   node->getInputTables()[0]->name(),
+                                   node->getInputTables()[1]->name());
+}
+
+
+bool HashJoinExecutor::p_execute(const NValueArray &params) {
+    VOLT_DEBUG("executing HashJoin...");
+    m_memoryPool.purge();
+
+    HashJoinPlanNode* node = dynamic_cast<HashJoinPlanNode*>(m_abstractNode);
+    assert(node);
+    assert(node->getInputTables().size() == 2);
+
+    // output table must be a temp table
+    TempTable* output_table = dynamic_cast<TempTable*>(node->getOutputTable());
+    assert(output_table);
+
+    Table* outer_table = node->getInputTables()[0];
+    assert(outer_table);
+
+    Table* inner_table = node->getInputTables()[1];
+    assert(inner_table);
+
+    VOLT_TRACE ("input table left:\n %s", outer_table->debug().c_str());
+    VOLT_TRACE ("input table right:\n %s", inner_table->debug().c_str());
+
+    AbstractExpression *predicate = node->getPredicate();
+    if (predicate) {
+        predicate->substitute(params);
+        VOLT_TRACE ("predicate: %s", predicate->debug(true).c_str());
+    }
+    const vector<AbstractExpression*>& outerKeys = node->getOuterKeyExpressions();
+    const vector<AbstractExpression*>& innerKeys = node->getInnerKeyExpressions();
+    for (int ii = 0; ii < outerKeys.size(); ii++) {
+        outerKeys[ii]->substitute(params);
+        innerKeys[ii]->substitute(params);
+    }
+
+    // Hash the smaller input, the hash table is the only memory the join
+    // needs besides its output
+    const bool hashOuter = outer_table->activeTupleCount() < inner_table->activeTupleCount();
+    Table* build_table = hashOuter ? outer_table : inner_table;
+    Table* probe_table = hashOuter ? inner_table : outer_table;
+    const vector<AbstractExpression*>& buildKeys = hashOuter ? outerKeys : innerKeys;
+    const vector<AbstractExpression*>& probeKeys = hashOuter ? innerKeys : outerKeys;
+
+    const int keyLength = m_keySchema->tupleLength();
+    // key storage plus the map's node and bucket for each hashed tuple
+    const int entrySize = keyLength + static_cast<int>(sizeof(HashJoinMapType::value_type) + 3 * sizeof(void*));
+    TempMemoryCharge charge(m_limits);
+    HashJoinMapType hashTable;
+
+    TableTuple key(m_keySchema);
+    key.moveNoHeader(m_memoryPool.allocate(keyLength));
+
+    TableTuple build_tuple(build_table->schema());
+    TableIterator build_iterator = build_table->iterator();
+    while (build_iterator.next(build_tuple)) {
+        if (!evaluateKey(key, buildKeys, build_tuple)) {
+            continue;
+        }
+        charge.increase(entrySize);
+        hashTable.insert(HashJoinMapType::value_type(key, build_tuple));
+        key.moveNoHeader(m_memoryPool.allocate(keyLength));
+    }
+    VOLT_TRACE("hashed %d tuples", static_cast<int>(hashTable.size()));
+
+    int outer_cols = outer_table->columnCount();
+    int inner_cols = inner_table->columnCount();
+    TableTuple &joined = output_table->tempTuple();
+
+    // the last key allocated above is not in the table, probe with it
+    TableTuple probe_tuple(probe_table->schema());
+    TableIterator probe_iterator = probe_table->iterator();
+    while (!hashTable.empty() && probe_iterator.next(probe_tuple)) {
+        if (!evaluateKey(key, probeKeys, probe_tuple)) {
+            continue;
+        }
+        std::pair<HashJoinMapType::iterator, HashJoinMapType::iterator> matches =
+            hashTable.equal_range(key);
+        for (HashJoinMapType::iterator match = matches.first; match != matches.second; ++match) {
+            TableTuple& outer_tuple = hashOuter ? match->second : probe_tuple;
+            TableTuple& inner_tuple = hashOuter ? probe_tuple : match->second;
+            if (predicate == NULL || predicate->eval(&outer_tuple, &inner_tuple).isTrue()) {
+                for (int col_ctr = 0; col_ctr < outer_cols; col_ctr++) {
+                    joined.setNValue(col_ctr, outer_tuple.getNValue(col_ctr));
+                }
+                for (int col_ctr = 0; col_ctr < inner_cols; col_ctr++) {
+                    joined.setNValue(col_ctr + outer_cols, inner_tuple.getNValue(col_ctr));
+                }
+                output_table->insertTupleNonVirtual(joined);
+            }
+        }
+    }
+
+    return (true);
+}
@@ -150,6 +150,8 @@ class CompactingHashMultiMapIndex : public TableIndex
 
     size_t getSize() const { return m_entries.size(); }
 
+    int64_t getDistinctKeyCount() const { return static_cast<int64_t>(m_entries.uniqueSize()); }
+
     int64_t getMemoryEstimate() const
     {
         return m_entries.bytesAllocated();
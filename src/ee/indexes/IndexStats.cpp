@@ -39,6 +39,7 @@ vector<string> IndexStats::generateIndexStatsColumnNames() {
     columnNames.push_back("IS_COUNTABLE");
     columnNames.push_back("ENTRY_COUNT");
     columnNames.push_back("MEMORY_ESTIMATE");
+    columnNames.push_back("DISTINCT_KEY_COUNT");
 
     return columnNames;
 }
@@ -83,6 +84,11 @@ void IndexStats::populateIndexStatsSchema(
     types.push_back(VALUE_TYPE_INTEGER);
     columnLengths.push_back(NValue::getTupleStorageSize(VALUE_TYPE_INTEGER));
     allowNull.push_back(false);
+
+    // distinct key count, -1 if unknown
+    types.push_back(VALUE_TYPE_BIGINT);
+    columnLengths.push_back(NValue::getTupleStorageSize(VALUE_TYPE_BIGINT));
+    allowNull.push_back(false);
 }
 
 Table*
@@ -190,6 +196,9 @@ void IndexStats::updateStatsTuple(TableTuple *tuple) {
     tuple->setNValue(StatsSource::m_columnName2Index["MEMORY_ESTIMATE"],
                      ValueFactory::
                      getIntegerValue(static_cast<int32_t>(mem_estimate_kb)));
+    // a level, not a counter, so it isn't diffed for intervals
+    tuple->setNValue(StatsSource::m_columnName2Index["DISTINCT_KEY_COUNT"],
+                     ValueFactory::getBigIntValue(m_index->getDistinctKeyCount()));
 }
 
 /**
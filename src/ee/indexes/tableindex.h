@@ -386,6 +386,16 @@ public:
 
     virtual size_t getSize() const = 0;
 
+    // Return the number of distinct keys in the index, or -1 if the
+    // index can't tell without scanning itself.
+    virtual int64_t getDistinctKeyCount() const
+    {
+        if (isUniqueIndex()) {
+            return static_cast<int64_t>(getSize());
+        }
+        return -1;
+    }
+
     // Return the amount of memory we think is allocated for this
     // index.
     virtual int64_t getMemoryEstimate() const = 0;
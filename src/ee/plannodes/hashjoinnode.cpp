@@ -0,0 +1,127 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include "hashjoinnode.h"
+
+#include "common/SerializableEEException.h"
+#include "expressions/abstractexpression.h"
+#include "storage/table.h"
+
+#include <sstream>
+
+using namespace json_spirit;
+using namespace std;
+using namespace voltdb;
+
+namespace
+{
+    void loadKeyExpressions(Object& obj, const char* name,
+                            vector<AbstractExpression*>& expressions)
+    {
+        Value keysValue = find_value(obj, name);
+        if (keysValue == Value::null)
+        {
+            throw SerializableEEException(VOLT_EE_EXCEPTION_TYPE_EEEXCEPTION,
+                                          string("HashJoinPlanNode::loadFromJSONObject:"
+                                                 " Can't find ") + name);
+        }
+        Array keysArray = keysValue.get_array();
+        for (int ii = 0; ii < keysArray.size(); ii++)
+        {
+            Object keyObject = keysArray[ii].get_obj();
+            expressions.push_back(AbstractExpression::buildExpressionTree(keyObject));
+        }
+    }
+}
+
+HashJoinPlanNode::HashJoinPlanNode(CatalogId id)
+  : AbstractJoinPlanNode(id)
+{
+    // Do nothing
+}
+
+HashJoinPlanNode::HashJoinPlanNode()
+  : AbstractJoinPlanNode()
+{
+    // Do nothing
+}
+
+HashJoinPlanNode::~HashJoinPlanNode()
+{
+    for (int ii = 0; ii < m_outerKeyExpressions.size(); ii++)
+    {
+        delete m_outerKeyExpressions[ii];
+    }
+    for (int ii = 0; ii < m_innerKeyExpressions.size(); ii++)
+    {
+        delete m_innerKeyExpressions[ii];
+    }
+    // must delete the output table that was created in the
+    // executor (and stored here in the plannode).
+    delete getOutputTable();
+}
+
+PlanNodeType
+HashJoinPlanNode::getPlanNodeType() const
+{
+    return PLAN_NODE_TYPE_HASHJOIN;
+}
+
+const vector<AbstractExpression*>&
+HashJoinPlanNode::getOuterKeyExpressions() const
+{
+    return m_outerKeyExpressions;
+}
+
+const vector<AbstractExpression*>&
+HashJoinPlanNode::getInnerKeyExpressions() const
+{
+    return m_innerKeyExpressions;
+}
+
+string HashJoinPlanNode::debugInfo(const string& spacer) const
+{
+    ostringstream buffer;
+    buffer << AbstractJoinPlanNode::debugInfo(spacer);
+    buffer << spacer << "Outer Key Expressions:\n";
+    for (int ii = 0; ii < m_outerKeyExpressions.size(); ii++)
+    {
+        buffer << m_outerKeyExpressions[ii]->debug(spacer);
+    }
+    buffer << spacer << "Inner Key Expressions:\n";
+    for (int ii = 0; ii < m_innerKeyExpressions.size(); ii++)
+    {
+        buffer << m_innerKeyExpressions[ii]->debug(spacer);
+    }
+    return (buffer.str());
+}
+
+void
+HashJoinPlanNode::loadFromJSONObject(Object& obj)
+{
+    AbstractJoinPlanNode::loadFromJSONObject(obj);
+
+    loadKeyExpressions(obj, "OUTER_KEY_EXPRESSIONS", m_outerKeyExpressions);
+    loadKeyExpressions(obj, "INNER_KEY_EXPRESSIONS", m_innerKeyExpressions);
+    if (m_outerKeyExpressions.empty() ||
+        m_outerKeyExpressions.size() != m_innerKeyExpressions.size())
+    {
+        throw SerializableEEException(VOLT_EE_EXCEPTION_TYPE_EEEXCEPTION,
+                                      "HashJoinPlanNode::loadFromJSONObject:"
+                                      " Mismatched join key expressions");
+    }
+}
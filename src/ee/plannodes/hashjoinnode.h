@@ -0,0 +1,58 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#ifndef HSTOREHASHJOINNODE_H
+#define HSTOREHASHJOINNODE_H
+
+#include <vector>
+#include "abstractjoinnode.h"
+
+namespace voltdb
+{
+
+class AbstractExpression;
+
+/**
+ * Equi-join of two input tables. The executor hashes the tuples of the
+ * smaller input on their join keys and probes with the other input. The
+ * outer key expressions are evaluated on tuples of the first input table,
+ * the inner key expressions on tuples of the second.
+ */
+class HashJoinPlanNode : public AbstractJoinPlanNode
+{
+public:
+    HashJoinPlanNode(CatalogId id);
+    HashJoinPlanNode();
+    ~HashJoinPlanNode();
+
+    virtual PlanNodeType getPlanNodeType() const;
+
+    const std::vector<AbstractExpression*>& getOuterKeyExpressions() const;
+    const std::vector<AbstractExpression*>& getInnerKeyExpressions() const;
+
+    std::string debugInfo(const std::string& spacer) const;
+
+protected:
+    virtual void loadFromJSONObject(json_spirit::Object& obj);
+
+    std::vector<AbstractExpression*> m_outerKeyExpressions;
+    std::vector<AbstractExpression*> m_innerKeyExpressions;
+};
+
+}
+
+#endif
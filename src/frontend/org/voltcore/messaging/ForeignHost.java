@@ -23,13 +23,14 @@ import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.voltcore.logging.VoltLogger;
 import org.voltcore.network.Connection;
 import org.voltcore.network.QueueMonitor;
 import org.voltcore.network.VoltProtocolHandler;
-import org.voltcore.utils.DeferredSerialization;
+import org.voltcore.utils.DirectDeferredSerialization;
 import org.voltcore.utils.EstTime;
 import org.voltcore.utils.CoreUtils;
 
@@ -37,7 +38,6 @@ public class ForeignHost {
     private static final VoltLogger hostLog = new VoltLogger("HOST");
 
     private Connection m_connection;
-    final FHInputHandler m_handler;
     private final HostMessenger m_hostMessenger;
     final int m_hostId;
     final InetSocketAddress m_listeningAddress;
@@ -50,6 +50,26 @@ public class ForeignHost {
     private final Socket m_socket;
     private final SocketChannel m_sc;
 
+    /*
+     * Messages are spread across the primary connection and any additional data
+     * connections by destination site id, so all the messages for one destination
+     * use the same connection and stay in order. A destination is always mapped
+     * using connectionsPerHost, even before all the connections are up. Frames for
+     * a connection that isn't attached yet are held in m_pendingFrames and enqueued
+     * on it ahead of anything else once it arrives, so nothing sent earlier on
+     * another connection can be overtaken. m_connections is null until the
+     * complete set is attached, sends take the synchronized path until then.
+     * The join handshake makes both hosts agree on connectionsPerHost, any
+     * connection beyond that is closed so the mapping never changes.
+     */
+    private final int m_connectionsPerHost;
+    private final SocketChannel m_dataChannels[];
+    private final List<SocketChannel> m_allChannels = new ArrayList<SocketChannel>();
+    private final List<Connection> m_allConnections = new ArrayList<Connection>();
+    private final List<List<MessageFrame>> m_pendingFrames = new ArrayList<List<MessageFrame>>();
+    private volatile Connection m_connections[];
+    private boolean m_readEnabled = false;
+
     // Set the default here for TestMessaging, which currently has no VoltDB instance
     private final long m_deadHostTimeout;
     private long m_lastMessageMillis;
@@ -103,27 +123,94 @@ public class ForeignHost {
     ForeignHost(HostMessenger host, int hostId, SocketChannel socket, int deadHostTimeout,
             InetSocketAddress listeningAddress)
     throws IOException
+    {
+        this(host, hostId, socket, new SocketChannel[0], 1, deadHostTimeout, listeningAddress);
+    }
+
+    /**
+     * Create a ForeignHost that will use connectionsPerHost connections. The data sockets
+     * opened by this host are supplied, the rest are attached with addDataConnection
+     * when the remote host opens them.
+     */
+    ForeignHost(HostMessenger host, int hostId, SocketChannel socket, SocketChannel dataSockets[],
+            int connectionsPerHost, int deadHostTimeout, InetSocketAddress listeningAddress)
+    throws IOException
     {
         m_hostMessenger = host;
-        m_handler = new FHInputHandler();
         m_hostId = hostId;
         m_closing = false;
         m_isUp = true;
         m_lastMessageMillis = Long.MAX_VALUE;
         m_sc = socket;
         m_socket = socket.socket();
+        m_dataChannels = dataSockets;
+        m_connectionsPerHost = connectionsPerHost;
         m_deadHostTimeout = deadHostTimeout;
         m_listeningAddress = listeningAddress;
+        for (int ii = 0; ii < connectionsPerHost; ii++) {
+            m_pendingFrames.add(new ArrayList<MessageFrame>());
+        }
         hostLog.info("Heartbeat timeout to host: " + m_socket.getRemoteSocketAddress() + " is " +
                          m_deadHostTimeout + " milliseconds");
     }
 
-    public void register(HostMessenger host) throws IOException {
-        m_connection = host.getNetwork().registerChannel( m_sc, m_handler, 0);
+    public synchronized void register(HostMessenger host) throws IOException {
+        m_connection = host.getNetwork().registerChannel( m_sc, new FHInputHandler(), 0);
+        attachConnection(m_sc, m_connection);
+        for (SocketChannel sc : m_dataChannels) {
+            attachConnection(sc, host.getNetwork().registerChannel( sc, new FHInputHandler(), 0));
+        }
     }
 
-    public void enableRead() {
-        m_connection.enableReadSelection();
+    /**
+     * Attach a data connection opened by the remote host. Each connection gets its
+     * own input handler and is registered with the network pool separately so reads
+     * and writes for different connections run on different network threads.
+     */
+    synchronized void addDataConnection(SocketChannel sc) throws IOException {
+        if (m_closing) {
+            sc.close();
+            return;
+        }
+        if (m_allConnections.size() >= m_connectionsPerHost) {
+            hostLog.warn("Closing unexpected data connection from host " + m_hostId + ", already using " +
+                    m_allConnections.size() + " connections");
+            sc.close();
+            return;
+        }
+        Connection c = m_hostMessenger.getNetwork().registerChannel( sc, new FHInputHandler(), 0);
+        attachConnection(sc, c);
+        if (m_readEnabled) {
+            c.enableReadSelection();
+        }
+    }
+
+    /*
+     * Caller holds the lock. Frames held for this connection go out before
+     * anything sent after it is attached, and the lock free send path is only
+     * opened once every connection is attached.
+     */
+    private void attachConnection(SocketChannel sc, Connection c) {
+        final int index = m_allConnections.size();
+        m_allChannels.add(sc);
+        m_allConnections.add(c);
+        if (index < m_pendingFrames.size()) {
+            final List<MessageFrame> pending = m_pendingFrames.get(index);
+            for (MessageFrame frame : pending) {
+                c.writeStream().enqueue(frame);
+            }
+            pending.clear();
+        }
+        if (m_allConnections.size() == m_connectionsPerHost) {
+            m_connections = m_allConnections.toArray(new Connection[m_allConnections.size()]);
+        }
+    }
+
+    public synchronized void enableRead() {
+        m_readEnabled = true;
+        for (Connection c : m_allConnections) {
+            c.enableReadSelection();
+        }
     }
 
     synchronized void close()
@@ -131,8 +218,28 @@ public class ForeignHost {
         m_isUp = false;
         if (m_closing) return;
         m_closing = true;
-        if (m_connection != null)
-            m_connection.unregister();
+        for (Connection c : m_allConnections) {
+            c.unregister();
+        }
+        for (List<MessageFrame> pending : m_pendingFrames) {
+            pending.clear();
+        }
+    }
+
+    /**
+     * The connection messages for a destination are sent on. Messages for system
+     * mailboxes such as the agreement site always use the primary connection.
+     */
+    static int connectionIndex(long destinationHSId, int connectionCount) {
+        final int siteId = CoreUtils.getSiteIdFromHSId(destinationHSId);
+        if (siteId < 0) {
+            return 0;
+        }
+        return siteId % connectionCount;
+    }
+
+    synchronized int getConnectionCount() {
+        return m_allConnections.size();
     }
 
     /**
@@ -141,10 +248,18 @@ public class ForeignHost {
     void killSocket() {
         try {
             m_closing = true;
-            m_socket.setKeepAlive(false);
-            m_socket.setSoLinger(false, 0);
+            List<SocketChannel> channels;
+            synchronized (this) {
+                channels = new ArrayList<SocketChannel>(m_allChannels);
+            }
+            for (SocketChannel sc : channels) {
+                sc.socket().setKeepAlive(false);
+                sc.socket().setSoLinger(false, 0);
+            }
             Thread.sleep(25);
-            m_socket.close();
+            for (SocketChannel sc : channels) {
+                sc.socket().close();
+            }
             Thread.sleep(25);
             System.gc();
             Thread.sleep(25);
@@ -181,35 +296,85 @@ public class ForeignHost {
             return;
         }
 
-        m_connection.writeStream().enqueue(
-            new DeferredSerialization() {
-                @Override
-                public final ByteBuffer[] serialize() throws IOException{
-                    int len = 4            /* length prefix */
-                            + 8            /* source hsid */
-                            + 4            /* destinationCount */
-                            + 8 * destinations.size()  /* destination list */
-                            + message.getSerializedSize();
-                    ByteBuffer buf = ByteBuffer.allocate(len);
-                    buf.putInt(len - 4);
-                    buf.putLong(message.m_sourceHSId);
-                    buf.putInt(destinations.size());
-                    for (int ii = 0; ii < destinations.size(); ii++) {
-                        buf.putLong(destinations.get(ii));
-                    }
-                    message.flattenToBuffer(buf);
-                    buf.flip();
-                    return new ByteBuffer[] { buf };
+        final Connection connections[] = m_connections;
+        if (connections == null) {
+            sendWhileConnecting(destinations, message);
+        } else if (connections.length == 1) {
+            connections[0].writeStream().enqueue(new MessageFrame(destinations, message));
+        } else if (destinations.size() == 1) {
+            connections[connectionIndex(destinations.get(0), connections.length)].writeStream().enqueue(
+                    new MessageFrame(destinations, message));
+        } else {
+            final List<Long> byConnection[] = splitByConnection(destinations, connections.length);
+            for (int ii = 0; ii < connections.length; ii++) {
+                if (byConnection[ii] != null) {
+                    connections[ii].writeStream().enqueue(new MessageFrame(byConnection[ii], message));
                 }
+            }
+        }
 
-                @Override
-                public final void cancel() {
-                    /*
-                     * Can this be removed?
-                     */
-                }
-            });
+        detectDeadHost();
+    }
+
+    /** Send a message to a single destination without boxing it into a list */
+    void send(final long destination, final VoltMessage message) {
+        final Connection connections[] = m_connections;
+        if (connections == null) {
+            sendWhileConnecting(destination, message);
+        } else {
+            connections[connectionIndex(destination, connections.length)].writeStream().enqueue(
+                    new MessageFrame(destination, message));
+        }
+
+        detectDeadHost();
+    }
+
+    /*
+     * Split the destinations by connection so each destination's messages
+     * stay on one connection, one copy of the message per connection used
+     */
+    private static List<Long>[] splitByConnection(List<Long> destinations, int connectionCount) {
+        @SuppressWarnings("unchecked")
+        final List<Long> byConnection[] = new List[connectionCount];
+        for (Long destination : destinations) {
+            final int index = connectionIndex(destination, connectionCount);
+            if (byConnection[index] == null) {
+                byConnection[index] = new ArrayList<Long>(destinations.size());
+            }
+            byConnection[index].add(destination);
+        }
+        return byConnection;
+    }
+
+    private synchronized void sendWhileConnecting(List<Long> destinations, VoltMessage message) {
+        final List<Long> byConnection[] = splitByConnection(destinations, m_connectionsPerHost);
+        for (int ii = 0; ii < m_connectionsPerHost; ii++) {
+            if (byConnection[ii] != null) {
+                enqueueOrHold(ii, new MessageFrame(byConnection[ii], message));
+            }
+        }
+    }
+
+    private synchronized void sendWhileConnecting(long destination, VoltMessage message) {
+        enqueueOrHold(connectionIndex(destination, m_connectionsPerHost), new MessageFrame(destination, message));
+    }
 
+    /*
+     * Caller holds the lock. Once the last connection is attached m_connections
+     * is published and this is no longer reached.
+     */
+    private void enqueueOrHold(int index, MessageFrame frame) {
+        if (m_closing) {
+            return;
+        }
+        if (index < m_allConnections.size()) {
+            m_allConnections.get(index).writeStream().enqueue(frame);
+        } else {
+            m_pendingFrames.get(index).add(frame);
+        }
+    }
+
+    private void detectDeadHost() {
         long current_time = EstTime.currentTimeMillis();
         long current_delta = current_time - m_lastMessageMillis;
         // NodeFailureFault no longer immediately trips FHInputHandler to
@@ -227,6 +392,86 @@ public class ForeignHost {
         }
     }
 
+    /**
+     * Frames a message for the wire: length prefix, source HSId, destination count,
+     * destination list and then the message itself. Frames that fit in a pooled network
+     * buffer are written straight into it by the network thread, so nothing is allocated
+     * to hold the serialized message. The message is handed an exact size view of the
+     * pooled buffer because flattenToBuffer expects to fill its buffer to capacity.
+     */
+    static final class MessageFrame implements DirectDeferredSerialization {
+        private final long m_destination;
+        // null when there is only m_destination
+        private final List<Long> m_destinations;
+        private final VoltMessage m_message;
+        private int m_messageSize = -1;
+
+        MessageFrame(long destination, VoltMessage message) {
+            m_destination = destination;
+            m_destinations = null;
+            m_message = message;
+        }
+
+        MessageFrame(List<Long> destinations, VoltMessage message) {
+            m_destination = -1;
+            m_destinations = destinations;
+            m_message = message;
+        }
+
+        private int destinationCount() {
+            return m_destinations == null ? 1 : m_destinations.size();
+        }
+
+        @Override
+        public int getSerializedSize() {
+            if (m_messageSize == -1) {
+                m_messageSize = m_message.getSerializedSize();
+            }
+            return 4            /* length prefix */
+                 + 8            /* source hsid */
+                 + 4            /* destinationCount */
+                 + 8 * destinationCount()  /* destination list */
+                 + m_messageSize;
+        }
+
+        @Override
+        public void serialize(ByteBuffer buf) throws IOException {
+            final int len = getSerializedSize();
+            buf.putInt(len - 4);
+            buf.putLong(m_message.m_sourceHSId);
+            if (m_destinations == null) {
+                buf.putInt(1);
+                buf.putLong(m_destination);
+            } else {
+                final int destinationCount = m_destinations.size();
+                buf.putInt(destinationCount);
+                for (int ii = 0; ii < destinationCount; ii++) {
+                    buf.putLong(m_destinations.get(ii));
+                }
+            }
+
+            final int messageEnd = buf.position() + m_messageSize;
+            final ByteBuffer view = buf.duplicate();
+            view.limit(messageEnd);
+            m_message.flattenToBuffer(view.slice());
+            buf.position(messageEnd);
+        }
+
+        @Override
+        public ByteBuffer[] serialize() throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(getSerializedSize());
+            serialize(buf);
+            buf.flip();
+            return new ByteBuffer[] { buf };
+        }
+
+        @Override
+        public void cancel() {
+            /*
+             * Can this be removed?
+             */
+        }
+    }
 
     String hostname() {
         return m_remoteHostname;
@@ -263,8 +508,6 @@ public class ForeignHost {
     private void handleRead(ByteBuffer in, Connection c) throws IOException {
         // port is locked by VoltNetwork when in valid use.
         // assert(m_port.m_lock.tryLock() == true);
-        long recvDests[] = null;
-
         final long sourceHSId = in.getLong();
         final int destCount = in.getInt();
         if (destCount == -1) {//This is a poison pill
@@ -276,16 +519,15 @@ public class ForeignHost {
             org.voltdb.VoltDB.crashLocalVoltDB(message, false, null);
         }
 
-        recvDests = new long[destCount];
-        for (int i = 0; i < destCount; i++) {
-            recvDests[i] = in.getLong();
-        }
+        // skip the destination list and read it back in place once the message is built
+        final int destsPosition = in.position();
+        in.position(destsPosition + 8 * destCount);
 
         final VoltMessage message =
             m_hostMessenger.getMessageFactory().createMessageFromBuffer(in, sourceHSId);
 
         for (int i = 0; i < destCount; i++) {
-            deliverMessage( recvDests[i], message);
+            deliverMessage( in.getLong(destsPosition + 8 * i), message);
         }
 
         //m_lastMessageMillis = System.currentTimeMillis();
@@ -22,7 +22,6 @@ import java.net.SocketException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -81,6 +80,7 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
         public long backwardsTimeForgivenessWindow = 1000 * 60 * 60 * 24 * 7;
         public VoltMessageFactory factory = new VoltMessageFactory();
         public int networkThreads =  Math.max(2, CoreUtils.availableProcessors() / 4);
+        public int connectionsPerHost = 1;
 
         public Config(String coordIp, int coordPort) {
             if (coordIp == null || coordIp.length() == 0) {
@@ -89,6 +89,7 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
                 coordinatorIp = new InetSocketAddress(coordIp, coordPort);
             }
             initNetworkThreads();
+            initConnectionsPerHost();
         }
 
         public Config() {
@@ -119,6 +120,18 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
             }
         }
 
+        private void initConnectionsPerHost() {
+            try {
+                Integer connectionsPerHostConfig = Integer.getInteger("connectionsPerHost");
+                if ( connectionsPerHostConfig != null ) {
+                    this.connectionsPerHost = Math.max(1, connectionsPerHostConfig);
+                    logger.info("Overridden connections per host: " + this.connectionsPerHost);
+                }
+            } catch (Exception e) {
+                logger.error("Error setting connections per host", e);
+            }
+        }
+
         @Override
         public String toString() {
             JSONStringer js = new JSONStringer();
@@ -131,6 +144,7 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
                 js.key("deadhosttimeout").value(deadHostTimeout);
                 js.key("backwardstimeforgivenesswindow").value(backwardsTimeForgivenessWindow);
                 js.key("networkThreads").value(networkThreads);
+                js.key("connectionsPerHost").value(connectionsPerHost);
                 js.endObject();
 
                 return js.toString();
@@ -167,6 +181,13 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
      */
     final COWMap<Integer, ForeignHost> m_foreignHosts = new COWMap<Integer, ForeignHost>();
 
+    /*
+     * Data connections that arrived before the foreign host they belong to was created.
+     * Also guards the put of a foreign host so a data connection isn't missed.
+     */
+    private final Map<Integer, List<SocketChannel>> m_pendingDataConnections =
+        new HashMap<Integer, List<SocketChannel>>();
+
     /*
      * References to all the local mailboxes
      * Updates via COW
@@ -204,6 +225,7 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
                 m_config.coordinatorIp,
                 m_config.internalInterface,
                 m_config.internalPort,
+                m_config.connectionsPerHost,
                 this);
     }
 
@@ -219,6 +241,7 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
         m_knownFailedHosts.add(hostId);
         long initiatorSiteId = CoreUtils.getHSIdFromHostAndSite(hostId, AGREEMENT_SITE_ID);
         removeForeignHost(hostId);
+        closePendingDataConnections(hostId);
         m_agreementSite.reportFault(initiatorSiteId);
     }
 
@@ -362,7 +385,8 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
         prepSocketChannel(socket);
         ForeignHost fhost = null;
         try {
-            fhost = new ForeignHost(this, hostId, socket, m_config.deadHostTimeout, listeningAddress);
+            fhost = new ForeignHost(this, hostId, socket, new SocketChannel[0],
+                    m_config.connectionsPerHost, m_config.deadHostTimeout, listeningAddress);
             fhost.register(this);
             putForeignHost(hostId, fhost);
             fhost.enableRead();
@@ -371,6 +395,53 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
         }
     }
 
+    /*
+     * Attach an additional connection opened by a joining host to its foreign host,
+     * or hold on to it until the foreign host is created
+     */
+    @Override
+    public void notifyOfDataConnection(int hostId, SocketChannel socket) {
+        prepSocketChannel(socket);
+        ForeignHost fhost = null;
+        synchronized (m_pendingDataConnections) {
+            fhost = m_foreignHosts.get(hostId);
+            if (fhost == null) {
+                if (m_knownFailedHosts.contains(hostId)) {
+                    try {
+                        socket.close();
+                    } catch (java.io.IOException e) {}
+                    return;
+                }
+                List<SocketChannel> pending = m_pendingDataConnections.get(hostId);
+                if (pending == null) {
+                    pending = new ArrayList<SocketChannel>();
+                    m_pendingDataConnections.put(hostId, pending);
+                }
+                pending.add(socket);
+                return;
+            }
+        }
+        try {
+            fhost.addDataConnection(socket);
+        } catch (java.io.IOException e) {
+            org.voltdb.VoltDB.crashLocalVoltDB("", true, e);
+        }
+    }
+
+    private void closePendingDataConnections(int hostId) {
+        List<SocketChannel> pending;
+        synchronized (m_pendingDataConnections) {
+            pending = m_pendingDataConnections.remove(hostId);
+        }
+        if (pending != null) {
+            for (SocketChannel sc : pending) {
+                try {
+                    sc.close();
+                } catch (java.io.IOException e) {}
+            }
+        }
+    }
+
     /*
      * Set all the default options for sockets
      */
@@ -386,8 +457,17 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
     /*
      * Convenience method for doing the verbose COW insert into the map
      */
-    private void putForeignHost(int hostId, ForeignHost fh) {
-        m_foreignHosts.put(hostId, fh);
+    private void putForeignHost(int hostId, ForeignHost fh) throws java.io.IOException {
+        List<SocketChannel> pending;
+        synchronized (m_pendingDataConnections) {
+            m_foreignHosts.put(hostId, fh);
+            pending = m_pendingDataConnections.remove(hostId);
+        }
+        if (pending != null) {
+            for (SocketChannel sc : pending) {
+                fh.addDataConnection(sc);
+            }
+        }
     }
 
     /*
@@ -440,7 +520,8 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
                 /*
                  * Now add the host to the mailbox system
                  */
-                fhost = new ForeignHost(this, hostId, socket, m_config.deadHostTimeout, listeningAddress);
+                fhost = new ForeignHost(this, hostId, socket, new SocketChannel[0],
+                        m_config.connectionsPerHost, m_config.deadHostTimeout, listeningAddress);
                 fhost.register(this);
                 putForeignHost(hostId, fhost);
                 fhost.enableRead();
@@ -488,6 +569,11 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
          */
         jsObj.put("newHostId", hostId);
 
+        /*
+         * And how many connections to open to each host
+         */
+        jsObj.put("connectionsPerHost", m_config.connectionsPerHost);
+
         /*
          * Echo back the address that the node connected from
          */
@@ -535,6 +621,7 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
             int yourHostId,
             int[] hosts,
             SocketChannel[] sockets,
+            SocketChannel[][] dataSockets,
             InetSocketAddress listeningAddresses[]) throws Exception {
         m_localHostId = yourHostId;
         long agreementHSId = getHSIdForLocalSite(AGREEMENT_SITE_ID);
@@ -551,9 +638,13 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
             System.out.println(yourHostId + " Notified of host " + hosts[ii]);
             agreementSites.add(CoreUtils.getHSIdFromHostAndSite(hosts[ii], AGREEMENT_SITE_ID));
             prepSocketChannel(sockets[ii]);
+            for (SocketChannel dataSocket : dataSockets[ii]) {
+                prepSocketChannel(dataSocket);
+            }
             ForeignHost fhost = null;
             try {
-                fhost = new ForeignHost(this, hosts[ii], sockets[ii], m_config.deadHostTimeout, listeningAddresses[ii]);
+                fhost = new ForeignHost(this, hosts[ii], sockets[ii], dataSockets[ii],
+                        m_config.connectionsPerHost, m_config.deadHostTimeout, listeningAddresses[ii]);
                 fhost.register(this);
                 putForeignHost(hosts[ii], fhost);
             } catch (java.io.IOException e) {
@@ -803,8 +894,7 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
 
         ForeignHost host = presend(destinationHSId, message);
         if (host != null) {
-            Long dests[] = {destinationHSId};
-            host.send(Arrays.asList(dests), message);
+            host.send(destinationHSId, message);
         }
     }
 
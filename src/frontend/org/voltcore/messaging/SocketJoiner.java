@@ -71,14 +71,22 @@ public class SocketJoiner {
          */
         public void requestJoin(SocketChannel socket, InetSocketAddress listeningAddress ) throws Exception;
 
+        /*
+         * An additional connection from a host that has already joined or is joining,
+         * to be used alongside its primary connection.
+         */
+        public void notifyOfDataConnection(int hostId, SocketChannel socket);
+
         /*
          * A connection has been made to all of the specified hosts. Invoked by
-         * nodes connected to the cluster
+         * nodes connected to the cluster. dataSockets holds the additional
+         * connections made to each host, possibly none.
          */
         public void notifyOfHosts(
                 int yourLocalHostId,
                 int hosts[],
                 SocketChannel sockets[],
+                SocketChannel dataSockets[][],
                 InetSocketAddress listeningAddresses[]) throws Exception;
     }
 
@@ -99,6 +107,11 @@ public class SocketJoiner {
     // from configuration data
     int m_internalPort = 3021;
     String m_internalInterface = "";
+    /*
+     * Number of connections to make to each host, the first one is the
+     * primary connection the mesh is built with
+     */
+    int m_connectionsPerHost = 1;
     /*
      * The interface we connected to the leader on
      */
@@ -205,13 +218,23 @@ public class SocketJoiner {
             String internalInterface,
             int internalPort,
             JoinHandler jh) {
-        if (internalInterface == null || coordIp == null || jh == null) {
+        this(coordIp, internalInterface, internalPort, 1, jh);
+    }
+
+    public SocketJoiner(
+            InetSocketAddress coordIp,
+            String internalInterface,
+            int internalPort,
+            int connectionsPerHost,
+            JoinHandler jh) {
+        if (internalInterface == null || coordIp == null || jh == null || connectionsPerHost < 1) {
             throw new IllegalArgumentException();
         }
         m_coordIp = coordIp;
         m_joinHandler = jh;
         m_internalInterface = internalInterface;
         m_internalPort = internalPort;
+        m_connectionsPerHost = connectionsPerHost;
     }
 
     /*
@@ -318,10 +341,38 @@ public class SocketJoiner {
             }
 
             hostLog.info("Received request type " + type);
+
+            /*
+             * Messages are mapped to connections by the connection count, so both ends
+             * of every host pair have to agree on it. A joining node is turned away with
+             * the count this node uses so it can report why it failed.
+             */
+            final int remoteConnectionsPerHost = jsObj.getInt("connectionsPerHost");
+            if (remoteConnectionsPerHost != m_connectionsPerHost) {
+                hostLog.error("Rejecting " + type + " from " + remoteAddress + ", it uses " +
+                        remoteConnectionsPerHost + " connections per host and this host uses " +
+                        m_connectionsPerHost);
+                if (type.equals("REQUEST_HOSTID")) {
+                    JSONObject rejection = new JSONObject();
+                    rejection.put("connectionsPerHost", m_connectionsPerHost);
+                    byte rejectionBytes[] = rejection.toString(4).getBytes("UTF-8");
+                    ByteBuffer rejectionBuffer = ByteBuffer.allocate(4 + rejectionBytes.length);
+                    rejectionBuffer.putInt(rejectionBytes.length);
+                    rejectionBuffer.put(rejectionBytes).flip();
+                    while (rejectionBuffer.hasRemaining()) {
+                        sc.write(rejectionBuffer);
+                    }
+                }
+                sc.close();
+                continue;
+            }
+
             if (type.equals("REQUEST_HOSTID")) {
                 m_joinHandler.requestJoin( sc, listeningAddress);
             } else if (type.equals("PUBLISH_HOSTID")){
                 m_joinHandler.notifyOfJoin(jsObj.getInt("hostId"), sc, listeningAddress);
+            } else if (type.equals("DATA_CONNECTION")) {
+                m_joinHandler.notifyOfDataConnection(jsObj.getInt("hostId"), sc);
             } else {
                 throw new RuntimeException("Unexpected message type " + type + " from " + remoteAddress);
             }
@@ -374,6 +425,52 @@ public class SocketJoiner {
         }
     }
 
+    /*
+     * Open the additional connections to a host this node has a primary connection to.
+     * The joining node opens all the connections to each host, since it is the
+     * one that knows every other node is already listening.
+     */
+    private SocketChannel[] connectDataSockets(InetSocketAddress hostAddr) throws Exception {
+        SocketChannel dataSockets[] = new SocketChannel[m_connectionsPerHost - 1];
+        for (int ii = 0; ii < dataSockets.length; ii++) {
+            SocketChannel dataSocket = null;
+            while (dataSocket == null) {
+                try {
+                    dataSocket = SocketChannel.open(hostAddr);
+                }
+                catch (java.net.ConnectException e) {
+                    LOG.warn("Opening data connection failed: " + e.getMessage() + " retrying..");
+                    try {
+                        Thread.sleep(250); //  milliseconds
+                    }
+                    catch (InterruptedException ex) {
+                        // don't really care.
+                    }
+                }
+            }
+            dataSocket.socket().setTcpNoDelay(true);
+            dataSocket.socket().setPerformancePreferences(0, 2, 1);
+
+            JSONObject jsObj = new JSONObject();
+            jsObj.put("type", "DATA_CONNECTION");
+            jsObj.put("hostId", m_localHostId);
+            jsObj.put("connectionsPerHost", m_connectionsPerHost);
+            jsObj.put("port", m_internalPort);
+            jsObj.put(
+                    "address",
+                    m_internalInterface.isEmpty() ? m_reportedInternalInterface : m_internalInterface);
+            byte jsBytes[] = jsObj.toString(4).getBytes("UTF-8");
+            ByteBuffer publishConnection = ByteBuffer.allocate(4 + jsBytes.length);
+            publishConnection.putInt(jsBytes.length);
+            publishConnection.put(jsBytes).flip();
+            while (publishConnection.hasRemaining()) {
+                dataSocket.write(publishConnection);
+            }
+            dataSockets[ii] = dataSocket;
+        }
+        return dataSockets;
+    }
+
     /*
      * If this node failed to bind to the leader address
      * it must connect to the leader which will generate a host id and
@@ -404,6 +501,7 @@ public class SocketJoiner {
 
             JSONObject jsObj = new JSONObject();
             jsObj.put("type", "REQUEST_HOSTID");
+            jsObj.put("connectionsPerHost", m_connectionsPerHost);
 
             /*
              * Advertise the port we are going to listen on based on
@@ -447,6 +545,18 @@ public class SocketJoiner {
             String jsonString = new String(responseBuffer.array(), "UTF-8");
             JSONObject jsonObj = new JSONObject(jsonString);
 
+            /*
+             * The leader turns this node away if it uses a different number of
+             * connections per host than the cluster
+             */
+            final int clusterConnectionsPerHost = jsonObj.getInt("connectionsPerHost");
+            if (clusterConnectionsPerHost != m_connectionsPerHost) {
+                socket.close();
+                throw new RuntimeException("This node uses " + m_connectionsPerHost +
+                        " connections per host and the cluster uses " + clusterConnectionsPerHost +
+                        ", connectionsPerHost must be the same on every node");
+            }
+
             /*
              * Get the generated host id, and the interface we connected on
              * that was echoed back
@@ -498,6 +608,7 @@ public class SocketJoiner {
                 jsObj = new JSONObject();
                 jsObj.put("type", "PUBLISH_HOSTID");
                 jsObj.put("hostId", m_localHostId);
+                jsObj.put("connectionsPerHost", m_connectionsPerHost);
                 jsObj.put("port", m_internalPort);
                 jsObj.put(
                         "address",
@@ -515,6 +626,15 @@ public class SocketJoiner {
                 listeningAddresses[ii] = hostAddr;
             }
 
+            /*
+             * Open the additional connections to every host now that they all know our host id.
+             * Hosts attach these to the foreign host for this node when they accept them.
+             */
+            SocketChannel dataSockets[][] = new SocketChannel[hostIds.length][];
+            for (int ii = 0; ii < hostIds.length; ii++) {
+                dataSockets[ii] = connectDataSockets(listeningAddresses[ii]);
+            }
+
             /*
              * Notify the leader that we connected to the entire cluster, it will then go
              * and queue a txn for our agreement site to join the lcuster
@@ -528,7 +648,7 @@ public class SocketJoiner {
              * Let host messenger know about the connections.
              * It will init the agreement site and then we are done.
              */
-            m_joinHandler.notifyOfHosts( m_localHostId, hostIds, hostSockets, listeningAddresses);
+            m_joinHandler.notifyOfHosts( m_localHostId, hostIds, hostSockets, dataSockets, listeningAddresses);
         } catch (ClosedByInterruptException e) {
             //This is how shutdown is done
         } catch (Exception e) {
@@ -25,6 +25,7 @@ import java.util.ArrayDeque;
 
 import org.voltcore.logging.VoltLogger;
 import org.voltcore.utils.DeferredSerialization;
+import org.voltcore.utils.DirectDeferredSerialization;
 import org.voltcore.utils.EstTime;
 import org.voltcore.utils.DBBPool.BBContainer;
 
@@ -353,6 +354,29 @@ public class NIOWriteStream implements WriteStream {
         DeferredSerialization ds = null;
         int bytesQueued = 0;
         while ((ds = oldlist.poll()) != null) {
+            /*
+             * Messages that know their size and fit in a pooled buffer are serialized straight
+             * into it instead of going through an intermediate HeapByteBuffer. Messages too big
+             * for the default buffer size get a buffer from a larger size class.
+             */
+            if (ds instanceof DirectDeferredSerialization) {
+                final DirectDeferredSerialization dds = (DirectDeferredSerialization)ds;
+                final int size = dds.getSerializedSize();
+                if (size <= NetworkDBBPool.MAX_BUFFER_SIZE) {
+                    BBContainer outCont = m_queuedBuffers.peekLast();
+                    if (outCont == null || outCont.b.remaining() < size) {
+                        outCont = pool.acquire(size);
+                        outCont.b.clear();
+                        m_queuedBuffers.offer(outCont);
+                    }
+                    final int startPosition = outCont.b.position();
+                    dds.serialize(outCont.b);
+                    assert(outCont.b.position() - startPosition == size ||
+                           outCont.b.position() == startPosition);
+                    bytesQueued += outCont.b.position() - startPosition;
+                    continue;
+                }
+            }
             ByteBuffer data[] = ds.serialize();
             for (ByteBuffer buf : data) {
                 assert(buf.limit() == buf.capacity());//No sloppy serialization, we can allow it later if necessary
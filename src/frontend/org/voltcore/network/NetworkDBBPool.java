@@ -14,42 +14,224 @@
  * You should have received a copy of the GNU General Public License
  * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
  */
-
 package org.voltcore.network;
 
 import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.voltcore.utils.DBBPool;
 import org.voltcore.utils.DBBPool.BBContainer;
 
+/**
+ * Pool of DirectByteBuffers owned by a single network thread. Buffers come in a few
+ * size classes so large messages can be serialized into one buffer. Idle buffers are
+ * capped at a high-water mark, and trim() releases buffers that stayed idle for a whole
+ * trim period, so after a traffic spike the pool shrinks back to what the current load needs.
+ * Buffers are allocated by the owning thread, so on Linux their pages are first touched
+ * on that thread's NUMA node.
+ */
 public class NetworkDBBPool {
 
-    private final ArrayDeque<BBContainer> m_buffers = new ArrayDeque<BBContainer>();
+    /**
+     * Size of each pooled DirectByteBuffer in the default size class
+     */
+    static final int BUFFER_SIZE = 1024 * 32;
+
+    /**
+     * Available buffer sizes, smallest first
+     */
+    static final int SIZE_CLASSES[] = new int[] { BUFFER_SIZE, 1024 * 128, 1024 * 512 };
+
+    /**
+     * Largest buffer the pool will hand out
+     */
+    static final int MAX_BUFFER_SIZE = SIZE_CLASSES[SIZE_CLASSES.length - 1];
+
+    /**
+     * Default for the most idle bytes a pool keeps, buffers discarded beyond this are freed
+     */
+    static final int DEFAULT_HIGH_WATER_MARK =
+        Integer.getInteger("networkPoolHighWaterMarkKB", 1024 * 8) * 1024;
+
+    /**
+     * How often each network thread trims its pool
+     */
+    static final long TRIM_INTERVAL_MILLIS = 1000;
+
+    /*
+     * Totals across every pool in the process, for MEMORY statistics
+     */
+    private static final AtomicLong m_pooledBytesGlobally = new AtomicLong();
+    private static final AtomicLong m_inUseBytesGlobally = new AtomicLong();
+
+    /**
+     * @return Bytes of direct memory sitting idle in network pools
+     */
+    public static long getPooledBytesGlobally() {
+        return m_pooledBytesGlobally.get();
+    }
+
+    /**
+     * @return Bytes of pooled direct memory currently held by network reads and writes
+     */
+    public static long getInUseBytesGlobally() {
+        return m_inUseBytesGlobally.get();
+    }
+
+    private final ArrayDeque<BBContainer> m_buffers[];
+    // fewest idle buffers seen in each size class since the last trim
+    private final int m_minIdleSinceTrim[];
+    private final long m_highWaterMark;
+    private long m_pooledBytes = 0;
+
+    /*
+     * Thread that owns the pool. Buffers discarded on other threads, for instance by a
+     * connection that migrated to another network thread, are queued here and pooled
+     * by the owner at the next trim.
+     */
+    private volatile Thread m_owner = null;
+    private final ConcurrentLinkedQueue<BBContainer> m_foreignReturns =
+        new ConcurrentLinkedQueue<BBContainer>();
+
+    public NetworkDBBPool() {
+        this(DEFAULT_HIGH_WATER_MARK);
+    }
+
+    @SuppressWarnings("unchecked")
+    NetworkDBBPool(long highWaterMark) {
+        m_highWaterMark = highWaterMark;
+        m_buffers = new ArrayDeque[SIZE_CLASSES.length];
+        for (int ii = 0; ii < SIZE_CLASSES.length; ii++) {
+            m_buffers[ii] = new ArrayDeque<BBContainer>();
+        }
+        m_minIdleSinceTrim = new int[SIZE_CLASSES.length];
+    }
+
+    void setOwner(Thread owner) {
+        m_owner = owner;
+    }
 
     BBContainer acquire() {
-       final BBContainer cont = m_buffers.poll();
-       if (cont == null) {
-           final BBContainer originContainer = DBBPool.allocateDirect(1024 * 32);
-           return new BBContainer(originContainer.b, 0) {
-                @Override
-                public void discard() {
-                    m_buffers.push(originContainer);
+        return acquire(BUFFER_SIZE);
+    }
+
+    /**
+     * Acquire a buffer from the smallest size class that holds at least minimumSize bytes
+     * @return The buffer, or null if minimumSize is larger than MAX_BUFFER_SIZE
+     */
+    BBContainer acquire(final int minimumSize) {
+        int sizeClass = 0;
+        while (SIZE_CLASSES[sizeClass] < minimumSize) {
+            if (++sizeClass == SIZE_CLASSES.length) {
+                return null;
+            }
+        }
+        final int size = SIZE_CLASSES[sizeClass];
+        final ArrayDeque<BBContainer> buffers = m_buffers[sizeClass];
+
+        BBContainer cont = buffers.poll();
+        if (cont == null) {
+            cont = DBBPool.allocateDirect(size);
+        } else {
+            m_pooledBytes -= size;
+            m_pooledBytesGlobally.addAndGet(-size);
+            if (buffers.size() < m_minIdleSinceTrim[sizeClass]) {
+                m_minIdleSinceTrim[sizeClass] = buffers.size();
+            }
+        }
+        m_inUseBytesGlobally.addAndGet(size);
+
+        final BBContainer originContainer = cont;
+        final int finalSizeClass = sizeClass;
+        return new BBContainer(originContainer.b, 0) {
+            @Override
+            public void discard() {
+                release(finalSizeClass, originContainer);
+            }
+        };
+    }
+
+    private void release(int sizeClass, BBContainer originContainer) {
+        final int size = SIZE_CLASSES[sizeClass];
+        m_inUseBytesGlobally.addAndGet(-size);
+        final Thread owner = m_owner;
+        if (owner != null && owner != Thread.currentThread()) {
+            m_pooledBytesGlobally.addAndGet(size);
+            m_foreignReturns.offer(originContainer);
+            return;
+        }
+        pool(sizeClass, originContainer);
+    }
+
+    private void pool(int sizeClass, BBContainer originContainer) {
+        final int size = SIZE_CLASSES[sizeClass];
+        if (m_pooledBytes + size > m_highWaterMark) {
+            originContainer.discard();
+            return;
+        }
+        m_buffers[sizeClass].push(originContainer);
+        m_pooledBytes += size;
+        m_pooledBytesGlobally.addAndGet(size);
+    }
+
+    /**
+     * Free half of the buffers in each size class that were never needed since the last
+     * trim, so idle memory decays over a few periods instead of being dropped all at once
+     * between bursts. Must be called from the thread that owns the pool.
+     */
+    void trim() {
+        BBContainer returned = null;
+        while ((returned = m_foreignReturns.poll()) != null) {
+            final int sizeClass = sizeClassOf(returned);
+            m_pooledBytesGlobally.addAndGet(-SIZE_CLASSES[sizeClass]);
+            pool(sizeClass, returned);
+        }
+        for (int ii = 0; ii < SIZE_CLASSES.length; ii++) {
+            int toFree = (m_minIdleSinceTrim[ii] + 1) / 2;
+            while (toFree-- > 0) {
+                final BBContainer cont = m_buffers[ii].poll();
+                if (cont == null) {
+                    break;
                 }
-           };
-       }
-       return new BBContainer(cont.b, 0) {
-           @Override
-           public void discard() {
-               m_buffers.push(cont);
-           }
-       };
+                m_pooledBytes -= SIZE_CLASSES[ii];
+                m_pooledBytesGlobally.addAndGet(-SIZE_CLASSES[ii]);
+                cont.discard();
+            }
+            m_minIdleSinceTrim[ii] = m_buffers[ii].size();
+        }
+    }
+
+    private static int sizeClassOf(BBContainer cont) {
+        int sizeClass = 0;
+        while (SIZE_CLASSES[sizeClass] != cont.b.capacity()) {
+            sizeClass++;
+        }
+        return sizeClass;
+    }
+
+    /**
+     * @return Bytes of direct memory idle in this pool
+     */
+    long getPooledBytes() {
+        return m_pooledBytes;
     }
 
     void clear() {
-        BBContainer cont = null;
-        while ((cont = m_buffers.poll()) != null) {
-            cont.discard();
+        BBContainer returned = null;
+        while ((returned = m_foreignReturns.poll()) != null) {
+            m_pooledBytesGlobally.addAndGet(-returned.b.capacity());
+            returned.discard();
+        }
+        for (int ii = 0; ii < SIZE_CLASSES.length; ii++) {
+            BBContainer cont = null;
+            while ((cont = m_buffers[ii].poll()) != null) {
+                m_pooledBytesGlobally.addAndGet(-SIZE_CLASSES[ii]);
+                cont.discard();
+            }
+            m_minIdleSinceTrim[ii] = 0;
         }
+        m_pooledBytes = 0;
     }
 
 }
@@ -75,8 +75,10 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.EstTime;
 import org.voltcore.utils.EstTimeUpdater;
 import org.voltcore.utils.Pair;
+import org.voltcore.utils.WaitStrategy;
 
 /** Produces work for registered ports that are selected for read, write */
 class VoltNetwork implements Runnable
@@ -89,8 +91,20 @@ class VoltNetwork implements Runnable
     private final Thread m_thread;
     private final HashSet<VoltPort> m_ports = new HashSet<VoltPort>();
     final NetworkDBBPool m_pool = new NetworkDBBPool();
+    private long m_lastPoolTrim = System.currentTimeMillis();
+
+    /*
+     * Load over the last load period, published for placement and balancing by
+     * VoltNetworkPool. Load is the time spent running port handlers, smoothed
+     * over consecutive periods.
+     */
+    private volatile long m_loadNanosPerSecond = 0;
+    private volatile long m_bytesPerSecond = 0;
+    private volatile long m_messagesPerSecond = 0;
+    private volatile int m_portCount = 0;
 
     private final int m_networkId;
+    private volatile WaitStrategy m_waitStrategy = WaitStrategy.BLOCK;
     /**
      * Start this VoltNetwork's thread;
      */
@@ -107,6 +121,7 @@ class VoltNetwork implements Runnable
         m_thread = new Thread(this, "Volt Network - " + networkId);
         m_networkId = networkId;
         m_thread.setDaemon(true);
+        m_pool.setOwner(m_thread);
 
         try {
             m_selector = Selector.open();
@@ -179,6 +194,7 @@ class VoltNetwork implements Runnable
                     return port;
                 } finally {
                     m_ports.add(port);
+                    m_portCount = m_ports.size();
                 }
             }
         };
@@ -204,6 +220,10 @@ class VoltNetwork implements Runnable
 
                 try {
                     if (!m_ports.contains(port)) {
+                        // follow the port if it was migrated after unregistration was requested
+                        if (port.network() != VoltNetwork.this) {
+                            port.network().unregisterChannel(port);
+                        }
                         return;
                     }
                     try {
@@ -214,6 +234,7 @@ class VoltNetwork implements Runnable
                             selectionKey.cancel();
                         } finally {
                             m_ports.remove(port);
+                            m_portCount = m_ports.size();
                         }
                     }
                 } finally {
@@ -244,6 +265,10 @@ class VoltNetwork implements Runnable
             m_tasks.offer(new Runnable() {
                 @Override
                 public void run() {
+                    if (port.network() != VoltNetwork.this) {
+                        port.network().addToChangeList(port, true);
+                        return;
+                    }
                     callPort(port);
                 }
             });
@@ -251,6 +276,10 @@ class VoltNetwork implements Runnable
             m_tasks.offer(new Runnable() {
                 @Override
                 public void run() {
+                    if (port.network() != VoltNetwork.this) {
+                        port.network().addToChangeList(port, false);
+                        return;
+                    }
                     installInterests(port);
                 }
             });
@@ -258,17 +287,47 @@ class VoltNetwork implements Runnable
         m_selector.wakeup();
     }
 
+    void setWaitStrategy(WaitStrategy waitStrategy) {
+        m_waitStrategy = waitStrategy;
+        m_selector.wakeup();
+    }
+
+    /*
+     * Poll the selector without blocking until something is ready, a task is queued, or
+     * the spin duration elapses. Returns -1 if nothing showed up and the caller should block.
+     * selectNow() clears a pending wakeup so the task queue and stop flag are checked
+     * explicitly after each poll.
+     */
+    private int spinSelect(WaitStrategy waitStrategy) throws IOException {
+        final long deadline = System.nanoTime() + waitStrategy.getSpinNanos();
+        do {
+            final int readyKeys = m_selector.selectNow();
+            if (readyKeys > 0 || !m_tasks.isEmpty() || m_shouldStop) {
+                return readyKeys;
+            }
+            waitStrategy.pause();
+        } while (System.nanoTime() - deadline < 0);
+        return -1;
+    }
+
     @Override
     public void run() {
         try {
             while (m_shouldStop == false) {
                 try {
                     while (m_shouldStop == false) {
-                        int readyKeys = 0;
-                        if (m_networkId == 0) {
-                            readyKeys = m_selector.select(5);
-                        } else {
-                            readyKeys = m_selector.select();
+                        int readyKeys = -1;
+                        final WaitStrategy waitStrategy = m_waitStrategy;
+                        if (waitStrategy.spins()) {
+                            readyKeys = spinSelect(waitStrategy);
+                        }
+                        if (readyKeys < 0) {
+                            if (m_networkId == 0) {
+                                readyKeys = m_selector.select(5);
+                            } else {
+                                // wake up periodically so an idle thread still trims its pool
+                                readyKeys = m_selector.select(NetworkDBBPool.TRIM_INTERVAL_MILLIS);
+                            }
                         }
 
                         /*
@@ -296,6 +355,13 @@ class VoltNetwork implements Runnable
                         if (m_networkId == 0) {
                             EstTimeUpdater.update(System.currentTimeMillis());
                         }
+
+                        final long now = EstTime.currentTimeMillis();
+                        if (now - m_lastPoolTrim >= NetworkDBBPool.TRIM_INTERVAL_MILLIS) {
+                            updateLoad(now - m_lastPoolTrim);
+                            m_lastPoolTrim = now;
+                            m_pool.trim();
+                        }
                     }
                 } catch (Throwable ex) {
                     ex.printStackTrace();
@@ -369,6 +435,7 @@ class VoltNetwork implements Runnable
     }
 
     private void callPort(final VoltPort port) {
+        final long startNanos = System.nanoTime();
         try {
             port.lockForHandlingWork();
             port.getKey().interestOps(0);
@@ -387,10 +454,135 @@ class VoltNetwork implements Runnable
                 networkLog.error( "VoltPort died due to an unexpected exception", e);
             }
         } finally {
+            port.recordHandlerTime(System.nanoTime() - startNanos);
             installInterests(port);
         }
     }
 
+    /**
+     * Roll the per port counters into this network's load for the period that just ended
+     */
+    private void updateLoad(long periodMillis) {
+        if (periodMillis <= 0) {
+            return;
+        }
+        long handlerNanos = 0;
+        long bytes = 0;
+        long messages = 0;
+        for (VoltPort port : m_ports) {
+            final long portHandlerNanos = port.getHandlerNanos(false);
+            final long written[] = port.writeStream().getBytesAndMessagesWritten(false);
+            final long portBytes = port.readStream().getBytesRead(false) + written[0];
+            final long portMessages = port.getMessagesRead(false) + written[1];
+
+            port.m_periodLoadNanos = portHandlerNanos - port.m_periodHandlerNanosSnapshot;
+            handlerNanos += port.m_periodLoadNanos;
+            bytes += portBytes - port.m_periodBytesSnapshot;
+            messages += portMessages - port.m_periodMessagesSnapshot;
+
+            port.m_periodHandlerNanosSnapshot = portHandlerNanos;
+            port.m_periodBytesSnapshot = portBytes;
+            port.m_periodMessagesSnapshot = portMessages;
+        }
+        m_loadNanosPerSecond = (m_loadNanosPerSecond + handlerNanos * 1000 / periodMillis) / 2;
+        m_bytesPerSecond = bytes * 1000 / periodMillis;
+        m_messagesPerSecond = messages * 1000 / periodMillis;
+        m_portCount = m_ports.size();
+    }
+
+    long getLoadNanosPerSecond() {
+        return m_loadNanosPerSecond;
+    }
+
+    long getBytesPerSecond() {
+        return m_bytesPerSecond;
+    }
+
+    long getMessagesPerSecond() {
+        return m_messagesPerSecond;
+    }
+
+    int getPortCount() {
+        return m_portCount;
+    }
+
+    int getNetworkId() {
+        return m_networkId;
+    }
+
+    /**
+     * Register a port migrated from another network with this network's selector.
+     * Called by the port while it holds its lock.
+     */
+    void adopt(final VoltPort port) {
+        queueTask(new Runnable() {
+            @Override
+            public void run() {
+                m_ports.add(port);
+                m_portCount = m_ports.size();
+                try {
+                    final SelectionKey key = port.channel().register(m_selector, port.interestOps(), port);
+                    port.setMigratedKey(key);
+                } catch (IOException e) {
+                    // the channel was closed during the move
+                    port.die();
+                    getUnregisterRunnable(port).run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Move a port from this network to another one
+     * @param connectionId Connection to move, or -1 to pick the port whose load over the last
+     * period is closest to targetLoadNanos without exceeding twice that and that was not migrated
+     * within minMillisBetweenMigrations.
+     * @return Future that is true if a port was moved
+     */
+    Future<Boolean> migrate(
+            final long connectionId,
+            final VoltNetwork target,
+            final long targetLoadNanos,
+            final long minMillisBetweenMigrations) {
+        FutureTask<Boolean> ft = new FutureTask<Boolean>(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                final long now = EstTime.currentTimeMillis();
+                VoltPort chosen = null;
+                for (VoltPort port : m_ports) {
+                    if (connectionId != -1) {
+                        if (port.connectionId() == connectionId) {
+                            chosen = port;
+                            break;
+                        }
+                        continue;
+                    }
+                    if (port.m_periodLoadNanos == 0 ||
+                        port.m_periodLoadNanos > targetLoadNanos * 2 ||
+                        now - port.m_lastMigrationMillis < minMillisBetweenMigrations) {
+                        continue;
+                    }
+                    if (chosen == null ||
+                        Math.abs(port.m_periodLoadNanos - targetLoadNanos) <
+                        Math.abs(chosen.m_periodLoadNanos - targetLoadNanos)) {
+                        chosen = port;
+                    }
+                }
+                if (chosen == null || target == VoltNetwork.this || !chosen.migrate(target)) {
+                    return false;
+                }
+                chosen.m_lastMigrationMillis = now;
+                m_ports.remove(chosen);
+                m_portCount = m_ports.size();
+                networkLog.info("Migrated connection " + chosen.connectionId() + " (" + chosen.getHostnameOrIP() +
+                        ") from network thread " + m_networkId + " to " + target.m_networkId);
+                return true;
+            }
+        });
+        queueTask(ft);
+        return ft;
+    }
+
     /** Set the selected interest set on the port and run it. */
     protected void invokeCallbacks() {
         final Set<SelectionKey> selectedKeys = m_selector.selectedKeys();
@@ -412,14 +604,19 @@ class VoltNetwork implements Runnable
             long totalMessagesRead = 0;
             long totalWritten = 0;
             long totalMessagesWritten = 0;
+            long totalHandlerNanos = 0;
+            long totalMigrations = 0;
             for (VoltPort p : m_ports) {
                 final long read = p.readStream().getBytesRead(interval);
                 final long writeInfo[] = p.writeStream().getBytesAndMessagesWritten(interval);
                 final long messagesRead = p.getMessagesRead(interval);
+                final long handlerNanos = p.getHandlerNanos(interval);
                 totalRead += read;
                 totalMessagesRead += messagesRead;
                 totalWritten += writeInfo[0];
                 totalMessagesWritten += writeInfo[1];
+                totalHandlerNanos += handlerNanos;
+                totalMigrations += p.getMigrations();
                 retval.put(
                         p.connectionId(),
                         Pair.of(
@@ -428,7 +625,10 @@ class VoltNetwork implements Runnable
                                         read,
                                         messagesRead,
                                         writeInfo[0],
-                                        writeInfo[1] }));
+                                        writeInfo[1],
+                                        m_networkId,
+                                        handlerNanos / 1000,
+                                        p.getMigrations() }));
             }
             retval.put(
                     -1L,
@@ -438,7 +638,10 @@ class VoltNetwork implements Runnable
                                     totalRead,
                                     totalMessagesRead,
                                     totalWritten,
-                                    totalMessagesWritten }));
+                                    totalMessagesWritten,
+                                    -1,
+                                    totalHandlerNanos / 1000,
+                                    totalMigrations }));
             return retval;
     }
 
@@ -25,19 +25,53 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.CoreUtils;
 import org.voltcore.utils.Pair;
+import org.voltcore.utils.WaitStrategy;
 
 public class VoltNetworkPool {
     private static final VoltLogger m_logger = new VoltLogger(VoltNetworkPool.class.getName());
     private static final VoltLogger networkLog = new VoltLogger("NETWORK");
 
+    /*
+     * Indexes of the extra per connection counters VoltNetwork reports in IO stats
+     * after bytes/messages read/written
+     */
+    public static final int IOSTATS_NETWORK_THREAD = 4;
+    public static final int IOSTATS_HANDLER_MICROS = 5;
+    public static final int IOSTATS_MIGRATIONS = 6;
+
+    /**
+     * Move connections between network threads when the handler time of the busiest
+     * thread exceeds the idlest by this much per second, 10% of a core by default
+     */
+    static final long BALANCE_THRESHOLD_NANOS =
+        Integer.getInteger("networkBalanceThresholdMicros", 100 * 1000) * 1000L;
+
+    /**
+     * How often the balancer looks at the network thread loads
+     */
+    static final long BALANCE_INTERVAL_MILLIS = NetworkDBBPool.TRIM_INTERVAL_MILLIS * 2;
+
+    /**
+     * A connection that was moved isn't considered again for this long, so a bursty
+     * connection doesn't bounce between threads
+     */
+    static final long MIN_MILLIS_BETWEEN_MIGRATIONS = 10 * 1000;
+
     private final VoltNetwork m_networks[];
     private final AtomicLong m_nextWorkerSelection = new AtomicLong();
+    private final Random m_random = new Random();
+    private final boolean m_balance;
+    private ScheduledThreadPoolExecutor m_balancer = null;
 
     public VoltNetworkPool() {
         this(1);
@@ -51,20 +85,48 @@ public class VoltNetworkPool {
         for (int ii = 0; ii < numThreads; ii++) {
             m_networks[ii] = new VoltNetwork(ii);
         }
+        m_balance = numThreads > 1 &&
+            Boolean.valueOf(System.getProperty("networkLoadBalancing", "true"));
     }
 
     public void start() {
         for (VoltNetwork vn : m_networks) {
             vn.start();
         }
+        if (m_balance) {
+            m_balancer = CoreUtils.getScheduledThreadPoolExecutor("Network Load Balancer", 1, 131072);
+            m_balancer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        balance();
+                    } catch (Exception e) {
+                        networkLog.warn("Error balancing network threads", e);
+                    }
+                }
+            }, BALANCE_INTERVAL_MILLIS, BALANCE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
     }
 
     public void shutdown() throws InterruptedException {
+        if (m_balancer != null) {
+            m_balancer.shutdownNow();
+        }
         for (VoltNetwork vn : m_networks) {
             vn.shutdown();
         }
     }
 
+    /**
+     * Change how the network threads wait for readiness. Takes effect the next
+     * time each thread goes to select.
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        for (VoltNetwork vn : m_networks) {
+            vn.setWaitStrategy(waitStrategy);
+        }
+    }
+
     public Connection registerChannel(
             final SocketChannel channel,
             final InputHandler handler) throws IOException {
@@ -75,8 +137,86 @@ public class VoltNetworkPool {
             final SocketChannel channel,
             final InputHandler handler,
             final int interestOps) throws IOException {
-        VoltNetwork vn = m_networks[(int)(m_nextWorkerSelection.incrementAndGet() % m_networks.length)];
-        return vn.registerChannel(channel, handler, interestOps);
+        return pickNetwork().registerChannel(channel, handler, interestOps);
+    }
+
+    /**
+     * Pick the less loaded of the next network in round robin order and a random other one.
+     * Two choices avoid piling every connection made within one load period onto the
+     * thread that happened to be idlest.
+     */
+    private VoltNetwork pickNetwork() {
+        final VoltNetwork first = m_networks[(int)(m_nextWorkerSelection.incrementAndGet() % m_networks.length)];
+        if (m_networks.length == 1) {
+            return first;
+        }
+        final VoltNetwork second = m_networks[m_random.nextInt(m_networks.length)];
+        final long firstLoad = first.getLoadNanosPerSecond();
+        final long secondLoad = second.getLoadNanosPerSecond();
+        if (secondLoad < firstLoad ||
+            (secondLoad == firstLoad && second.getPortCount() < first.getPortCount())) {
+            return second;
+        }
+        return first;
+    }
+
+    /**
+     * Move at most one connection from the busiest network thread to the idlest. The
+     * connection chosen has a load as close as possible to half the difference, so
+     * moving it evens the two out instead of moving the hot spot.
+     */
+    void balance() throws InterruptedException, ExecutionException {
+        VoltNetwork busiest = m_networks[0];
+        VoltNetwork idlest = m_networks[0];
+        for (VoltNetwork vn : m_networks) {
+            if (vn.getLoadNanosPerSecond() > busiest.getLoadNanosPerSecond()) {
+                busiest = vn;
+            }
+            if (vn.getLoadNanosPerSecond() < idlest.getLoadNanosPerSecond()) {
+                idlest = vn;
+            }
+        }
+        final long imbalance = busiest.getLoadNanosPerSecond() - idlest.getLoadNanosPerSecond();
+        if (busiest == idlest || imbalance < BALANCE_THRESHOLD_NANOS) {
+            return;
+        }
+        busiest.migrate(-1, idlest, imbalance / 2, MIN_MILLIS_BETWEEN_MIGRATIONS).get();
+    }
+
+    /**
+     * Move a connection to another network thread
+     * @return true if the connection was found and moved
+     */
+    public boolean migrateConnection(long connectionId, int networkThread)
+            throws InterruptedException, ExecutionException {
+        final VoltNetwork target = m_networks[networkThread];
+        LinkedList<Future<Boolean>> migrations = new LinkedList<Future<Boolean>>();
+        for (VoltNetwork vn : m_networks) {
+            if (vn != target) {
+                migrations.add(vn.migrate(connectionId, target, 0, 0));
+            }
+        }
+        boolean migrated = false;
+        for (Future<Boolean> migration : migrations) {
+            migrated |= migration.get();
+        }
+        return migrated;
+    }
+
+    /**
+     * @return Load of each network thread over the last load period as
+     * handler nanos/sec, bytes/sec, messages/sec and connection count
+     */
+    public List<long[]> getNetworkLoads() {
+        ArrayList<long[]> loads = new ArrayList<long[]>();
+        for (VoltNetwork vn : m_networks) {
+            loads.add(new long[] {
+                    vn.getLoadNanosPerSecond(),
+                    vn.getBytesPerSecond(),
+                    vn.getMessagesPerSecond(),
+                    vn.getPortCount() });
+        }
+        return loads;
     }
 
     public List<Long> getThreadIds() {
@@ -111,6 +251,7 @@ public class VoltNetworkPool {
             }
             retval.putAll(stats);
         }
+        globalStats[IOSTATS_NETWORK_THREAD] = -1;
         retval.put(-1L, Pair.of("GLOBAL", globalStats));
 
         return retval;
@@ -34,12 +34,12 @@ import org.voltcore.utils.CoreUtils;
 /** Encapsulates a socket registration for a VoltNetwork */
 public class VoltPort implements Connection
 {
-    /** The network this port participates in */
-    private final VoltNetwork m_network;
+    /** The network this port participates in, changes if the port is migrated */
+    private volatile VoltNetwork m_network;
 
     private static final VoltLogger networkLog = new VoltLogger("NETWORK");
 
-    private final NetworkDBBPool m_pool;
+    private volatile NetworkDBBPool m_pool;
 
     /*
      * Thread pool for doing reverse DNS lookups. It will create new threads on
@@ -87,6 +87,20 @@ public class VoltPort implements Connection
     private long m_messagesRead = 0;
     private long m_lastMessagesRead = 0;
 
+    /*
+     * Load accounting, only touched by the thread of the network the port is on.
+     * The period fields are snapshots VoltNetwork takes once per load period.
+     */
+    private long m_handlerNanos = 0;
+    private long m_lastHandlerNanos = 0;
+    long m_periodHandlerNanosSnapshot = 0;
+    long m_periodBytesSnapshot = 0;
+    long m_periodMessagesSnapshot = 0;
+    /** Handler time spent on this port during the last load period */
+    long m_periodLoadNanos = 0;
+    private long m_migrations = 0;
+    long m_lastMigrationMillis = 0;
+
     /*
      * This variable will be changed to the actual hostname some time later. It
      * is not guaranteed on how long it will take to do the reverse DNS lookup.
@@ -407,6 +421,62 @@ public class VoltPort implements Connection
         }
     }
 
+    void recordHandlerTime(long nanos) {
+        m_handlerNanos += nanos;
+    }
+
+    long getHandlerNanos(boolean interval) {
+        if (interval) {
+            final long handlerNanos = m_handlerNanos;
+            final long handlerNanosThisTime = handlerNanos - m_lastHandlerNanos;
+            m_lastHandlerNanos = handlerNanos;
+            return handlerNanosThisTime;
+        } else {
+            return m_handlerNanos;
+        }
+    }
+
+    long getMigrations() {
+        return m_migrations;
+    }
+
+    VoltNetwork network() {
+        return m_network;
+    }
+
+    /**
+     * Move this port to another network. Must run on the thread of the network the port
+     * is currently on, between dispatches. The old key is cancelled and the target is asked
+     * to register the channel with its selector. That request is queued while holding the
+     * port lock, so any interest change made by another thread after the switch is queued on
+     * the target behind it. Buffers already held by the streams go back to the old pool when
+     * they are discarded.
+     * @return false if the port can't be moved right now
+     */
+    boolean migrate(VoltNetwork target) {
+        synchronized (m_lock) {
+            if (m_running || m_isDead || m_isShuttingDown || !m_selectionKey.isValid()) {
+                return false;
+            }
+            m_selectionKey.attach(null);
+            m_selectionKey.cancel();
+            m_network = target;
+            m_pool = target.m_pool;
+            m_migrations++;
+            target.adopt(this);
+            return true;
+        }
+    }
+
+    /** Install the key from the selector this port was migrated to */
+    void setMigratedKey(SelectionKey key) {
+        m_selectionKey = key;
+    }
+
+    SocketChannel channel() {
+        return m_channel;
+    }
+
     long getMessagesRead(boolean interval) {
         if (interval) {
             final long messagesRead = m_messagesRead;
@@ -438,8 +508,19 @@ public class VoltPort implements Connection
     }
 
     @Override
-    public void queueTask(Runnable r) {
-        m_network.queueTask(r);
+    public void queueTask(final Runnable r) {
+        final VoltNetwork network = m_network;
+        network.queueTask(new Runnable() {
+            @Override
+            public void run() {
+                // follow the port if it was migrated after the task was queued
+                if (m_network != network) {
+                    queueTask(r);
+                } else {
+                    r.run();
+                }
+            }
+        });
     }
 
 }
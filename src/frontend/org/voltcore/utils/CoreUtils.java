@@ -76,6 +76,20 @@ public class CoreUtils {
         return MoreExecutors.listeningDecorator(tpe);
     }
 
+    /**
+     * Create a bounded thread pool executor with a fixed number of threads that rejects
+     * requests if more than capacity requests are outstanding.
+     */
+    public static ListeningExecutorService getBoundedThreadPoolExecutor(String name, int threads, int capacity) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Must specify > 0 threads");
+        }
+        LinkedBlockingQueue<Runnable> lbq = new LinkedBlockingQueue<Runnable>(capacity);
+        ThreadPoolExecutor tpe =
+                new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, lbq, CoreUtils.getThreadFactory(name));
+        return MoreExecutors.listeningDecorator(tpe);
+    }
+
     /*
      * Have shutdown actually means shutdown. Tasks that need to complete should use
      * futures.
@@ -0,0 +1,43 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltcore.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A DeferredSerialization that knows its serialized size up front and can serialize
+ * directly into a buffer supplied by the network, such as a pooled DirectByteBuffer.
+ * This avoids allocating an intermediate HeapByteBuffer and copying it into the pool.
+ * The array returning serialize() is still used for messages too large to fit in a pooled buffer.
+ */
+public interface DirectDeferredSerialization extends DeferredSerialization {
+    /**
+     * @return The exact number of bytes serialize(ByteBuffer) will write
+     */
+    int getSerializedSize();
+
+    /**
+     * Serialize the Object into the buffer starting at its current position. The buffer
+     * is guaranteed to have at least getSerializedSize() bytes remaining. An implementation
+     * that handles its own failures must leave the position where it found it.
+     * @param buf Buffer to serialize into
+     * @throws IOException Thrown here because FastSerialzier throws IOException
+     */
+    void serialize(ByteBuffer buf) throws IOException;
+}
@@ -0,0 +1,100 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.voltcore.utils;
+
+/**
+ * Describes how a thread that runs out of work waits for more. BLOCK parks the thread
+ * immediately. SPINYIELD and BUSYSPIN keep polling for up to a bounded number of microseconds
+ * before parking, yielding between polls or not, trading CPU for wakeup latency.
+ */
+public final class WaitStrategy {
+    public enum Type {
+        BLOCK,
+        SPINYIELD,
+        BUSYSPIN
+    }
+
+    public static final int DEFAULT_SPIN_MICROS = 50;
+
+    public static final WaitStrategy BLOCK = new WaitStrategy(Type.BLOCK, 0);
+
+    private final Type m_type;
+    private final long m_spinNanos;
+
+    public WaitStrategy(Type type, int spinMicros) {
+        if (type == null) {
+            throw new IllegalArgumentException("Wait strategy type cannot be null");
+        }
+        if (spinMicros < 0) {
+            throw new IllegalArgumentException("Spin duration must not be negative");
+        }
+        m_type = type;
+        m_spinNanos = type == Type.BLOCK ? 0 : spinMicros * 1000L;
+    }
+
+    /**
+     * Parse a strategy name as it appears in the deployment file. A null or empty
+     * name is the default blocking strategy.
+     */
+    public static WaitStrategy fromString(String type, int spinMicros) {
+        if (type == null || type.trim().isEmpty()) {
+            return BLOCK;
+        }
+        Type t;
+        try {
+            t = Type.valueOf(type.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown wait strategy " + type);
+        }
+        if (t == Type.BLOCK) {
+            return BLOCK;
+        }
+        return new WaitStrategy(t, spinMicros);
+    }
+
+    public Type getType() {
+        return m_type;
+    }
+
+    public long getSpinNanos() {
+        return m_spinNanos;
+    }
+
+    /**
+     * @return true if a waiting thread should poll for work before parking
+     */
+    public boolean spins() {
+        return m_spinNanos > 0;
+    }
+
+    /**
+     * Called between polls while spinning.
+     */
+    public void pause() {
+        if (m_type == Type.SPINYIELD) {
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (m_type == Type.BLOCK) {
+            return m_type.name();
+        }
+        return m_type.name() + "(" + (m_spinNanos / 1000) + "us)";
+    }
+}
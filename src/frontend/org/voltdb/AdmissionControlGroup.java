@@ -17,15 +17,25 @@
 package org.voltdb;
 
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.voltcore.logging.VoltLogger;
 import org.voltdb.dtxn.InitiatorStats;
 import org.voltdb.dtxn.InitiatorStats.InvocationInfo;
 
+import com.google.common.base.Function;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
 
 /**
  * Manage admission control for incoming requests by tracking the size of outstanding requests
@@ -36,42 +46,58 @@ import com.google.common.collect.ImmutableMap;
  * as incoming requests size wise. Count of responses is not tracked because they are flattened
  * and coalesced to byte buffers so the metadata overhead is minimal and not worth tracking separately
  *
- * Admission control only limits the amount of work each group is willing to accept into the cluster.
- * Because there is no coordination between groups it is possible for all the work to end up at one node.
- * This is guaranteed to happen if one node is slow enough that it can't keep up with the workload.
+ * There is one group for all the connections of a client interface, whichever network thread
+ * they are on. Totals for the group are kept in counters striped by thread so the network threads
+ * don't contend updating them, and each member tracks what it has outstanding itself.
+ *
+ * When the group is over its limits only members that have more than their weighted fair share
+ * outstanding stop reading, so a client flooding the node doesn't starve the other clients.
+ * Members of a user that has more outstanding than the per user quota also stop reading.
+ * The limit on outstanding transactions backs off while the site task queues are deeper than
+ * a target depth and recovers once they drain.
  */
-public class AdmissionControlGroup implements org.voltcore.network.QueueMonitor
+public class AdmissionControlGroup
 {
     private static final VoltLogger networkLog = new VoltLogger("NETWORK");
 
+    /*
+     * Default per user quota on outstanding transactions, 0 for no quota
+     */
+    private static final int USER_MAX_PENDING_TXNS = Integer.getInteger("admissionUserMaxPendingTxns", 0);
+
+    /*
+     * Site task queue depth above which the transaction limit backs off, 0 to never back off
+     */
+    private static final int TARGET_SITE_QUEUE_DEPTH = Integer.getInteger("admissionTargetSiteQueueDepth", 64);
+
+    /*
+     * Admin connections get a bigger share so they can still get work in when the node is busy
+     */
+    private static final int ADMIN_WEIGHT = 4;
 
     /*
-     * Maximum values for each group are configured when the group is constructed
+     * Maximum values for the group are configured when the group is constructed
      */
     final private int MAX_DESIRED_PENDING_BYTES;
-    final private int LESS_THAN_MAX_DESIRED_PENDING_BYTES;
     final private int MAX_DESIRED_PENDING_TXNS;
-    final private int LESS_THAN_MAX_DESIRED_PENDING_TXNS;
+    final private int MIN_DESIRED_PENDING_TXNS;
+    final private int USER_MAX_DESIRED_PENDING_TXNS;
+    final private int LESS_THAN_USER_MAX_DESIRED_PENDING_TXNS;
 
     private static final VoltLogger hostLog = new VoltLogger("HOST");
 
-    private int m_pendingTxnCount = 0;
-    private long m_pendingTxnBytes = 0;
-    private boolean m_hadBackPressure = false;
+    /*
+     * Limit on outstanding transactions, between MIN and MAX depending on how deep
+     * the site task queues are.
+     */
+    private volatile int m_pendingTxnLimit;
 
     /*
      * If for some reason ACG logs a negative transaction count or outstanding bytes,
      * only do it once to avoid flooding. Not going to make it a fatal error, but
      * don't want it to fail silently either.
      */
-    private boolean m_haveLoggedACGNegativeFailure = false;
-
-    /*
-     * The ACG is accessed lock free from the network thread that owns the group.
-     * Track the thread id of callers of this class to ensure that it is always the right
-     * thread using assertions.
-     */
-    private final long m_expectedThreadId = Thread.currentThread().getId();
+    private volatile boolean m_haveLoggedACGNegativeFailure = false;
 
     /*
      * Members of the admission control group implement this interface and are expected
@@ -85,110 +111,186 @@ public class AdmissionControlGroup implements org.voltcore.network.QueueMonitor
         public long connectionId();
     }
 
-
-
-    private final HashSet<ACGMember> m_members = new HashSet<ACGMember>();
-
     /*
-     * There will be unsynchronized reads of the map hence volatile to ensure
-     * new versions of the map are completely constructed on read.
+     * Outstanding totals of the group contributed by one thread. Only the owning thread
+     * writes a stripe so the writes don't need to be atomic, readers sum all the stripes.
+     * Also holds the round trip times in microseconds for the LATENCY statistics recorded
+     * on that thread, locked so the stats thread can copy it.
      *
-     * Reads/writes to the actual InvocationInfo are unsynchronized. There is a single writer
-     * so no issues there, but the reader is unprotected.
+     * A transaction can be admitted on one thread and complete on another so a single stripe
+     * can be off in either direction. When the owner exits its stripe is folded into the
+     * retired stripe rather than dropped so the sum stays right.
      */
-    private volatile ImmutableMap<String, org.voltdb.dtxn.InitiatorStats.InvocationInfo> m_connectionStats =
-            ImmutableMap.<String, org.voltdb.dtxn.InitiatorStats.InvocationInfo>builder().build();
+    private static final class Stripe {
+        final Thread m_owner;
 
-    public AdmissionControlGroup(int maxBytes, int maxRequests)
-    {
-        MAX_DESIRED_PENDING_BYTES = maxBytes;
-        LESS_THAN_MAX_DESIRED_PENDING_BYTES = (int)(MAX_DESIRED_PENDING_BYTES * .8);
-        MAX_DESIRED_PENDING_TXNS = maxRequests;
-        LESS_THAN_MAX_DESIRED_PENDING_TXNS = (int)(MAX_DESIRED_PENDING_TXNS * .8);
-    }
+        // keep stripes written by different threads off the same cache line
+        @SuppressWarnings("unused")
+        long p0, p1, p2, p3, p4, p5, p6;
+        volatile long m_pendingTxns = 0;
+        volatile long m_pendingBytes = 0;
+        @SuppressWarnings("unused")
+        long p7, p8, p9, p10, p11, p12, p13;
 
-    public static AdmissionControlGroup getDummy() {
-        return new AdmissionControlGroup(Integer.MAX_VALUE, Integer.MAX_VALUE) {
-            @Override
-            public void addMember(ACGMember member) {}
-            @Override
-            public void removeMember(ACGMember member) {}
-            @Override
-            public void increaseBackpressure(int messageSize) {}
-            @Override
-            public void reduceBackpressure(int messageSize) {}
-            @Override
-            public boolean queue(int bytes) { return false; }
-        };
-    }
+        final LatencyHistogram m_latencies = new LatencyHistogram();
 
-    public void addMember(ACGMember member)
-    {
-        assert(m_expectedThreadId == Thread.currentThread().getId());
-        m_members.add(member);
-    }
+        Stripe(Thread owner) {
+            m_owner = owner;
+        }
 
-    public void removeMember(ACGMember member)
-    {
-        assert(m_expectedThreadId == Thread.currentThread().getId());
-        m_members.remove(member);
-        ImmutableMap.Builder<String, InitiatorStats.InvocationInfo> builder =
-                ImmutableMap.builder();
-        String endsWith = "$" + member.connectionId();
-        for (Map.Entry<String, InitiatorStats.InvocationInfo> entry : m_connectionStats.entrySet()) {
-            final String key = entry.getKey();
-            if (!key.endsWith(endsWith)) {
-                builder.put(entry);
+        void add(int txns, long bytes) {
+            if (txns != 0) {
+                m_pendingTxns = m_pendingTxns + txns;
+            }
+            if (bytes != 0) {
+                m_pendingBytes = m_pendingBytes + bytes;
             }
         }
-        m_connectionStats = builder.build();
     }
 
+    private final CopyOnWriteArrayList<Stripe> m_stripes = new CopyOnWriteArrayList<Stripe>();
+
     /*
-     * Invoked when accepting a new transaction. Increments pending txn count in addition
-     * to tracking the number of request bytes accepted. Can invoke onBackpressure
-     * on all group members if there isn't already a backpressure condition.
+     * Totals of threads that have exited. Only written while holding its latency lock by
+     * the thread pruning the stripes.
+     */
+    private final Stripe m_retiredStripe = new Stripe(null);
+
+    private final ThreadLocal<Stripe> m_stripe = new ThreadLocal<Stripe>() {
+        @Override
+        public Stripe initialValue() {
+            Stripe stripe = new Stripe(Thread.currentThread());
+            m_stripes.add(stripe);
+            return stripe;
+        }
+    };
+
+    private final Set<Member> m_members =
+            Collections.newSetFromMap(new ConcurrentHashMap<Member, Boolean>());
+
+    private final AtomicInteger m_totalWeight = new AtomicInteger(0);
+
+    private final ConcurrentHashMap<String, AtomicInteger> m_userPendingTxns =
+            new ConcurrentHashMap<String, AtomicInteger>();
+
+    /**
+     * Admission control state of one member of the group. Counts are updated by the network
+     * thread serving the connection, and may be read by any thread.
      */
-    public void increaseBackpressure(int messageSize)
+    public class Member implements org.voltcore.network.QueueMonitor
     {
-        assert(m_expectedThreadId == Thread.currentThread().getId());
-        if (messageSize < 1) {
-            throw new IllegalArgumentException("Message size must be > 0 but was " + messageSize);
+        private final ACGMember m_member;
+        private final int m_weight;
+        private final AtomicInteger m_userPendingTxns;
+        private final AtomicInteger m_pendingTxns = new AtomicInteger(0);
+        private final AtomicLong m_pendingBytes = new AtomicLong(0);
+        private volatile boolean m_hadBackPressure = false;
+        private volatile boolean m_removed = false;
+
+        /*
+         * There will be unsynchronized reads of the map hence volatile to ensure
+         * new versions of the map are completely constructed on read.
+         *
+         * Reads/writes to the actual InvocationInfo are unsynchronized. There is a single writer
+         * so no issues there, but the reader is unprotected.
+         */
+        private volatile ImmutableMap<String, InvocationInfo> m_procedureStats =
+                ImmutableMap.<String, InvocationInfo>builder().build();
+
+        private Member(ACGMember member, int weight, AtomicInteger userPendingTxns) {
+            m_member = member;
+            m_weight = weight;
+            m_userPendingTxns = userPendingTxns;
         }
-        m_pendingTxnBytes += messageSize;
-        m_pendingTxnCount++;
 
-        checkAndLogInvariants();
-        if (m_pendingTxnBytes > MAX_DESIRED_PENDING_BYTES || m_pendingTxnCount > MAX_DESIRED_PENDING_TXNS) {
-            if (!m_hadBackPressure) {
-                hostLog.debug("TXN back pressure began");
-                m_hadBackPressure = true;
-                for (ACGMember m : m_members) {
-                    m.onBackpressure();
-                }
+        /*
+         * Invoked when accepting a new transaction. Increments pending txn count in addition
+         * to tracking the number of request bytes accepted. Can invoke onBackpressure
+         * on the member if it is using more than its share.
+         */
+        public void increaseBackpressure(int messageSize)
+        {
+            if (messageSize < 1) {
+                throw new IllegalArgumentException("Message size must be > 0 but was " + messageSize);
             }
+            if (m_userPendingTxns != null) {
+                m_userPendingTxns.incrementAndGet();
+            }
+            adjust(1, messageSize);
+            checkOnBackpressure();
         }
-    }
 
-    /*
-     * Check that various invariants are maintained. If they aren't log the error at most once,
-     * and take corrective action to maintain the invariants
-     */
-    private void checkAndLogInvariants() {
-        if (m_pendingTxnCount < 0 || m_pendingTxnBytes < 0) {
-            boolean badTxnCount = m_pendingTxnCount < 0 ? true : false;
-            boolean badPendingBytes = m_pendingTxnBytes < 0 ? true : false;
+        /*
+         * Invoked when receiving a response to a transaction. Decrements pending txn count in addition
+         * to tracking the number of request bytes accepted. Can invoke offBackpressure
+         * on the member if it had backpressure that has ended
+         */
+        public void reduceBackpressure(int messageSize)
+        {
+            if (messageSize < 1) {
+                throw new IllegalArgumentException("Message size must be > 0 but was " + messageSize);
+            }
+            if (m_userPendingTxns != null) {
+                m_userPendingTxns.decrementAndGet();
+            }
+            adjust(-1, -messageSize);
+            checkOffBackpressure();
+        }
+
+        /*
+         * Invoked when queueing response bytes back to the connection. Can be invoked with positive/negative
+         * values to indicate whether data is being flushed or added. The same resource pool counter is used
+         * to track pending responses as is used to track outstanding requests although only the bytes are being
+         * counted.
+         *
+         * Can signal start/stop backpressure when appropriate. The return value is not used and will be removed
+         * in the future.
+         */
+        @Override
+        public boolean queue(int bytes) {
+            adjust(0, bytes);
+            if (bytes > 0) {
+                checkOnBackpressure();
+            } else {
+                checkOffBackpressure();
+            }
+            return false;
+        }
+
+        /*
+         * When accepting new connections this flag is used to decide whether read selection should be enabled.
+         * Read selection should not be enabled if there is currently backpressure
+         */
+        public boolean hasBackPressure() {
+            return m_hadBackPressure;
+        }
+
+        private void adjust(int txns, long bytes) {
+            final int pendingTxns = txns == 0 ? m_pendingTxns.get() : m_pendingTxns.addAndGet(txns);
+            final long pendingBytes = m_pendingBytes.addAndGet(bytes);
+            final Stripe stripe = m_stripe.get();
+            stripe.add(txns, bytes);
+            if (pendingTxns < 0 || pendingBytes < 0) {
+                repairInvariants(stripe, pendingTxns, pendingBytes);
+            }
+        }
+
+        /*
+         * If the member's counts went negative log the error at most once, and take corrective
+         * action. Repairing the member repairs the group's totals as well.
+         */
+        private void repairInvariants(Stripe stripe, int pendingTxns, long pendingBytes) {
             if (!m_haveLoggedACGNegativeFailure) {
                 m_haveLoggedACGNegativeFailure = true;
-                if (badTxnCount) {
+                if (pendingTxns < 0) {
                     networkLog.error("Admission control error, negative outstanding transaction count. " +
                             "This is error is not fatal, but it does indicate that admission control " +
                             "is not correctly tracking transaction resource usage. This message will not repeat " +
                             "the next time the condition occurs to avoid log spam");
                 }
-                if (badPendingBytes) {
+                if (pendingBytes < 0) {
                     networkLog.error("Admission control error, negative outstanding transaction byte count (" +
-                            m_pendingTxnBytes + "). " +
+                            pendingBytes + "). " +
                             "This is error is not fatal, but it does indicate that admission control " +
                             "is not correctly tracking transaction resource usage. This message will not repeat " +
                             "the next time the condition occurs to avoid log spam");
@@ -196,115 +298,280 @@ public class AdmissionControlGroup implements org.voltcore.network.QueueMonitor
             }
 
             /*
-             * Repair both. It's possible that repairing it will trigger a repair cascade
-             * effectively rendering the ACG always permissive, but it should right itself
-             * once all requests associated with the ACG have left the system and the correct values are indeed 0.
+             * Repair both. It should right itself once all requests associated with the member
+             * have left the system and the correct values are indeed 0.
              */
-            m_pendingTxnCount = 0;
-            m_pendingTxnBytes = 0;
+            if (pendingTxns < 0 && m_pendingTxns.compareAndSet(pendingTxns, 0)) {
+                stripe.add(-pendingTxns, 0);
+            }
+            if (pendingBytes < 0 && m_pendingBytes.compareAndSet(pendingBytes, 0)) {
+                stripe.add(0, -pendingBytes);
+            }
+        }
+
+        private boolean overUserQuota(double fraction) {
+            return m_userPendingTxns != null &&
+                    m_userPendingTxns.get() > (fraction == 1.0 ?
+                            USER_MAX_DESIRED_PENDING_TXNS : LESS_THAN_USER_MAX_DESIRED_PENDING_TXNS);
+        }
+
+        private boolean overFairShare(double fraction) {
+            final int totalWeight = Math.max(m_weight, m_totalWeight.get());
+            final double share = fraction * m_weight / totalWeight;
+            return m_pendingTxns.get() > m_pendingTxnLimit * share ||
+                    m_pendingBytes.get() > MAX_DESIRED_PENDING_BYTES * share;
+        }
+
+        private void checkOnBackpressure() {
+            if (m_hadBackPressure || m_removed) {
+                return;
+            }
+            if (overUserQuota(1.0) || (overFairShare(1.0) && isOverloaded(1.0))) {
+                setBackpressure(true);
+            }
+        }
+
+        private void checkOffBackpressure() {
+            if (!m_hadBackPressure) {
+                return;
+            }
+            if (canResume()) {
+                setBackpressure(false);
+            }
+        }
+
+        /*
+         * For the condition to end the member has to be below .8 of its user's quota and
+         * either the group or the member's usage has to drop below .8 of the max
+         */
+        private boolean canResume() {
+            return !overUserQuota(.8) && (!overFairShare(.8) || !isOverloaded(.8));
+        }
+
+        /*
+         * Signalling is edge triggered and rare, lock so racing transitions from
+         * different threads leave the member in the state it was last set to.
+         */
+        private synchronized void setBackpressure(boolean backpressure) {
+            if (m_hadBackPressure == backpressure || m_removed) {
+                return;
+            }
+            m_hadBackPressure = backpressure;
+            if (backpressure) {
+                hostLog.debug("TXN back pressure began for connection " + m_member.connectionId());
+                m_member.onBackpressure();
+            } else {
+                hostLog.debug("TXN backpressure ended for connection " + m_member.connectionId());
+                m_member.offBackpressure();
+            }
+        }
+
+        public void logTransactionCompleted(
+                String connectionHostname,
+                String procedureName,
+                int delta,
+                long deltaMicros,
+                byte status) {
+            InvocationInfo info = m_procedureStats.get(procedureName);
+            if (info == null) {
+                info = new InvocationInfo(connectionHostname);
+                ImmutableMap.Builder<String, InitiatorStats.InvocationInfo> builder =
+                        ImmutableMap.builder();
+                builder.putAll(m_procedureStats);
+                builder.put(procedureName, info);
+                m_procedureStats = builder.build();
+            }
+            info.processInvocation(delta, status);
+            final Stripe stripe = m_stripe.get();
+            synchronized (stripe.m_latencies) {
+                stripe.m_latencies.recordValue(deltaMicros);
+            }
+        }
+
+        private Iterator<Map.Entry<String, InvocationInfo>> getInitiationStatsIterator() {
+            final String suffix = "$" + m_member.connectionId();
+            return Iterators.transform(m_procedureStats.entrySet().iterator(),
+                    new Function<Map.Entry<String, InvocationInfo>, Map.Entry<String, InvocationInfo>>() {
+                        @Override
+                        public Map.Entry<String, InvocationInfo> apply(Map.Entry<String, InvocationInfo> entry) {
+                            return Maps.immutableEntry(entry.getKey() + suffix, entry.getValue());
+                        }
+                    });
         }
     }
 
-    /*
-     * Invoked when receiving a response to a transaction. Decrements pending txn count in addition
-     * to tracking the number of request bytes accepted. Can invoke offBackpressure
-     * on all group members if there is a backpressure condition that has ended
+    public AdmissionControlGroup(int maxBytes, int maxRequests)
+    {
+        this(maxBytes, maxRequests, USER_MAX_PENDING_TXNS);
+    }
+
+    /**
+     * @param maxBytes Outstanding request and response bytes above which members using more than their
+     * share stop reading
+     * @param maxRequests Outstanding transactions above which members using more than their share stop
+     * reading. Backs off to a tenth of this while the site task queues are too deep.
+     * @param userMaxRequests Outstanding transactions of one user above which the user's members stop
+     * reading, 0 for no per user quota
      */
-    public void reduceBackpressure(int messageSize)
+    public AdmissionControlGroup(int maxBytes, int maxRequests, int userMaxRequests)
     {
-        assert(m_expectedThreadId == Thread.currentThread().getId());
-        if (messageSize < 1) {
-            throw new IllegalArgumentException("Message size must be > 0 but was " + messageSize);
-        }
-        m_pendingTxnBytes -= messageSize;
-        m_pendingTxnCount--;
-        checkAndLogInvariants();
-        if (m_pendingTxnBytes < LESS_THAN_MAX_DESIRED_PENDING_BYTES &&
-            m_pendingTxnCount < LESS_THAN_MAX_DESIRED_PENDING_TXNS)
-        {
-            if (m_hadBackPressure) {
-                hostLog.debug("TXN backpressure ended");
-                m_hadBackPressure = false;
-                for (ACGMember m : m_members) {
-                    m.offBackpressure();
+        MAX_DESIRED_PENDING_BYTES = maxBytes;
+        MAX_DESIRED_PENDING_TXNS = maxRequests;
+        MIN_DESIRED_PENDING_TXNS = Math.max(1, MAX_DESIRED_PENDING_TXNS / 10);
+        USER_MAX_DESIRED_PENDING_TXNS = userMaxRequests;
+        LESS_THAN_USER_MAX_DESIRED_PENDING_TXNS = (int)(USER_MAX_DESIRED_PENDING_TXNS * .8);
+        m_pendingTxnLimit = MAX_DESIRED_PENDING_TXNS;
+    }
+
+    /**
+     * A member that is never subject to backpressure, for internal adapters
+     */
+    public static Member getDummy() {
+        AdmissionControlGroup acg = new AdmissionControlGroup(Integer.MAX_VALUE, Integer.MAX_VALUE, 0);
+        return acg.new Member(null, 1, null) {
+            @Override
+            public void increaseBackpressure(int messageSize) {}
+            @Override
+            public void reduceBackpressure(int messageSize) {}
+            @Override
+            public boolean queue(int bytes) { return false; }
+        };
+    }
+
+    public Member addMember(ACGMember member, String username, boolean isAdmin)
+    {
+        AtomicInteger userPendingTxns = null;
+        if (USER_MAX_DESIRED_PENDING_TXNS > 0 && username != null) {
+            userPendingTxns = m_userPendingTxns.get(username);
+            if (userPendingTxns == null) {
+                AtomicInteger newCount = new AtomicInteger(0);
+                userPendingTxns = m_userPendingTxns.putIfAbsent(username, newCount);
+                if (userPendingTxns == null) {
+                    userPendingTxns = newCount;
                 }
             }
         }
+        Member m = new Member(member, isAdmin ? ADMIN_WEIGHT : 1, userPendingTxns);
+        m_totalWeight.addAndGet(m.m_weight);
+        m_members.add(m);
+        return m;
     }
 
     /*
-     * When accepting new connections this flag is used to decide whether read selection should be enabled.
-     * Read selection should not be enabled if there is currently backpressure
+     * Outstanding work of a removed member still counts until it is released, but the
+     * member is no longer signalled.
      */
-    public boolean hasBackPressure() {
-        return m_hadBackPressure;
+    public void removeMember(Member member)
+    {
+        if (m_members.remove(member)) {
+            member.m_removed = true;
+            m_totalWeight.addAndGet(-member.m_weight);
+        }
     }
 
     /*
-     * Invoked when queueing response bytes back to a connection. Can be invoked with positive/negative
-     * values to indicate whether data is being flushed or added. The same resource pool counter is used
-     * to track pending responses as is used to track outstanding requests although only the bytes are being
-     * counted.
-     *
-     * Can signal start/stop backpressure when appropriate. The return value is not used and will be removed
-     * in the future.
+     * Sum the stripes to see whether the group's outstanding work is above the given fraction
+     * of its limits
      */
-    @Override
-    public boolean queue(int bytes) {
-        if (bytes > 0) {
-            m_pendingTxnBytes += bytes;
-            checkAndLogInvariants();
-            if (m_pendingTxnBytes > MAX_DESIRED_PENDING_BYTES) {
-                if (!m_hadBackPressure) {
-                    hostLog.debug("TXN back pressure began");
-                    m_hadBackPressure = true;
-                    for (ACGMember m : m_members) {
-                        m.onBackpressure();
-                    }
-                }
+    private boolean isOverloaded(double fraction) {
+        long pendingTxns = 0;
+        long pendingBytes = 0;
+        for (Stripe stripe : m_stripes) {
+            pendingTxns += stripe.m_pendingTxns;
+            pendingBytes += stripe.m_pendingBytes;
+        }
+        // after the live stripes, see pruneStripes
+        pendingTxns += m_retiredStripe.m_pendingTxns;
+        pendingBytes += m_retiredStripe.m_pendingBytes;
+        return pendingBytes > MAX_DESIRED_PENDING_BYTES * fraction ||
+                pendingTxns > m_pendingTxnLimit * fraction;
+    }
+
+    /*
+     * Whether the group is over its limits, in which case members using more than their share
+     * are stopped
+     */
+    public boolean hasBackPressure() {
+        return isOverloaded(1.0);
+    }
+
+    public int getPendingTxnLimit() {
+        return m_pendingTxnLimit;
+    }
+
+    /**
+     * Invoked periodically with the depth of the deepest site task queue on the node. Backs off the
+     * limit on outstanding transactions while the depth is above the target and recovers it once the
+     * queues drain. Also lets members resume whose backpressure ended without them seeing any
+     * traffic, e.g. because other connections of the same user finished their work.
+     */
+    public void adjustToSiteQueueDepth(int maxSiteQueueDepth) {
+        if (TARGET_SITE_QUEUE_DEPTH > 0) {
+            final int limit = m_pendingTxnLimit;
+            if (maxSiteQueueDepth > TARGET_SITE_QUEUE_DEPTH) {
+                m_pendingTxnLimit = Math.max(MIN_DESIRED_PENDING_TXNS, (int)(limit * .75));
+            } else if (maxSiteQueueDepth < TARGET_SITE_QUEUE_DEPTH / 2) {
+                m_pendingTxnLimit = (int)Math.min(MAX_DESIRED_PENDING_TXNS,
+                        limit + Math.max(1L, MAX_DESIRED_PENDING_TXNS / 20L));
+            }
+            if (m_pendingTxnLimit != limit) {
+                hostLog.debug("Outstanding transaction limit " + m_pendingTxnLimit +
+                        " at site queue depth " + maxSiteQueueDepth);
             }
-        } else {
-            m_pendingTxnBytes += bytes;
-            checkAndLogInvariants();
-            if (m_pendingTxnBytes < LESS_THAN_MAX_DESIRED_PENDING_BYTES &&
-                    m_pendingTxnCount < LESS_THAN_MAX_DESIRED_PENDING_TXNS) {
-                if (m_hadBackPressure) {
-                    hostLog.debug("TXN backpressure ended");
-                    m_hadBackPressure = false;
-                    for (ACGMember m : m_members) {
-                        m.offBackpressure();
-                    }
+        }
+        pruneStripes();
+        for (Member member : m_members) {
+            member.checkOffBackpressure();
+        }
+    }
+
+    /**
+     * Fold the stripes of threads that have exited into the retired stripe so threads that come
+     * and go don't grow the list of stripes every reader sums. The retired stripe is updated
+     * before the dead one is removed and readers sum it after the live ones, so a concurrent
+     * reader may count a dead stripe twice for a moment, which errs toward backpressure, but
+     * never misses it.
+     */
+    void pruneStripes() {
+        for (Stripe stripe : m_stripes) {
+            // isAlive returning false makes all of the owner's writes visible
+            if (stripe.m_owner.isAlive()) {
+                continue;
+            }
+            synchronized (m_retiredStripe.m_latencies) {
+                m_retiredStripe.add((int)stripe.m_pendingTxns, stripe.m_pendingBytes);
+                synchronized (stripe.m_latencies) {
+                    m_retiredStripe.m_latencies.add(stripe.m_latencies);
                 }
             }
+            m_stripes.remove(stripe);
         }
+    }
 
-        return false;
+    int getStripeCount() {
+        return m_stripes.size();
     }
 
-    public void logTransactionCompleted(
-            long connectionId,
-            String connectionHostname,
-            String procedureName,
-            int delta,
-            byte status) {
-        //Allocate enough space to store the proc name + 8 characters of connection id
-        final StringBuilder key = new StringBuilder(procedureName.length() + 9);
-        key.append(procedureName).append('$').append(connectionId);
-        //StringBuilder.toString(), why you gotta make a copy?
-        final String keyString = key.toString();
-        InvocationInfo info = m_connectionStats.get(keyString);
-        if (info == null) {
-            info = new InvocationInfo(connectionHostname);
-            ImmutableMap.Builder<String, InitiatorStats.InvocationInfo> builder =
-                    ImmutableMap.builder();
-            builder.putAll(m_connectionStats);
-            builder.put(keyString, info);
-            m_connectionStats = builder.build();
+    public List<Iterator<Map.Entry<String, InvocationInfo>>> getInitiationStatsIterators() {
+        List<Iterator<Map.Entry<String, InvocationInfo>>> iterators =
+                new ArrayList<Iterator<Map.Entry<String, InvocationInfo>>>();
+        for (Member member : m_members) {
+            iterators.add(member.getInitiationStatsIterator());
         }
-        info.processInvocation(delta, status);
+        return iterators;
     }
 
-    public Iterator<Map.Entry<String, InvocationInfo>> getInitiationStatsIterator() {
-        return m_connectionStats.entrySet().iterator();
+    public LatencyHistogram getLatencies() {
+        LatencyHistogram latencies = new LatencyHistogram();
+        for (Stripe stripe : m_stripes) {
+            synchronized (stripe.m_latencies) {
+                latencies.add(stripe.m_latencies);
+            }
+        }
+        // after the live stripes, see pruneStripes
+        synchronized (m_retiredStripe.m_latencies) {
+            latencies.add(m_retiredStripe.m_latencies);
+        }
+        return latencies;
     }
 }
@@ -19,6 +19,7 @@ package org.voltdb;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.voltcore.logging.VoltLogger;
 import org.voltdb.catalog.Catalog;
@@ -52,8 +53,10 @@ public class CatalogContext {
     /*
      * Planner associated with this catalog version.
      * Not thread-safe, should only be accessed by AsyncCompilerAgent
+     * through acquirePlannerTool()
      */
     public final PlannerTool m_ptool;
+    private final AtomicBoolean m_ptoolAcquired = new AtomicBoolean(false);
 
     // PRIVATE
     //private final String m_path;
@@ -102,6 +105,18 @@ public class CatalogContext {
         catalogVersion = version;
     }
 
+    /**
+     * Get a planner for this catalog version that is private to the calling
+     * planner thread. The first caller is handed the planner built along with
+     * this context, every other caller gets a new planner with its own HSQL session.
+     */
+    public PlannerTool acquirePlannerTool() {
+        if (m_ptoolAcquired.compareAndSet(false, true)) {
+            return m_ptool;
+        }
+        return new PlannerTool(cluster, database, catalogVersion);
+    }
+
     public CatalogContext update(
             long txnId,
             long timestamp,
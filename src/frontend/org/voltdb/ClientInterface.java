@@ -84,6 +84,7 @@ import org.voltdb.catalog.SnapshotSchedule;
 import org.voltdb.catalog.Statement;
 import org.voltdb.catalog.Table;
 import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ProcedureInvocation;
 import org.voltdb.client.ProcedureInvocationType;
 import org.voltdb.compiler.AdHocPlannedStatement;
 import org.voltdb.compiler.AdHocPlannedStmtBatch;
@@ -110,6 +111,7 @@ import org.voltdb.messaging.Iv2EndOfLogMessage;
 import org.voltdb.messaging.Iv2InitiateTaskMessage;
 import org.voltdb.messaging.LocalMailbox;
 import org.voltdb.messaging.MultiPartitionParticipantMessage;
+import org.voltdb.messaging.TransactionStageTimes;
 import org.voltdb.plannodes.PlanNodeTree;
 import org.voltdb.plannodes.SendPlanNode;
 import org.voltdb.sysprocs.LoadSinglepartitionTable;
@@ -208,29 +210,28 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
     };
 
     /*
-     * This list of ACGs is iterated to retrieve initiator statistics in IV2.
-     * They are thread local, and the ACG happens to be thread local, and if you squint
-     * right admission control seems like a reasonable place to store stats about
-     * what has been admitted.
+     * One admission control group for all the connections of this client interface, whichever
+     * network thread they are on. If you squint right admission control seems like a reasonable
+     * place to store stats about what has been admitted so it also holds the initiator statistics.
      */
-    private final CopyOnWriteArrayList<AdmissionControlGroup> m_allACGs =
-            new CopyOnWriteArrayList<AdmissionControlGroup>();
+    private final AdmissionControlGroup m_acg;
 
     /*
-     * A thread local is a convenient way to keep the ACG out of volt core. The lookup is paired
-     * with the CIHM in m_connectionSpecificStuff in fast path code.
-     *
-     * With these initial values if you have 16 hardware threads you will end up with 4  ACGs
-     * and 32 megs/4k transactions and double that with 32 threads.
+     * There used to be a group per network thread, each allowing 8 megs and 1k transactions
+     * outstanding, so by default the node-wide group allows that much per network thread.
      */
-    private final ThreadLocal<AdmissionControlGroup> m_acg = new ThreadLocal<AdmissionControlGroup>() {
-        @Override
-        public AdmissionControlGroup initialValue() {
-            AdmissionControlGroup acg = new AdmissionControlGroup( 1024 * 1024 * 8, 1000);
-            m_allACGs.add(acg);
-            return acg;
-        }
-    };
+    private static final int ACG_PENDING_BYTES_PER_NETWORK_THREAD = 1024 * 1024 * 8;
+    private static final int ACG_PENDING_TXNS_PER_NETWORK_THREAD = 1000;
+
+    /*
+     * Stage times of the invocation this network thread is reading, if it was sampled.
+     * Only set for the duration of handleRead so createTransaction can pick them up without
+     * threading them through every dispatch path.
+     */
+    private final ThreadLocal<TransactionStageTimes> m_readStageTimes =
+            new ThreadLocal<TransactionStageTimes>();
+
+    private final StageLatencyStats m_stageLatencyStats;
 
     // clock time of last call to the initiator's tick()
     static final int POKE_INTERVAL = 1000;
@@ -749,6 +750,7 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
         private Connection m_connection;
         private final String m_hostname;
         private final boolean m_isAdmin;
+        private volatile AdmissionControlGroup.Member m_acgMember;
 
         /**
          * Must use username to do a lookup via the auth system
@@ -782,26 +784,102 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
         @Override
         public void handleMessage(ByteBuffer message, Connection c) {
             try {
+                if (message.get(message.position()) == ProcedureInvocation.BATCH_MARKER) {
+                    handleBatch(message, c);
+                    return;
+                }
                 final ClientResponseImpl error = handleRead(message, this, c);
                 if (error != null) {
-                    ByteBuffer buf = ByteBuffer.allocate(error.getSerializedSize() + 4);
-                    buf.putInt(buf.capacity() - 4);
-                    error.flattenToBuffer(buf).flip();
-                    c.writeStream().enqueue(buf);
+                    c.writeStream().enqueue(serializeResponse(error));
                 }
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
         }
 
+        /**
+         * Unpack a message containing a batch of invocations sent by Client.callProceduresBatch.
+         * Each invocation is handled as if it had arrived in its own message, and any errors
+         * are queued back to the client together.
+         */
+        private void handleBatch(ByteBuffer message, Connection c) throws IOException {
+            message.get();
+            final int count = message.remaining() >= 4 ? message.getInt() : -1;
+            final String malformed = validateBatch(message, count);
+            if (malformed != null) {
+                rejectBatch(message, malformed, c);
+                return;
+            }
+            ArrayList<ByteBuffer> errors = null;
+            for (int ii = 0; ii < count; ii++) {
+                final int length = message.getInt();
+                final int limit = message.limit();
+                message.limit(message.position() + length);
+                final ByteBuffer invocation = message.slice();
+                message.position(message.limit());
+                message.limit(limit);
+
+                final ClientResponseImpl error = handleRead(invocation, this, c);
+                if (error != null) {
+                    if (errors == null) {
+                        errors = new ArrayList<ByteBuffer>();
+                    }
+                    errors.add(serializeResponse(error));
+                }
+            }
+            if (errors != null) {
+                c.writeStream().enqueue(errors.toArray(new ByteBuffer[errors.size()]));
+            }
+        }
+
+        /*
+         * Nothing in a malformed batch is initiated
+         */
+        private void rejectBatch(ByteBuffer message, String reason, Connection c) throws IOException {
+            networkLog.warn("Rejected malformed invocation batch from " + c.getHostnameOrIP() + ": " + reason);
+            // Answer every invocation whose frame is intact so its callback isn't left waiting
+            ArrayList<ByteBuffer> errors = new ArrayList<ByteBuffer>();
+            int position = message.position();
+            while (message.limit() - position >= 4) {
+                final int length = message.getInt(position);
+                position += 4;
+                if (length < 0 || length > message.limit() - position) {
+                    break;
+                }
+                final ByteBuffer invocation = message.duplicate();
+                invocation.position(position);
+                invocation.limit(position + length);
+                position += length;
+                try {
+                    final StoredProcedureInvocation task =
+                            new FastDeserializer(invocation.slice()).readObject(StoredProcedureInvocation.class);
+                    errors.add(serializeResponse(new ClientResponseImpl(ClientResponseImpl.GRACEFUL_FAILURE,
+                            new VoltTable[0], "Rejected malformed invocation batch: " + reason,
+                            task.clientHandle)));
+                } catch (Exception e) {
+                    // No handle to answer
+                }
+            }
+            if (!errors.isEmpty()) {
+                c.writeStream().enqueue(errors.toArray(new ByteBuffer[errors.size()]));
+            }
+        }
+
+        private ByteBuffer serializeResponse(ClientResponseImpl response) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(response.getSerializedSize() + 4);
+            buf.putInt(buf.capacity() - 4);
+            response.flattenToBuffer(buf).flip();
+            return buf;
+        }
+
         @Override
         public void started(final Connection c) {
             m_connection = c;
             if (m_isIV2Enabled) {
+                m_acgMember = m_acg.addMember(this, m_username, m_isAdmin);
                 m_cihm.put(c.connectionId(),
-                           new ClientInterfaceHandleManager( m_isAdmin, c, m_acg.get()));
-                m_acg.get().addMember(this);
-                if (!m_acg.get().hasBackPressure()) {
+                           new ClientInterfaceHandleManager( m_isAdmin, c, m_acgMember));
+                if (!m_acgMember.hasBackPressure()) {
                     c.enableReadSelection();
                 }
                 m_connections.add(c);
@@ -824,7 +902,7 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
             if (m_isIV2Enabled) {
                 ClientInterfaceHandleManager cihm = m_cihm.remove(connectionId());
                 cihm.freeOutstandingTxns();
-                cihm.m_acg.removeMember(this);
+                m_acg.removeMember(cihm.m_acg);
             }
         }
 
@@ -840,7 +918,7 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
                 return new Runnable() {
                     @Override
                     public void run() {
-                        if (!m_acg.get().hasBackPressure()) {
+                        if (!m_acgMember.hasBackPressure()) {
                             m_connection.enableReadSelection();
                         }
                     }
@@ -897,7 +975,12 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
 
                     @Override
                     public boolean queue(int bytes) {
-                        return m_acg.get().queue(bytes);
+                        // the connection can flush before it is started
+                        final AdmissionControlGroup.Member member = m_acgMember;
+                        if (member == null) {
+                            return false;
+                        }
+                        return member.queue(bytes);
                     }
 
                 };
@@ -1100,6 +1183,16 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
                         connectionId,
                         isForReplay);
 
+            // Only single partition transactions whose initiator is on this host are traced
+            // through the stages, the stage times don't travel across the network
+            final TransactionStageTimes stageTimes = m_readStageTimes.get();
+            if (stageTimes != null && isSinglePartition && !isEveryPartition &&
+                    CoreUtils.getHostIdFromHSId(initiatorHSId) == CoreUtils.getHostIdFromHSId(m_mailbox.getHSId())) {
+                m_readStageTimes.set(null);
+                workRequest.setStageTimes(stageTimes);
+                stageTimes.mark(TransactionStageTimes.Mark.DISPATCHED);
+            }
+
             Iv2Trace.logCreateTransaction(workRequest);
             m_mailbox.send(initiatorHSId, workRequest);
             return true;
@@ -1165,6 +1258,11 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
 
         // pre-allocate single partition array
         m_allPartitions = allPartitions;
+        final int networkThreads = Math.max(1, messenger.getNetwork().getThreadIds().size());
+        m_acg = new AdmissionControlGroup(
+                Integer.getInteger("admissionMaxPendingBytes",
+                        (int)Math.min(Integer.MAX_VALUE, (long)ACG_PENDING_BYTES_PER_NETWORK_THREAD * networkThreads)),
+                Integer.getInteger("admissionMaxPendingTxns", ACG_PENDING_TXNS_PER_NETWORK_THREAD * networkThreads));
         m_acceptor = new ClientAcceptor(port, messenger.getNetwork(), false);
         m_adminAcceptor = null;
         m_adminAcceptor = new ClientAcceptor(adminPort, messenger.getNetwork(), true);
@@ -1178,6 +1276,10 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
                     if (message instanceof InitiateResponseMessage) {
                         // forward response; copy is annoying. want slice of response.
                         final InitiateResponseMessage response = (InitiateResponseMessage)message;
+                        final TransactionStageTimes stageTimes = response.getStageTimes();
+                        if (stageTimes != null) {
+                            stageTimes.mark(TransactionStageTimes.Mark.RESPONSE_RECEIVED);
+                        }
                         Iv2Trace.logFinishTransaction(response, m_mailbox.getHSId());
                         final ClientInterfaceHandleManager cihm = m_cihm.get(response.getClientConnectionId());
                         //Can be null on hangup
@@ -1198,15 +1300,17 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
                                             }
                                             final long now = System.currentTimeMillis();
                                             final int delta = (int)(now - clientData.m_creationTime);
+                                            final long deltaMicros =
+                                                    (System.nanoTime() - clientData.m_creationTimeNanos) / 1000;
 
                                             /*
                                              * Log initiator stats
                                              */
                                             cihm.m_acg.logTransactionCompleted(
-                                                    cihm.connection.connectionId(),
                                                     cihm.connection.getHostnameOrIP(),
                                                     clientData.m_procName,
                                                     delta,
+                                                    deltaMicros,
                                                     clientResponse.getStatus());
 
                                             clientResponse.setClientHandle(clientData.m_clientHandle);
@@ -1217,6 +1321,12 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
                                                             clientResponse.getSerializedSize() + 4);
                                             results.putInt(results.capacity() - 4);
                                             clientResponse.flattenToBuffer(results);
+
+                                            if (stageTimes != null) {
+                                                stageTimes.mark(TransactionStageTimes.Mark.RESPONSE_WRITTEN);
+                                                Iv2Trace.logStageTimes(response);
+                                                m_stageLatencyStats.logTransactionCompleted(stageTimes);
+                                            }
                                             return new ByteBuffer[] { results };
                                         }
 
@@ -1242,6 +1352,7 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
             }
         };
         m_isIV2Enabled = VoltDB.instance().isIV2Enabled();
+        m_stageLatencyStats = new StageLatencyStats(m_mailbox.getHSId());
         messenger.createMailbox(m_mailbox.getHSId(), m_mailbox);
         m_plannerSiteId = messenger.getHSIdForLocalSite(HostMessenger.ASYNC_COMPILER_SITE_ID);
         m_zk = messenger.getZK();
@@ -1858,12 +1969,55 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
         return null;
     }
 
+    /**
+     * Check the framing of a batch of invocations sent by Client.callProceduresBatch before
+     * anything in it is handled. The count and lengths come off the wire, so a bad value
+     * must not be used to size a slice of the message.
+     * @param message Positioned after the invocation count
+     * @return null if the batch is well formed, otherwise a description of the problem
+     */
+    static String validateBatch(ByteBuffer message, int count) {
+        if (count < 0) {
+            return "invalid invocation count " + count;
+        }
+        int position = message.position();
+        for (int ii = 0; ii < count; ii++) {
+            if (message.limit() - position < 4) {
+                return "message ends before invocation " + ii + " of " + count;
+            }
+            final int length = message.getInt(position);
+            position += 4;
+            if (length < 0 || length > message.limit() - position) {
+                return "invalid length " + length + " for invocation " + ii + " of " + count;
+            }
+            position += length;
+        }
+        if (position != message.limit()) {
+            return (message.limit() - position) + " bytes left over after " + count + " invocations";
+        }
+        return null;
+    }
+
     /**
      *
      * @param port
      * * return True if an error was generated and needs to be returned to the client
      */
     final ClientResponseImpl handleRead(ByteBuffer buf, ClientInputHandler handler, Connection ccxn) throws IOException {
+        final TransactionStageTimes stageTimes = m_isIV2Enabled ? TransactionStageTimes.sample() : null;
+        if (stageTimes == null) {
+            return handleReadInternal(buf, handler, ccxn);
+        }
+        m_readStageTimes.set(stageTimes);
+        try {
+            return handleReadInternal(buf, handler, ccxn);
+        } finally {
+            m_readStageTimes.set(null);
+        }
+    }
+
+    private ClientResponseImpl handleReadInternal(ByteBuffer buf, ClientInputHandler handler, Connection ccxn)
+            throws IOException {
         final long now = System.currentTimeMillis();
         final FastDeserializer fds = new FastDeserializer(buf);
         final StoredProcedureInvocation task = fds.readObject(StoredProcedureInvocation.class);
@@ -2708,11 +2862,20 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
     }
 
     public List<Iterator<Map.Entry<String, InvocationInfo>>> getIV2InitiatorStats() {
-        ArrayList<Iterator<Map.Entry<String, InvocationInfo>>> statsIterators =
-                new ArrayList<Iterator<Map.Entry<String, InvocationInfo>>>();
-        for (AdmissionControlGroup acg : m_allACGs) {
-            statsIterators.add(acg.getInitiationStatsIterator());
-        }
-        return statsIterators;
+        return m_acg.getInitiationStatsIterators();
+    }
+
+    /**
+     * Round trip times of transactions initiated through this client interface since it started
+     */
+    public LatencyHistogram getIV2Latencies() {
+        return m_acg.getLatencies();
+    }
+
+    /**
+     * Let admission control follow how deep the site task queues on this node are
+     */
+    public void adjustAdmissionControl(int maxSiteQueueDepth) {
+        m_acg.adjustToSiteQueueDepth(maxSiteQueueDepth);
     }
 }
@@ -57,7 +57,7 @@ public class ClientInterfaceHandleManager
     public final boolean isAdmin;
     public final Connection connection;
     private final long m_expectedThreadId = Thread.currentThread().getId();
-    final AdmissionControlGroup m_acg;
+    final AdmissionControlGroup.Member m_acg;
 
 
     private HandleGenerator m_shortCircuitHG = new HandleGenerator(SHORT_CIRCUIT_PART_ID);
@@ -104,6 +104,8 @@ public class ClientInterfaceHandleManager
         final long m_clientHandle;
         final int m_messageSize;
         final long m_creationTime;
+        // for latency stats, m_creationTime is only milliseconds
+        final long m_creationTimeNanos = System.nanoTime();
         final String m_procName;
         final long m_initiatorHSId;
         Iv2InFlight(long ciHandle, long clientHandle,
@@ -131,7 +133,7 @@ public class ClientInterfaceHandleManager
     private ImmutableMap<Integer, PartitionData> m_partitionStuff =
             new Builder<Integer, PartitionData>().build();
 
-    ClientInterfaceHandleManager(boolean isAdmin, Connection connection, AdmissionControlGroup acg)
+    ClientInterfaceHandleManager(boolean isAdmin, Connection connection, AdmissionControlGroup.Member acg)
     {
         this.isAdmin = isAdmin;
         this.connection = connection;
@@ -144,7 +146,7 @@ public class ClientInterfaceHandleManager
      * the natural thread-safety protocol/design of VoltNetwork.
      */
     public static ClientInterfaceHandleManager makeThreadSafeCIHM(
-            boolean isAdmin, Connection connection, AdmissionControlGroup acg)
+            boolean isAdmin, Connection connection, AdmissionControlGroup.Member acg)
     {
         return new ClientInterfaceHandleManager(isAdmin, connection, acg) {
             @Override
@@ -32,6 +32,7 @@ import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.zip.CRC32;
@@ -82,7 +83,6 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
 
     private volatile long m_bytesWritten = 0;
 
-    private static final Semaphore m_bytesAllowedBeforeSync = new Semaphore((1024 * 1024) * 256);
     private final AtomicInteger m_bytesWrittenSinceLastSync = new AtomicInteger(0);
 
     private final ScheduledFuture<?> m_syncTask;
@@ -99,9 +99,142 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
     private final Condition m_noMoreOutstandingWriteTasksCondition =
             m_outstandingWriteTasksLock.newCondition();
 
-    private static final ListeningExecutorService m_es = CoreUtils.getSingleThreadExecutor("Snapshot write service ");
-    private static final ListeningScheduledExecutorService m_syncService = MoreExecutors.listeningDecorator(
-            Executors.newSingleThreadScheduledExecutor(CoreUtils.getThreadFactory("Snapshot sync service")));
+    /*
+     * Writes are striped across a fixed set of lanes by target file. Every write
+     * for a given file goes through the same lane so ordering within the file is
+     * preserved, while files assigned to different lanes are compressed, written
+     * and synced in parallel. The number of lanes can be overridden with the
+     * snapshotWriteLanes system property. The amount of unsynced data allowed
+     * is divided between the lanes so the total stays at SYNC_BUDGET_BYTES.
+     */
+    private static final int SYNC_BUDGET_BYTES = (1024 * 1024) * 256;
+    private static final WriteLane m_lanes[];
+    private static final AtomicInteger m_nextLane = new AtomicInteger(0);
+    static {
+        int laneCount = Math.max(1, Math.min(8, CoreUtils.availableProcessors() / 4));
+        Integer laneConfig = Integer.getInteger("snapshotWriteLanes");
+        if (laneConfig != null && laneConfig > 0) {
+            laneCount = laneConfig;
+        }
+        final int compressionThreads = Math.max(1, CoreUtils.availableProcessors() / laneCount);
+        /*
+         * A lane must be able to accept at least one maximally sized compressed
+         * chunk or the write would block forever waiting for sync permits.
+         */
+        final int laneSyncBudget = Math.max(
+                SYNC_BUDGET_BYTES / laneCount,
+                CompressionService.maxCompressedLength(SnapshotSiteProcessor.m_snapshotBufferLength) + 16);
+        m_lanes = new WriteLane[laneCount];
+        for (int ii = 0; ii < laneCount; ii++) {
+            m_lanes[ii] = new WriteLane(ii, compressionThreads, laneSyncBudget);
+        }
+    }
+
+    /**
+     * A single compression-then-write pipeline with its own sync schedule and
+     * sync backpressure. Throughput is accumulated while the lane has open targets,
+     * logged when the last target assigned to the lane is closed and reported
+     * through {@link SnapshotWriteLaneStats}.
+     */
+    static class WriteLane {
+        private final int m_laneId;
+        private final ListeningExecutorService m_compressionService;
+        private final ListeningExecutorService m_es;
+        private final ListeningScheduledExecutorService m_syncService;
+        private final int m_syncBudget;
+        private final Semaphore m_bytesAllowedBeforeSync;
+
+        private final AtomicInteger m_openTargets = new AtomicInteger(0);
+        private final AtomicLong m_bytesWritten = new AtomicLong(0);
+        private final AtomicLong m_writesCompleted = new AtomicLong(0);
+        private final AtomicLong m_writeNanos = new AtomicLong(0);
+        private volatile long m_activeSince = System.currentTimeMillis();
+        private volatile long m_activeUntil = m_activeSince;
+
+        private WriteLane(int laneId, int compressionThreads, int syncBudget) {
+            m_laneId = laneId;
+            m_syncBudget = syncBudget;
+            m_bytesAllowedBeforeSync = new Semaphore(syncBudget);
+            m_compressionService = CoreUtils.getListeningExecutorService(
+                    "Snapshot compression lane " + laneId, compressionThreads);
+            m_es = CoreUtils.getSingleThreadExecutor("Snapshot write lane " + laneId);
+            m_syncService = MoreExecutors.listeningDecorator(
+                    Executors.newSingleThreadScheduledExecutor(
+                            CoreUtils.getThreadFactory("Snapshot sync lane " + laneId)));
+        }
+
+        private void targetOpened() {
+            if (m_openTargets.getAndIncrement() == 0) {
+                m_bytesWritten.set(0);
+                m_writesCompleted.set(0);
+                m_writeNanos.set(0);
+                m_activeSince = System.currentTimeMillis();
+            }
+        }
+
+        private void targetClosed() {
+            if (m_openTargets.decrementAndGet() == 0) {
+                m_activeUntil = System.currentTimeMillis();
+                hostLog.info(this);
+            }
+        }
+
+        private void recordWrite(int bytes, long nanos) {
+            m_bytesWritten.addAndGet(bytes);
+            m_writesCompleted.incrementAndGet();
+            m_writeNanos.addAndGet(nanos);
+        }
+
+        int getLaneId() {
+            return m_laneId;
+        }
+
+        int getOpenTargets() {
+            return m_openTargets.get();
+        }
+
+        int getSyncBudget() {
+            return m_syncBudget;
+        }
+
+        long getBytesWritten() {
+            return m_bytesWritten.get();
+        }
+
+        long getWritesCompleted() {
+            return m_writesCompleted.get();
+        }
+
+        long getWriteMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(m_writeNanos.get());
+        }
+
+        /**
+         * Milliseconds since the lane's first target was opened, up to now if targets are
+         * still open or up to when the last one was closed otherwise.
+         */
+        long getActiveMillis() {
+            final long until = m_openTargets.get() > 0 ? System.currentTimeMillis() : m_activeUntil;
+            return Math.max(1, until - m_activeSince);
+        }
+
+        @Override
+        public String toString() {
+            final double elapsed = getActiveMillis() / 1000.0;
+            final double megabytes = m_bytesWritten.get() / (1024.0 * 1024.0);
+            return String.format(
+                    "Snapshot write lane %d wrote %.2f MB in %d writes, %.2f MB/sec over %.2f seconds " +
+                    "(%.2f seconds spent in write calls)",
+                    m_laneId, megabytes, m_writesCompleted.get(), megabytes / elapsed, elapsed,
+                    m_writeNanos.get() / 1000000000.0);
+        }
+    }
+
+    static WriteLane[] getWriteLanes() {
+        return m_lanes.clone();
+    }
+
+    private final WriteLane m_lane;
 
     public DefaultSnapshotDataTarget(
             final File file,
@@ -142,6 +275,7 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
             int version[]
             ) throws IOException {
         String hostname = CoreUtils.getHostnameOrAddress();
+        m_lane = m_lanes[(m_nextLane.getAndIncrement() & Integer.MAX_VALUE) % m_lanes.length];
         m_file = file;
         m_tableName = tableName;
         m_fos = new FileOutputStream(file);
@@ -215,24 +349,29 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
          * the disk is probably full or the path is bunk etc.
          */
         m_acceptOneWrite = true;
-        ListenableFuture<?> writeFuture =
-                write(Callables.returning((BBContainer)DBBPool.wrapBB(aggregateBuffer)), false);
+        m_lane.targetOpened();
+        boolean headerWritten = false;
         try {
+            ListenableFuture<?> writeFuture =
+                    write(Callables.returning((BBContainer)DBBPool.wrapBB(aggregateBuffer)), false);
             writeFuture.get();
+            if (m_writeFailed) {
+                throw m_writeException;
+            }
+            headerWritten = true;
         } catch (InterruptedException e) {
-            m_fos.close();
             throw new java.io.InterruptedIOException();
         } catch (ExecutionException e) {
-            m_fos.close();
-            throw m_writeException;
-        }
-        if (m_writeFailed) {
-            m_fos.close();
             throw m_writeException;
+        } finally {
+            if (!headerWritten) {
+                m_lane.targetClosed();
+                m_fos.close();
+            }
         }
 
         ScheduledFuture<?> syncTask = null;
-        syncTask = m_syncService.scheduleAtFixedRate(new Runnable() {
+        syncTask = m_lane.m_syncService.scheduleAtFixedRate(new Runnable() {
             @Override
             public void run() {
                 int bytesSinceLastSync = 0;
@@ -242,7 +381,7 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
                     } catch (IOException e) {
                         hostLog.error("Error syncing snapshot", e);
                     }
-                    m_bytesAllowedBeforeSync.release(bytesSinceLastSync);
+                    m_lane.m_bytesAllowedBeforeSync.release(bytesSinceLastSync);
                 }
             }
         }, 1, 1, TimeUnit.SECONDS);
@@ -252,34 +391,42 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
     @Override
     public void close() throws IOException, InterruptedException {
         try {
-            m_outstandingWriteTasksLock.lock();
             try {
-                while (m_outstandingWriteTasks.get() > 0) {
-                    m_noMoreOutstandingWriteTasksCondition.await();
+                m_outstandingWriteTasksLock.lock();
+                try {
+                    while (m_outstandingWriteTasks.get() > 0) {
+                        m_noMoreOutstandingWriteTasksCondition.await();
+                    }
+                } finally {
+                    m_outstandingWriteTasksLock.unlock();
                 }
+                m_syncTask.cancel(false);
+                m_channel.force(false);
             } finally {
-                m_outstandingWriteTasksLock.unlock();
+                m_lane.m_bytesAllowedBeforeSync.release(m_bytesWrittenSinceLastSync.getAndSet(0));
+            }
+            m_channel.position(8);
+            ByteBuffer completed = ByteBuffer.allocate(1);
+            if (m_writeFailed) {
+                completed.put((byte)0).flip();
+            } else {
+                completed.put((byte)1).flip();
             }
-            m_syncTask.cancel(false);
+            m_channel.write(completed);
             m_channel.force(false);
+            m_channel.close();
         } finally {
-            m_bytesAllowedBeforeSync.release(m_bytesWrittenSinceLastSync.getAndSet(0));
-        }
-        m_channel.position(8);
-        ByteBuffer completed = ByteBuffer.allocate(1);
-        if (m_writeFailed) {
-            completed.put((byte)0).flip();
-        } else {
-            completed.put((byte)1).flip();
+            m_lane.targetClosed();
         }
-        m_channel.write(completed);
-        m_channel.force(false);
-        m_channel.close();
         if (m_onCloseHandler != null) {
             m_onCloseHandler.run();
         }
     }
 
+    int getWriteLaneId() {
+        return m_lane.getLaneId();
+    }
+
     @Override
     public int getHeaderSize() {
         return 0;
@@ -318,11 +465,16 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
         Future<byte[]> compressionTask = null;
         if (prependLength) {
             tupleData.b.position(tupleData.b.position() + 12);
-            compressionTask = CompressionService.compressBufferAsync(tupleData.b);
+            compressionTask = m_lane.m_compressionService.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return CompressionService.compressBuffer(tupleData.b);
+                }
+            });
         }
         final Future<byte[]> compressionTaskFinal = compressionTask;
 
-        ListenableFuture<?> writeTask = m_es.submit(new Callable<Object>() {
+        ListenableFuture<?> writeTask = m_lane.m_es.submit(new Callable<Object>() {
             @Override
             public Object call() throws Exception {
                 try {
@@ -338,11 +490,13 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
                     }
 
                     int totalWritten = 0;
+                    long startNanos;
                     if (prependLength) {
                         final ByteBuffer payloadBuffer = ByteBuffer.wrap(compressionTaskFinal.get());
 
                         ByteBuffer lengthPrefix = ByteBuffer.allocate(16);
-                        m_bytesAllowedBeforeSync.acquire(payloadBuffer.remaining() + 16);
+                        m_lane.m_bytesAllowedBeforeSync.acquire(payloadBuffer.remaining() + 16);
+                        startNanos = System.nanoTime();
                         lengthPrefix.putInt(payloadBuffer.remaining());
                         lengthPrefix.putInt(tupleData.b.getInt(0));
                         lengthPrefix.putInt(tupleData.b.getInt(4));
@@ -355,10 +509,12 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
                             totalWritten += m_channel.write(payloadBuffer);
                         }
                     } else {
+                        startNanos = System.nanoTime();
                         while (tupleData.b.hasRemaining()) {
                             totalWritten += m_channel.write(tupleData.b);
                         }
                     }
+                    m_lane.recordWrite(totalWritten, System.nanoTime() - startNanos);
                     m_bytesWritten += totalWritten;
                     m_bytesWrittenSinceLastSync.addAndGet(totalWritten);
                 } catch (IOException e) {
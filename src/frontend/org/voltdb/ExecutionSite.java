@@ -100,6 +100,7 @@ import org.voltdb.messaging.InitiateTaskMessage;
 import org.voltdb.messaging.MultiPartitionParticipantMessage;
 import org.voltdb.messaging.RejoinMessage;
 import org.voltdb.messaging.RejoinMessage.Type;
+import org.voltdb.planner.StatisticsCostModel;
 import org.voltdb.rejoin.RejoinSiteProcessor;
 import org.voltdb.rejoin.StreamSnapshotSink;
 import org.voltdb.rejoin.TaskLog;
@@ -715,6 +716,14 @@ implements Runnable, SiteTransactionConnection, SiteProcedureConnection, SiteSna
                 m_indexStats.setStatsTable(stats);
             }
 
+            // refresh the planner's estimates from this partition's statistics
+            if (StatisticsCostModel.isRefreshDue(m_siteId, time)) {
+                StatisticsCostModel.updateSiteStatistics(m_siteId,
+                        s1 != null ? s1[0] : null,
+                        (s2 != null) && (s2.length > 0) ? s2[0] : null,
+                        time);
+            }
+
             // update the rolled up memory statistics
             MemoryStats memoryStats = VoltDB.instance().getMemoryStatsSource();
             if (memoryStats != null) {
@@ -23,6 +23,7 @@ import java.util.Iterator;
 import java.util.Map;
 
 import org.voltdb.VoltTable.ColumnInfo;
+import org.voltcore.network.VoltNetworkPool;
 import org.voltcore.utils.Pair;
 
 public class IOStats extends StatsSource {
@@ -69,6 +70,9 @@ public class IOStats extends StatsSource {
         columns.add(new ColumnInfo("MESSAGES_READ", VoltType.BIGINT));
         columns.add(new ColumnInfo("BYTES_WRITTEN", VoltType.BIGINT));
         columns.add(new ColumnInfo("MESSAGES_WRITTEN", VoltType.BIGINT));
+        columns.add(new ColumnInfo("NETWORK_THREAD", VoltType.INTEGER));
+        columns.add(new ColumnInfo("HANDLER_MICROS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("MIGRATIONS", VoltType.BIGINT));
 
     }
 
@@ -83,6 +87,9 @@ public class IOStats extends StatsSource {
         rowValues[columnNameToIndex.get("MESSAGES_READ")] = counters[1];
         rowValues[columnNameToIndex.get("BYTES_WRITTEN")] = counters[2];
         rowValues[columnNameToIndex.get("MESSAGES_WRITTEN")] = counters[3];
+        rowValues[columnNameToIndex.get("NETWORK_THREAD")] = (int)counters[VoltNetworkPool.IOSTATS_NETWORK_THREAD];
+        rowValues[columnNameToIndex.get("HANDLER_MICROS")] = counters[VoltNetworkPool.IOSTATS_HANDLER_MICROS];
+        rowValues[columnNameToIndex.get("MIGRATIONS")] = counters[VoltNetworkPool.IOSTATS_MIGRATIONS];
         super.updateStatsRow(rowKey, rowValues);
     }
 
@@ -0,0 +1,346 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Log-linear histogram of latencies in microseconds. Values below 2^subBucketBits
+ * are counted exactly and above that each power of two range is split into
+ * 2^(subBucketBits - 1) equal buckets, so every value is recorded with a relative
+ * error of less than 2^-(subBucketBits - 1), 1.6% by default. The counts array only
+ * grows as large as needed to cover the largest value recorded and never past
+ * {@link #HIGHEST_TRACKABLE_VALUE}, which is a little over an hour. Larger values
+ * are counted in the last bucket but still reported exactly by {@link #getMaxValue()}.
+ *
+ * Histograms with the same precision can be added together and serialized, so
+ * histograms kept by each site or client connection can be merged into cluster wide
+ * percentiles. Not thread safe.
+ */
+public class LatencyHistogram {
+    /** Precision used unless one is specified */
+    public static final int DEFAULT_SUB_BUCKET_BITS = 7;
+    /** Largest value, in microseconds, that gets its own bucket */
+    public static final long HIGHEST_TRACKABLE_VALUE = (1L << 32) - 1;
+
+    private final int m_subBucketBits;
+    private final int m_subBucketCount;
+    private final int m_subBucketHalfCount;
+    private final int m_maxCountsLength;
+
+    private long m_counts[];
+    private long m_totalCount = 0;
+    private long m_totalValue = 0;
+    private long m_minValue = Long.MAX_VALUE;
+    private long m_maxValue = 0;
+
+    public LatencyHistogram() {
+        this(DEFAULT_SUB_BUCKET_BITS);
+    }
+
+    /**
+     * @param subBucketBits Number of significant bits kept for each value, between 2 and 16.
+     */
+    public LatencyHistogram(int subBucketBits) {
+        if (subBucketBits < 2 || subBucketBits > 16) {
+            throw new IllegalArgumentException("LatencyHistogram precision must be between 2 and 16 bits");
+        }
+        m_subBucketBits = subBucketBits;
+        m_subBucketCount = 1 << subBucketBits;
+        m_subBucketHalfCount = m_subBucketCount >> 1;
+        m_maxCountsLength = countsIndex(HIGHEST_TRACKABLE_VALUE) + 1;
+        m_counts = new long[m_subBucketCount];
+    }
+
+    private LatencyHistogram(LatencyHistogram other) {
+        this(other.m_subBucketBits);
+        m_counts = other.m_counts.clone();
+        m_totalCount = other.m_totalCount;
+        m_totalValue = other.m_totalValue;
+        m_minValue = other.m_minValue;
+        m_maxValue = other.m_maxValue;
+    }
+
+    private int countsIndex(long value) {
+        if (value < m_subBucketCount) {
+            return (int)value;
+        }
+        // Shift that leaves the value in [m_subBucketHalfCount, m_subBucketCount)
+        final int shift = 64 - Long.numberOfLeadingZeros(value) - m_subBucketBits;
+        return m_subBucketCount + (shift - 1) * m_subBucketHalfCount +
+            (int)(value >>> shift) - m_subBucketHalfCount;
+    }
+
+    private int bucketShift(int index) {
+        if (index < m_subBucketCount) {
+            return 0;
+        }
+        return (index - m_subBucketCount) / m_subBucketHalfCount + 1;
+    }
+
+    /**
+     * Smallest value that is counted in the bucket at index
+     */
+    private long lowestEquivalentValue(int index) {
+        final int shift = bucketShift(index);
+        if (shift == 0) {
+            return index;
+        }
+        final long subBucket = (index - m_subBucketCount) % m_subBucketHalfCount + m_subBucketHalfCount;
+        return subBucket << shift;
+    }
+
+    /**
+     * Largest value that is counted in the bucket at index
+     */
+    private long highestEquivalentValue(int index) {
+        return lowestEquivalentValue(index) + (1L << bucketShift(index)) - 1;
+    }
+
+    private void ensureCapacity(int length) {
+        if (m_counts.length < length) {
+            final long counts[] = new long[Math.min(m_maxCountsLength, Math.max(length, m_counts.length * 2))];
+            System.arraycopy(m_counts, 0, counts, 0, m_counts.length);
+            m_counts = counts;
+        }
+    }
+
+    /**
+     * Record a latency in microseconds. Negative values, from clocks moving backwards,
+     * are recorded as 0.
+     */
+    public void recordValue(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        final int index = countsIndex(Math.min(value, HIGHEST_TRACKABLE_VALUE));
+        ensureCapacity(index + 1);
+        m_counts[index]++;
+        m_totalCount++;
+        m_totalValue += value;
+        m_minValue = Math.min(m_minValue, value);
+        m_maxValue = Math.max(m_maxValue, value);
+    }
+
+    public long getTotalCount() {
+        return m_totalCount;
+    }
+
+    /**
+     * @return The smallest value recorded or 0 if nothing has been recorded
+     */
+    public long getMinValue() {
+        return m_totalCount == 0 ? 0 : m_minValue;
+    }
+
+    /**
+     * @return The largest value recorded or 0 if nothing has been recorded
+     */
+    public long getMaxValue() {
+        return m_maxValue;
+    }
+
+    public double getMean() {
+        if (m_totalCount == 0) {
+            return 0;
+        }
+        return m_totalValue / (double)m_totalCount;
+    }
+
+    /**
+     * @param percentile A number in [0.0, 1.0]. 0.0 returns the minimum and 1.0 the maximum.
+     * @return The largest value equivalent, within the precision of the histogram, to the
+     * value at the percentile, never more than the largest value recorded.
+     * 0 if nothing has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if ((percentile > 1.0) || (percentile < 0.0)) {
+            throw new IllegalArgumentException(
+                    "getValueAtPercentile accepts values greater or equal to 0.0 " +
+                    "and less than or equal to 1.0");
+        }
+        if (m_totalCount == 0) {
+            return 0;
+        }
+        long k = (long)Math.ceil(m_totalCount * percentile);
+        // ensure k=0 gives min latency
+        if (k == 0) k = 1;
+
+        // Read the array once, counts may be read while another thread records
+        final long counts[] = m_counts;
+        long sum = 0;
+        for (int ii = 0; ii < counts.length; ii++) {
+            sum += counts[ii];
+            if (sum >= k) {
+                if (ii == m_maxCountsLength - 1) {
+                    // the last bucket also counts everything too large to track
+                    return m_maxValue;
+                }
+                return Math.max(getMinValue(), Math.min(m_maxValue, highestEquivalentValue(ii)));
+            }
+        }
+        return m_maxValue;
+    }
+
+    /**
+     * Count values in consecutive ranges of equal width starting at 0, like the old fixed width
+     * latency buckets. A bucket of this histogram that straddles a range boundary is counted in the
+     * range its smallest value falls in. Values past the last range are not counted.
+     *
+     * @param rangeWidth Width of each range in microseconds
+     * @param numberOfRanges Number of ranges
+     * @return The count for each range
+     */
+    public long[] getCountsInRanges(long rangeWidth, int numberOfRanges) {
+        final long retval[] = new long[numberOfRanges];
+        final long counts[] = m_counts;
+        for (int ii = 0; ii < counts.length; ii++) {
+            if (counts[ii] == 0) {
+                continue;
+            }
+            final long range = lowestEquivalentValue(ii) / rangeWidth;
+            if (range >= numberOfRanges) {
+                break;
+            }
+            retval[(int)range] += counts[ii];
+        }
+        return retval;
+    }
+
+    public void add(LatencyHistogram other) {
+        if (m_subBucketBits != other.m_subBucketBits) {
+            throw new IllegalArgumentException(
+                    "Adding LatencyHistogram instances requires both have the same precision.");
+        }
+        final long counts[] = other.m_counts;
+        ensureCapacity(counts.length);
+        for (int ii = 0; ii < counts.length; ii++) {
+            m_counts[ii] += counts[ii];
+        }
+        m_totalCount += other.m_totalCount;
+        m_totalValue += other.m_totalValue;
+        m_minValue = Math.min(m_minValue, other.m_minValue);
+        m_maxValue = Math.max(m_maxValue, other.m_maxValue);
+    }
+
+    /**
+     * Histogram of the values recorded in newer since older was copied from it.
+     * The min and max of the difference are only known to the precision of the
+     * histogram unless they are the min and max of newer.
+     */
+    public static LatencyHistogram diff(LatencyHistogram newer, LatencyHistogram older) {
+        if (newer.m_subBucketBits != older.m_subBucketBits) {
+            throw new IllegalArgumentException(
+                    "Diffing LatencyHistogram instances requires both have the same precision.");
+        }
+        LatencyHistogram retval = newer.copy();
+        final long counts[] = older.m_counts;
+        for (int ii = 0; ii < Math.min(counts.length, retval.m_counts.length); ii++) {
+            retval.m_counts[ii] -= counts[ii];
+        }
+        retval.m_totalCount -= older.m_totalCount;
+        retval.m_totalValue -= older.m_totalValue;
+        retval.m_minValue = Long.MAX_VALUE;
+        retval.m_maxValue = 0;
+        for (int ii = 0; ii < retval.m_counts.length; ii++) {
+            if (retval.m_counts[ii] > 0) {
+                if (retval.m_minValue == Long.MAX_VALUE) {
+                    retval.m_minValue = Math.max(newer.getMinValue(), retval.lowestEquivalentValue(ii));
+                }
+                retval.m_maxValue = Math.min(newer.m_maxValue, retval.highestEquivalentValue(ii));
+            }
+        }
+        if (retval.m_counts.length == retval.m_maxCountsLength &&
+                retval.m_counts[retval.m_maxCountsLength - 1] > 0) {
+            // the last bucket also counts everything too large to track
+            retval.m_maxValue = newer.m_maxValue;
+        }
+        return retval;
+    }
+
+    public LatencyHistogram copy() {
+        return new LatencyHistogram(this);
+    }
+
+    public void reset() {
+        m_counts = new long[m_subBucketCount];
+        m_totalCount = 0;
+        m_totalValue = 0;
+        m_minValue = Long.MAX_VALUE;
+        m_maxValue = 0;
+    }
+
+    /**
+     * Serialize to a compact form that only includes the buckets that have counts.
+     * Can be stored in a VARBINARY column and read back with {@link #fromBytes(byte[])}.
+     */
+    public byte[] toBytes() {
+        final long counts[] = m_counts;
+        int nonZero = 0;
+        for (int ii = 0; ii < counts.length; ii++) {
+            if (counts[ii] != 0) {
+                nonZero++;
+            }
+        }
+        ByteBuffer buf = ByteBuffer.allocate(1 + 8 * 4 + 4 + nonZero * (4 + 8));
+        buf.put((byte)m_subBucketBits);
+        buf.putLong(m_totalCount);
+        buf.putLong(m_totalValue);
+        buf.putLong(m_minValue);
+        buf.putLong(m_maxValue);
+        buf.putInt(nonZero);
+        for (int ii = 0; ii < counts.length && nonZero > 0; ii++) {
+            if (counts[ii] != 0) {
+                buf.putInt(ii);
+                buf.putLong(counts[ii]);
+                nonZero--;
+            }
+        }
+        return buf.array();
+    }
+
+    public static LatencyHistogram fromBytes(byte[] bytes) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        LatencyHistogram retval = new LatencyHistogram(buf.get());
+        retval.m_totalCount = buf.getLong();
+        retval.m_totalValue = buf.getLong();
+        retval.m_minValue = buf.getLong();
+        retval.m_maxValue = buf.getLong();
+        final int nonZero = buf.getInt();
+        for (int ii = 0; ii < nonZero; ii++) {
+            final int index = buf.getInt();
+            if (index < 0 || index >= retval.m_maxCountsLength) {
+                throw new IllegalArgumentException("Serialized LatencyHistogram has an invalid bucket " + index);
+            }
+            retval.ensureCapacity(index + 1);
+            retval.m_counts[index] = buf.getLong();
+        }
+        return retval;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return String.format("%d values in us min/mean/50%%/99%%/99.9%%/max: %d/%.1f/%d/%d/%d/%d",
+                m_totalCount, getMinValue(), getMean(),
+                getValueAtPercentile(0.5), getValueAtPercentile(0.99),
+                getValueAtPercentile(0.999), m_maxValue);
+    }
+}
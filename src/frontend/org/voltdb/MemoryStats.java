@@ -22,6 +22,7 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeMap;
 
+import org.voltcore.network.NetworkDBBPool;
 import org.voltdb.VoltTable.ColumnInfo;
 import org.voltdb.utils.SystemStatsCollector;
 
@@ -79,6 +80,8 @@ public class MemoryStats extends StatsSource {
         columns.add(new VoltTable.ColumnInfo("STRINGMEMORY", VoltType.INTEGER));
         columns.add(new VoltTable.ColumnInfo("TUPLECOUNT", VoltType.BIGINT));
         columns.add(new VoltTable.ColumnInfo("POOLEDMEMORY", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("NETWORKPOOLEDMEMORY", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("NETWORKINUSEMEMORY", VoltType.BIGINT));
     }
 
     @Override
@@ -113,6 +116,9 @@ public class MemoryStats extends StatsSource {
         rowValues[columnNameToIndex.get("STRINGMEMORY")] = totals.stringMem;
         rowValues[columnNameToIndex.get("TUPLECOUNT")] = totals.tupleCount;
         rowValues[columnNameToIndex.get("POOLEDMEMORY")] = totals.pooledMem / 1024;
+        // direct buffers idle in the network pools versus held by reads and writes
+        rowValues[columnNameToIndex.get("NETWORKPOOLEDMEMORY")] = NetworkDBBPool.getPooledBytesGlobally() / 1024;
+        rowValues[columnNameToIndex.get("NETWORKINUSEMEMORY")] = NetworkDBBPool.getInUseBytesGlobally() / 1024;
         super.updateStatsRow(rowKey, rowValues);
     }
 
@@ -828,4 +828,11 @@ import org.voltdb.types.VoltDecimalHelper;
         }
         return null;
     }
+
+    public Integer getHashinatedParam(int index, int partitionCount) {
+        if (m_params.length > 0) {
+            return TheHashinator.hashToPartition(m_params[index], partitionCount);
+        }
+        return null;
+    }
 }
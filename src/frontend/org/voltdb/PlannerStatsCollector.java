@@ -19,6 +19,7 @@ package org.voltdb;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.voltcore.logging.VoltLogger;
 import org.voltcore.utils.CoreUtils;
@@ -90,15 +91,22 @@ public class PlannerStatsCollector extends StatsSource {
     long m_lastCache2Hits = 0;
 
     /**
-     * Cache misses
+     * Cache 1 evictions
      */
-    long m_cacheMisses = 0;
-    long m_lastCacheMisses = 0;
+    long m_cache1Evictions = 0;
+    long m_lastCache1Evictions = 0;
+
+    /**
+     * Cache 2 evictions
+     */
+    long m_cache2Evictions = 0;
+    long m_lastCache2Evictions = 0;
 
     /**
-     * Time of last planning start
+     * Cache misses
      */
-    Long m_currentStartTime = null;
+    long m_cacheMisses = 0;
+    long m_lastCacheMisses = 0;
 
     /**
      * Total amount of planning time
@@ -124,6 +132,41 @@ public class PlannerStatsCollector extends StatsSource {
     long m_failures = 0;
     long m_lastFailures = 0;
 
+    /**
+     * Number of statements waiting for a planner thread
+     */
+    final AtomicInteger m_queueDepth = new AtomicInteger(0);
+
+    /**
+     * Count of statements taken off the planner queue
+     */
+    long m_dequeued = 0;
+    long m_lastDequeued = 0;
+
+    /**
+     * Total amount of time statements spent waiting for a planner thread
+     */
+    long m_totalQueueTime = 0;
+    long m_lastTotalQueueTime = 0;
+
+    /**
+     * Longest amount of time a statement spent waiting for a planner thread
+     */
+    long m_maxQueueTime = 0;
+    long m_lastMaxQueueTime = 0;
+
+    /**
+     * Join plans skipped by the join enumeration that an exhaustive search would have generated
+     */
+    long m_joinPlansPruned = 0;
+    long m_lastJoinPlansPruned = 0;
+
+    /**
+     * Estimated planning time saved by skipping those join plans
+     */
+    long m_planTimeSaved = 0;
+    long m_lastPlanTimeSaved = 0;
+
     /**
      * Calculate the invocation count based on the cache hit/miss counts.
      * @return  invocation count
@@ -159,25 +202,85 @@ public class PlannerStatsCollector extends StatsSource {
     }
 
     /**
-     * Called before doing planning. Starts timer.
+     * Called before doing planning. Starts timer. The caller keeps the start time
+     * and hands it back to endStatsCollection, so planner threads sharing this
+     * collector don't overwrite each other's timing.
+     *
+     * @return  planning start time, or null if this call isn't sampled
      */
-    public void startStatsCollection() {
+    public synchronized Long startStatsCollection() {
         if (getInvocations() % m_collectionFrequency == 0) {
-            m_currentStartTime = System.nanoTime();
+            return System.nanoTime();
         }
+        return null;
+    }
+
+    /**
+     * Called after planning to record how many entries have been evicted from
+     * the caches to make room for new plans.
+     *
+     * @param cache1Evictions  total evictions from the level 1 cache
+     * @param cache2Evictions  total evictions from the level 2 cache
+     */
+    public synchronized void updateCacheEvictions(long cache1Evictions, long cache2Evictions) {
+        m_cache1Evictions = cache1Evictions;
+        m_cache2Evictions = cache2Evictions;
+    }
+
+    /**
+     * Called after planning a join to record how much of the exhaustive search was skipped.
+     *
+     * @param joinPlansPruned  join plans an exhaustive search would have generated but weren't
+     * @param planTimeSaved    estimated nanoseconds generating and costing them would have taken
+     */
+    public synchronized void updateJoinEnumeration(long joinPlansPruned, long planTimeSaved) {
+        m_joinPlansPruned += joinPlansPruned;
+        m_planTimeSaved += planTimeSaved;
+    }
+
+    /**
+     * Called when work is handed to the planner queue.
+     */
+    public void workQueued() {
+        m_queueDepth.incrementAndGet();
+    }
+
+    /**
+     * Called when queued work is rejected because the planner queue is full.
+     */
+    public void workRejected() {
+        m_queueDepth.decrementAndGet();
+    }
+
+    /**
+     * Called when a planner thread picks up queued work.
+     *
+     * @param queueTime  nanoseconds the work spent waiting in the queue
+     */
+    public synchronized void workDequeued(long queueTime) {
+        m_queueDepth.decrementAndGet();
+        if (queueTime < 0) {
+            return;
+        }
+        m_dequeued++;
+        m_totalQueueTime += queueTime;
+        m_maxQueueTime = Math.max(queueTime, m_maxQueueTime);
+        m_lastMaxQueueTime = Math.max(queueTime, m_lastMaxQueueTime);
     }
 
     /**
      * Called after planning or failing to plan. Records timer and cache stats.
      *
+     * @param startTime    start time returned by startStatsCollection
      * @param cache1Size   number of entries in level 1 cache
      * @param cache2Size   number of entries in level 2 cache
      * @param cacheUse     where the planned statement came from
      * @param partitionId  partition id
      */
-    public void endStatsCollection(long cache1Size, long cache2Size, CacheUse cacheUse, long partitionId) {
-        if (m_currentStartTime != null) {
-            long delta = System.nanoTime() - m_currentStartTime;
+    public synchronized void endStatsCollection(Long startTime, long cache1Size, long cache2Size,
+                                                CacheUse cacheUse, long partitionId) {
+        if (startTime != null) {
+            long delta = System.nanoTime() - startTime;
             if (delta < 0) {
                 if (Math.abs(delta) > 1000000000) {
                     log.info("Planner statistics recorded a negative planning time larger than one second: " +
@@ -191,7 +294,6 @@ public class PlannerStatsCollector extends StatsSource {
                 m_lastMinPlanningTime = Math.min(delta, m_lastMinPlanningTime);
                 m_lastMaxPlanningTime = Math.max(delta, m_lastMaxPlanningTime);
             }
-            m_currentStartTime = null;
         }
 
         m_cache1Level = cache1Size;
@@ -234,7 +336,14 @@ public class PlannerStatsCollector extends StatsSource {
         long cache1Hits  = m_cache1Hits;
         long cache2Hits  = m_cache2Hits;
         long cacheMisses = m_cacheMisses;
+        long cache1Evictions = m_cache1Evictions;
+        long cache2Evictions = m_cache2Evictions;
         long failureCount = m_failures;
+        long dequeued = m_dequeued;
+        long totalQueueTime = m_totalQueueTime;
+        long maxQueueTime = m_maxQueueTime;
+        long joinPlansPruned = m_joinPlansPruned;
+        long planTimeSaved = m_planTimeSaved;
 
         if (m_interval) {
             totalTimedExecutionTime = m_totalPlanningTime - m_lastTimedPlanningTime;
@@ -260,8 +369,29 @@ public class PlannerStatsCollector extends StatsSource {
             cacheMisses = m_cacheMisses - m_lastCacheMisses;
             m_lastCacheMisses = m_cacheMisses;
 
+            cache1Evictions = m_cache1Evictions - m_lastCache1Evictions;
+            m_lastCache1Evictions = m_cache1Evictions;
+
+            cache2Evictions = m_cache2Evictions - m_lastCache2Evictions;
+            m_lastCache2Evictions = m_cache2Evictions;
+
             failureCount = m_failures - m_lastFailures;
             m_lastFailures = m_failures;
+
+            dequeued = m_dequeued - m_lastDequeued;
+            m_lastDequeued = m_dequeued;
+
+            totalQueueTime = m_totalQueueTime - m_lastTotalQueueTime;
+            m_lastTotalQueueTime = m_totalQueueTime;
+
+            maxQueueTime = m_lastMaxQueueTime;
+            m_lastMaxQueueTime = 0;
+
+            joinPlansPruned = m_joinPlansPruned - m_lastJoinPlansPruned;
+            m_lastJoinPlansPruned = m_joinPlansPruned;
+
+            planTimeSaved = m_planTimeSaved - m_lastPlanTimeSaved;
+            m_lastPlanTimeSaved = m_planTimeSaved;
         }
 
         rowValues[columnNameToIndex.get(VoltSystemProcedure.CNAME_SITE_ID)] = CoreUtils.getSiteIdFromHSId(m_siteId);
@@ -271,6 +401,8 @@ public class PlannerStatsCollector extends StatsSource {
         rowValues[columnNameToIndex.get("CACHE1_HITS" )] = cache1Hits;
         rowValues[columnNameToIndex.get("CACHE2_HITS" )] = cache2Hits;
         rowValues[columnNameToIndex.get("CACHE_MISSES")] = cacheMisses;
+        rowValues[columnNameToIndex.get("CACHE1_EVICTIONS")] = cache1Evictions;
+        rowValues[columnNameToIndex.get("CACHE2_EVICTIONS")] = cache2Evictions;
         rowValues[columnNameToIndex.get("PLAN_TIME_MIN")] = minExecutionTime;
         rowValues[columnNameToIndex.get("PLAN_TIME_MAX")] = maxExecutionTime;
         if (getSampleCount() != 0) {
@@ -280,6 +412,15 @@ public class PlannerStatsCollector extends StatsSource {
             rowValues[columnNameToIndex.get("PLAN_TIME_AVG")] = 0L;
         }
         rowValues[columnNameToIndex.get("FAILURES")] = failureCount;
+        rowValues[columnNameToIndex.get("QUEUE_DEPTH")] = Math.max(0, m_queueDepth.get());
+        if (dequeued != 0) {
+            rowValues[columnNameToIndex.get("QUEUE_TIME_AVG")] = totalQueueTime / dequeued;
+        } else {
+            rowValues[columnNameToIndex.get("QUEUE_TIME_AVG")] = 0L;
+        }
+        rowValues[columnNameToIndex.get("QUEUE_TIME_MAX")] = maxQueueTime;
+        rowValues[columnNameToIndex.get("JOIN_PLANS_PRUNED")] = joinPlansPruned;
+        rowValues[columnNameToIndex.get("PLAN_TIME_SAVED")] = planTimeSaved;
     }
 
     /**
@@ -296,10 +437,17 @@ public class PlannerStatsCollector extends StatsSource {
         columns.add(new ColumnInfo("CACHE1_HITS",   VoltType.INTEGER));
         columns.add(new ColumnInfo("CACHE2_HITS",   VoltType.INTEGER));
         columns.add(new ColumnInfo("CACHE_MISSES",  VoltType.INTEGER));
+        columns.add(new ColumnInfo("CACHE1_EVICTIONS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("CACHE2_EVICTIONS", VoltType.BIGINT));
         columns.add(new ColumnInfo("PLAN_TIME_MIN", VoltType.BIGINT));
         columns.add(new ColumnInfo("PLAN_TIME_MAX", VoltType.BIGINT));
         columns.add(new ColumnInfo("PLAN_TIME_AVG", VoltType.BIGINT));
         columns.add(new ColumnInfo("FAILURES",      VoltType.BIGINT));
+        columns.add(new ColumnInfo("QUEUE_DEPTH",   VoltType.INTEGER));
+        columns.add(new ColumnInfo("QUEUE_TIME_AVG", VoltType.BIGINT));
+        columns.add(new ColumnInfo("QUEUE_TIME_MAX", VoltType.BIGINT));
+        columns.add(new ColumnInfo("JOIN_PLANS_PRUNED", VoltType.BIGINT));
+        columns.add(new ColumnInfo("PLAN_TIME_SAVED", VoltType.BIGINT));
     }
 
     @Override
@@ -66,6 +66,13 @@ class ProcedureStatsCollector extends SiteStatsSource {
     private long m_maxExecutionTime = Long.MIN_VALUE;
     private long m_lastMaxExecutionTime = Long.MIN_VALUE;
 
+    /**
+     * Distribution of timed execution times in microseconds, and a copy of it
+     * as of the last interval poll. The copy is only made once intervals are polled.
+     */
+    private final LatencyHistogram m_executionTimes = new LatencyHistogram();
+    private LatencyHistogram m_lastExecutionTimes = null;
+
     /**
      * Time the procedure was last started
      */
@@ -178,6 +185,7 @@ class ProcedureStatsCollector extends SiteStatsSource {
                 m_maxExecutionTime = Math.max( delta, m_maxExecutionTime);
                 m_lastMinExecutionTime = Math.min( delta, m_lastMinExecutionTime);
                 m_lastMaxExecutionTime = Math.max( delta, m_lastMaxExecutionTime);
+                m_executionTimes.recordValue(delta / 1000);
 
                 // sampled size statistics
                 int resultSize = 0;
@@ -234,6 +242,7 @@ class ProcedureStatsCollector extends SiteStatsSource {
         long minParameterSetSize = m_minParameterSetSize;
         long maxParameterSetSize = m_maxParameterSetSize;
         long totalParameterSetSize = m_totalParameterSetSize;
+        LatencyHistogram executionTimes = m_executionTimes;
 
         if (m_interval) {
             invocations = m_invocations - m_lastInvocations;
@@ -266,6 +275,14 @@ class ProcedureStatsCollector extends SiteStatsSource {
 
             totalParameterSetSize = m_totalParameterSetSize - m_lastTotalParameterSetSize;
             m_lastTotalParameterSetSize = m_totalParameterSetSize;
+
+            LatencyHistogram lastExecutionTimes = m_lastExecutionTimes;
+            m_lastExecutionTimes = m_executionTimes.copy();
+            if (lastExecutionTimes != null) {
+                executionTimes = LatencyHistogram.diff(m_lastExecutionTimes, lastExecutionTimes);
+            } else {
+                executionTimes = m_lastExecutionTimes;
+            }
         }
 
         rowValues[columnNameToIndex.get("INVOCATIONS")] = invocations;
@@ -290,6 +307,15 @@ class ProcedureStatsCollector extends SiteStatsSource {
         rowValues[columnNameToIndex.get("MAX_RESULT_SIZE")] = maxResultSize;
         rowValues[columnNameToIndex.get("MIN_PARAMETER_SET_SIZE")] = minParameterSetSize;
         rowValues[columnNameToIndex.get("MAX_PARAMETER_SET_SIZE")] = maxParameterSetSize;
+        // the histogram is in microseconds, the other execution times are nanoseconds
+        rowValues[columnNameToIndex.get("P50_EXECUTION_TIME")] =
+                executionTimes.getValueAtPercentile(0.5) * 1000;
+        rowValues[columnNameToIndex.get("P95_EXECUTION_TIME")] =
+                executionTimes.getValueAtPercentile(0.95) * 1000;
+        rowValues[columnNameToIndex.get("P99_EXECUTION_TIME")] =
+                executionTimes.getValueAtPercentile(0.99) * 1000;
+        rowValues[columnNameToIndex.get("P99_9_EXECUTION_TIME")] =
+                executionTimes.getValueAtPercentile(0.999) * 1000;
     }
 
     /**
@@ -314,6 +340,10 @@ class ProcedureStatsCollector extends SiteStatsSource {
         columns.add(new VoltTable.ColumnInfo("AVG_PARAMETER_SET_SIZE", VoltType.INTEGER));
         columns.add(new VoltTable.ColumnInfo("ABORTS", VoltType.BIGINT));
         columns.add(new VoltTable.ColumnInfo("FAILURES", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("P50_EXECUTION_TIME", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("P95_EXECUTION_TIME", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("P99_EXECUTION_TIME", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("P99_9_EXECUTION_TIME", VoltType.BIGINT));
     }
 
     @Override
@@ -365,6 +365,7 @@ public class RealVoltDB implements VoltDBInterface, RestoreAgent.Callback, Mailb
 
             m_mailboxPublisher = new MailboxPublisher(VoltZK.mailboxes + "/" + m_messenger.getHostId());
             final int numberOfNodes = readDeploymentAndCreateStarterCatalogContext();
+            m_messenger.getNetwork().setWaitStrategy(CatalogUtil.getWaitStrategy(m_catalogContext.cluster));
             if (!isRejoin) {
                 m_messenger.waitForGroupJoin(numberOfNodes);
             }
@@ -596,6 +597,8 @@ public class RealVoltDB implements VoltDBInterface, RestoreAgent.Callback, Mailb
             m_memoryStats = new MemoryStats();
             m_statsAgent.registerStatsSource(SysProcSelector.MEMORY,
                     0, m_memoryStats);
+            m_statsAgent.registerStatsSource(SysProcSelector.SNAPSHOTWRITELANES,
+                    0, new SnapshotWriteLaneStats());
             if (isIV2Enabled()) {
                 m_statsAgent.registerStatsSource(SysProcSelector.TOPO, 0, m_cartographer);
             }
@@ -1144,6 +1147,22 @@ public class RealVoltDB implements VoltDBInterface, RestoreAgent.Callback, Mailb
                 SystemStatsCollector.asyncSampleSystemNow(true, true);
             }
         }, 0, 6, TimeUnit.MINUTES);
+
+        // admission control follows the depth of the site task queues
+        if (isIV2Enabled()) {
+            scheduleWork(new Runnable() {
+                @Override
+                public void run() {
+                    int maxDepth = 0;
+                    for (Initiator initiator : m_iv2Initiators) {
+                        maxDepth = Math.max(maxDepth, initiator.getQueueDepth());
+                    }
+                    for (ClientInterface ci : m_clientInterfaces) {
+                        ci.adjustAdmissionControl(maxDepth);
+                    }
+                }
+            }, 100, 100, TimeUnit.MILLISECONDS);
+        }
     }
 
     int readDeploymentAndCreateStarterCatalogContext() {
@@ -89,6 +89,7 @@ public class SnapshotStatus extends StatsSource {
         columns.add(new ColumnInfo("DURATION", VoltType.BIGINT));
         columns.add(new ColumnInfo("THROUGHPUT", VoltType.FLOAT));
         columns.add(new ColumnInfo("RESULT", VoltType.STRING));
+        columns.add(new ColumnInfo("TYPE", VoltType.STRING));
     }
 
     @SuppressWarnings("unchecked")
@@ -99,11 +100,17 @@ public class SnapshotStatus extends StatsSource {
         Table t = p.getSecond();
         double duration = 0;
         double throughput = 0;
-        long timeStarted = org.voltdb.TransactionIdManager.getTimestampFromTransactionId(s.txnId);
+        long timeStarted = s.timeStarted;
         if (s.timeFinished != 0) {
             duration =
                 (s.timeFinished - timeStarted) / 1000.0;
             throughput = (s.bytesWritten / (1024.0 * 1024.0)) / duration;
+        } else if (s.isRestore) {
+            // Report how fast a restore is going while it is still running
+            duration = (System.currentTimeMillis() - timeStarted) / 1000.0;
+            if (duration > 0) {
+                throughput = (s.getTableBytes() / (1024.0 * 1024.0)) / duration;
+            }
         }
 
         rowValues[columnNameToIndex.get("TABLE")] = t.name;
@@ -117,6 +124,7 @@ public class SnapshotStatus extends StatsSource {
         rowValues[columnNameToIndex.get("DURATION")] = duration;
         rowValues[columnNameToIndex.get("THROUGHPUT")] = throughput;
         rowValues[columnNameToIndex.get("RESULT")] = t.error == null ? "SUCCESS" : "FAILURE";
+        rowValues[columnNameToIndex.get("TYPE")] = s.isRestore ? "RESTORE" : "SAVE";
         super.updateStatsRow(rowKey, rowValues);
     }
 
@@ -0,0 +1,76 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.voltdb.DefaultSnapshotDataTarget.WriteLane;
+import org.voltdb.VoltTable.ColumnInfo;
+
+/**
+ * Reports the throughput of each of the snapshot write lanes on this host.
+ * Counters cover the lane's current snapshot if it has open targets or the
+ * most recent one otherwise.
+ */
+public class SnapshotWriteLaneStats extends StatsSource {
+
+    public SnapshotWriteLaneStats() {
+        super(false);
+    }
+
+    @Override
+    protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
+        super.populateColumnSchema(columns);
+        columns.add(new ColumnInfo("LANE_ID", VoltType.INTEGER));
+        columns.add(new ColumnInfo("OPEN_TARGETS", VoltType.INTEGER));
+        columns.add(new ColumnInfo("SYNC_BUDGET_BYTES", VoltType.INTEGER));
+        columns.add(new ColumnInfo("BYTES_WRITTEN", VoltType.BIGINT));
+        columns.add(new ColumnInfo("WRITES", VoltType.BIGINT));
+        columns.add(new ColumnInfo("WRITE_MILLIS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("ACTIVE_MILLIS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("MB_PER_SECOND", VoltType.FLOAT));
+    }
+
+    @Override
+    protected void updateStatsRow(Object rowKey, Object[] rowValues) {
+        final WriteLane lane = (WriteLane)rowKey;
+        final long activeMillis = lane.getActiveMillis();
+        final long bytesWritten = lane.getBytesWritten();
+
+        rowValues[columnNameToIndex.get("LANE_ID")] = lane.getLaneId();
+        rowValues[columnNameToIndex.get("OPEN_TARGETS")] = lane.getOpenTargets();
+        rowValues[columnNameToIndex.get("SYNC_BUDGET_BYTES")] = lane.getSyncBudget();
+        rowValues[columnNameToIndex.get("BYTES_WRITTEN")] = bytesWritten;
+        rowValues[columnNameToIndex.get("WRITES")] = lane.getWritesCompleted();
+        rowValues[columnNameToIndex.get("WRITE_MILLIS")] = lane.getWriteMillis();
+        rowValues[columnNameToIndex.get("ACTIVE_MILLIS")] = activeMillis;
+        rowValues[columnNameToIndex.get("MB_PER_SECOND")] =
+            (bytesWritten / (1024.0 * 1024.0)) / (activeMillis / 1000.0);
+        super.updateStatsRow(rowKey, rowValues);
+    }
+
+    @Override
+    protected Iterator<Object> getStatsRowKeyIterator(boolean interval) {
+        final ArrayList<Object> lanes = new ArrayList<Object>();
+        for (WriteLane lane : DefaultSnapshotDataTarget.getWriteLanes()) {
+            lanes.add(lane);
+        }
+        return lanes.iterator();
+    }
+}
@@ -0,0 +1,117 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.voltdb.VoltTable.ColumnInfo;
+import org.voltdb.messaging.TransactionStageTimes;
+import org.voltdb.messaging.TransactionStageTimes.Stage;
+
+/**
+ * Distribution of the time sampled single partition transactions spend in each stage of
+ * IV2, with one row per stage. Fed by the client interface as responses to sampled
+ * transactions are written back. Times are kept in a {@link LatencyHistogram} per stage
+ * in microseconds, and the serialized histogram is included so rows from different hosts
+ * can be merged.
+ */
+public class StageLatencyStats extends SiteStatsSource {
+
+    private static final Stage s_stages[] = Stage.values();
+
+    private final LatencyHistogram m_latencies[] = new LatencyHistogram[s_stages.length];
+
+    /**
+     * Cumulative histograms as of the last interval poll
+     */
+    private final LatencyHistogram m_lastLatencies[] = new LatencyHistogram[s_stages.length];
+
+    /**
+     * Histograms for the rows being generated
+     */
+    private final LatencyHistogram m_rowLatencies[] = new LatencyHistogram[s_stages.length];
+
+    public StageLatencyStats(long siteId) {
+        super(siteId, false);
+        for (int ii = 0; ii < s_stages.length; ii++) {
+            m_latencies[ii] = new LatencyHistogram();
+            m_lastLatencies[ii] = new LatencyHistogram();
+        }
+        VoltDB.instance().getStatsAgent().registerStatsSource(SysProcSelector.STAGELATENCY, 0, this);
+    }
+
+    /**
+     * Record the stages of a completed transaction that was sampled
+     */
+    public synchronized void logTransactionCompleted(TransactionStageTimes stageTimes) {
+        for (int ii = 0; ii < s_stages.length; ii++) {
+            final long micros = stageTimes.getStageMicros(s_stages[ii]);
+            if (micros >= 0) {
+                m_latencies[ii].recordValue(micros);
+            }
+        }
+    }
+
+    @Override
+    protected Iterator<Object> getStatsRowKeyIterator(boolean interval) {
+        for (int ii = 0; ii < s_stages.length; ii++) {
+            final LatencyHistogram latencies = m_latencies[ii].copy();
+            if (interval) {
+                m_rowLatencies[ii] = LatencyHistogram.diff(latencies, m_lastLatencies[ii]);
+                m_lastLatencies[ii] = latencies;
+            } else {
+                m_rowLatencies[ii] = latencies;
+            }
+        }
+        return Arrays.asList((Object[])s_stages).iterator();
+    }
+
+    @Override
+    protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
+        super.populateColumnSchema(columns);
+        columns.add(new ColumnInfo("STAGE", VoltType.STRING));
+        columns.add(new ColumnInfo("SAMPLES", VoltType.BIGINT));
+        columns.add(new ColumnInfo("MIN", VoltType.BIGINT));
+        columns.add(new ColumnInfo("MAX", VoltType.BIGINT));
+        columns.add(new ColumnInfo("AVG", VoltType.BIGINT));
+        columns.add(new ColumnInfo("P50", VoltType.BIGINT));
+        columns.add(new ColumnInfo("P95", VoltType.BIGINT));
+        columns.add(new ColumnInfo("P99", VoltType.BIGINT));
+        columns.add(new ColumnInfo("P99_9", VoltType.BIGINT));
+        columns.add(new ColumnInfo("HISTOGRAM", VoltType.VARBINARY));
+    }
+
+    @Override
+    protected void updateStatsRow(Object rowKey, Object[] rowValues) {
+        final Stage stage = (Stage)rowKey;
+        final LatencyHistogram latencies = m_rowLatencies[stage.ordinal()];
+        rowValues[columnNameToIndex.get("STAGE")] = stage.name();
+        rowValues[columnNameToIndex.get("SAMPLES")] = latencies.getTotalCount();
+        rowValues[columnNameToIndex.get("MIN")] = latencies.getMinValue();
+        rowValues[columnNameToIndex.get("MAX")] = latencies.getMaxValue();
+        rowValues[columnNameToIndex.get("AVG")] = (long)latencies.getMean();
+        rowValues[columnNameToIndex.get("P50")] = latencies.getValueAtPercentile(0.5);
+        rowValues[columnNameToIndex.get("P95")] = latencies.getValueAtPercentile(0.95);
+        rowValues[columnNameToIndex.get("P99")] = latencies.getValueAtPercentile(0.99);
+        rowValues[columnNameToIndex.get("P99_9")] = latencies.getValueAtPercentile(0.999);
+        rowValues[columnNameToIndex.get("HISTOGRAM")] = latencies.toBytes();
+        super.updateStatsRow(rowKey, rowValues);
+    }
+}
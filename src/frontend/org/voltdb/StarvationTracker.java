@@ -19,6 +19,7 @@ package org.voltdb;
 import java.util.ArrayList;
 import java.util.Iterator;
 
+import org.voltcore.utils.WaitStrategy;
 import org.voltdb.VoltTable.ColumnInfo;
 
 /**
@@ -52,6 +53,14 @@ public class StarvationTracker extends SiteStatsSource {
 
     private long m_starvationStartTime;
 
+    /*
+     * The strategy the worker uses when it runs out of work and how many
+     * times a spinning worker found work before it had to park
+     */
+    private volatile WaitStrategy m_waitStrategy = WaitStrategy.BLOCK;
+    private long m_spinWakeups = 0;
+    private long m_lastSpinWakeups = 0;
+
     private boolean m_interval;
 
     /**
@@ -66,6 +75,14 @@ public class StarvationTracker extends SiteStatsSource {
         m_starvationStartTime = System.nanoTime();
     }
 
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        m_waitStrategy = waitStrategy;
+    }
+
+    public void spinWakeup() {
+        m_spinWakeups++;
+    }
+
     public void endStarvation() {
         if (!m_starved) {
             return;
@@ -90,6 +107,8 @@ public class StarvationTracker extends SiteStatsSource {
         columns.add(new ColumnInfo("MIN", VoltType.BIGINT));
         columns.add(new ColumnInfo("MAX", VoltType.BIGINT));
         columns.add(new ColumnInfo("STDDEV", VoltType.BIGINT));
+        columns.add(new ColumnInfo("WAIT_STRATEGY", VoltType.STRING));
+        columns.add(new ColumnInfo("SPIN_WAKEUPS", VoltType.BIGINT));
     }
 
     @Override
@@ -105,6 +124,8 @@ public class StarvationTracker extends SiteStatsSource {
             m_lastSumOfSquares = m_sumOfSquares;
             m_lastTotalTime = m_totalTime;
             m_lastCount = m_count;
+            rowValues[columnNameToIndex.get("SPIN_WAKEUPS")] = m_spinWakeups - m_lastSpinWakeups;
+            m_lastSpinWakeups = m_spinWakeups;
             m_lastMax = 0;
             m_lastMin = Long.MAX_VALUE;
             if (count > 0) {
@@ -124,6 +145,7 @@ public class StarvationTracker extends SiteStatsSource {
             }
         } else {
             final long totalTime = System.nanoTime() - m_startTime;
+            rowValues[columnNameToIndex.get("SPIN_WAKEUPS")] = m_spinWakeups;
             if (m_count > 0) {
                 final long uSecs = (m_totalTime / m_count) / 1000;
                 rowValues[columnNameToIndex.get("COUNT")] = m_count;
@@ -142,6 +164,7 @@ public class StarvationTracker extends SiteStatsSource {
                 rowValues[columnNameToIndex.get("STDDEV")] = 0L;
             }
         }
+        rowValues[columnNameToIndex.get("WAIT_STRATEGY")] = m_waitStrategy.toString();
         super.updateStatsRow(rowKey, rowValues);
     }
 
@@ -23,11 +23,14 @@ public enum SysProcSelector {
     STARVATION,
     INITIATOR,        // invoked as @stat initiator
     LATENCY,          // invoked as @stat latency
+    STAGELATENCY,     // time sampled transactions spend in each stage of iv2
     PARTITIONCOUNT,
     IOSTATS,
     MEMORY,           // info about node's memory usage
+    SNAPSHOTWRITELANES, // throughput of each snapshot write lane
     LIVECLIENTS,      // info about the currently connected clients
     PLANNER,          // info about planner and EE performance and cache usage
+    EXPORT,           // export throughput and backlog per table and partition
     MANAGEMENT,       //Returns pretty much everything
 
     SNAPSHOTSTATUS,
@@ -17,19 +17,16 @@
 
 package org.voltdb;
 
-import java.io.UnsupportedEncodingException;
-
-import org.voltcore.logging.Level;
-import org.voltcore.logging.VoltLogger;
-import org.voltdb.utils.LogKeys;
-
 /**
- * Class that maps object values to partitions. It's rather simple
- * really. It'll get more complicated if you give it time.
+ * Class that maps object values to partitions. Values are hashed to 64 bits and then
+ * placed with a jump consistent hash (Lamping and Veach), which behaves like a token ring
+ * with one bucket per partition that needs no ring to be stored or exchanged. Going from
+ * N to N + 1 partitions moves only the 1/(N + 1) of the keys that land in the new
+ * partition, every other key stays where it was. The EE's TheHashinator.h must produce
+ * exactly the same placement.
  */
 public abstract class TheHashinator {
     static int catalogPartitionCount;
-    private static final VoltLogger hostLogger = new VoltLogger("HOST");
 
     /**
      * Initialize TheHashinator
@@ -38,64 +35,128 @@ public abstract class TheHashinator {
         catalogPartitionCount = partitionCount;
     }
 
+    /**
+     * Finalization step of MurmurHash3 to spread every input bit across the key
+     * so that small and sequential values don't cluster in the low partitions.
+     */
+    static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * Jump consistent hash. Arithmetic is on the unsigned key, the double
+     * division is exactly rounded so the EE computes the same result.
+     *
+     * @param key The 64 bit hash of the value.
+     * @param partitionCount The number of partitions to choose from.
+     * @return A value between 0 and partitionCount-1.
+     */
+    static int jumpConsistentHash(long key, int partitionCount) {
+        long b = -1;
+        long j = 0;
+        while (j < partitionCount) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long)((b + 1) * ((double)(1L << 31) / (double)((key >>> 33) + 1)));
+        }
+        return (int)b;
+    }
+
     /**
      * Given a long value, pick a partition to store the data.
      *
      * @param value The value to hash.
-     * @param partitionCount The number of partitions to choose from.
      * @return A value between 0 and partitionCount-1, hopefully pretty evenly
      * distributed.
      */
-    static int hashinateLong(long value) {
-        int partitionCount = TheHashinator.catalogPartitionCount;
+    public static int hashinateLong(long value) {
+        return hashinateLong(value, TheHashinator.catalogPartitionCount);
+    }
 
+    public static int hashinateLong(long value, int partitionCount) {
         // special case this hard to hash value to 0 (in both c++ and java)
         if (value == Long.MIN_VALUE) return 0;
 
-        // hash the same way c++ does
-        int index = (int)(value^(value>>>32));
-        return java.lang.Math.abs(index % partitionCount);
+        return jumpConsistentHash(mix(value), partitionCount);
     }
 
     /**
      * Given an byte[] bytes, pick a partition to store the data.
      *
      * @param value The value to hash.
-     * @param partitionCount The number of partitions to choose from.
      * @return A value between 0 and partitionCount-1, hopefully pretty evenly
      * distributed.
      */
-    static int hashinateBytes(byte[] bytes) {
-        int partitionCount = TheHashinator.catalogPartitionCount;
+    public static int hashinateBytes(byte[] bytes) {
+        return hashinateBytes(bytes, TheHashinator.catalogPartitionCount);
+    }
+
+    public static int hashinateBytes(byte[] bytes, int partitionCount) {
+        if (bytes == null) return 0;
+
         int hashCode = 0;
         int offset = 0;
         for (int ii = 0; ii < bytes.length; ii++) {
             hashCode = 31 * hashCode + bytes[offset++];
         }
-        return java.lang.Math.abs(hashCode % partitionCount);
+        return jumpConsistentHash(mix(hashCode), partitionCount);
     }
 
     /**
-     * Given an String value, pick a partition to store the data.
+     * Given an String value, pick a partition to store the data. The value is
+     * hashed over its UTF-8 encoding, the same bytes the EE sees, without
+     * materializing them.
      *
      * @param value The value to hash.
-     * @param partitionCount The number of partitions to choose from.
      * @return A value between 0 and partitionCount-1, hopefully pretty evenly
      * distributed.
      */
-    static int hashinateString(String value) {
-        try {
-            byte bytes[] = value.getBytes("UTF-8");
-            return hashinateBytes(bytes);
-        } catch (UnsupportedEncodingException e) {
-            hostLogger.l7dlog( Level.FATAL, LogKeys.host_TheHashinator_ExceptionHashingString.name(), new Object[] { value }, e);
-            VoltDB.crashLocalVoltDB("No additional info.", false, e);
-        }
+    public static int hashinateString(String value) {
+        return hashinateString(value, TheHashinator.catalogPartitionCount);
+    }
 
-        hostLogger.l7dlog(Level.FATAL, LogKeys.host_TheHashinator_AttemptedToHashinateNonLongOrString.name(), new Object[] { value
-                .getClass().getName() }, null);
-        VoltDB.crashLocalVoltDB("No additional info.", false, null);
-        return -1;
+    public static int hashinateString(String value, int partitionCount) {
+        if (value == null) return 0;
+
+        return jumpConsistentHash(mix(utf8HashCode(value)), partitionCount);
+    }
+
+    /**
+     * Compute the same hash hashinateBytes computes over value.getBytes("UTF-8"),
+     * encoding each char on the fly. Like String.getBytes, an unpaired surrogate
+     * encodes as '?'.
+     */
+    static int utf8HashCode(String value) {
+        int hashCode = 0;
+        final int length = value.length();
+        for (int ii = 0; ii < length; ii++) {
+            final char c = value.charAt(ii);
+            if (c < 0x80) {
+                hashCode = 31 * hashCode + c;
+            } else if (c < 0x800) {
+                hashCode = 31 * hashCode + (byte)(0xc0 | (c >> 6));
+                hashCode = 31 * hashCode + (byte)(0x80 | (c & 0x3f));
+            } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                hashCode = 31 * hashCode + (byte)(0xe0 | (c >> 12));
+                hashCode = 31 * hashCode + (byte)(0x80 | ((c >> 6) & 0x3f));
+                hashCode = 31 * hashCode + (byte)(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && ii + 1 < length &&
+                       Character.isLowSurrogate(value.charAt(ii + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++ii));
+                hashCode = 31 * hashCode + (byte)(0xf0 | (codePoint >> 18));
+                hashCode = 31 * hashCode + (byte)(0x80 | ((codePoint >> 12) & 0x3f));
+                hashCode = 31 * hashCode + (byte)(0x80 | ((codePoint >> 6) & 0x3f));
+                hashCode = 31 * hashCode + (byte)(0x80 | (codePoint & 0x3f));
+            } else {
+                hashCode = 31 * hashCode + '?';
+            }
+        }
+        return hashCode;
     }
 
     /**
@@ -104,28 +165,36 @@ public abstract class TheHashinator {
      * @return The id of the partition desired.
      */
     public static int hashToPartition(Object obj) {
-        int index = 0;
-        if (obj == null || VoltType.isNullVoltType(obj))
-        {
-            index = 0;
-        }
-        else if (obj instanceof Long) {
-            long value = ((Long) obj).longValue();
-            index = hashinateLong(value);
-        } else if (obj instanceof String ) {
-            index = hashinateString((String) obj);
+        return hashToPartition(obj, TheHashinator.catalogPartitionCount);
+    }
+
+    /**
+     * Given an object, map it to a partition of a cluster with the given number of
+     * partitions. Used by clients routing against a specific topology and to find
+     * where a key lands after the partition count changes.
+     * @param obj The object to be mapped to a partition.
+     * @param partitionCount The number of partitions to choose from.
+     * @return The id of the partition desired.
+     */
+    public static int hashToPartition(Object obj, int partitionCount) {
+        // Null sigils and unsupported types hash to partition 0. Checking the null
+        // value of each integer type inline avoids a second pass over the type.
+        if (obj instanceof Long) {
+            return hashinateLong(((Long) obj).longValue(), partitionCount);
+        } else if (obj instanceof String) {
+            return hashinateString((String) obj, partitionCount);
         } else if (obj instanceof Integer) {
-            long value = ((Integer)obj).intValue();
-            index = hashinateLong(value);
+            int value = ((Integer) obj).intValue();
+            return value == VoltType.NULL_INTEGER ? 0 : hashinateLong(value, partitionCount);
         } else if (obj instanceof Short) {
-            long value = ((Short)obj).shortValue();
-            index = hashinateLong(value);
+            short value = ((Short) obj).shortValue();
+            return value == VoltType.NULL_SMALLINT ? 0 : hashinateLong(value, partitionCount);
         } else if (obj instanceof Byte) {
-            long value = ((Byte)obj).byteValue();
-            index = hashinateLong(value);
+            byte value = ((Byte) obj).byteValue();
+            return value == VoltType.NULL_TINYINT ? 0 : hashinateLong(value, partitionCount);
         } else if (obj instanceof byte[]) {
-            index = hashinateBytes((byte[]) obj );
+            return hashinateBytes((byte[]) obj, partitionCount);
         }
-        return index;
+        return 0;
     }
 }
@@ -119,6 +119,20 @@ public interface Client {
     public boolean callProcedure(ProcedureCallback callback, String procName, Object... parameters)
     throws IOException, NoConnectionsException;
 
+    /**
+     * Asynchronously invoke a batch of procedures. Invocations that are routed to the same
+     * connection are written to the network as a single message, which amortizes the per
+     * invocation overhead for high rate ingest. Each invocation's callback is invoked with
+     * its own response. The batch is either queued in its entirety or not at all.
+     * If there is backpressure this call will block until the batch is queued. If
+     * configureBlocking(false) is invoked then it will return immediately. Check the return
+     * value to determine if queuing actually took place.
+     * @param batch Invocations and their callbacks
+     * @return <code>true</code> if the batch was queued and <code>false</code> otherwise
+     */
+    public boolean callProceduresBatch(ProcedureCallBatch batch)
+    throws IOException, NoConnectionsException;
+
     /**
      * Deprecated because hinting at the serialized size no longer has any effect
      *
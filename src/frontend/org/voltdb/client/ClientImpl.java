@@ -336,6 +336,54 @@ public final class ClientImpl implements Client, ReplicaProcCaller {
         }
     }
 
+    @Override
+    public final boolean callProceduresBatch(ProcedureCallBatch batch)
+            throws IOException, NoConnectionsException {
+        if (m_isShutdown) {
+            return false;
+        }
+
+        final int count = batch.size();
+        if (count == 0) {
+            return true;
+        }
+        final ProcedureInvocation invocations[] = new ProcedureInvocation[count];
+        final ProcedureCallback callbacks[] = new ProcedureCallback[count];
+        for (int ii = 0; ii < count; ii++) {
+            ProcedureCallback callback = batch.getCallback(ii);
+            final Object parameters[] = batch.getParameters(ii);
+            if (callback == null) {
+                callback = new NullCallback();
+            } else if (callback instanceof ProcedureArgumentCacher) {
+                ((ProcedureArgumentCacher)callback).setArgs(parameters);
+            }
+            callbacks[ii] = callback;
+            invocations[ii] =
+                new ProcedureInvocation(m_handle.getAndIncrement(), batch.getProcName(ii), parameters);
+        }
+
+        //Blessed threads (the ones that invoke callbacks) are not subject to backpressure
+        boolean isBlessed = m_blessedThreadIds.contains(Thread.currentThread().getId());
+        if (m_blockingQueue) {
+            while (!m_distributer.queueBatch(
+                    invocations,
+                    callbacks,
+                    isBlessed)) {
+                try {
+                    backpressureBarrier();
+                } catch (InterruptedException e) {
+                    throw new java.io.InterruptedIOException("Interrupted while invoking procedures asynchronously");
+                }
+            }
+            return true;
+        } else {
+            return m_distributer.queueBatch(
+                    invocations,
+                    callbacks,
+                    isBlessed);
+        }
+    }
+
     /**
      * Serializes catalog and deployment file for UpdateApplicationCatalog.
      * Catalog is serialized into byte array, deployment file is serialized into
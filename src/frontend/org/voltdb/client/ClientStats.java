@@ -20,7 +20,7 @@ package org.voltdb.client;
 import java.util.Date;
 import java.util.Iterator;
 
-import org.voltdb.LatencyBucketSet;
+import org.voltdb.LatencyHistogram;
 
 /**
  * <p>Essentially a set of counters for a specific context with helper
@@ -54,16 +54,15 @@ public class ClientStats {
     // cumulative latency measured by the cluster, used to calculate avg lat.
     long m_clusterRoundTripTime; // microsecs
 
-    /** The number of buckets tracking latency with 1ms granularity. */
+    /** The number of buckets returned by {@link #getLatencyBucketsBy1ms()}. */
     final public static int ONE_MS_BUCKET_COUNT = 50;
-    /** The number of buckets tracking latency with 10ms granularity. */
+    /** The number of buckets returned by {@link #getLatencyBucketsBy10ms()}. */
     final public static int TEN_MS_BUCKET_COUNT = 20;
-    /** The number of buckets tracking latency with 100ms granularity. */
+    /** The number of buckets returned by {@link #getLatencyBucketsBy100ms()}. */
     final public static int HUNDRED_MS_BUCKET_COUNT = 10;
 
-    LatencyBucketSet m_latencyBy1ms;
-    LatencyBucketSet m_latencyBy10ms;
-    LatencyBucketSet m_latencyBy100ms;
+    // client measured round trip times in microseconds
+    LatencyHistogram m_latencyHistogram;
 
     long m_bytesSent;
     long m_bytesReceived;
@@ -77,9 +76,7 @@ public class ClientStats {
         m_endTS = Long.MIN_VALUE;
         m_invocationsCompleted = m_invocationAborts = m_invocationErrors = 0;
         m_roundTripTime = m_clusterRoundTripTime = 0;
-        m_latencyBy1ms = new LatencyBucketSet(1, ONE_MS_BUCKET_COUNT);
-        m_latencyBy10ms = new LatencyBucketSet(10, TEN_MS_BUCKET_COUNT);
-        m_latencyBy100ms = new LatencyBucketSet(100, HUNDRED_MS_BUCKET_COUNT);
+        m_latencyHistogram = new LatencyHistogram();
         m_bytesSent = m_bytesReceived = 0;
     }
 
@@ -95,9 +92,7 @@ public class ClientStats {
         m_invocationErrors = other.m_invocationErrors;
         m_roundTripTime = other.m_roundTripTime;
         m_clusterRoundTripTime = other.m_clusterRoundTripTime;
-        m_latencyBy1ms = (LatencyBucketSet) other.m_latencyBy1ms.clone();
-        m_latencyBy10ms = (LatencyBucketSet) other.m_latencyBy10ms.clone();
-        m_latencyBy100ms = (LatencyBucketSet) other.m_latencyBy100ms.clone();
+        m_latencyHistogram = other.m_latencyHistogram.copy();
         m_bytesSent = other.m_bytesSent;
         m_bytesReceived = other.m_bytesReceived;
     }
@@ -125,9 +120,7 @@ public class ClientStats {
         retval.m_roundTripTime = newer.m_roundTripTime - older.m_roundTripTime;
         retval.m_clusterRoundTripTime = newer.m_clusterRoundTripTime - older.m_clusterRoundTripTime;
 
-        retval.m_latencyBy1ms = LatencyBucketSet.diff(newer.m_latencyBy1ms, older.m_latencyBy1ms);
-        retval.m_latencyBy10ms = LatencyBucketSet.diff(newer.m_latencyBy10ms, older.m_latencyBy10ms);
-        retval.m_latencyBy100ms = LatencyBucketSet.diff(newer.m_latencyBy100ms, older.m_latencyBy100ms);
+        retval.m_latencyHistogram = LatencyHistogram.diff(newer.m_latencyHistogram, older.m_latencyHistogram);
 
         retval.m_bytesSent = newer.m_bytesSent - older.m_bytesSent;
         retval.m_bytesReceived = newer.m_bytesReceived - older.m_bytesReceived;
@@ -174,25 +167,21 @@ public class ClientStats {
         m_roundTripTime += other.m_roundTripTime;
         m_clusterRoundTripTime += other.m_clusterRoundTripTime;
 
-        m_latencyBy1ms.add(other.m_latencyBy1ms);
-        m_latencyBy10ms.add(other.m_latencyBy10ms);
-        m_latencyBy100ms.add(other.m_latencyBy100ms);
+        m_latencyHistogram.add(other.m_latencyHistogram);
 
         m_bytesSent += other.m_bytesSent;
         m_bytesReceived += other.m_bytesReceived;
     }
 
-    void update(int roundTripTime, int clusterRoundTripTime, boolean abort, boolean error) {
+    void update(int roundTripTime, long roundTripTimeMicros, int clusterRoundTripTime,
+            boolean abort, boolean error) {
         m_invocationsCompleted++;
         if (abort) m_invocationAborts++;
         if (error) m_invocationErrors++;
         m_roundTripTime += roundTripTime;
         m_clusterRoundTripTime += clusterRoundTripTime;
 
-        // calculate the latency buckets to increment and increment.
-        m_latencyBy1ms.update(roundTripTime);
-        m_latencyBy10ms.update(roundTripTime);
-        m_latencyBy100ms.update(roundTripTime);
+        m_latencyHistogram.recordValue(roundTripTimeMicros);
     }
 
     /**
@@ -330,54 +319,57 @@ public class ClientStats {
     }
 
     /**
-     * <p>Get the raw buckets used for latency tracking in 1ms increments. For example, if
+     * <p>Get counts of transactions by latency in 1ms increments. For example, if
      * a transaction returns in 3.2ms, then the array at index 3 will be incremented by
      * one. It can be thought of as a histogram of latencies. It has
      * {@link ONE_MS_BUCKET_COUNT} buckets, for a range of
      * <code>ONE_MS_BUCKET_COUNT x 1ms</code></p>
      *
-     * <p>This raw data, along with other bucket sets of different granularity,  is used to
-     * support the {@link kPercentileLatency(double)} method. This returns a copy of the
-     * internal array so it is threadsafe and mutable if you wish. Note that the buckets
+     * <p>The counts are taken from the microsecond resolution histogram returned by
+     * {@link getLatencyHistogram()}. A transaction that falls in a histogram bucket that
+     * straddles a boundary is counted in the lower bucket. This returns a new array so it is
+     * threadsafe and mutable if you wish.</p>
      *
      * @return An array containing counts for different latency values.
      */
     public long[] getLatencyBucketsBy1ms() {
-        return m_latencyBy1ms.buckets.clone();
+        return m_latencyHistogram.getCountsInRanges(1000, ONE_MS_BUCKET_COUNT);
     }
 
     /**
-     * <p>Get the raw buckets used for latency tracking in 10ms increments. For example, if
+     * <p>Get counts of transactions by latency in 10ms increments. For example, if
      * a transaction returns in 42ms, then the array at index 4 will be incremented by
      * one. It can be thought of as a histogram of latencies. It has
      * {@link TEN_MS_BUCKET_COUNT} buckets, for a range of
      * <code>TEN_MS_BUCKET_COUNT x 10ms</code>.</p>
      *
-     * <p>This raw data, along with other bucket sets of different granularity,  is used to
-     * support the {@link kPercentileLatency(double)} method. This returns a copy of the
-     * internal array so it is threadsafe and mutable if you wish. Note that the buckets
+     * <p>The counts are taken from the microsecond resolution histogram returned by
+     * {@link getLatencyHistogram()}. A transaction that falls in a histogram bucket that
+     * straddles a boundary is counted in the lower bucket. This returns a new array so it is
+     * threadsafe and mutable if you wish.</p>
      *
      * @return An array containing counts for different latency values.
      */
     public long[] getLatencyBucketsBy10ms() {
-        return m_latencyBy10ms.buckets.clone();
+        return m_latencyHistogram.getCountsInRanges(10 * 1000, TEN_MS_BUCKET_COUNT);
     }
 
     /**
-     * <p>Get the raw buckets used for latency tracking in 1ms increments. For example, if
-     * a transaction returns in 3.2ms, then the array at index 3 will be incremented by
+     * <p>Get counts of transactions by latency in 100ms increments. For example, if
+     * a transaction returns in 320ms, then the array at index 3 will be incremented by
      * one. It can be thought of as a histogram of latencies. It has
      * {@link HUNDRED_MS_BUCKET_COUNT} buckets, for a range of
      * <code>HUNDRED_MS_BUCKET_COUNT x 100ms</code>.</p>
      *
-     * <p>This raw data, along with other bucket sets of different granularity,  is used to
-     * support the {@link kPercentileLatency(double)} method. This returns a copy of the
-     * internal array so it is threadsafe and mutable if you wish. Note that the buckets
+     * <p>The counts are taken from the microsecond resolution histogram returned by
+     * {@link getLatencyHistogram()}. A transaction that falls in a histogram bucket that
+     * straddles a boundary is counted in the lower bucket. This returns a new array so it is
+     * threadsafe and mutable if you wish.</p>
      *
      * @return An array containing counts for different latency values.
      */
     public long[] getLatencyBucketsBy100ms() {
-        return m_latencyBy100ms.buckets.clone();
+        return m_latencyHistogram.getCountsInRanges(100 * 1000, HUNDRED_MS_BUCKET_COUNT);
     }
 
     /**
@@ -403,44 +395,47 @@ public class ClientStats {
     }
 
     /**
-     * <p>Using the latency bucketing statistics gathered by the client, estimate
+     * <p>Using the latency histogram gathered by the client, estimate
      * the k-percentile latency value for the time period covered by this stats
      * instance.</p>
      *
      * <p>For example, k=.5 returns an estimate of the median. k=0 returns the
      * minimum. k=1.0 returns the maximum.</p>
      *
-     * <p>The accuracy is limited by the precision of the buckets, and will have
-     * higher margin of error as courser sets of buckets are used. Small numbers
-     * of transactions in the period will also increase error. Finally, note that
-     * latency isn't tracked for transactions are outside values tracked by the
-     * largest set of buckets. If k=X implies latency greater than
-     * <code>{@link HUNDRED_MS_BUCKET_COUNT} * 100</code>, then it will return
-     * a number larger than <code>{@link HUNDRED_MS_BUCKET_COUNT} * 100</code>,
-     * but nothing more is promised.</p>
+     * <p>Latencies are recorded in microseconds with a relative error of less than
+     * 2%, and rounded up to whole milliseconds here. Use
+     * {@link kPercentileLatencyAsDouble(double)} for sub-millisecond precision.</p>
      *
      * @param percentile A floating point number between 0.0 and 1.0.
      * @return An estimate of k-percentile latency in whole milliseconds.
      */
     public int kPercentileLatency(double percentile) {
-        int kpl;
-
-        kpl = m_latencyBy1ms.kPercentileLatency(percentile);
-        if (kpl != Integer.MAX_VALUE) {
-            return kpl;
-        }
-
-        kpl = m_latencyBy10ms.kPercentileLatency(percentile);
-        if (kpl != Integer.MAX_VALUE) {
-            return kpl;
-        }
+        return (int) Math.ceil(m_latencyHistogram.getValueAtPercentile(percentile) / 1000.0);
+    }
 
-        kpl = m_latencyBy100ms.kPercentileLatency(percentile);
-        if (kpl != Integer.MAX_VALUE) {
-            return kpl;
-        }
+    /**
+     * <p>Using the latency histogram gathered by the client, estimate
+     * the k-percentile latency value for the time period covered by this stats
+     * instance with microsecond resolution. For example, k=.999 returns an estimate
+     * of the 99.9th percentile.</p>
+     *
+     * @param percentile A floating point number between 0.0 and 1.0.
+     * @return An estimate of k-percentile latency in milliseconds.
+     */
+    public double kPercentileLatencyAsDouble(double percentile) {
+        return m_latencyHistogram.getValueAtPercentile(percentile) / 1000.0;
+    }
 
-        return m_latencyBy100ms.msPerBucket * m_latencyBy100ms.numberOfBuckets * 2;
+    /**
+     * <p>Get the histogram of client measured round trip times, in microseconds, for the
+     * time period covered by this stats instance. This returns a copy so it is threadsafe
+     * and mutable. Histograms from several stats instances can be merged with
+     * {@link LatencyHistogram#add(LatencyHistogram)}.</p>
+     *
+     * @return A copy of the latency histogram.
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return m_latencyHistogram.copy();
     }
 
     /**
@@ -526,9 +521,7 @@ public class ClientStats {
         if (m_invocationsCompleted > 0) {
             sb.append(String.format("    avg latency client/internal: %d/%d\n",
                     m_roundTripTime / m_invocationsCompleted, m_clusterRoundTripTime / m_invocationsCompleted));
-            sb.append(m_latencyBy1ms).append("\n");
-            sb.append(m_latencyBy10ms).append("\n");
-            sb.append(m_latencyBy100ms).append("\n");
+            sb.append("    ").append(m_latencyHistogram).append("\n");
         }
 
         return sb.toString();
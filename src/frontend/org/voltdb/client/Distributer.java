@@ -23,12 +23,15 @@ import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -45,6 +48,7 @@ import org.voltcore.network.QueueMonitor;
 import org.voltcore.network.VoltNetworkPool;
 import org.voltcore.network.VoltProtocolHandler;
 import org.voltcore.utils.CoreUtils;
+import org.voltcore.utils.DirectDeferredSerialization;
 import org.voltcore.utils.Pair;
 import org.voltdb.ClientResponseImpl;
 import org.voltdb.JdbcDatabaseMetaDataGenerator;
@@ -57,6 +61,9 @@ import org.voltdb.client.ClientStatusListenerExt.DisconnectCause;
  *
  *   It is safe to synchronized on an individual connection and then the distributer, but it is always unsafe
  *   to synchronized on the distributer and then an individual connection.
+ *
+ *   Routing state is only modified while holding the distributer lock. Every modification publishes a new
+ *   immutable RoutingTable so that queue() can pick a connection without synchronizing on the distributer.
  */
 class Distributer {
 
@@ -74,7 +81,7 @@ class Distributer {
     private final VoltNetworkPool m_network;
 
     // Temporary until a distribution/affinity algorithm is written
-    private int m_nextConnection = 0;
+    private final AtomicInteger m_nextConnection = new AtomicInteger(0);
 
     private final boolean m_useMultipleThreads;
     private final boolean m_useClientAffinity;
@@ -93,7 +100,40 @@ class Distributer {
     private final Map<Integer, NodeConnection> m_hostIdToConnection = new HashMap<Integer, NodeConnection>();
     private final Map<String, Procedure> m_procedureInfo = new HashMap<String, Procedure>();
 
-    private boolean m_hashinatorInitialized = false;
+    // Number of partitions in the last topology seen, zero until it is known
+    private int m_partitionCount = 0;
+
+    /**
+     * Immutable snapshot of the routing state above, read without locking by queue()
+     */
+    private static final class RoutingTable {
+        private final NodeConnection m_connections[];
+        private final int m_partitionCount;
+        // Masters are single element arrays so they can be treated the same way as replicas
+        private final Map<Integer, NodeConnection[]> m_partitionMasters;
+        private final Map<Integer, NodeConnection[]> m_partitionReplicas;
+        private final Map<String, Procedure> m_procedureInfo;
+
+        private RoutingTable(
+                NodeConnection connections[],
+                int partitionCount,
+                Map<Integer, NodeConnection[]> partitionMasters,
+                Map<Integer, NodeConnection[]> partitionReplicas,
+                Map<String, Procedure> procedureInfo) {
+            m_connections = connections;
+            m_partitionCount = partitionCount;
+            m_partitionMasters = partitionMasters;
+            m_partitionReplicas = partitionReplicas;
+            m_procedureInfo = procedureInfo;
+        }
+    }
+
+    private volatile RoutingTable m_routing = new RoutingTable(
+            new NodeConnection[0],
+            0,
+            Collections.<Integer, NodeConnection[]>emptyMap(),
+            Collections.<Integer, NodeConnection[]>emptyMap(),
+            Collections.<String, Procedure>emptyMap());
 
     // timeout for individual procedure calls
     private final long m_procedureCallTimeoutMS;
@@ -101,6 +141,16 @@ class Distributer {
 
     public final RateLimiter m_rateLimiter = new RateLimiter();
 
+    /*
+     * Heap buffers invocations are serialized into on the calling thread. A buffer goes back
+     * in the pool once a network thread has copied it into one of its own pooled buffers.
+     * Invocations that don't fit get a buffer of their own.
+     */
+    private static final int INVOCATION_BUFFER_SIZE = 1024 * 4;
+    private static final int MAX_POOLED_INVOCATION_BUFFERS = 1024;
+    private final ConcurrentLinkedQueue<ByteBuffer> m_invocationBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger m_pooledInvocationBuffers = new AtomicInteger(0);
+
     //private final Timer m_timer;
     private final ScheduledExecutorService m_ex =
         Executors.newSingleThreadScheduledExecutor(
@@ -186,10 +236,13 @@ class Distributer {
     class CallbackBookeeping {
         public CallbackBookeeping(long timestamp, ProcedureCallback callback, String name) {
             this.timestamp = timestamp;
+            this.nanoTimestamp = System.nanoTime();
             this.callback = callback;
             this.name = name;
         }
         long timestamp;
+        // for latency stats, timestamp is only milliseconds and can move with the clock
+        final long nanoTimestamp;
         ProcedureCallback callback;
         String name;
     }
@@ -213,29 +266,70 @@ class Distributer {
             m_socketAddress = socketAddress;
         }
 
-        public void createWork(long handle, String name, ByteBuffer c,
+        public void createWork(ProcedureInvocation invocation, SerializedInvocation serialized,
                 ProcedureCallback callback, boolean ignoreBackpressure) {
             long now = System.currentTimeMillis();
             now = m_rateLimiter.sendTxnWithOptionalBlockAndReturnCurrentTime(
                     now, ignoreBackpressure);
             synchronized (this) {
                 if (!m_isConnected) {
-                    final ClientResponse r = new ClientResponseImpl(
-                            ClientResponse.CONNECTION_LOST, new VoltTable[0],
-                            "Connection to database host (" + m_hostname +
-                    ") was lost before a response was received");
-                    try {
-                        callback.clientCallback(r);
-                    } catch (Exception e) {
-                        uncaughtException(callback, r, e);
-                    }
+                    serialized.cancel();
+                    connectionLostBeforeQueueing(callback);
                     return;
                 }
 
-                m_callbacks.put(handle, new CallbackBookeeping(now, callback, name));
+                m_callbacks.put(invocation.getHandle(),
+                        new CallbackBookeeping(now, callback, invocation.getProcName()));
                 m_callbacksToInvoke.incrementAndGet();
             }
-            m_connection.writeStream().enqueue(c);
+            m_connection.writeStream().enqueue(serialized);
+        }
+
+        /**
+         * Queue a group of invocations already serialized into one or more batch messages
+         */
+        public void createBatchWork(List<ProcedureInvocation> invocations,
+                List<ProcedureCallback> callbacks, List<SerializedInvocation> messages,
+                boolean ignoreBackpressure) {
+            final int count = invocations.size();
+            long now = System.currentTimeMillis();
+            for (int ii = 0; ii < count; ii++) {
+                now = m_rateLimiter.sendTxnWithOptionalBlockAndReturnCurrentTime(
+                        now, ignoreBackpressure);
+            }
+            synchronized (this) {
+                if (!m_isConnected) {
+                    for (SerializedInvocation message : messages) {
+                        message.cancel();
+                    }
+                    for (ProcedureCallback callback : callbacks) {
+                        connectionLostBeforeQueueing(callback);
+                    }
+                    return;
+                }
+
+                for (int ii = 0; ii < count; ii++) {
+                    final ProcedureInvocation invocation = invocations.get(ii);
+                    m_callbacks.put(invocation.getHandle(),
+                            new CallbackBookeeping(now, callbacks.get(ii), invocation.getProcName()));
+                    m_callbacksToInvoke.incrementAndGet();
+                }
+            }
+            for (SerializedInvocation message : messages) {
+                m_connection.writeStream().enqueue(message);
+            }
+        }
+
+        private void connectionLostBeforeQueueing(ProcedureCallback callback) {
+            final ClientResponse r = new ClientResponseImpl(
+                    ClientResponse.CONNECTION_LOST, new VoltTable[0],
+                    "Connection to database host (" + m_hostname +
+            ") was lost before a response was received");
+            try {
+                callback.clientCallback(r);
+            } catch (Exception e) {
+                uncaughtException(callback, r, e);
+            }
         }
 
         void sendPing() {
@@ -256,6 +350,7 @@ class Distributer {
          * Update the procedures statistics
          * @param procName Name of procedure being updated
          * @param roundTrip round trip from client queued to client response callback invocation
+         * @param roundTripMicros the same round trip in microseconds
          * @param clusterRoundTrip round trip measured within the VoltDB cluster
          * @param abort true of the procedure was aborted
          * @param failure true if the procedure failed
@@ -263,6 +358,7 @@ class Distributer {
         private void updateStats(
                 String procName,
                 int roundTrip,
+                long roundTripMicros,
                 int clusterRoundTrip,
                 boolean abort,
                 boolean failure) {
@@ -277,12 +373,13 @@ class Distributer {
                 stats.m_endTS = Long.MIN_VALUE;
                 m_stats.put(procName, stats);
             }
-            stats.update(roundTrip, clusterRoundTrip, abort, failure);
+            stats.update(roundTrip, roundTripMicros, clusterRoundTrip, abort, failure);
         }
 
         @Override
         public void handleMessage(ByteBuffer buf, Connection c) {
             long now = System.currentTimeMillis();
+            final long nowNanos = System.nanoTime();
             ClientResponseImpl response = new ClientResponseImpl();
             try {
                 response.initFromBuffer(buf);
@@ -325,7 +422,8 @@ class Distributer {
                     }
                     int clusterRoundTrip = response.getClusterRoundtrip();
                     m_rateLimiter.transactionResponseReceived(now, clusterRoundTrip);
-                    updateStats(stuff.name, delta, clusterRoundTrip, abort, error);
+                    updateStats(stuff.name, delta, (nowNanos - stuff.nanoTimestamp) / 1000,
+                            clusterRoundTrip, abort, error);
                 }
             }
 
@@ -424,6 +522,7 @@ class Distributer {
                     }
 
                     m_connections.remove(this);
+                    publishRouting();
                     //Notify listeners that a connection has been lost
                     for (ClientStatusListenerExt s : m_listeners) {
                         s.connectionLost(m_hostname, m_port, m_connections.size(), m_closeCause);
@@ -578,9 +677,10 @@ class Distributer {
         cxn.m_hostname = c.getHostnameOrIP();
         cxn.m_port = port;
         cxn.m_connection = c;
-        m_connections.add(cxn);
 
         synchronized (this) {
+            m_connections.add(cxn);
+            publishRouting();
             if (m_useClientAffinity) {
                 ProcedureInvocation spi = new ProcedureInvocation( TOPOLOGY_HANDLE, "@Statistics", "TOPO", 0);
                 //The handle is specific to topology updates and has special cased handling
@@ -596,6 +696,142 @@ class Distributer {
 
     //    private HashMap<String, Long> reportedSizes = new HashMap<String, Long>();
 
+    /**
+     * An invocation, or a batch message of them, already serialized with its length prefix.
+     * The network thread copies it into its pooled buffers and returns the buffer.
+     */
+    private class SerializedInvocation implements DirectDeferredSerialization {
+        private final ByteBuffer m_buf;
+
+        private SerializedInvocation(ByteBuffer buf) {
+            m_buf = buf;
+        }
+
+        @Override
+        public int getSerializedSize() {
+            return m_buf.remaining();
+        }
+
+        @Override
+        public void serialize(ByteBuffer buf) {
+            buf.put(m_buf);
+            releaseInvocationBuffer(m_buf);
+        }
+
+        @Override
+        public ByteBuffer[] serialize() {
+            if (m_buf.limit() == m_buf.capacity()) {
+                return new ByteBuffer[] { m_buf };
+            }
+            ByteBuffer copy = ByteBuffer.allocate(m_buf.remaining());
+            copy.put(m_buf);
+            releaseInvocationBuffer(m_buf);
+            return new ByteBuffer[] { copy };
+        }
+
+        @Override
+        public void cancel() {
+            releaseInvocationBuffer(m_buf);
+        }
+    }
+
+    private ByteBuffer acquireInvocationBuffer(int size) {
+        if (size > INVOCATION_BUFFER_SIZE) {
+            return ByteBuffer.allocate(size);
+        }
+        ByteBuffer buf = m_invocationBuffers.poll();
+        if (buf == null) {
+            buf = ByteBuffer.allocate(INVOCATION_BUFFER_SIZE);
+        } else {
+            m_pooledInvocationBuffers.decrementAndGet();
+            buf.clear();
+        }
+        buf.limit(size);
+        return buf;
+    }
+
+    private void releaseInvocationBuffer(ByteBuffer buf) {
+        if (buf.capacity() != INVOCATION_BUFFER_SIZE) {
+            return;
+        }
+        if (m_pooledInvocationBuffers.incrementAndGet() > MAX_POOLED_INVOCATION_BUFFERS) {
+            m_pooledInvocationBuffers.decrementAndGet();
+            return;
+        }
+        m_invocationBuffers.offer(buf);
+    }
+
+    /**
+     * Serialize an invocation on the calling thread so parameters changed after the call
+     * returns aren't sent, and so a failure is thrown to the caller
+     */
+    private SerializedInvocation serialize(ProcedureInvocation invocation) {
+        final ByteBuffer buf = acquireInvocationBuffer(4 + invocation.getSerializedSize());
+        try {
+            buf.putInt(buf.limit() - 4);
+            invocation.flattenToBuffer(buf);
+        } catch (Exception e) {
+            releaseInvocationBuffer(buf);
+            throw new RuntimeException(e);
+        }
+        buf.flip();
+        return new SerializedInvocation(buf);
+    }
+
+    /**
+     * Serialize a group of invocations sent to one connection as batch messages. A batch
+     * message is the batch marker, the number of invocations, and then each invocation
+     * preceded by its length. Another message is started before one would go over what
+     * the server accepts in a single message, an invocation too large on its own is still
+     * sent alone and rejected the same way it would be by callProcedure.
+     */
+    private List<SerializedInvocation> serializeBatch(List<ProcedureInvocation> invocations) {
+        final int count = invocations.size();
+        final int sizes[] = new int[count];
+        // length prefix, batch marker, invocation count
+        final int headerSize = 4 + 1 + 4;
+        final List<SerializedInvocation> messages = new ArrayList<SerializedInvocation>();
+        try {
+            int size = headerSize;
+            int start = 0;
+            for (int ii = 0; ii < count; ii++) {
+                sizes[ii] = invocations.get(ii).getSerializedSize();
+                if (ii > start && (size + 4 + sizes[ii]) - 4 > VoltProtocolHandler.MAX_MESSAGE_SIZE) {
+                    messages.add(serializeBatchMessage(invocations, sizes, start, ii, size));
+                    start = ii;
+                    size = headerSize;
+                }
+                size += 4 + sizes[ii];
+            }
+            messages.add(serializeBatchMessage(invocations, sizes, start, count, size));
+        } catch (RuntimeException e) {
+            for (SerializedInvocation message : messages) {
+                message.cancel();
+            }
+            throw e;
+        }
+        return messages;
+    }
+
+    private SerializedInvocation serializeBatchMessage(List<ProcedureInvocation> invocations,
+            int sizes[], int start, int end, int size) {
+        final ByteBuffer buf = acquireInvocationBuffer(size);
+        try {
+            buf.putInt(size - 4);
+            buf.put(ProcedureInvocation.BATCH_MARKER);
+            buf.putInt(end - start);
+            for (int ii = start; ii < end; ii++) {
+                buf.putInt(sizes[ii]);
+                invocations.get(ii).flattenToBuffer(buf);
+            }
+        } catch (Exception e) {
+            releaseInvocationBuffer(buf);
+            throw new RuntimeException(e);
+        }
+        buf.flip();
+        return new SerializedInvocation(buf);
+    }
+
     /**
      * Queue invocation on first node connection without backpressure. If there is none with without backpressure
      * then return false and don't queue the invocation
@@ -610,96 +846,252 @@ class Distributer {
             ProcedureCallback cb,
             final boolean ignoreBackpressure)
     throws NoConnectionsException {
-        NodeConnection cxn = null;
-        boolean backpressure = true;
-
         /*
-         * Synchronization is necessary to ensure that m_connections is not modified
-         * as well as to ensure that backpressure is reported correctly
+         * The routing decision is made against an immutable snapshot without holding any locks
          */
-        synchronized (this) {
-            final int totalConnections = m_connections.size();
-
-            if (totalConnections == 0) {
-                throw new NoConnectionsException("No connections.");
-            }
+        NodeConnection cxn = route(m_routing, invocation, ignoreBackpressure);
+        final boolean backpressure = (cxn == null);
 
+        if (backpressure) {
             /*
-             * Check if the master for the partition is known. No back pressure check to ensure correct
-             * routing, but backpressure will be managed anyways.
+             * Synchronization is necessary to ensure that backpressure is reported correctly.
+             * Check again while holding the lock so backpressure isn't reported AFTER
+             * offBackPressure has already reported that it ended.
              */
-            if (m_useClientAffinity && m_hashinatorInitialized) {
-                final Procedure procedureInfo = m_procedureInfo.get(invocation.getProcName());
-                if (procedureInfo != null) {
-                    Integer hashedPartition = invocation.getHashinatedParam(procedureInfo.partitionParameter);
-
-                    /*
-                     * If the procedure is read only, load balance across replicas
-                     */
-                    if (procedureInfo.readOnly) {
-                        NodeConnection partitionReplicas[] = m_partitionReplicas.get(hashedPartition);
-                        if (partitionReplicas != null && partitionReplicas.length > 0) {
-                            cxn = partitionReplicas[ThreadLocalRandom.current().nextInt(partitionReplicas.length)];
-                            if (cxn.hadBackPressure()) {
-                                //See if there is one without backpressure
-                                for (NodeConnection nc : partitionReplicas) {
-                                    if (!nc.hadBackPressure()) {
-                                        cxn = nc;
-                                        break;
-                                    }
-                                }
-                            }
-                            if (!cxn.hadBackPressure() || ignoreBackpressure) {
-                                backpressure = false;
-                            }
-                        }
-                    } else {
-                        /*
-                         * Writes have to go to the master
-                         */
-                        cxn = m_partitionMasters.get(hashedPartition);
-                        if (cxn != null && !cxn.hadBackPressure() || ignoreBackpressure) {
-                            backpressure = false;
-                        }
+            synchronized (this) {
+                cxn = route(m_routing, invocation, ignoreBackpressure);
+                if (cxn == null) {
+                    for (ClientStatusListenerExt s : m_listeners) {
+                        s.backpressure(true);
                     }
                 }
             }
-            if (cxn == null) {
-                for (int i=0; i < totalConnections; ++i) {
-                    cxn = m_connections.get(Math.abs(++m_nextConnection % totalConnections));
-                    if (!cxn.hadBackPressure() || ignoreBackpressure) {
-                        // serialize and queue the invocation
-                        backpressure = false;
-                        break;
+        }
+
+        /*
+         * Do the heavy weight serialization outside the synchronized block.
+         * createWork synchronizes on an individual connection which allows for more concurrency
+         */
+        if (cxn != null) {
+            cxn.createWork(invocation, serialize(invocation), cb, ignoreBackpressure);
+        }
+
+        return cxn != null;
+    }
+
+    /**
+     * Queue a batch of invocations. Invocations routed to the same connection are sent to it in a
+     * single batch message. The batch is only queued if every invocation can be routed to a connection
+     * without backpressure.
+     * @param invocations
+     * @param callbacks Callback for the invocation at the same index
+     * @param ignoreBackPressure If true the batch will be queued even if there is backpressure
+     * @return True if the batch was queued and false if it was not queued due to backpressure
+     * @throws NoConnectionsException
+     */
+    boolean queueBatch(
+            ProcedureInvocation invocations[],
+            ProcedureCallback callbacks[],
+            final boolean ignoreBackpressure)
+    throws NoConnectionsException {
+        final NodeConnection routes[] = new NodeConnection[invocations.length];
+        if (!routeBatch(m_routing, invocations, routes, ignoreBackpressure)) {
+            // Same as queue(), re-check while holding the lock before reporting backpressure
+            synchronized (this) {
+                if (!routeBatch(m_routing, invocations, routes, ignoreBackpressure)) {
+                    for (ClientStatusListenerExt s : m_listeners) {
+                        s.backpressure(true);
                     }
+                    return false;
+                }
+            }
+        }
+
+        final Map<NodeConnection, Pair<List<ProcedureInvocation>, List<ProcedureCallback>>> work =
+            new LinkedHashMap<NodeConnection, Pair<List<ProcedureInvocation>, List<ProcedureCallback>>>();
+        for (int ii = 0; ii < invocations.length; ii++) {
+            Pair<List<ProcedureInvocation>, List<ProcedureCallback>> connectionWork = work.get(routes[ii]);
+            if (connectionWork == null) {
+                connectionWork = Pair.<List<ProcedureInvocation>, List<ProcedureCallback>>of(
+                        new ArrayList<ProcedureInvocation>(), new ArrayList<ProcedureCallback>());
+                work.put(routes[ii], connectionWork);
+            }
+            connectionWork.getFirst().add(invocations[ii]);
+            connectionWork.getSecond().add(callbacks[ii]);
+        }
+
+        // Serialize everything before queueing anything, so a failure leaves nothing half sent
+        final List<List<SerializedInvocation>> messages = new ArrayList<List<SerializedInvocation>>();
+        try {
+            for (Pair<List<ProcedureInvocation>, List<ProcedureCallback>> connectionWork : work.values()) {
+                final List<ProcedureInvocation> connectionInvocations = connectionWork.getFirst();
+                if (connectionInvocations.size() == 1) {
+                    messages.add(Collections.singletonList(serialize(connectionInvocations.get(0))));
+                } else {
+                    messages.add(serializeBatch(connectionInvocations));
                 }
             }
+        } catch (RuntimeException e) {
+            for (List<SerializedInvocation> connectionMessages : messages) {
+                for (SerializedInvocation message : connectionMessages) {
+                    message.cancel();
+                }
+            }
+            throw e;
+        }
+
+        int ii = 0;
+        for (Map.Entry<NodeConnection, Pair<List<ProcedureInvocation>, List<ProcedureCallback>>> e :
+                work.entrySet()) {
+            final List<ProcedureInvocation> connectionInvocations = e.getValue().getFirst();
+            final List<ProcedureCallback> connectionCallbacks = e.getValue().getSecond();
+            final List<SerializedInvocation> connectionMessages = messages.get(ii++);
+            if (connectionInvocations.size() == 1) {
+                e.getKey().createWork(connectionInvocations.get(0), connectionMessages.get(0),
+                        connectionCallbacks.get(0), ignoreBackpressure);
+            } else {
+                e.getKey().createBatchWork(connectionInvocations, connectionCallbacks, connectionMessages,
+                        ignoreBackpressure);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pick a connection for the invocation using the given routing snapshot
+     * @return The connection to use or null if all the candidate connections have backpressure
+     * @throws NoConnectionsException
+     */
+    private NodeConnection route(
+            RoutingTable routing,
+            ProcedureInvocation invocation,
+            boolean ignoreBackpressure)
+    throws NoConnectionsException {
+        final NodeConnection connections[] = routing.m_connections;
+        if (connections.length == 0) {
+            throw new NoConnectionsException("No connections.");
+        }
+
+        final NodeConnection candidates[] = affinityCandidates(routing, invocation);
+        if (candidates != null) {
+            return pickCandidate(candidates, ignoreBackpressure);
+        }
+        return pickRoundRobin(connections, ignoreBackpressure);
+    }
+
+    /**
+     * Route every invocation in a batch. Invocations without client affinity all share one
+     * round robin connection so they can be sent together.
+     * @return false if any invocation could only be routed to a connection with backpressure
+     * @throws NoConnectionsException
+     */
+    private boolean routeBatch(
+            RoutingTable routing,
+            ProcedureInvocation invocations[],
+            NodeConnection routes[],
+            boolean ignoreBackpressure)
+    throws NoConnectionsException {
+        final NodeConnection connections[] = routing.m_connections;
+        if (connections.length == 0) {
+            throw new NoConnectionsException("No connections.");
+        }
 
-            if (backpressure) {
-                cxn = null;
-                for (ClientStatusListenerExt s : m_listeners) {
-                    s.backpressure(true);
+        NodeConnection shared = null;
+        for (int ii = 0; ii < invocations.length; ii++) {
+            final NodeConnection candidates[] = affinityCandidates(routing, invocations[ii]);
+            if (candidates != null) {
+                routes[ii] = pickCandidate(candidates, ignoreBackpressure);
+            } else {
+                if (shared == null) {
+                    shared = pickRoundRobin(connections, ignoreBackpressure);
                 }
+                routes[ii] = shared;
+            }
+            if (routes[ii] == null) {
+                return false;
             }
         }
+        return true;
+    }
 
+    /**
+     * Check if the master for the partition is known. No back pressure check to ensure correct
+     * routing, but backpressure will be managed anyways.
+     * @return The connections the invocation has to be routed to, or null if any connection will do
+     */
+    private NodeConnection[] affinityCandidates(RoutingTable routing, ProcedureInvocation invocation) {
+        if (!m_useClientAffinity || routing.m_partitionCount == 0) {
+            return null;
+        }
+        final Procedure procedureInfo = routing.m_procedureInfo.get(invocation.getProcName());
+        if (procedureInfo == null) {
+            return null;
+        }
         /*
-         * Do the heavy weight serialization outside the synchronized block.
-         * createWork synchronizes on an individual connection which allows for more concurrency
+         * Hash with the partition count of this routing snapshot so a topology
+         * change that adds partitions can't route against a mismatched map
          */
-        if (cxn != null) {
-            ByteBuffer buf = ByteBuffer.allocate(4 + invocation.getSerializedSize());
-            buf.putInt(buf.capacity() - 4);
-            try {
-                invocation.flattenToBuffer(buf);
-                buf.flip();
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+        Integer hashedPartition =
+            invocation.getHashinatedParam(procedureInfo.partitionParameter, routing.m_partitionCount);
+
+        /*
+         * If the procedure is read only, load balance across replicas.
+         * Writes have to go to the master
+         */
+        final NodeConnection candidates[] = procedureInfo.readOnly ?
+                routing.m_partitionReplicas.get(hashedPartition) :
+                routing.m_partitionMasters.get(hashedPartition);
+        if (candidates == null || candidates.length == 0) {
+            return null;
+        }
+        return candidates;
+    }
+
+    private static NodeConnection pickCandidate(NodeConnection candidates[], boolean ignoreBackpressure) {
+        NodeConnection cxn = candidates.length == 1 ?
+                candidates[0] : candidates[ThreadLocalRandom.current().nextInt(candidates.length)];
+        if (cxn.hadBackPressure()) {
+            //See if there is one without backpressure
+            for (NodeConnection nc : candidates) {
+                if (!nc.hadBackPressure()) {
+                    cxn = nc;
+                    break;
+                }
             }
-            cxn.createWork(invocation.getHandle(), invocation.getProcName(), buf, cb, ignoreBackpressure);
         }
+        return (!cxn.hadBackPressure() || ignoreBackpressure) ? cxn : null;
+    }
 
-        return !backpressure;
+    private NodeConnection pickRoundRobin(NodeConnection connections[], boolean ignoreBackpressure) {
+        for (int i=0; i < connections.length; ++i) {
+            NodeConnection cxn = connections[Math.abs(m_nextConnection.incrementAndGet() % connections.length)];
+            if (!cxn.hadBackPressure() || ignoreBackpressure) {
+                return cxn;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copy the current routing state into a new immutable snapshot for queue() to use.
+     * Must be called while holding the distributer lock after any change to the routing state.
+     */
+    private void publishRouting() {
+        assert(Thread.holdsLock(this));
+        Map<Integer, NodeConnection[]> partitionMasters = new HashMap<Integer, NodeConnection[]>();
+        for (Map.Entry<Integer, NodeConnection> e : m_partitionMasters.entrySet()) {
+            partitionMasters.put(e.getKey(), new NodeConnection[] { e.getValue() });
+        }
+        Map<Integer, NodeConnection[]> partitionReplicas = new HashMap<Integer, NodeConnection[]>();
+        for (Map.Entry<Integer, NodeConnection[]> e : m_partitionReplicas.entrySet()) {
+            partitionReplicas.put(e.getKey(), e.getValue().clone());
+        }
+        m_routing = new RoutingTable(
+                m_connections.toArray(new NodeConnection[0]),
+                m_partitionCount,
+                Collections.unmodifiableMap(partitionMasters),
+                Collections.unmodifiableMap(partitionReplicas),
+                Collections.unmodifiableMap(new HashMap<String, Procedure>(m_procedureInfo)));
     }
 
     /**
@@ -805,7 +1197,7 @@ class Distributer {
     private void updateAffinityTopology(VoltTable vt) {
         int numPartitions = vt.getRowCount();
         TheHashinator.initialize(numPartitions);
-        m_hashinatorInitialized = true;
+        m_partitionCount = numPartitions;
         m_partitionMasters.clear();
         m_partitionReplicas.clear();
         while (vt.advanceRow()) {
@@ -826,6 +1218,7 @@ class Distributer {
                 m_partitionMasters.put(partition, m_hostIdToConnection.get(leaderHostId));
             }
         }
+        publishRouting();
     }
 
     private void updateProcedurePartitioning(VoltTable vt) {
@@ -845,5 +1238,6 @@ class Distributer {
                 e.printStackTrace();
             }
         }
+        publishRouting();
     }
 }
@@ -0,0 +1,79 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A group of stored procedure invocations to be submitted together with
+ * {@link Client#callProceduresBatch(ProcedureCallBatch)}. Each invocation has
+ * its own callback and receives its own response. A batch can be reused
+ * after it has been submitted by calling {@link #clear()}.
+ */
+public class ProcedureCallBatch {
+
+    private final List<ProcedureCallback> m_callbacks = new ArrayList<ProcedureCallback>();
+    private final List<String> m_procNames = new ArrayList<String>();
+    private final List<Object[]> m_parameters = new ArrayList<Object[]>();
+
+    /**
+     * Add an invocation to the batch.
+     * @param callback ProcedureCallback that will be invoked with procedure results.
+     * @param procName class name (not qualified by package) of the procedure to execute.
+     * @param parameters vararg list of procedure's parameter values.
+     * @return this batch
+     */
+    public ProcedureCallBatch add(ProcedureCallback callback, String procName, Object... parameters) {
+        if (procName == null) {
+            throw new IllegalArgumentException("Procedure name cannot be null");
+        }
+        m_callbacks.add(callback);
+        m_procNames.add(procName);
+        m_parameters.add(parameters);
+        return this;
+    }
+
+    /**
+     * @return The number of invocations in the batch
+     */
+    public int size() {
+        return m_procNames.size();
+    }
+
+    /**
+     * Remove all the invocations from the batch
+     */
+    public void clear() {
+        m_callbacks.clear();
+        m_procNames.clear();
+        m_parameters.clear();
+    }
+
+    ProcedureCallback getCallback(int index) {
+        return m_callbacks.get(index);
+    }
+
+    String getProcName(int index) {
+        return m_procNames.get(index);
+    }
+
+    Object[] getParameters(int index) {
+        return m_parameters.get(index);
+    }
+}
@@ -29,6 +29,12 @@ import org.voltdb.messaging.FastSerializer;
  */
 public class ProcedureInvocation {
 
+    /**
+     * Sent in place of the version byte to mark a message containing a batch of
+     * length prefixed invocations. Doesn't collide with any ProcedureInvocationType.
+     */
+    public static final byte BATCH_MARKER = (byte) (1 << 6);
+
     private final long m_clientHandle;
     private final String m_procName;
     private byte m_procNameBytes[];
@@ -84,6 +90,10 @@ public class ProcedureInvocation {
         return m_parameters.getHashinatedParam(index);
     }
 
+    public Integer getHashinatedParam(int index, int partitionCount) {
+        return m_parameters.getHashinatedParam(index, partitionCount);
+    }
+
     public ByteBuffer flattenToBuffer(ByteBuffer buf) throws IOException {
         buf.put(m_type.getValue());//Version
         if (m_type == ProcedureInvocationType.REPLICATED) {
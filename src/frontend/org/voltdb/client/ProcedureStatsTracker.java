@@ -17,7 +17,7 @@
 
 package org.voltdb.client;
 
-import org.voltdb.LatencyBucketSet;
+import org.voltdb.LatencyHistogram;
 
 public class ProcedureStatsTracker {
 
@@ -36,18 +36,13 @@ public class ProcedureStatsTracker {
         int m_maxRoundTripTime = Integer.MIN_VALUE; // microsecs
         int m_maxClusterRoundTripTime = Integer.MIN_VALUE; // microsecs
 
-        LatencyBucketSet m_latencyBy1ms =
-                new LatencyBucketSet(1, ClientStats.ONE_MS_BUCKET_COUNT);
-        LatencyBucketSet m_latencyBy10ms =
-                new LatencyBucketSet(10, ClientStats.TEN_MS_BUCKET_COUNT);
-        LatencyBucketSet m_latencyBy100ms =
-                new LatencyBucketSet(100, ClientStats.HUNDRED_MS_BUCKET_COUNT);
+        LatencyHistogram m_latencyHistogram = new LatencyHistogram(); // microsecs
 
         public Stats(long since) {
             this.since = since;
         }
 
-        public void update(int roundTripTime, int clusterRoundTripTime,
+        public void update(int roundTripTime, long roundTripTimeMicros, int clusterRoundTripTime,
                            boolean abort, boolean error)
         {
             m_maxRoundTripTime = Math.max(roundTripTime, m_maxRoundTripTime);
@@ -63,10 +58,7 @@ public class ProcedureStatsTracker {
             m_roundTripTime += roundTripTime;
             m_clusterRoundTripTime += clusterRoundTripTime;
 
-            // calculate the latency buckets to increment and increment.
-            m_latencyBy1ms.update(roundTripTime);
-            m_latencyBy10ms.update(roundTripTime);
-            m_latencyBy100ms.update(roundTripTime);
+            m_latencyHistogram.recordValue(roundTripTimeMicros);
         }
     }
 
@@ -87,9 +79,10 @@ public class ProcedureStatsTracker {
         m_intervalStats = new Stats(now);
     }
 
-    void update(int roundTripTime, int clusterRoundTripTime, boolean abort, boolean error) {
-        m_lifetimeStats.update(roundTripTime, clusterRoundTripTime, abort, error);
-        m_intervalStats.update(roundTripTime, clusterRoundTripTime, abort, error);
+    void update(int roundTripTime, long roundTripTimeMicros, int clusterRoundTripTime,
+            boolean abort, boolean error) {
+        m_lifetimeStats.update(roundTripTime, roundTripTimeMicros, clusterRoundTripTime, abort, error);
+        m_intervalStats.update(roundTripTime, roundTripTimeMicros, clusterRoundTripTime, abort, error);
     }
 
     void resetInterval(long since) {
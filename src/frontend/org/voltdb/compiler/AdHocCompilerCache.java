@@ -19,12 +19,14 @@ package org.voltdb.compiler;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.voltdb.VoltDB;
 import org.voltdb.planner.BoundPlan;
@@ -40,6 +42,11 @@ import org.voltdb.planner.BoundPlan;
  * statement mapped to core parameterized plans. These parameterized
  * plans need parameter values and sql literals in order to be
  * actually used.
+ *
+ * Each level is split into lock stripes so that concurrent planner
+ * threads rarely contend, and each stripe is an LRU bounded by the
+ * estimated size in bytes of the plans it holds rather than by an
+ * entry count.
  */
 public class AdHocCompilerCache implements Serializable {
     private static final long serialVersionUID = 1L;
@@ -48,137 +55,244 @@ public class AdHocCompilerCache implements Serializable {
     // STATIC CODE TO MANAGE CACHE LIFETIMES / GLOBALNESS
     //////////////////////////////////////////////////////////////////////////
 
+    /** default size limits, used when the deployment doesn't specify any */
+    public static final int DEFAULT_LITERAL_CACHE_MB = 16;
+    public static final int DEFAULT_CORE_CACHE_MB = 16;
+
+    /** number of lock stripes for each cache level */
+    static final int STRIPES = 16;
+
+    /** rough per-entry overhead of the map entry, key and plan objects */
+    static final int ENTRY_OVERHEAD_BYTES = 128;
+
     private static WeakHashMap<Integer, AdHocCompilerCache> m_catalogVersionMatch = new WeakHashMap<Integer, AdHocCompilerCache>();
 
-    public static void clearVersionCache() {
+    /*
+     * Evictions are counted across all catalog versions so that the
+     * planner statistics stay monotonic across catalog updates.
+     */
+    private static final AtomicLong m_totalLiteralEvictions = new AtomicLong(0);
+    private static final AtomicLong m_totalCoreEvictions = new AtomicLong(0);
+
+    public synchronized static void clearVersionCache() {
         m_catalogVersionMatch.clear();
     }
 
+    /**
+     * Get the global cache for a given version of the catalog using the
+     * default size limits. Note that there can be only one cache per
+     * catalogVersion at a time.
+     */
+    public static AdHocCompilerCache getCacheForCatalogVersion(int catalogVersion) {
+        return getCacheForCatalogVersion(catalogVersion,
+                DEFAULT_LITERAL_CACHE_MB * 1024L * 1024L, DEFAULT_CORE_CACHE_MB * 1024L * 1024L);
+    }
+
     /**
      * Get the global cache for a given version of the catalog. Note that there can be only
-     * one cache per catalogVersion at a time.
+     * one cache per catalogVersion at a time. The size limits only apply when the cache
+     * for the version is created.
+     *
+     * @param maxLiteralBytes size limit in bytes for the literal cache
+     * @param maxCoreBytes size limit in bytes for the parameterized plan cache
      */
-    public synchronized static AdHocCompilerCache getCacheForCatalogVersion(int catalogVersion) {
+    public synchronized static AdHocCompilerCache getCacheForCatalogVersion(int catalogVersion,
+                                                                         long maxLiteralBytes,
+                                                                         long maxCoreBytes) {
         AdHocCompilerCache cache = m_catalogVersionMatch.get(catalogVersion);
         if (cache == null) {
-            cache = new AdHocCompilerCache();
+            cache = new AdHocCompilerCache(maxLiteralBytes, maxCoreBytes);
             m_catalogVersionMatch.put(catalogVersion, cache);
         }
         return cache;
     }
 
+    /**
+     * @return evictions from the literal caches of all catalog versions
+     */
+    public static long getTotalLiteralEvictions() {
+        return m_totalLiteralEvictions.get();
+    }
+
+    /**
+     * @return evictions from the parameterized plan caches of all catalog versions
+     */
+    public static long getTotalCoreEvictions() {
+        return m_totalCoreEvictions.get();
+    }
+
+    //////////////////////////////////////////////////////////////////////////
+    // SIZE BOUNDED, LOCK STRIPED LRU
+    //////////////////////////////////////////////////////////////////////////
+
+    /**
+     * One lock stripe of a cache level. Access ordered so that iteration
+     * starts with the least recently used entry. All access must hold the
+     * stripe's monitor.
+     */
+    private static class Stripe<V> {
+        final LinkedHashMap<String, V> m_map = new LinkedHashMap<String, V>(16, .75f, true);
+        final Map<String, Long> m_sizes = new HashMap<String, Long>();
+        long m_bytes = 0;
+    }
+
+    private static abstract class StripedLRU<V> {
+        final long m_maxBytesPerStripe;
+        final AtomicLong m_evictions;
+        final AtomicLong m_totalEvictions;
+        final Stripe<V>[] m_stripes;
+
+        @SuppressWarnings("unchecked")
+        StripedLRU(long maxBytes, AtomicLong totalEvictions) {
+            m_maxBytesPerStripe = Math.max(1, maxBytes / STRIPES);
+            m_evictions = new AtomicLong(0);
+            m_totalEvictions = totalEvictions;
+            m_stripes = new Stripe[STRIPES];
+            for (int ii = 0; ii < STRIPES; ii++) {
+                m_stripes[ii] = new Stripe<V>();
+            }
+        }
+
+        abstract long estimateSize(String key, V value);
+
+        Stripe<V> stripeFor(String key) {
+            // spread the hash bits so similar keys don't pile into one stripe
+            int h = key.hashCode();
+            h ^= (h >>> 20) ^ (h >>> 12);
+            h ^= (h >>> 7) ^ (h >>> 4);
+            return m_stripes[(h & Integer.MAX_VALUE) % STRIPES];
+        }
+
+        V get(String key) {
+            Stripe<V> stripe = stripeFor(key);
+            synchronized (stripe) {
+                return stripe.m_map.get(key);
+            }
+        }
+
+        /**
+         * Insert or replace the value for a key and evict least recently
+         * used entries until the stripe fits its byte budget again.
+         * The caller must hold the stripe's monitor.
+         */
+        void putLocked(Stripe<V> stripe, String key, V value) {
+            final long size = estimateSize(key, value);
+            stripe.m_map.put(key, value);
+            Long oldSize = stripe.m_sizes.put(key, size);
+            stripe.m_bytes += size - (oldSize == null ? 0 : oldSize);
+
+            Iterator<Map.Entry<String, V>> iter = stripe.m_map.entrySet().iterator();
+            while (stripe.m_bytes > m_maxBytesPerStripe && iter.hasNext()) {
+                Map.Entry<String, V> eldest = iter.next();
+                // always keep the entry just inserted
+                if (eldest.getKey().equals(key)) {
+                    continue;
+                }
+                iter.remove();
+                stripe.m_bytes -= stripe.m_sizes.remove(eldest.getKey());
+                m_evictions.incrementAndGet();
+                m_totalEvictions.incrementAndGet();
+            }
+        }
+
+        int size() {
+            int size = 0;
+            for (Stripe<V> stripe : m_stripes) {
+                synchronized (stripe) {
+                    size += stripe.m_map.size();
+                }
+            }
+            return size;
+        }
+
+        long bytes() {
+            long bytes = 0;
+            for (Stripe<V> stripe : m_stripes) {
+                synchronized (stripe) {
+                    bytes += stripe.m_bytes;
+                }
+            }
+            return bytes;
+        }
+    }
+
+    static long estimateStringSize(String s) {
+        return s == null ? 0 : 40 + 2 * s.length();
+    }
+
+    static long estimateStringsSize(String[] strings) {
+        if (strings == null) {
+            return 0;
+        }
+        long size = 16 + 8 * strings.length;
+        for (String s : strings) {
+            size += estimateStringSize(s);
+        }
+        return size;
+    }
+
     //////////////////////////////////////////////////////////////////////////
     // PER-INSTANCE AWESOMEC CACHING CODE
     //////////////////////////////////////////////////////////////////////////
 
     // cache sizes determined at construction time
-    final int MAX_LITERAL_ENTRIES;
-    final int MAX_CORE_ENTRIES;
+    final long MAX_LITERAL_BYTES;
+    final long MAX_CORE_BYTES;
 
     /** cache of literals to full plans */
-    final Map<String, AdHocPlannedStatement> m_literalCache;
+    final StripedLRU<AdHocPlannedStatement> m_literalCache;
     /** cache of parameterized plan descriptions to one or more core parameterized plans,
      *  each plan optionally has its own requirements for which parameters need to be bound
-     *  to what values to enable its specialized (expression-indexed) plan. */
-    final Map<String, List<BoundPlan> > m_coreCache;
-
-    // placeholder stats used during development that may/may not survive
-    long m_literalHits = 0;
-    long m_literalQueries = 0;
-    long m_literalInsertions = 0;
-    long m_literalEvictions = 0;
-    long m_planHits = 0;
-    long m_planQueries = 0;
-    long m_planInsertions = 0;
-    long m_planEvictions = 0;
-
-    /** {@see this#startPeriodicStatsPrinting() } */
-    Timer m_statsTimer = null;
-
-    /**
-     * Constructor with default cache sizes.
-     */
-    private AdHocCompilerCache() {
-        this(1000, 1000);
-    }
+     *  to what values to enable its specialized (expression-indexed) plan.
+     *  The lists are never modified once cached, a new list replaces the old one. */
+    final StripedLRU<List<BoundPlan>> m_coreCache;
 
+    final AtomicLong m_literalHits = new AtomicLong(0);
+    final AtomicLong m_literalQueries = new AtomicLong(0);
+    final AtomicLong m_literalInsertions = new AtomicLong(0);
+    final AtomicLong m_planHits = new AtomicLong(0);
+    final AtomicLong m_planQueries = new AtomicLong(0);
+    final AtomicLong m_planInsertions = new AtomicLong(0);
 
     /**
      * Constructor with specific cache sizes is only called directly for testing.
      *
-     * @param maxLiteralEntries cache size for literals
-     * @param maxCoreEntries cache size for parameterized plans
+     * @param maxLiteralBytes cache size in bytes for literals
+     * @param maxCoreBytes cache size in bytes for parameterized plans
      */
-    AdHocCompilerCache(int maxLiteralEntries, int maxCoreEntries) {
-        MAX_LITERAL_ENTRIES = maxLiteralEntries;
-        MAX_CORE_ENTRIES = maxCoreEntries;
-
-        // an LRU cache map
-        m_literalCache = new LinkedHashMap<String, AdHocPlannedStatement>(MAX_LITERAL_ENTRIES * 2, .75f, true) {
-            private static final long serialVersionUID = 1L;
+    AdHocCompilerCache(long maxLiteralBytes, long maxCoreBytes) {
+        MAX_LITERAL_BYTES = maxLiteralBytes;
+        MAX_CORE_BYTES = maxCoreBytes;
 
-            // This method is called just after a new entry has been added
+        m_literalCache = new StripedLRU<AdHocPlannedStatement>(MAX_LITERAL_BYTES, m_totalLiteralEvictions) {
             @Override
-            public boolean removeEldestEntry(Map.Entry<String, AdHocPlannedStatement> eldest) {
-                if (size() > MAX_LITERAL_ENTRIES) {
-                    ++m_literalEvictions;
-                    return true;
-                }
-                return false;
+            long estimateSize(String sql, AdHocPlannedStatement plan) {
+                return ENTRY_OVERHEAD_BYTES + estimateStringSize(sql) + plan.getSerializedSize() +
+                       estimateStringsSize(plan.extractedParamStrings);
             }
         };
 
-        // an LRU cache map
-        m_coreCache = new LinkedHashMap<String, List<BoundPlan> >(MAX_CORE_ENTRIES * 2, .75f, true) {
-            private static final long serialVersionUID = 1L;
-
-            // This method is called just after a new entry has been added
+        m_coreCache = new StripedLRU<List<BoundPlan>>(MAX_CORE_BYTES, m_totalCoreEvictions) {
             @Override
-            public boolean removeEldestEntry(Map.Entry<String, List<BoundPlan> > eldest) {
-                if (size() > MAX_CORE_ENTRIES) {
-                    ++m_planEvictions;
-                    return true;
+            long estimateSize(String parsedToken, List<BoundPlan> boundVariants) {
+                long size = ENTRY_OVERHEAD_BYTES + estimateStringSize(parsedToken);
+                for (BoundPlan boundPlan : boundVariants) {
+                    size += boundPlan.core.getSerializedSize() + estimateStringsSize(boundPlan.constants);
                 }
-                return false;
+                return size;
             }
         };
     }
 
-    /**
-     * Stats printing method used during development.
-     * Probably shouldn't live past real stats integration.
-     */
-    synchronized void printStats() {
-        String line1 = String.format("CACHE STATS - Literals: Hits %d/%d (%.1f%%), Inserts %d Evictions %d\n",
-                m_literalHits, m_literalQueries, (m_literalHits * 100.0) / m_literalQueries,
-                m_literalInsertions, m_literalEvictions);
-        String line2 = String.format("CACHE STATS - Plans:    Hits %d/%d (%.1f%%), Inserts %d Evictions %d\n",
-                m_planHits, m_planQueries, (m_planHits * 100.0) /m_planQueries,
-                m_planInsertions, m_planEvictions);
-
-        System.out.print(line1 + line2);
-        System.out.flush();
-
-        // reset these
-        m_literalHits = 0;
-        m_literalQueries = 0;
-        m_literalInsertions = 0;
-        m_literalEvictions = 0;
-        m_planHits = 0;
-        m_planQueries = 0;
-        m_planInsertions = 0;
-        m_planEvictions = 0;
-    }
-
     /**
      * @param sql SQL literal
      * @return full, ready-to-go plan
      */
-    public synchronized AdHocPlannedStatement getWithSQL(String sql) {
-        ++m_literalQueries;
+    public AdHocPlannedStatement getWithSQL(String sql) {
+        m_literalQueries.incrementAndGet();
         AdHocPlannedStatement retval = m_literalCache.get(sql);
         if (retval != null) {
-            ++m_literalHits;
+            m_literalHits.incrementAndGet();
         }
         return retval;
     }
@@ -188,11 +302,11 @@ public class AdHocCompilerCache implements Serializable {
      * SQL statement
      * @return A CorePlan that needs parameter values to run.
      */
-    public synchronized List<BoundPlan> getWithParsedToken(String parsedToken) {
-        ++m_planQueries;
+    public List<BoundPlan> getWithParsedToken(String parsedToken) {
+        m_planQueries.incrementAndGet();
         List<BoundPlan> retval = m_coreCache.get(parsedToken);
         if (retval != null) {
-            ++m_planHits;
+            m_planHits.incrementAndGet();
         }
         return retval;
     }
@@ -205,9 +319,9 @@ public class AdHocCompilerCache implements Serializable {
      * separate plan instances with the same value are input for the
      * same SQL literal.
      */
-    public synchronized void put(String sql,
-                                 String parsedToken,
-                                 AdHocPlannedStatement planIn)
+    public void put(String sql,
+                    String parsedToken,
+                    AdHocPlannedStatement planIn)
     {
         assert(sql != null);
         assert(parsedToken != null);
@@ -215,71 +329,61 @@ public class AdHocCompilerCache implements Serializable {
         AdHocPlannedStatement plan = planIn;
         assert(new String(plan.sql, VoltDB.UTF8ENCODING).equals(sql));
 
-        // uncomment this to get some raw stdout cache performance stats every 5s
-        //startPeriodicStatsPrinting();
-
         BoundPlan matched = null;
         BoundPlan unmatched = new BoundPlan(planIn.core, planIn.parameterBindings());
         // deal with the parameterized plan cache first
-        List<BoundPlan> boundVariants = m_coreCache.get(parsedToken);
-        if (boundVariants == null) {
-            boundVariants = new ArrayList<BoundPlan>();
-            m_coreCache.put(parsedToken, boundVariants);
-            // Note that there is an edge case in which more than one plan is getting counted as one
-            // "plan insertion". This only happens when two different plans arose from the same parameterized
-            // query (token) because one invocation used the correct constants to trigger an expression index and
-            // another invocation did not.  These are not counted separately (which would have to happen below
-            // after each call to boundVariants.add) because they are not evicted separately.
-            // It seems saner to use consistent units when counting insertions vs. evictions.
-            ++m_planInsertions;
-        } else {
-            for (BoundPlan boundPlan : boundVariants) {
-                if (boundPlan.equals(unmatched)) {
-                    matched = boundPlan;
-                    break;
+        Stripe<List<BoundPlan>> coreStripe = m_coreCache.stripeFor(parsedToken);
+        synchronized (coreStripe) {
+            List<BoundPlan> boundVariants = coreStripe.m_map.get(parsedToken);
+            if (boundVariants == null) {
+                m_coreCache.putLocked(coreStripe, parsedToken, Collections.singletonList(unmatched));
+                // Note that there is an edge case in which more than one plan is getting counted as one
+                // "plan insertion". This only happens when two different plans arose from the same parameterized
+                // query (token) because one invocation used the correct constants to trigger an expression index and
+                // another invocation did not.  These are not counted separately (which would have to happen below
+                // after each call to boundVariants.add) because they are not evicted separately.
+                // It seems saner to use consistent units when counting insertions vs. evictions.
+                m_planInsertions.incrementAndGet();
+            } else {
+                for (BoundPlan boundPlan : boundVariants) {
+                    if (boundPlan.equals(unmatched)) {
+                        matched = boundPlan;
+                        break;
+                    }
                 }
-            }
-            if (matched != null) {
-                // if a different core is found, reuse it
-                // this is useful when updating the literal cache
-                if (unmatched.core != matched.core) {
-                    plan = new AdHocPlannedStatement(planIn.sql, matched.core,
-                                                     planIn.extractedParamValues, planIn.extractedParamStrings,
-                                                     matched.constants,
-                                                     planIn.partitionParam);
+                if (matched != null) {
+                    // if a different core is found, reuse it
+                    // this is useful when updating the literal cache
+                    if (unmatched.core != matched.core) {
+                        plan = new AdHocPlannedStatement(planIn.sql, matched.core,
+                                                         planIn.extractedParamValues, planIn.extractedParamStrings,
+                                                         matched.constants,
+                                                         planIn.partitionParam);
+                    }
+                }
+                else {
+                    // Don't count insertions (of possibly repeated tokens) here
+                    //  -- see the comment above where only UNIQUE token insertions are being counted, instead.
+                    // Readers may be iterating the cached list, so replace it rather than modify it.
+                    List<BoundPlan> newVariants = new ArrayList<BoundPlan>(boundVariants.size() + 1);
+                    newVariants.addAll(boundVariants);
+                    newVariants.add(unmatched);
+                    m_coreCache.putLocked(coreStripe, parsedToken, Collections.unmodifiableList(newVariants));
                 }
             }
         }
-        if (matched == null) {
-            // Don't count insertions (of possibly repeated tokens) here
-            //  -- see the comment above where only UNIQUE token insertions are being counted, instead.
-            boundVariants.add(unmatched);
-        }
 
-        // then deal with the
-        AdHocPlannedStatement cachedPlan = m_literalCache.get(sql);
-        if (cachedPlan == null) {
-            m_literalCache.put(sql, plan);
-            ++m_literalInsertions;
-        }
-        else {
-            assert(cachedPlan.equals(plan));
-        }
-    }
-
-    /**
-     * Start a timer that prints cache stats to the console every 5s.
-     * Used for development until we get better stats integration.
-     */
-    public void startPeriodicStatsPrinting() {
-        if (m_statsTimer == null) {
-            m_statsTimer = new Timer();
-            m_statsTimer.scheduleAtFixedRate(new TimerTask() {
-                @Override
-                public void run() {
-                    printStats();
-                }
-            }, 5000, 5000);
+        // then deal with the literal cache
+        Stripe<AdHocPlannedStatement> literalStripe = m_literalCache.stripeFor(sql);
+        synchronized (literalStripe) {
+            AdHocPlannedStatement cachedPlan = literalStripe.m_map.get(sql);
+            if (cachedPlan == null) {
+                m_literalCache.putLocked(literalStripe, sql, plan);
+                m_literalInsertions.incrementAndGet();
+            }
+            else {
+                assert(cachedPlan.equals(plan));
+            }
         }
     }
 
@@ -298,4 +402,34 @@ public class AdHocCompilerCache implements Serializable {
     public int getCoreCacheSize() {
         return m_coreCache.size();
     }
+
+    /**
+     * Return the estimated size of the literal cache.
+     * @return  literal cache size in bytes
+     */
+    public long getLiteralCacheBytes() {
+        return m_literalCache.bytes();
+    }
+
+    /**
+     * Return the estimated size of the core (parameterized) cache.
+     * @return  core cache size in bytes
+     */
+    public long getCoreCacheBytes() {
+        return m_coreCache.bytes();
+    }
+
+    /**
+     * @return evictions from this literal cache
+     */
+    public long getLiteralEvictions() {
+        return m_literalCache.m_evictions.get();
+    }
+
+    /**
+     * @return evictions from this parameterized plan cache
+     */
+    public long getCoreEvictions() {
+        return m_coreCache.m_evictions.get();
+    }
 }
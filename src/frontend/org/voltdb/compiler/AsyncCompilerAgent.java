@@ -29,7 +29,9 @@ import org.voltcore.messaging.LocalObjectMessage;
 import org.voltcore.messaging.Mailbox;
 import org.voltcore.messaging.VoltMessage;
 import org.voltcore.utils.CoreUtils;
+import org.voltcore.utils.Pair;
 import org.voltdb.CatalogContext;
+import org.voltdb.PlannerStatsCollector;
 import org.voltdb.VoltDB;
 import org.voltdb.catalog.Catalog;
 import org.voltdb.catalog.CatalogDiffEngine;
@@ -46,12 +48,29 @@ public class AsyncCompilerAgent {
     // if more than this amount of work is queued, reject new work
     static public final int MAX_QUEUE_DEPTH = 250;
 
+    // number of planner threads, can be overridden with -DadHocPlannerThreads=N
+    static public final int PLANNER_THREADS;
+    static {
+        int plannerThreads = Math.max(1, Math.min(4, CoreUtils.availableProcessors() / 2));
+        Integer plannerThreadsConfig = Integer.getInteger("adHocPlannerThreads");
+        if (plannerThreadsConfig != null && plannerThreadsConfig > 0) {
+            plannerThreads = plannerThreadsConfig;
+        }
+        PLANNER_THREADS = plannerThreads;
+    }
+
     // accept work via this mailbox
     Mailbox m_mailbox;
 
     // do work in this executor service
     final ListeningExecutorService m_es =
-        CoreUtils.getBoundedSingleThreadExecutor("Ad Hoc Planner", MAX_QUEUE_DEPTH);
+        CoreUtils.getBoundedThreadPoolExecutor("Ad Hoc Planner", PLANNER_THREADS, MAX_QUEUE_DEPTH);
+
+    // PlannerTool and its HSQL session are not thread-safe, so every planner
+    // thread keeps its own, rebuilt when the catalog context changes. All of
+    // them share the AdHocCompilerCache for the catalog version.
+    private final ThreadLocal<Pair<CatalogContext, PlannerTool>> m_plannerTools =
+        new ThreadLocal<Pair<CatalogContext, PlannerTool>>();
 
     // intended for integration test use. finish planning what's in
     // the queue and terminate the TPE.
@@ -74,7 +93,7 @@ public class AsyncCompilerAgent {
             @Override
             public void deliver(final VoltMessage message) {
                 try {
-                    m_es.submit(new Runnable() {
+                    submitWork(new Runnable() {
                         @Override
                         public void run() {
                             handleMailboxMessage(message);
@@ -112,7 +131,7 @@ public class AsyncCompilerAgent {
     }
 
     public void compileAdHocPlanForProcedure(final AdHocPlannerWork apw) {
-        m_es.submit(new Runnable() {
+        submitWork(new Runnable() {
             @Override
             public void run(){
                 apw.completionHandler.onCompletion(compileAdHocPlan(apw));
@@ -120,6 +139,43 @@ public class AsyncCompilerAgent {
         });
     }
 
+    /*
+     * Queue work for the planner threads, recording queue depth and the
+     * time the work spends waiting for a planner thread.
+     */
+    private void submitWork(final Runnable work) {
+        final PlannerStatsCollector stats = PlannerTool.m_plannerStats;
+        final long queuedAt = System.nanoTime();
+        if (stats != null) {
+            stats.workQueued();
+        }
+        try {
+            m_es.submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (stats != null) {
+                        stats.workDequeued(System.nanoTime() - queuedAt);
+                    }
+                    work.run();
+                }
+            });
+        } catch (RejectedExecutionException rejected) {
+            if (stats != null) {
+                stats.workRejected();
+            }
+            throw rejected;
+        }
+    }
+
+    private PlannerTool getPlannerTool(CatalogContext context) {
+        Pair<CatalogContext, PlannerTool> ptool = m_plannerTools.get();
+        if (ptool == null || ptool.getFirst() != context) {
+            ptool = Pair.of(context, context.acquirePlannerTool());
+            m_plannerTools.set(ptool);
+        }
+        return ptool.getSecond();
+    }
+
     AdHocPlannedStmtBatch compileAdHocPlan(AdHocPlannerWork work) {
 
         // record the catalog version the query is planned against to
@@ -129,7 +185,7 @@ public class AsyncCompilerAgent {
             context = VoltDB.instance().getCatalogContext();
         }
 
-        final PlannerTool ptool = context.m_ptool;
+        final PlannerTool ptool = getPlannerTool(context);
 
         AdHocPlannedStmtBatch plannedStmtBatch =
                 new AdHocPlannedStmtBatch(work.sqlBatchText,
@@ -22,14 +22,40 @@ import java.util.HashMap;
 
 public class DatabaseEstimates {
 
+    /**
+     * Observed size of an index. Only present when the estimates come from statistics.
+     */
+    public static class IndexEstimates {
+        public long entries = 0;
+        /// Distinct keys in the index, or -1 if unknown
+        public long distinctKeys = -1;
+    }
+
     public static class TableEstimates {
         public long maxTuples = 1000000;
         public long minTuples = 100000;
         public ArrayList<ScalarValueHints> valueHints = new ArrayList<ScalarValueHints>();
+        /// Keyed by index name, empty unless the estimates come from statistics
+        public HashMap<String, IndexEstimates> indexEstimates = new HashMap<String, IndexEstimates>();
     }
 
     HashMap<String, TableEstimates> tables = new HashMap<String, TableEstimates>();
 
+    public DatabaseEstimates() {
+    }
+
+    /**
+     * Copy the table estimates of another instance. The TableEstimates themselves are shared,
+     * the copy just lets lookups of tables without estimates add defaults to their own map.
+     */
+    public DatabaseEstimates(DatabaseEstimates other) {
+        tables.putAll(other.tables);
+    }
+
+    public void setEstimatesForTable(String tableName, TableEstimates estimates) {
+        tables.put(tableName, estimates);
+    }
+
     public TableEstimates getEstimatesForTable(String tableName) {
         if (tables.containsKey(tableName) == false)
             tables.put(tableName, new TableEstimates());
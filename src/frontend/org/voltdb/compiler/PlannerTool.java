@@ -30,12 +30,14 @@ import org.voltdb.SysProcSelector;
 import org.voltdb.VoltDB;
 import org.voltdb.catalog.Cluster;
 import org.voltdb.catalog.Database;
+import org.voltdb.catalog.Deployment;
+import org.voltdb.catalog.Systemsettings;
 import org.voltdb.planner.BoundPlan;
 import org.voltdb.planner.CompiledPlan;
 import org.voltdb.planner.CorePlan;
 import org.voltdb.planner.PartitioningForStatement;
 import org.voltdb.planner.QueryPlanner;
-import org.voltdb.planner.TrivialCostModel;
+import org.voltdb.planner.StatisticsCostModel;
 import org.voltdb.plannodes.AbstractPlanNode;
 import org.voltdb.utils.Encoder;
 
@@ -52,9 +54,10 @@ public class PlannerTool {
     final HSQLInterface m_hsql;
     final int m_catalogVersion;
     final AdHocCompilerCache m_cache;
-    static PlannerStatsCollector m_plannerStats;
+    /** Shared by every planner thread, volatile because it is read without the class lock */
+    static volatile PlannerStatsCollector m_plannerStats;
 
-    public static final int AD_HOC_JOINED_TABLE_LIMIT = 5;
+    public static final int AD_HOC_JOINED_TABLE_LIMIT = 8;
 
     public PlannerTool(final Cluster cluster, final Database database, int catalogVersion) {
         assert(cluster != null);
@@ -63,7 +66,23 @@ public class PlannerTool {
         m_database = database;
         m_cluster = cluster;
         m_catalogVersion = catalogVersion;
-        m_cache = AdHocCompilerCache.getCacheForCatalogVersion(catalogVersion);
+        int literalCacheMB = AdHocCompilerCache.DEFAULT_LITERAL_CACHE_MB;
+        int coreCacheMB = AdHocCompilerCache.DEFAULT_CORE_CACHE_MB;
+        Deployment deployment = cluster.getDeployment().get("deployment");
+        if (deployment != null) {
+            Systemsettings settings = deployment.getSystemsettings().get("systemsettings");
+            if (settings != null) {
+                // catalogs built without the setting report zero, keep the defaults
+                if (settings.getAdhocliteralcachesize() > 0) {
+                    literalCacheMB = settings.getAdhocliteralcachesize();
+                }
+                if (settings.getAdhocplancachesize() > 0) {
+                    coreCacheMB = settings.getAdhocplancachesize();
+                }
+            }
+        }
+        m_cache = AdHocCompilerCache.getCacheForCatalogVersion(catalogVersion,
+                literalCacheMB * 1024L * 1024L, coreCacheMB * 1024L * 1024L);
 
         // LOAD HSQL
         m_hsql = HSQLInterface.loadHsqldb();
@@ -88,7 +107,7 @@ public class PlannerTool {
 
         // Create and register a singleton planner stats collector, if this is the first time.
         // In mock test environments there may be no stats agent.
-        synchronized (this) {
+        synchronized (PlannerTool.class) {
             if (m_plannerStats == null) {
                 final StatsAgent statsAgent = VoltDB.instance().getStatsAgent();
                 if (statsAgent != null) {
@@ -101,9 +120,8 @@ public class PlannerTool {
 
     public AdHocPlannedStatement planSql(String sqlIn, Object partitionParam, boolean inferSP, boolean allowParameterization) {
         CacheUse cacheUse = CacheUse.FAIL;
-        if (m_plannerStats != null) {
-            m_plannerStats.startStatsCollection();
-        }
+        final PlannerStatsCollector stats = m_plannerStats;
+        final Long statsStartTime = (stats != null) ? stats.startStatsCollection() : null;
         try {
             if ((sqlIn == null) || (sqlIn.length() == 0)) {
                 throw new RuntimeException("Can't plan empty or null SQL.");
@@ -135,11 +153,11 @@ public class PlannerTool {
             // PLAN THE STMT
             //////////////////////
 
-            TrivialCostModel costModel = new TrivialCostModel();
+            StatisticsCostModel costModel = new StatisticsCostModel();
             PartitioningForStatement partitioning = new PartitioningForStatement(partitionParam, inferSP, inferSP);
             QueryPlanner planner = new QueryPlanner(
                     sql, "PlannerTool", "PlannerToolProc", m_cluster, m_database,
-                    partitioning, m_hsql, new DatabaseEstimates(), true,
+                    partitioning, m_hsql, StatisticsCostModel.getEstimates(), true,
                     AD_HOC_JOINED_TABLE_LIMIT, costModel, null, null);
             CompiledPlan plan = null;
             String[] extractedLiterals = null;
@@ -189,6 +207,10 @@ public class PlannerTool {
                 // if not cacheable or no cach hit, do the expensive full planning
                 plan = planner.plan();
                 assert(plan != null);
+                if (stats != null) {
+                    stats.updateJoinEnumeration(planner.getJoinPlansPruned(),
+                                                planner.getEstimatedPlanTimeSaved());
+                }
             } catch (Exception e) {
                 throw new RuntimeException("Error compiling query: " + e.toString(), e);
             }
@@ -227,8 +249,11 @@ public class PlannerTool {
             return ahps;
         }
         finally {
-            if (m_plannerStats != null) {
-                m_plannerStats.endStatsCollection(m_cache.getLiteralCacheSize(), m_cache.getCoreCacheSize(), cacheUse, -1);
+            if (stats != null) {
+                stats.endStatsCollection(statsStartTime, m_cache.getLiteralCacheSize(), m_cache.getCoreCacheSize(),
+                                         cacheUse, -1);
+                stats.updateCacheEvictions(AdHocCompilerCache.getTotalLiteralEvictions(),
+                                           AdHocCompilerCache.getTotalCoreEvictions());
             }
         }
     }
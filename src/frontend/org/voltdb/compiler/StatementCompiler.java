@@ -31,7 +31,7 @@ import org.voltdb.planner.CompiledPlan;
 import org.voltdb.planner.PartitioningForStatement;
 import org.voltdb.planner.PlanningErrorException;
 import org.voltdb.planner.QueryPlanner;
-import org.voltdb.planner.TrivialCostModel;
+import org.voltdb.planner.StatisticsCostModel;
 import org.voltdb.plannodes.AbstractPlanNode;
 import org.voltdb.plannodes.AbstractScanPlanNode;
 import org.voltdb.plannodes.DeletePlanNode;
@@ -50,7 +50,7 @@ import org.voltdb.utils.Encoder;
  */
 public abstract class StatementCompiler {
 
-    public static final int DEFAULT_MAX_JOIN_TABLES = 5;
+    public static final int DEFAULT_MAX_JOIN_TABLES = 8;
 
     static void compile(VoltCompiler compiler, HSQLInterface hsql,
             Catalog catalog, Database db, DatabaseEstimates estimates,
@@ -116,7 +116,7 @@ public abstract class StatementCompiler {
         String sql = catalogStmt.getSqltext();
         String stmtName = catalogStmt.getTypeName();
         String procName = catalogStmt.getParent().getTypeName();
-        TrivialCostModel costModel = new TrivialCostModel();
+        StatisticsCostModel costModel = new StatisticsCostModel();
         QueryPlanner planner = new QueryPlanner(
                 sql, stmtName, procName,  catalog.getClusters().get("cluster"), db,
                 partitioning, hsql, estimates, false, DEFAULT_MAX_JOIN_TABLES,
@@ -171,7 +171,7 @@ public class DtxnInitiatorMailbox implements Mailbox
                 state.invocation,
                 delta,
                 response.getStatus());
-        m_latencies.logTransactionCompleted(delta);
+        m_latencies.logTransactionCompleted(delta * 1000L);
         ByteBuffer buf = ByteBuffer.allocate(response.getSerializedSize() + 4);
         buf.putInt(buf.capacity() - 4);
         response.flattenToBuffer(buf).flip();
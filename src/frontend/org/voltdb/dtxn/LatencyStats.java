@@ -20,6 +20,8 @@ package org.voltdb.dtxn;
 import java.util.ArrayList;
 import java.util.Iterator;
 
+import org.voltdb.ClientInterface;
+import org.voltdb.LatencyHistogram;
 import org.voltdb.SiteStatsSource;
 import org.voltdb.SysProcSelector;
 import org.voltdb.VoltDB;
@@ -27,52 +29,30 @@ import org.voltdb.VoltTable.ColumnInfo;
 import org.voltdb.VoltType;
 
 /**
- * Class that provides latency information in buckets. Each bucket contains the
- * number of procedures with latencies in the range.
+ * Class that provides the distribution of transaction round trip times, from when the
+ * initiator receives a procedure invocation to when it responds, with one row per host.
+ * Latencies are kept in a {@link LatencyHistogram} in microseconds. The row has
+ * the common percentiles and the serialized histogram, which can be deserialized with
+ * {@link LatencyHistogram#fromBytes(byte[])} and merged with the rows of other hosts to get
+ * cluster wide percentiles.
  */
 public class LatencyStats extends SiteStatsSource {
+
     /**
-     * A dummy iterator that wraps an integer and provides the
-     * Iterator<Object> necessary for getStatsRowKeyIterator()
-     *
+     * Round trips of transactions initiated by the legacy initiator. With IV2 round trips
+     * are recorded by the client interfaces' admission control groups instead.
      */
-    private static class BucketIterator implements Iterator<Object> {
-        private final int max;
-        private int current = -1;
-
-        private BucketIterator(int max) {
-            this.max = max - 1; // minus one so that it's easier to compare later
-        }
+    private final LatencyHistogram m_latencies = new LatencyHistogram();
 
-        @Override
-        public boolean hasNext() {
-            if (current == max) {
-                return false;
-            }
-            return true;
-        }
-
-        @Override
-        public Object next() {
-            return ++current;
-        }
-
-        @Override
-        public void remove() {
-
-        }
-    }
+    /**
+     * Cumulative histogram as of the last interval poll
+     */
+    private LatencyHistogram m_lastLatencies = new LatencyHistogram();
 
     /**
-     * Latency buckets to store overall latency distribution. It's divided into
-     * 26 buckets, each stores 10ms latency range invocation info. The last
-     * bucket covers invocations with latencies larger than 250ms.
+     * Histogram for the row being generated
      */
-    private final long[] m_latencyBuckets = {0l, 0l, 0l, 0l, 0l, 0l, 0l, 0l, 0l, 0l,
-                                             0l, 0l, 0l, 0l, 0l, 0l, 0l, 0l, 0l, 0l,
-                                             0l, 0l, 0l, 0l, 0l, 0l};
-    private long m_max = (m_latencyBuckets.length - 1) * BUCKET_RANGE;
-    private static final long BUCKET_RANGE = 10; // 10ms
+    private LatencyHistogram m_rowLatencies = null;
 
     public LatencyStats(long siteId) {
         super(siteId, false);
@@ -81,44 +61,78 @@ public class LatencyStats extends SiteStatsSource {
 
     /**
      * Called by the Initiator every time a transaction is completed
-     * @param delta Time the procedure took to round trip intra cluster
+     * @param deltaMicros Time the procedure took to round trip intra cluster in microseconds
      */
-    public synchronized void logTransactionCompleted(int delta) {
-        int bucketIndex = Math.min((int) (delta / BUCKET_RANGE), m_latencyBuckets.length - 1);
-
-        // if the host's clock moves backwards, bucketIndex can be negative
-        // this next line of code is a lie, but a beautiful one that keeps your server up
-        if (bucketIndex < 0) bucketIndex = 0;
+    public synchronized void logTransactionCompleted(long deltaMicros) {
+        m_latencies.recordValue(deltaMicros);
+    }
 
-        m_max = Math.max(delta, m_max);
-        m_latencyBuckets[bucketIndex]++;
+    private LatencyHistogram getLatencies() {
+        if (VoltDB.instance().isIV2Enabled()) {
+            LatencyHistogram latencies = new LatencyHistogram();
+            for (ClientInterface ci : VoltDB.instance().getClientInterfaces()) {
+                latencies.add(ci.getIV2Latencies());
+            }
+            return latencies;
+        }
+        return m_latencies.copy();
     }
 
     @Override
     protected Iterator<Object> getStatsRowKeyIterator(boolean interval) {
-        return new BucketIterator(m_latencyBuckets.length);
+        final LatencyHistogram latencies = getLatencies();
+        if (interval) {
+            m_rowLatencies = LatencyHistogram.diff(latencies, m_lastLatencies);
+            m_lastLatencies = latencies;
+        } else {
+            m_rowLatencies = latencies;
+        }
+        return new Iterator<Object>() {
+            boolean givenNext = false;
+            @Override
+            public boolean hasNext() {
+                return !givenNext;
+            }
+
+            @Override
+            public Object next() {
+                givenNext = true;
+                return null;
+            }
+
+            @Override
+            public void remove() {}
+        };
     }
 
     @Override
     protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
         super.populateColumnSchema(columns);
-        columns.add(new ColumnInfo("BUCKET_MIN", VoltType.INTEGER));
-        columns.add(new ColumnInfo("BUCKET_MAX", VoltType.INTEGER));
         columns.add(new ColumnInfo("INVOCATIONS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("MIN", VoltType.BIGINT));
+        columns.add(new ColumnInfo("MAX", VoltType.BIGINT));
+        columns.add(new ColumnInfo("AVG", VoltType.BIGINT));
+        columns.add(new ColumnInfo("P50", VoltType.BIGINT));
+        columns.add(new ColumnInfo("P95", VoltType.BIGINT));
+        columns.add(new ColumnInfo("P99", VoltType.BIGINT));
+        columns.add(new ColumnInfo("P99_9", VoltType.BIGINT));
+        columns.add(new ColumnInfo("P99_99", VoltType.BIGINT));
+        columns.add(new ColumnInfo("HISTOGRAM", VoltType.VARBINARY));
     }
 
     @Override
     protected void updateStatsRow(Object rowKey, Object[] rowValues) {
-        final int bucket = (Integer) rowKey;
-
-        rowValues[columnNameToIndex.get("BUCKET_MIN")] = bucket * BUCKET_RANGE;
-        if (bucket < m_latencyBuckets.length - 1) {
-            rowValues[columnNameToIndex.get("BUCKET_MAX")] = (bucket + 1) * BUCKET_RANGE;
-        } else {
-            // max for the last bucket is the max of the largest latency
-            rowValues[columnNameToIndex.get("BUCKET_MAX")] = m_max;
-        }
-        rowValues[columnNameToIndex.get("INVOCATIONS")] = m_latencyBuckets[bucket];
+        final LatencyHistogram latencies = m_rowLatencies;
+        rowValues[columnNameToIndex.get("INVOCATIONS")] = latencies.getTotalCount();
+        rowValues[columnNameToIndex.get("MIN")] = latencies.getMinValue();
+        rowValues[columnNameToIndex.get("MAX")] = latencies.getMaxValue();
+        rowValues[columnNameToIndex.get("AVG")] = (long)latencies.getMean();
+        rowValues[columnNameToIndex.get("P50")] = latencies.getValueAtPercentile(0.5);
+        rowValues[columnNameToIndex.get("P95")] = latencies.getValueAtPercentile(0.95);
+        rowValues[columnNameToIndex.get("P99")] = latencies.getValueAtPercentile(0.99);
+        rowValues[columnNameToIndex.get("P99_9")] = latencies.getValueAtPercentile(0.999);
+        rowValues[columnNameToIndex.get("P99_99")] = latencies.getValueAtPercentile(0.9999);
+        rowValues[columnNameToIndex.get("HISTOGRAM")] = latencies.toBytes();
         super.updateStatsRow(rowKey, rowValues);
     }
 }
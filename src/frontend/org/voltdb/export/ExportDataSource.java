@@ -86,6 +86,14 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
 
     private final int m_nullArrayLength;
 
+    // Throughput and backlog, maintained on m_es and read by @Statistics EXPORT
+    private volatile long m_bytesPushed = 0;
+    private volatile long m_bytesDrained = 0;
+    private volatile long m_backlogBytes = 0;
+    private long m_lastStatsTime = System.currentTimeMillis();
+    private long m_lastStatsBytesPushed = 0;
+    private long m_lastStatsBytesDrained = 0;
+
     /**
      * Create a new data source.
      * @param db
@@ -237,14 +245,17 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
             if (releaseOffset >= sb.uso() + sb.totalUso()) {
                 m_committedBuffers.pop();
                 blocksToDelete.add(sb);
+                m_bytesDrained += sb.unreleasedSize();
                 lastUso = sb.uso() + sb.totalUso();
             } else if (releaseOffset >= sb.uso()) {
+                m_bytesDrained += releaseOffset - sb.unreleasedUso();
                 sb.releaseUso(releaseOffset);
                 lastUso = releaseOffset;
                 break;
             }
         }
         m_firstUnpolledUso = Math.max(m_firstUnpolledUso, lastUso);
+        m_backlogBytes = m_committedBuffers.sizeInBytes();
     }
 
     private void exportActionImpl(RawProcessor.ExportInternalMessage m) {
@@ -310,6 +321,7 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
                             break;
                         } else {
                             blocksToDelete.add(block);
+                            m_bytesDrained += block.unreleasedSize();
                             iter.remove();
                         }
                     }
@@ -521,6 +533,7 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
                                     deleted.set(true);
                                 }
                             }, uso, false));
+                    m_bytesPushed += buffer.capacity();
                 } catch (IOException e) {
                     exportLog.error(e);
                     if (!deleted.get()) {
@@ -547,6 +560,7 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
                 exportLog.error(e);
             }
         }
+        m_backlogBytes = m_committedBuffers.sizeInBytes();
         pollImpl(m_pollFuture);
     }
 
@@ -584,6 +598,33 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
         });
     }
 
+    /**
+     * Export throughput of this source for @Statistics EXPORT as
+     * { bytes pushed, bytes drained, backlog bytes, bytes drained per second }.
+     * The rate covers the time since the previous interval request, as do the
+     * pushed and drained counts when interval is true.
+     */
+    public synchronized long[] getStats(boolean interval, long now) {
+        final long pushed = m_bytesPushed;
+        final long drained = m_bytesDrained;
+        final long elapsed = Math.max(1, now - m_lastStatsTime);
+        final long drainRate = (drained - m_lastStatsBytesDrained) * 1000 / elapsed;
+        final long stats[];
+        if (interval) {
+            stats = new long[] {
+                    pushed - m_lastStatsBytesPushed,
+                    drained - m_lastStatsBytesDrained,
+                    m_backlogBytes,
+                    drainRate };
+            m_lastStatsTime = now;
+            m_lastStatsBytesPushed = pushed;
+            m_lastStatsBytesDrained = drained;
+        } else {
+            stats = new long[] { pushed, drained, m_backlogBytes, drainRate };
+        }
+        return stats;
+    }
+
     public long getGeneration() {
         return m_generation;
     }
@@ -685,6 +726,7 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
                         break;
                     } else {
                         blocksToDelete.add(block);
+                        m_bytesDrained += block.unreleasedSize();
                         iter.remove();
                     }
                 }
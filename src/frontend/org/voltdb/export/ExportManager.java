@@ -20,8 +20,11 @@ package org.voltdb.export;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -469,6 +472,29 @@ public class ExportManager
         return 0;
     }
 
+    /**
+     * All data sources of all generations on this node, for @Statistics EXPORT
+     */
+    public static List<ExportDataSource> getExportDataSources() {
+        List<ExportDataSource> sources = new ArrayList<ExportDataSource>();
+        ExportManager instance = instance();
+        if (instance == null) {
+            return sources;
+        }
+        try {
+            for (ExportGeneration generation : instance.m_generations.values()) {
+                for (HashMap<String, ExportDataSource> partitionSources :
+                        generation.m_dataSourcesByPartition.values()) {
+                    sources.addAll(partitionSources.values());
+                }
+            }
+        } catch (Exception e) {
+            //Generations come and go, don't fail the statistics request
+            exportLog.error(e);
+        }
+        return sources;
+    }
+
     /*
      * This method pulls double duty as a means of pushing export buffers
      * and "syncing" export data to disk. Syncing doesn't imply fsync, it just means
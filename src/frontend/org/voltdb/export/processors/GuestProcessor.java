@@ -162,9 +162,9 @@ public class GuestProcessor implements ExportDataProcessor {
                                 cont.b.order(ByteOrder.LITTLE_ENDIAN);
                                 while (cont.b.hasRemaining()) {
                                     int length = cont.b.getInt();
-                                    byte[] rowdata = new byte[length];
-                                    cont.b.get(rowdata, 0, length);
-                                    edb.processRow(length, rowdata);
+                                    final int nextRow = cont.b.position() + length;
+                                    edb.processRow(length, cont.b);
+                                    cont.b.position(nextRow);
                                 }
                                 edb.onBlockCompletion();
                                 break;
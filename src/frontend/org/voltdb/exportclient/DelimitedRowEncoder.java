@@ -0,0 +1,424 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.voltdb.exportclient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.voltdb.VoltDB;
+import org.voltdb.VoltType;
+import org.voltdb.utils.Encoder;
+
+import au.com.bytecode.opencsv_voltpatches.CSVWriter;
+
+/**
+ * Formats export rows as delimited text directly from the little endian
+ * row encoding in an export block, appending to a reusable byte buffer.
+ * The output matches decoding each row with {@link ExportDecoderBase} and
+ * writing the fields with a {@link CSVWriter} configured with the same
+ * delimiters, without a String, Date or boxed value per field.
+ *
+ * Not thread safe, use one instance per thread.
+ */
+class DelimitedRowEncoder {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] NULL_FIELD = { 'N', 'U', 'L', 'L' };
+    private static final byte[] HEX_DIGITS = {
+        '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    // 9999-12-31 23:59:59.999, the last instant that formats as four digit year
+    private static final long MAX_FORMATTED_MILLIS = 253402300799999L;
+
+    private final VoltType[] m_schema;
+    private final int m_firstField;
+    private final int m_nullArrayLength;
+    private final byte[] m_separator;
+    private final byte[] m_quote;
+    private final byte[] m_lineEnd;
+    private final char m_quoteChar;
+    private final char m_escapeChar;
+    private final char[] m_extraEscapeChars;
+    private final byte[] m_escape;
+    // ASCII characters that must be preceded by the escape character, null
+    // if any character that needs escaping is outside of ASCII
+    private final boolean[] m_escapedBytes;
+    private final TimeZone m_tz;
+    // only used for timestamps outside of years 1970 through 9999
+    private SimpleDateFormat m_dateFormat;
+
+    private final byte[] m_scratch = new byte[32];
+    private byte[] m_bytes = new byte[1024 * 64];
+    private int m_size = 0;
+
+    DelimitedRowEncoder(List<VoltType> schema, int firstField,
+            char separator, char quote, char escape, String lineEnd,
+            char[] extraEscapeChars, TimeZone tz) {
+        m_schema = schema.toArray(new VoltType[schema.size()]);
+        m_firstField = firstField;
+        m_nullArrayLength = ((m_schema.length + 7) & -8) >> 3;
+        m_separator = String.valueOf(separator).getBytes(UTF8);
+        m_quote = quote == CSVWriter.NO_QUOTE_CHARACTER ?
+                new byte[0] : String.valueOf(quote).getBytes(UTF8);
+        m_lineEnd = lineEnd.getBytes(UTF8);
+        m_quoteChar = quote;
+        m_escapeChar = escape;
+        m_extraEscapeChars = extraEscapeChars == null ? new char[0] : extraEscapeChars.clone();
+        m_escape = String.valueOf(escape).getBytes(UTF8);
+        m_tz = tz;
+
+        boolean[] escapedBytes = new boolean[128];
+        boolean ascii = true;
+        if (escape != CSVWriter.NO_ESCAPE_CHARACTER) {
+            ascii &= markEscaped(escapedBytes, quote);
+            ascii &= markEscaped(escapedBytes, escape);
+        }
+        for (char c : m_extraEscapeChars) {
+            ascii &= markEscaped(escapedBytes, c);
+        }
+        m_escapedBytes = ascii ? escapedBytes : null;
+    }
+
+    /**
+     * Encoder with the same delimiters as {@link CSVWriter#CSVWriter(java.io.Writer)}
+     */
+    static DelimitedRowEncoder csv(List<VoltType> schema, int firstField, TimeZone tz) {
+        return new DelimitedRowEncoder(schema, firstField,
+                CSVWriter.DEFAULT_SEPARATOR, CSVWriter.DEFAULT_QUOTE_CHARACTER,
+                CSVWriter.DEFAULT_ESCAPE_CHARACTER, CSVWriter.DEFAULT_LINE_END, null, tz);
+    }
+
+    /**
+     * Encoder with the same delimiters as {@link CSVWriter#getStrictTSVWriter(java.io.Writer)}
+     */
+    static DelimitedRowEncoder tsv(List<VoltType> schema, int firstField, TimeZone tz) {
+        return new DelimitedRowEncoder(schema, firstField,
+                '\t', CSVWriter.NO_QUOTE_CHARACTER, '\\', CSVWriter.DEFAULT_LINE_END,
+                new char[] { '\r', '\n' }, tz);
+    }
+
+    private static boolean markEscaped(boolean[] escapedBytes, char c) {
+        if (c >= escapedBytes.length) {
+            return false;
+        }
+        escapedBytes[c] = true;
+        return true;
+    }
+
+    /**
+     * Append one row, read from the position of the buffer, as a line of
+     * delimited text. The position of the buffer is left undefined.
+     */
+    void appendRow(ByteBuffer row) throws IOException {
+        final int nullArrayPosition = row.position();
+        row.position(nullArrayPosition + m_nullArrayLength);
+        for (int i = 0; i < m_schema.length; i++) {
+            final int flags = row.get(nullArrayPosition + (i >> 3));
+            final boolean isNull = (flags & (0x80 >>> (i & 7))) != 0;
+            final boolean skip = i < m_firstField;
+            if (!skip) {
+                if (i != m_firstField) {
+                    append(m_separator);
+                }
+                append(m_quote);
+            }
+            if (isNull) {
+                if (!skip) {
+                    appendEscaped(NULL_FIELD, 0, NULL_FIELD.length);
+                }
+            } else {
+                appendColumn(row, m_schema[i], skip);
+            }
+            if (!skip) {
+                append(m_quote);
+            }
+        }
+        append(m_lineEnd);
+    }
+
+    private void appendColumn(ByteBuffer row, VoltType type, boolean skip) throws IOException {
+        switch (type) {
+        case TINYINT:
+            if (!skip) appendLong((byte) row.getLong());
+            else row.getLong();
+            break;
+        case SMALLINT:
+            if (!skip) appendLong((short) row.getLong());
+            else row.getLong();
+            break;
+        case INTEGER:
+            if (!skip) appendLong((int) row.getLong());
+            else row.getLong();
+            break;
+        case BIGINT:
+            if (!skip) appendLong(row.getLong());
+            else row.getLong();
+            break;
+        case FLOAT:
+            if (!skip) appendAscii(Double.toString(row.getDouble()));
+            else row.getDouble();
+            break;
+        case TIMESTAMP:
+            if (!skip) appendTimestamp(row.getLong());
+            else row.getLong();
+            break;
+        case STRING: {
+            final int length = row.getInt();
+            if (!skip) appendString(row, length);
+            row.position(row.position() + length);
+            break;
+        }
+        case VARBINARY: {
+            final int length = row.getInt();
+            if (!skip) appendHex(row, length);
+            row.position(row.position() + length);
+            break;
+        }
+        case DECIMAL: {
+            final int length = row.getInt();
+            if (!skip) appendDecimal(row, length);
+            row.position(row.position() + length);
+            break;
+        }
+        default:
+            throw new IOException("Invalid column type: " + type);
+        }
+    }
+
+    private void appendLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            appendAscii(Long.toString(value));
+            return;
+        }
+        final boolean negative = value < 0;
+        long remaining = negative ? -value : value;
+        int pos = m_scratch.length;
+        do {
+            m_scratch[--pos] = (byte) ('0' + (remaining % 10));
+            remaining /= 10;
+        } while (remaining != 0);
+        if (negative) {
+            m_scratch[--pos] = '-';
+        }
+        appendEscaped(m_scratch, pos, m_scratch.length - pos);
+    }
+
+    /**
+     * Format the microsecond timestamp the way VoltDB.ODBC_DATE_FORMAT_STRING
+     * does in the configured time zone
+     */
+    private void appendTimestamp(long micros) {
+        final long millis = micros / 1000;
+        final long local = millis + m_tz.getOffset(millis);
+        if (millis < 0 || local < 0 || local > MAX_FORMATTED_MILLIS) {
+            if (m_dateFormat == null) {
+                m_dateFormat = new SimpleDateFormat(VoltDB.ODBC_DATE_FORMAT_STRING);
+                m_dateFormat.setTimeZone(m_tz);
+            }
+            appendString(m_dateFormat.format(new Date(millis)));
+            return;
+        }
+
+        // Civil date from days since the epoch, proleptic Gregorian
+        // which is what SimpleDateFormat uses for these years
+        final long z = local / MILLIS_PER_DAY + 719468;
+        final long era = z / 146097;
+        final long doe = z - era * 146097;
+        final long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        final long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        final long mp = (5 * doy + 2) / 153;
+        final int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        final int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        final int year = (int) (yoe + era * 400 + (month <= 2 ? 1 : 0));
+        int msOfDay = (int) (local % MILLIS_PER_DAY);
+
+        final byte[] b = m_scratch;
+        putDigits(b, 0, year, 4);
+        b[4] = '-';
+        putDigits(b, 5, month, 2);
+        b[7] = '-';
+        putDigits(b, 8, day, 2);
+        b[10] = ' ';
+        putDigits(b, 11, msOfDay / 3600000, 2);
+        msOfDay %= 3600000;
+        b[13] = ':';
+        putDigits(b, 14, msOfDay / 60000, 2);
+        msOfDay %= 60000;
+        b[16] = ':';
+        putDigits(b, 17, msOfDay / 1000, 2);
+        b[19] = '.';
+        putDigits(b, 20, msOfDay % 1000, 3);
+        appendEscaped(b, 0, 23);
+    }
+
+    private static void putDigits(byte[] b, int offset, int value, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            b[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private void appendString(ByteBuffer row, int length) {
+        if (m_escapedBytes == null) {
+            byte[] data = new byte[length];
+            row.duplicate().get(data);
+            appendString(new String(data, UTF8));
+            return;
+        }
+        // worst case every byte is escaped
+        ensureCapacity(length * (1 + m_escape.length));
+        final int start = row.position();
+        if (row.hasArray()) {
+            final byte[] array = row.array();
+            final int offset = row.arrayOffset() + start;
+            for (int i = 0; i < length; i++) {
+                appendEscapedByte(array[offset + i]);
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                appendEscapedByte(row.get(start + i));
+            }
+        }
+    }
+
+    private void appendHex(ByteBuffer row, int length) {
+        if (m_escapedBytes == null) {
+            byte[] data = new byte[length];
+            row.duplicate().get(data);
+            appendString(Encoder.hexEncode(data));
+            return;
+        }
+        ensureCapacity(length * 2 * (1 + m_escape.length));
+        final int start = row.position();
+        for (int i = 0; i < length; i++) {
+            final int b = row.get(start + i);
+            appendEscapedByte(HEX_DIGITS[(b >> 4) & 0xF]);
+            appendEscapedByte(HEX_DIGITS[b & 0xF]);
+        }
+    }
+
+    private void appendDecimal(ByteBuffer row, int length) {
+        byte[] data = new byte[length];
+        row.duplicate().get(data);
+        BigDecimal bd;
+        try {
+            bd = new BigDecimal(new String(data, UTF8));
+        } catch (NumberFormatException e) {
+            // ExportDecoderBase.decodeDecimal decodes garbage as NULL
+            appendEscaped(NULL_FIELD, 0, NULL_FIELD.length);
+            return;
+        }
+        appendAscii(bd.toString());
+    }
+
+    private void appendAscii(String value) {
+        if (m_escapedBytes == null) {
+            appendString(value);
+            return;
+        }
+        final int length = value.length();
+        ensureCapacity(length * (1 + m_escape.length));
+        for (int i = 0; i < length; i++) {
+            appendEscapedByte((byte) value.charAt(i));
+        }
+    }
+
+    private void appendString(String value) {
+        if (m_escapedBytes != null) {
+            byte[] data = value.getBytes(UTF8);
+            appendEscaped(data, 0, data.length);
+            return;
+        }
+        // Escaping a non-ASCII character, do it the way CSVWriter does
+        StringBuilder sb = new StringBuilder(value.length() + 16);
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            boolean escaped = m_escapeChar != CSVWriter.NO_ESCAPE_CHARACTER &&
+                    (c == m_quoteChar || c == m_escapeChar);
+            for (char eec : m_extraEscapeChars) {
+                escaped |= c == eec;
+            }
+            if (escaped) {
+                sb.append(m_escapeChar);
+            }
+            sb.append(c);
+        }
+        append(sb.toString().getBytes(UTF8));
+    }
+
+    private void appendEscaped(byte[] data, int offset, int length) {
+        if (m_escapedBytes == null) {
+            appendString(new String(data, offset, length, UTF8));
+            return;
+        }
+        ensureCapacity(length * (1 + m_escape.length));
+        for (int i = offset; i < offset + length; i++) {
+            appendEscapedByte(data[i]);
+        }
+    }
+
+    // capacity must have been ensured by the caller
+    private void appendEscapedByte(byte b) {
+        if (b >= 0 && m_escapedBytes[b]) {
+            System.arraycopy(m_escape, 0, m_bytes, m_size, m_escape.length);
+            m_size += m_escape.length;
+        }
+        m_bytes[m_size++] = b;
+    }
+
+    private void append(byte[] data) {
+        ensureCapacity(data.length);
+        System.arraycopy(data, 0, m_bytes, m_size, data.length);
+        m_size += data.length;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (m_size + additional > m_bytes.length) {
+            m_bytes = Arrays.copyOf(m_bytes, Math.max(m_bytes.length * 2, m_size + additional));
+        }
+    }
+
+    /**
+     * Number of encoded bytes appended since the last reset
+     */
+    int size() {
+        return m_size;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(m_bytes, 0, m_size);
+    }
+
+    void reset() {
+        m_size = 0;
+    }
+
+    /**
+     * Discard what was appended after the encoded size was {@code size}
+     */
+    void truncate(int size) {
+        assert(size <= m_size);
+        m_size = size;
+    }
+}
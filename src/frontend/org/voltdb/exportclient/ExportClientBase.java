@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.json_voltpatches.JSONArray;
@@ -35,6 +36,9 @@ import org.voltdb.export.ExportProtoMessage.AdvertisedDataSource;
 import org.voltdb.utils.BandwidthMonitor;
 import org.voltdb.utils.MiscUtils;
 
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * Provides an extensible base class for writing Export clients
  * Manages a set of connections to servers and a record of all of
@@ -465,13 +469,31 @@ public abstract class ExportClientBase {
 
             // work all the ExportDataSinks.
             // process incoming data and generate outgoing ack/polls
+            // each sink runs on its decoder's executor, so decoders that
+            // provide a pool decode all partitions in parallel
+            List<ListenableFuture<?>> sinkWork = new ArrayList<ListenableFuture<?>>();
             for (HashMap<String, HashMap<Integer, ExportDataSink>> gen_map : m_sinks.values()) {
                 for (HashMap<Integer, ExportDataSink> part_map : gen_map.values()) {
-                    for (ExportDataSink sink : part_map.values()) {
-                        sink.work();
+                    for (final ExportDataSink sink : part_map.values()) {
+                        sinkWork.add(sink.m_decoder.getExecutor().submit(new Runnable() {
+                            @Override
+                            public void run() {
+                                sink.work();
+                            }
+                        }));
                     }
                 }
             }
+            // the connections drain the sinks' queues, wait for all of them
+            for (ListenableFuture<?> f : sinkWork) {
+                try {
+                    f.get();
+                } catch (InterruptedException e) {
+                    Throwables.propagate(e);
+                } catch (ExecutionException e) {
+                    Throwables.propagate(e.getCause());
+                }
+            }
 
             // drain all the received connection messages into the
             // RX queues for the ExportDataSinks and push all acks/polls
@@ -181,9 +181,9 @@ public class ExportDataSink {
                     // run the verifier until m.getData() is consumed
                     while (m.getData().hasRemaining()) {
                         int length = m.getData().getInt();
-                        byte[] rowdata = new byte[length];
-                        m.getData().get(rowdata, 0, length);
-                        m_decoder.processRow(length, rowdata);
+                        final int nextRow = m.getData().position() + length;
+                        m_decoder.processRow(length, m.getData());
+                        m.getData().position(nextRow);
                     }
 
                     // Perform completion work on the decoder
@@ -19,6 +19,7 @@ package org.voltdb.exportclient;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 
@@ -65,6 +66,25 @@ public abstract class ExportDecoderBase {
      */
     abstract public boolean processRow(int rowSize, byte[] rowData) throws RestartBlockException;
 
+    /**
+     * Process a row in place in the block it was exported in. The row starts at
+     * the buffer's position and the buffer is little endian. The position may be
+     * left anywhere, the caller moves it to the next row. The default copies the
+     * row out and calls {@link #processRow(int, byte[])}, decoders that can work
+     * from the buffer directly should override this to avoid the copy.
+     *
+     * @param rowSize
+     *            the length of the row (in octets)
+     * @param rowData
+     *            buffer positioned at the start of the row
+     * @return whether or not the row processing was successful
+     */
+    public boolean processRow(int rowSize, ByteBuffer rowData) throws RestartBlockException {
+        byte[] row = new byte[rowSize];
+        rowData.get(row, 0, rowSize);
+        return processRow(rowSize, row);
+    }
+
     abstract public void sourceNoLongerAdvertised(AdvertisedDataSource source);
 
     /**
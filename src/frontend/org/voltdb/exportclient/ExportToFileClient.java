@@ -17,11 +17,15 @@
 
 package org.voltdb.exportclient;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -48,15 +52,11 @@ import org.json_voltpatches.JSONStringer;
 import org.voltcore.logging.VoltLogger;
 import org.voltcore.utils.CoreUtils;
 import org.voltdb.VoltDB;
-import org.voltdb.VoltType;
 import org.voltdb.export.ExportProtoMessage.AdvertisedDataSource;
-import org.voltdb.types.TimestampType;
-import org.voltdb.utils.Encoder;
 import org.voltdb.utils.VoltFile;
 
-import au.com.bytecode.opencsv_voltpatches.CSVWriter;
-
 import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 /**
  * Uses the Export feature of VoltDB to write exported tables to files.
@@ -77,8 +77,10 @@ public class ExportToFileClient extends ExportClientBase2 {
     // active means the folder is being written to
     private static final String ACTIVE_PREFIX = "active-";
 
-    // use thread-local to avoid SimpleDateFormat thread-safety issues
-    protected ThreadLocal<SimpleDateFormat> m_ODBCDateformat;
+    // rows encoded per block are handed to the file once they reach this size
+    private static final int ENCODED_BYTES_FLUSH_THRESHOLD = 1024 * 256;
+
+    protected TimeZone m_timeZone;
     protected char m_delimiter;
     protected char[] m_fullDelimiters;
     protected String m_extension;
@@ -108,6 +110,8 @@ public class ExportToFileClient extends ExportClientBase2 {
 
     // timer used to roll batches
     protected ScheduledExecutorService m_ses;
+    // blocks from all partitions are decoded in parallel on this pool
+    protected ListeningExecutorService m_decoderExecutor;
     /**
     *
     */
@@ -115,7 +119,7 @@ public class ExportToFileClient extends ExportClientBase2 {
 
     class PeriodicExportContext {
         final File m_dirContainingFiles;
-        final Map<FileHandle, CSVWriter> m_writers = new TreeMap<FileHandle, CSVWriter>();
+        final Map<FileHandle, OutputStream> m_writers = new TreeMap<FileHandle, OutputStream>();
         boolean m_hasClosed = false;
         protected final Date start;
         protected Date end = null;
@@ -219,13 +223,13 @@ public class ExportToFileClient extends ExportClientBase2 {
          * @param clean True if we expect all writer have finished. False
          * if we just need to be done.
          */
-        void closeAllWriters() {
+        synchronized void closeAllWriters() {
             // only need to run this once per batch
             if (m_hasClosed) return;
 
             // flush and close any files that are open
-            for (Entry<FileHandle, CSVWriter> entry : m_writers.entrySet()) {
-                CSVWriter writer = entry.getValue();
+            for (Entry<FileHandle, OutputStream> entry : m_writers.entrySet()) {
+                OutputStream writer = entry.getValue();
                 if (writer == null) continue;
                 try {
                     writer.flush();
@@ -320,9 +324,13 @@ public class ExportToFileClient extends ExportClientBase2 {
             notifyRollIsComplete(notifySet);
         }
 
-        CSVWriter getWriter(String tableName, long generation) {
+        /**
+         * Decoders for different tables ask for their writers concurrently.
+         * Writes to the returned stream must synchronize on it.
+         */
+        synchronized OutputStream getWriter(String tableName, long generation) {
             FileHandle handle = new FileHandle(tableName, generation);
-            CSVWriter writer = m_writers.get(handle);
+            OutputStream writer = m_writers.get(handle);
             if (writer != null)
                 return writer;
 
@@ -335,18 +343,8 @@ public class ExportToFileClient extends ExportClientBase2 {
                 throw new RuntimeException();
             }
             try {
-                OutputStreamWriter osw = new OutputStreamWriter(new FileOutputStream(newFile, false), "UTF-8");
-                if (m_fullDelimiters != null) {
-                    writer = new CSVWriter(new BufferedWriter(osw, 4096 * 4),
-                            m_fullDelimiters[0], m_fullDelimiters[1], m_fullDelimiters[2], String.valueOf(m_fullDelimiters[3]));
-                }
-                else if (m_delimiter == ',')
-                    // CSV
-                    writer = new CSVWriter(new BufferedWriter(osw, 4096 * 4), m_delimiter);
-                else {
-                    // TSV
-                    writer = CSVWriter.getStrictTSVWriter(new BufferedWriter(osw, 4096 * 4));
-                }
+                // rows are encoded as UTF-8 by the decoders
+                writer = new BufferedOutputStream(new FileOutputStream(newFile, false), 4096 * 4);
             }
             catch (Exception e) {
                 m_logger.error(e.getMessage());
@@ -412,6 +410,25 @@ public class ExportToFileClient extends ExportClientBase2 {
     }
 
 
+    /**
+     * Rows of the block a thread is decoding, and the file they go to
+     */
+    static class BlockState {
+        final DelimitedRowEncoder m_encoder;
+        OutputStream m_writer;
+
+        BlockState(DelimitedRowEncoder encoder) {
+            m_encoder = encoder;
+        }
+
+        void writeEncodedRows() throws IOException {
+            synchronized (m_writer) {
+                m_encoder.writeTo(m_writer);
+            }
+            m_encoder.reset();
+        }
+    }
+
     // This class outputs exported rows converted to CSV or TSV values
     // for the table named in the constructor's AdvertisedDataSource
     class ExportToFileDecoder extends ExportDecoderBase {
@@ -419,14 +436,25 @@ public class ExportToFileClient extends ExportClientBase2 {
         private final String m_tableName;
         protected String m_schemaString = "ERROR SERIALIZING SCHEMA";
         private final HashSet<AdvertisedDataSource> m_sources = new HashSet<AdvertisedDataSource>();
-        private FutureTask<CSVWriter> m_firstBlockTask;
-        private CSVWriter m_writer;
+        private FutureTask<OutputStream> m_firstBlockTask;
+
+        /*
+         * One decoder is shared by all partitions of the table and blocks of
+         * different partitions are decoded concurrently, so the block being
+         * decoded lives with the thread decoding it.
+         */
+        private final ThreadLocal<BlockState> m_blockState = new ThreadLocal<BlockState>() {
+            @Override
+            protected BlockState initialValue() {
+                return new BlockState(newEncoder());
+            }
+        };
 
         private void resetWriter() {
-            m_firstBlockTask = new FutureTask<CSVWriter>(new Callable<CSVWriter>() {
+            m_firstBlockTask = new FutureTask<OutputStream>(new Callable<OutputStream>() {
                 @Override
-                public CSVWriter call() throws Exception {
-                    CSVWriter writer = m_current.getWriter(m_tableName, m_generation);
+                public OutputStream call() throws Exception {
+                    OutputStream writer = m_current.getWriter(m_tableName, m_generation);
                     m_current.writeSchema(m_tableName, m_generation, m_schemaString);
                     return writer;
                 }
@@ -479,38 +507,39 @@ public class ExportToFileClient extends ExportClientBase2 {
             }
         }
 
+        private DelimitedRowEncoder newEncoder() {
+            if (m_fullDelimiters != null) {
+                return new DelimitedRowEncoder(m_tableSchema, m_firstfield,
+                        m_fullDelimiters[0], m_fullDelimiters[1], m_fullDelimiters[2],
+                        String.valueOf(m_fullDelimiters[3]), null, m_timeZone);
+            }
+            else if (m_delimiter == ',') {
+                // CSV
+                return DelimitedRowEncoder.csv(m_tableSchema, m_firstfield, m_timeZone);
+            }
+            else {
+                // TSV
+                return DelimitedRowEncoder.tsv(m_tableSchema, m_firstfield, m_timeZone);
+            }
+        }
+
         @Override
         public boolean processRow(int rowSize, byte[] rowData) {
-            // Grab the data row
-            Object[] row = null;
-            try {
-                row = decodeRow(rowData);
-            } catch (IOException e) {
-                m_logger.error("Unable to decode row for table: " + m_source.tableName);
-                return false;
-            }
+            return processRow(rowSize, ByteBuffer.wrap(rowData).order(ByteOrder.LITTLE_ENDIAN));
+        }
 
+        @Override
+        public boolean processRow(int rowSize, ByteBuffer rowData) {
+            final BlockState state = m_blockState.get();
+            final int sizeBeforeRow = state.m_encoder.size();
             try {
-                String[] fields = new String[m_tableSchema.size() - m_firstfield];
-
-                for (int i = m_firstfield; i < m_tableSchema.size(); i++) {
-                    if (row[i] == null) {
-                        fields[i - m_firstfield] = "NULL";
-                    } else if (m_tableSchema.get(i) == VoltType.VARBINARY) {
-                        fields[i - m_firstfield] = Encoder.hexEncode((byte[]) row[i]);
-                    } else if (m_tableSchema.get(i) == VoltType.STRING) {
-                        fields[i - m_firstfield] = (String) row[i];
-                    } else if (m_tableSchema.get(i) == VoltType.TIMESTAMP) {
-                        TimestampType timestamp = (TimestampType) row[i];
-                        fields[i - m_firstfield] = m_ODBCDateformat.get().format(timestamp.asApproximateJavaDate());
-                    } else {
-                        fields[i - m_firstfield] = row[i].toString();
-                    }
+                state.m_encoder.appendRow(rowData);
+                if (state.m_encoder.size() >= ENCODED_BYTES_FLUSH_THRESHOLD) {
+                    state.writeEncodedRows();
                 }
-                m_writer.writeNext(fields);
-            }
-            catch (Exception x) {
-                x.printStackTrace();
+            } catch (Exception e) {
+                m_logger.error("Unable to decode row for table: " + m_source.tableName, e);
+                state.m_encoder.truncate(sizeBeforeRow);
                 return false;
             }
             return true;
@@ -524,27 +553,40 @@ public class ExportToFileClient extends ExportClientBase2 {
         public void onBlockStart() {
             m_batchLock.readLock().lock();
             m_firstBlockTask.run();
+            final BlockState state = m_blockState.get();
+            state.m_encoder.reset();
             try {
-                m_writer = m_firstBlockTask.get();
+                state.m_writer = m_firstBlockTask.get();
             } catch (Throwable e) {
                 Throwables.propagate(e);
             }
         }
 
         /**
-         * Release the current batch folder.
+         * Write out the rows encoded for the block and
+         * release the current batch folder.
          */
         @Override
         public void onBlockCompletion() {
+            final BlockState state = m_blockState.get();
             try {
-                m_writer.flush();
+                state.writeEncodedRows();
+                synchronized (state.m_writer) {
+                    state.m_writer.flush();
+                }
             } catch (Throwable t) {
                 Throwables.propagate(t);
             } finally {
+                state.m_writer = null;
                 m_batchLock.readLock().unlock();
             }
         }
 
+        @Override
+        public ListeningExecutorService getExecutor() {
+            return m_decoderExecutor;
+        }
+
         @Override
         public void sourceNoLongerAdvertised(AdvertisedDataSource source) {
             m_batchLock.writeLock().lock();
@@ -642,6 +684,7 @@ public class ExportToFileClient extends ExportClientBase2 {
         }
         m_batchLock.writeLock().lock();
         m_current.closeAllWriters();
+        m_decoderExecutor.shutdown();
     }
 
     /**
@@ -1088,14 +1131,7 @@ public class ExportToFileClient extends ExportClientBase2 {
                 return new SimpleDateFormat(m_dateFormatOriginalString);
             }
         };
-        m_ODBCDateformat = new ThreadLocal<SimpleDateFormat>() {
-            @Override
-            protected SimpleDateFormat initialValue() {
-                SimpleDateFormat sdf = new SimpleDateFormat(VoltDB.ODBC_DATE_FORMAT_STRING);
-                sdf.setTimeZone(tz);
-                return sdf;
-            }
-        };
+        m_timeZone = tz;
         m_firstfield = firstfield;
         m_batched = batched;
         m_withSchema = withSchema;
@@ -1129,5 +1165,7 @@ public class ExportToFileClient extends ExportClientBase2 {
         };
         m_ses = CoreUtils.getScheduledThreadPoolExecutor("Export file rotate timer for nonce " + nonce, 1, 131072);
         m_ses.scheduleWithFixedDelay(rotator, m_period, m_period, TimeUnit.MINUTES);
+        m_decoderExecutor = CoreUtils.getListeningExecutorService(
+                "Export file decoder for nonce " + nonce, CoreUtils.availableProcessors());
     }
 }
@@ -38,6 +38,7 @@ import org.voltdb.StarvationTracker;
 import org.voltdb.StatsAgent;
 import org.voltdb.SysProcSelector;
 import org.voltdb.VoltDB;
+import org.voltdb.utils.CatalogUtil;
 
 /**
  * Subclass of Initiator to manage single-partition operations.
@@ -116,6 +117,8 @@ public abstract class BaseInitiator implements Initiator
                     getSystemsettings().get("systemsettings").getSnapshotpriority();
             }
 
+            m_scheduler.getQueue().setWaitStrategy(CatalogUtil.getWaitStrategy(catalogContext.cluster));
+
             // demote rejoin to create for initiators that aren't rejoinable.
             if (VoltDB.createForRejoin(startAction) && !isRejoinable()) {
                 startAction = VoltDB.START_ACTION.CREATE;
@@ -180,6 +183,12 @@ public abstract class BaseInitiator implements Initiator
         return m_initiatorMailbox.getHSId();
     }
 
+    @Override
+    public int getQueueDepth()
+    {
+        return m_scheduler.getQueue().size();
+    }
+
     protected void acceptPromotion() throws Exception {
         /*
          * Notify all known client interfaces that the mastership has changed
@@ -25,6 +25,7 @@ import org.voltcore.logging.VoltLogger;
 import org.voltcore.messaging.VoltMessage;
 import org.voltdb.messaging.FragmentResponseMessage;
 import org.voltdb.messaging.InitiateResponseMessage;
+import org.voltdb.messaging.TransactionStageTimes;
 import org.voltdb.utils.MiscUtils;
 
 /**
@@ -44,6 +45,8 @@ public class DuplicateCounter
     protected VoltMessage m_lastResponse = null;
     final Set<Long> m_expectedHSIds;
     final long m_txnId;
+    // stage times of the local response, passed on with whichever response completes
+    TransactionStageTimes m_stageTimes = null;
 
     DuplicateCounter(
             long destinationHSId,
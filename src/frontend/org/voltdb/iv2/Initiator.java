@@ -55,6 +55,9 @@ public interface Initiator
     /** Ask for the HSId used to address this Initiator. */
     public long getInitiatorHSId();
 
+    /** Number of tasks waiting for this initiator's site to run them */
+    public int getQueueDepth();
+
     /** This initiator participates in rejoin processing */
     public boolean isRejoinable();
 
@@ -67,6 +67,17 @@ public class Iv2Trace
         }
     }
 
+    public static void logStageTimes(InitiateResponseMessage msg)
+    {
+        if (iv2log.isTraceEnabled()) {
+            String logmsg = "stageTimes ciHandle %s txnId %s %s";
+            iv2log.trace(String.format(logmsg,
+                        ClientInterfaceHandleManager.handleToString(msg.getClientInterfaceHandle()),
+                        txnIdToString(msg.getTxnId()),
+                        msg.getStageTimes()));
+        }
+    }
+
     private static String txnIdToString(long txnId)
     {
         if (txnId == Long.MIN_VALUE) {
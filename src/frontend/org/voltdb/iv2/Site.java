@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 
+import java.util.ArrayList;
 import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
@@ -49,6 +50,7 @@ import org.voltdb.messaging.FragmentTaskMessage;
 import org.voltdb.messaging.Iv2InitiateTaskMessage;
 import org.voltdb.MemoryStats;
 import org.voltdb.ParameterSet;
+import org.voltdb.planner.StatisticsCostModel;
 import org.voltdb.ProcedureRunner;
 
 import org.voltdb.rejoin.TaskLog;
@@ -114,6 +116,10 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
     // Manages pending tasks.
     final SiteTaskerQueue m_scheduler;
 
+    // Maximum number of ready tasks run back to back per wakeup of the site thread.
+    static final int TASK_BATCH_SIZE = Math.max(1, Integer.getInteger("siteTaskBatchSize", 32));
+    private final ArrayList<SiteTasker> m_taskBatch = new ArrayList<SiteTasker>(TASK_BATCH_SIZE);
+
     /*
      * There is really no legit reason to touch the initiator mailbox from the site,
      * but it turns out to be necessary at startup when restoring a snapshot. The snapshot
@@ -162,6 +168,11 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
     public final static long kInvalidUndoToken = -1L;
     long latestUndoToken = 0L;
 
+    // While running consecutive SP procedures in a batch, committed undo tokens
+    // are released to the EE once for the whole run instead of once per txn.
+    private boolean m_deferUndoRelease = false;
+    private long m_pendingReleaseUndoToken = kInvalidUndoToken;
+
     @Override
     public long getNextUndoToken()
     {
@@ -481,6 +492,31 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
     }
 
 
+    /**
+     * Run tasks taken from the scheduler back to back. Undo tokens committed by
+     * consecutive SP procedures are released once, before any other kind of task
+     * and at the end of the batch.
+     */
+    void runTaskBatch(List<SiteTasker> batch)
+    {
+        for (int i = 0; i < batch.size() && m_shouldContinue; i++) {
+            SiteTasker task = batch.get(i);
+            if (task instanceof SpProcedureTask) {
+                m_deferUndoRelease = true;
+            } else {
+                m_deferUndoRelease = false;
+                releasePendingUndoToken();
+            }
+            if (task instanceof TransactionTask) {
+                m_currentTxnId = ((TransactionTask)task).getTxnId();
+                m_lastTxnTime = EstTime.currentTimeMillis();
+            }
+            task.run(getSiteProcedureConnection());
+        }
+        m_deferUndoRelease = false;
+        releasePendingUndoToken();
+    }
+
     @Override
     public void run()
     {
@@ -491,13 +527,11 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
         try {
             while (m_shouldContinue) {
                 if (m_rejoinState == kStateRunning) {
-                    // Normal operation blocks the site thread on the sitetasker queue.
-                    SiteTasker task = m_scheduler.take();
-                    if (task instanceof TransactionTask) {
-                        m_currentTxnId = ((TransactionTask)task).getTxnId();
-                        m_lastTxnTime = EstTime.currentTimeMillis();
-                    }
-                    task.run(getSiteProcedureConnection());
+                    // Normal operation blocks the site thread on the sitetasker queue
+                    // and then runs all the ready tasks, up to the batch size.
+                    m_scheduler.takeBatch(m_taskBatch, TASK_BATCH_SIZE);
+                    runTaskBatch(m_taskBatch);
+                    m_taskBatch.clear();
                 }
                 else {
                     // Rejoin operation poll and try to do some catchup work. Tasks
@@ -741,13 +775,20 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
     public void truncateUndoLog(boolean rollback, long beginUndoToken, long txnId, long spHandle)
     {
         if (rollback) {
+            // The begin token is the last token of the previous txn, which has to
+            // be released first so its work isn't undone along with this txn.
+            releasePendingUndoToken();
             m_ee.undoUndoToken(beginUndoToken);
         }
         else {
             assert(latestUndoToken != Site.kInvalidUndoToken);
             assert(latestUndoToken >= beginUndoToken);
             if (latestUndoToken > beginUndoToken) {
-                m_ee.releaseUndoToken(latestUndoToken);
+                if (m_deferUndoRelease) {
+                    m_pendingReleaseUndoToken = latestUndoToken;
+                } else {
+                    m_ee.releaseUndoToken(latestUndoToken);
+                }
             }
             m_lastCommittedTxnId = txnId;
             if (TxnEgo.getPartitionId(m_lastCommittedSpHandle) != TxnEgo.getPartitionId(spHandle)) {
@@ -759,6 +800,14 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
         }
     }
 
+    private void releasePendingUndoToken()
+    {
+        if (m_pendingReleaseUndoToken != kInvalidUndoToken) {
+            m_ee.releaseUndoToken(m_pendingReleaseUndoToken);
+            m_pendingReleaseUndoToken = kInvalidUndoToken;
+        }
+    }
+
     @Override
     public void stashWorkUnitDependencies(Map<Integer, List<VoltTable>> dependencies)
     {
@@ -863,6 +912,14 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
                 m_indexStats.setStatsTable(stats);
             }
 
+            // refresh the planner's estimates from this partition's statistics
+            if (StatisticsCostModel.isRefreshDue(m_siteId, time)) {
+                StatisticsCostModel.updateSiteStatistics(m_siteId,
+                        s1 != null ? s1[0] : null,
+                        (s2 != null) && (s2.length > 0) ? s2[0] : null,
+                        time);
+            }
+
             // update the rolled up memory statistics
             if (m_memStats != null) {
                 m_memStats.eeUpdateMemStats(m_siteId,
@@ -17,8 +17,11 @@
 
 package org.voltdb.iv2;
 
+import java.util.List;
+
 import jsr166y.LinkedTransferQueue;
 
+import org.voltcore.utils.WaitStrategy;
 import org.voltdb.StarvationTracker;
 
 /** SiteTaskerScheduler orders SiteTaskers for execution. */
@@ -26,13 +29,15 @@ public class SiteTaskerQueue
 {
     private final LinkedTransferQueue<SiteTasker> m_tasks = new LinkedTransferQueue<SiteTasker>();
     private StarvationTracker m_starvationTracker;
+    private volatile WaitStrategy m_waitStrategy = WaitStrategy.BLOCK;
 
     public boolean offer(SiteTasker task)
     {
         return m_tasks.offer(task);
     }
 
-    // Block on the site tasker queue.
+    // Block on the site tasker queue. Depending on the wait strategy the site
+    // polls for a bounded time before parking in take().
     public SiteTasker take() throws InterruptedException
     {
         SiteTasker task = m_tasks.poll();
@@ -42,12 +47,35 @@ public class SiteTaskerQueue
             return task;
         }
         try {
+            final WaitStrategy waitStrategy = m_waitStrategy;
+            if (waitStrategy.spins()) {
+                final long deadline = System.nanoTime() + waitStrategy.getSpinNanos();
+                do {
+                    waitStrategy.pause();
+                    task = m_tasks.poll();
+                    if (task != null) {
+                        m_starvationTracker.spinWakeup();
+                        return task;
+                    }
+                } while (System.nanoTime() - deadline < 0);
+            }
             return m_tasks.take();
         } finally {
             m_starvationTracker.endStarvation();
         }
     }
 
+    // Block on the site tasker queue until a task is available, then add it and
+    // up to maxTasks - 1 more tasks that are already queued to the batch.
+    public int takeBatch(List<SiteTasker> batch, int maxTasks) throws InterruptedException
+    {
+        batch.add(take());
+        if (maxTasks > 1) {
+            return 1 + m_tasks.drainTo(batch, maxTasks - 1);
+        }
+        return 1;
+    }
+
     // Non-blocking poll on the site tasker queue.
     public SiteTasker poll()
     {
@@ -58,7 +86,21 @@ public class SiteTaskerQueue
         return m_tasks.isEmpty();
     }
 
+    // Number of queued tasks. Not constant time and only a snapshot,
+    // for sampling how far behind the site is.
+    public int size() {
+        return m_tasks.size();
+    }
+
     public void setStarvationTracker(StarvationTracker tracker) {
         m_starvationTracker = tracker;
+        tracker.setWaitStrategy(m_waitStrategy);
+    }
+
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        m_waitStrategy = waitStrategy;
+        if (m_starvationTracker != null) {
+            m_starvationTracker.setWaitStrategy(waitStrategy);
+        }
     }
 }
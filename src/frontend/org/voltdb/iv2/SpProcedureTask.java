@@ -30,6 +30,7 @@ import org.voltdb.VoltTable;
 import org.voltdb.client.ClientResponse;
 import org.voltdb.messaging.InitiateResponseMessage;
 import org.voltdb.messaging.Iv2InitiateTaskMessage;
+import org.voltdb.messaging.TransactionStageTimes;
 import org.voltdb.PartitionDRGateway;
 import org.voltdb.utils.LogKeys;
 
@@ -49,10 +50,20 @@ public class SpProcedureTask extends ProcedureTask
        m_drGateway = drGateway;
     }
 
+    /** Mark a stage on the transaction, if its stage times are being sampled */
+    void markStage(TransactionStageTimes.Mark mark)
+    {
+        final TransactionStageTimes stageTimes = ((SpTransactionState)m_txn).m_task.getStageTimes();
+        if (stageTimes != null) {
+            stageTimes.mark(mark);
+        }
+    }
+
     /** Run is invoked by a run-loop to execute this transaction. */
     @Override
     public void run(SiteProcedureConnection siteConnection)
     {
+        markStage(TransactionStageTimes.Mark.STARTED);
         hostLog.debug("STARTING: " + this);
         if (!m_txn.isReadOnly()) {
             m_txn.setBeginUndoToken(siteConnection.getLatestUndoToken());
@@ -65,6 +76,7 @@ public class SpProcedureTask extends ProcedureTask
             m_txn.setNeedsRollback();
         }
         completeInitiateTask(siteConnection);
+        markStage(TransactionStageTimes.Mark.EXECUTED);
         response.m_sourceHSId = m_initiator.getHSId();
         m_initiator.deliver(response);
         execLog.l7dlog( Level.TRACE, LogKeys.org_voltdb_ExecutionSite_SendingCompletedWUToDtxn.name(), null);
@@ -52,6 +52,7 @@ import org.voltdb.messaging.FragmentTaskMessage;
 import org.voltdb.messaging.Iv2EndOfLogMessage;
 import org.voltdb.messaging.Iv2InitiateTaskMessage;
 import org.voltdb.messaging.MultiPartitionParticipantMessage;
+import org.voltdb.messaging.TransactionStageTimes;
 
 public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
 {
@@ -147,6 +148,9 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
             public void onDurability(ArrayDeque<Object> durableThings) {
                 synchronized (m_lock) {
                     for (Object o : durableThings) {
+                        if (o instanceof SpProcedureTask) {
+                            ((SpProcedureTask)o).markStage(TransactionStageTimes.Mark.QUEUED);
+                        }
                         m_pendingTasks.offer((TransactionTask)o);
                     }
                 }
@@ -325,6 +329,10 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
     {
         final String procedureName = message.getStoredProcedureName();
         if (message.isSinglePartition()) {
+            final TransactionStageTimes stageTimes = message.getStageTimes();
+            if (stageTimes != null) {
+                stageTimes.mark(TransactionStageTimes.Mark.SCHEDULED);
+            }
             long newSpHandle;
             long timestamp;
             Iv2InitiateTaskMessage msg = message;
@@ -384,6 +392,7 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
                         message.isForReplay());
 
                 msg.setSpHandle(newSpHandle);
+                msg.setStageTimes(stageTimes);
 
                 // Also, if this is a vanilla single-part procedure, make the TXNID
                 // be the SpHandle (for now)
@@ -427,11 +436,14 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
             Iv2Trace.logIv2InitiateTaskMessage(message, m_mailbox.getHSId(), msg.getTxnId(), newSpHandle);
             final SpProcedureTask task =
                 new SpProcedureTask(m_mailbox, procedureName, m_pendingTasks, msg, m_drGateway);
+            task.markStage(TransactionStageTimes.Mark.LOGGED);
             if (!msg.isReadOnly()) {
                 if (!m_cl.log(msg, newSpHandle, m_durabilityListener, task)) {
+                    task.markStage(TransactionStageTimes.Mark.QUEUED);
                     m_pendingTasks.offer(task);
                 }
             } else {
+                task.markStage(TransactionStageTimes.Mark.QUEUED);
                 m_pendingTasks.offer(task);
             }
             return;
@@ -493,10 +505,18 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
         final long spHandle = message.getSpHandle();
         DuplicateCounter counter = m_duplicateCounters.get(new DuplicateCounterKey(message.getTxnId(), spHandle));
         if (counter != null) {
+            // replicas mark their stages on their own clock, only the leader's are kept
+            if (message.getStageTimes() != null && message.m_sourceHSId == m_mailbox.getHSId()) {
+                counter.m_stageTimes = message.getStageTimes();
+            }
             int result = counter.offer(message);
             if (result == DuplicateCounter.DONE) {
                 m_duplicateCounters.remove(new DuplicateCounterKey(message.getTxnId(), spHandle));
                 m_repairLogTruncationHandle = spHandle;
+                if (counter.m_stageTimes != null) {
+                    counter.m_stageTimes.mark(TransactionStageTimes.Mark.RESPONDED);
+                    message.setStageTimes(counter.m_stageTimes);
+                }
                 m_mailbox.send(counter.m_destinationId, message);
             }
             else if (result == DuplicateCounter.MISMATCH) {
@@ -508,6 +528,9 @@ public class SpScheduler extends Scheduler implements SnapshotCompletionInterest
 
         // the initiatorHSId is the ClientInterface mailbox. Yeah. I know.
         m_repairLogTruncationHandle = spHandle;
+        if (message.getStageTimes() != null) {
+            message.getStageTimes().mark(TransactionStageTimes.Mark.RESPONDED);
+        }
         m_mailbox.send(message.getInitiatorHSId(), message);
     }
 
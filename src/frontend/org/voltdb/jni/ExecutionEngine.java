@@ -63,6 +63,9 @@ public abstract class ExecutionEngine implements FastDeserializer.Deserializatio
     /** Statistics collector (provided later) */
     private PlannerStatsCollector m_plannerStats = null;
 
+    /** Start time of the plan fragment load being timed, if it is sampled */
+    private Long m_plannerStatsStartTime = null;
+
     /** Make the EE clean and ready to do new transactional work. */
     public void resetDirtyStatus() {
         m_dirty = false;
@@ -677,7 +680,7 @@ public abstract class ExecutionEngine implements FastDeserializer.Deserializatio
      */
     protected void startStatsCollection() {
         if (m_plannerStats != null) {
-            m_plannerStats.startStatsCollection();
+            m_plannerStatsStartTime = m_plannerStats.startStatsCollection();
         }
     }
 
@@ -689,7 +692,8 @@ public abstract class ExecutionEngine implements FastDeserializer.Deserializatio
      */
     protected void endStatsCollection(long cacheSize, CacheUse cacheUse) {
         if (m_plannerStats != null) {
-            m_plannerStats.endStatsCollection(cacheSize, 0, cacheUse, m_partitionId);
+            m_plannerStats.endStatsCollection(m_plannerStatsStartTime, cacheSize, 0, cacheUse, m_partitionId);
+            m_plannerStatsStartTime = null;
         }
     }
 }
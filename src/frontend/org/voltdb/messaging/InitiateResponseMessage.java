@@ -40,6 +40,7 @@ public class InitiateResponseMessage extends VoltMessage {
     private boolean m_commit;
     private boolean m_recovering;
     private ClientResponseImpl m_response;
+    private TransactionStageTimes m_stageTimes;
 
     /** Empty constructor for de-serialization */
     public InitiateResponseMessage()
@@ -60,6 +61,7 @@ public class InitiateResponseMessage extends VoltMessage {
         m_subject = Subject.DEFAULT.getId();
         m_clientInterfaceHandle = task.getClientInterfaceHandle();
         m_connectionId = task.getConnectionId();
+        m_stageTimes = task.getStageTimes();
     }
 
     /**
@@ -118,6 +120,14 @@ public class InitiateResponseMessage extends VoltMessage {
         m_recovering = recovering;
     }
 
+    public TransactionStageTimes getStageTimes() {
+        return m_stageTimes;
+    }
+
+    public void setStageTimes(TransactionStageTimes stageTimes) {
+        m_stageTimes = stageTimes;
+    }
+
     public ClientResponseImpl getClientResponseData() {
         return m_response;
     }
@@ -139,6 +149,7 @@ public class InitiateResponseMessage extends VoltMessage {
             + 8 // client connection id
             + 1; // node recovering indication
 
+        msgsize += TransactionStageTimes.getSerializedSize(m_stageTimes);
         msgsize += m_response.getSerializedSize();
 
         return msgsize;
@@ -155,6 +166,7 @@ public class InitiateResponseMessage extends VoltMessage {
         buf.putLong(m_clientInterfaceHandle);
         buf.putLong(m_connectionId);
         buf.put((byte) (m_recovering == true ? 1 : 0));
+        TransactionStageTimes.flattenToBuffer(m_stageTimes, buf);
         m_response.flattenToBuffer(buf);
         assert(buf.capacity() == buf.position());
         buf.limit(buf.position());
@@ -170,6 +182,7 @@ public class InitiateResponseMessage extends VoltMessage {
         m_clientInterfaceHandle = buf.getLong();
         m_connectionId = buf.getLong();
         m_recovering = buf.get() == 1;
+        m_stageTimes = TransactionStageTimes.initFromBuffer(buf);
         m_response = new ClientResponseImpl();
         m_response.initFromBuffer(buf);
         m_commit = (m_response.getStatus() == ClientResponseImpl.SUCCESS);
@@ -46,6 +46,9 @@ public class Iv2InitiateTaskMessage extends TransactionInfoBaseMessage {
 
     // not serialized.
     AtomicBoolean m_isDurable;
+    // sampled stage timestamps, null when the transaction isn't sampled. Kept out of the
+    // serialized form so the command log and replicas never see them.
+    TransactionStageTimes m_stageTimes;
 
     /** Empty constructor for de-serialization */
     Iv2InitiateTaskMessage() {
@@ -101,6 +104,14 @@ public class Iv2InitiateTaskMessage extends TransactionInfoBaseMessage {
         return m_isSinglePartition;
     }
 
+    public TransactionStageTimes getStageTimes() {
+        return m_stageTimes;
+    }
+
+    public void setStageTimes(TransactionStageTimes stageTimes) {
+        m_stageTimes = stageTimes;
+    }
+
     public StoredProcedureInvocation getStoredProcedureInvocation() {
         return m_invocation;
     }
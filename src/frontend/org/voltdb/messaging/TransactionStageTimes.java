@@ -0,0 +1,185 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.messaging;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import jsr166y.ThreadLocalRandom;
+
+/**
+ * Timestamps taken as a sampled single partition transaction passes through the
+ * stages of IV2, from the client interface reading the invocation to it writing
+ * back the response. The timestamps ride along on the {@link Iv2InitiateTaskMessage}
+ * and the {@link InitiateResponseMessage}, so they have to be cheap to carry and are
+ * only attached to one in {@link #SAMPLE_INTERVAL} transactions. They are not part of
+ * the serialized initiate task, which is what gets command logged and replayed, so
+ * only transactions whose partition leader is on the client interface's host are
+ * sampled.
+ *
+ * Timestamps come from {@link System#nanoTime()} of whichever host takes them, so a
+ * stage is only ever measured between two marks taken on the same host. The time
+ * spent between the client interface and the partition leader is derived by
+ * subtracting the time spent at the leader from the round trip seen by the client
+ * interface.
+ */
+public class TransactionStageTimes {
+
+    /**
+     * One in this many transactions is sampled, 0 disables sampling
+     */
+    public static final int SAMPLE_INTERVAL = Integer.getInteger("iv2StageSampleInterval", 128);
+
+    private static final long UNSET = Long.MIN_VALUE;
+
+    public enum Mark {
+        // taken by the client interface
+        RECEIVED,
+        DISPATCHED,
+        // taken by the partition leader
+        SCHEDULED,
+        LOGGED,
+        QUEUED,
+        STARTED,
+        EXECUTED,
+        RESPONDED,
+        // taken by the client interface
+        RESPONSE_RECEIVED,
+        RESPONSE_WRITTEN;
+    }
+
+    public enum Stage {
+        CI_DESERIALIZE(Mark.RECEIVED, Mark.DISPATCHED),
+        NETWORK(null, null),
+        SCHEDULING(Mark.SCHEDULED, Mark.LOGGED),
+        COMMAND_LOG(Mark.LOGGED, Mark.QUEUED),
+        SITE_QUEUE(Mark.QUEUED, Mark.STARTED),
+        EXECUTION(Mark.STARTED, Mark.EXECUTED),
+        REPLICATION(Mark.EXECUTED, Mark.RESPONDED),
+        RESPONSE_WRITE(Mark.RESPONSE_RECEIVED, Mark.RESPONSE_WRITTEN),
+        TOTAL(Mark.RECEIVED, Mark.RESPONSE_WRITTEN);
+
+        private final Mark m_start;
+        private final Mark m_end;
+
+        private Stage(Mark start, Mark end) {
+            m_start = start;
+            m_end = end;
+        }
+    }
+
+    private final long m_marks[] = new long[Mark.values().length];
+
+    public TransactionStageTimes() {
+        Arrays.fill(m_marks, UNSET);
+    }
+
+    /**
+     * Decide whether the transaction being read should be sampled
+     * @return A new instance with {@link Mark#RECEIVED} set, or null if the transaction
+     * isn't sampled
+     */
+    public static TransactionStageTimes sample() {
+        if (SAMPLE_INTERVAL <= 0 ||
+                (SAMPLE_INTERVAL > 1 && ThreadLocalRandom.current().nextInt(SAMPLE_INTERVAL) != 0)) {
+            return null;
+        }
+        TransactionStageTimes times = new TransactionStageTimes();
+        times.mark(Mark.RECEIVED);
+        return times;
+    }
+
+    public void mark(Mark mark) {
+        m_marks[mark.ordinal()] = System.nanoTime();
+    }
+
+    void setMark(Mark mark, long nanos) {
+        m_marks[mark.ordinal()] = nanos;
+    }
+
+    public boolean isMarked(Mark mark) {
+        return m_marks[mark.ordinal()] != UNSET;
+    }
+
+    private long elapsed(Mark start, Mark end) {
+        final long startNanos = m_marks[start.ordinal()];
+        final long endNanos = m_marks[end.ordinal()];
+        if (startNanos == UNSET || endNanos == UNSET) {
+            return -1;
+        }
+        return Math.max(0, endNanos - startNanos);
+    }
+
+    /**
+     * @return Time spent in the stage in microseconds, or -1 if the transaction didn't
+     * pass through the stage or the stage wasn't marked
+     */
+    public long getStageMicros(Stage stage) {
+        if (stage == Stage.NETWORK) {
+            final long roundTrip = elapsed(Mark.DISPATCHED, Mark.RESPONSE_RECEIVED);
+            final long atLeader = elapsed(Mark.SCHEDULED, Mark.RESPONDED);
+            if (roundTrip < 0 || atLeader < 0) {
+                return -1;
+            }
+            return Math.max(0, roundTrip - atLeader) / 1000;
+        }
+        final long elapsed = elapsed(stage.m_start, stage.m_end);
+        return elapsed < 0 ? -1 : elapsed / 1000;
+    }
+
+    public static int getSerializedSize(TransactionStageTimes times) {
+        return 1 + (times == null ? 0 : 8 * times.m_marks.length);
+    }
+
+    public static void flattenToBuffer(TransactionStageTimes times, ByteBuffer buf) {
+        if (times == null) {
+            buf.put((byte)0);
+            return;
+        }
+        buf.put((byte)1);
+        for (long mark : times.m_marks) {
+            buf.putLong(mark);
+        }
+    }
+
+    public static TransactionStageTimes initFromBuffer(ByteBuffer buf) {
+        if (buf.get() == 0) {
+            return null;
+        }
+        TransactionStageTimes times = new TransactionStageTimes();
+        for (int ii = 0; ii < times.m_marks.length; ii++) {
+            times.m_marks[ii] = buf.getLong();
+        }
+        return times;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            final long micros = getStageMicros(stage);
+            if (micros >= 0) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(stage.name().toLowerCase()).append(' ').append(micros).append("us");
+            }
+        }
+        return sb.toString();
+    }
+}
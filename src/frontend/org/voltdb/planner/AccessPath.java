@@ -28,6 +28,7 @@ public class AccessPath {
     Index index = null;
     IndexUseType use = IndexUseType.COVERING_UNIQUE_EQUALITY;
     boolean nestLoopIndexJoin = false;
+    boolean hashJoin = false;
     boolean requiresSendReceive = false;
     boolean keyIterate = false;
     IndexLookupType lookupType = IndexLookupType.EQ;
@@ -37,6 +38,8 @@ public class AccessPath {
     final ArrayList<AbstractExpression> otherExprs = new ArrayList<AbstractExpression>();
     final ArrayList<AbstractExpression> joinExprs = new ArrayList<AbstractExpression>();
     final ArrayList<AbstractExpression> bindings = new ArrayList<AbstractExpression>();
+    // Equality join clauses normalized so the left side is over this table, for hash joins
+    final ArrayList<AbstractExpression> hashJoinExprs = new ArrayList<AbstractExpression>();
 
     @Override
     public String toString() {
@@ -48,6 +51,7 @@ public class AccessPath {
         retval += "DIR:   " + sortDirection.toString() + "\n";
         retval += "ITER?: " + String.valueOf(keyIterate) + "\n";
         retval += "NLIJ?: " + String.valueOf(nestLoopIndexJoin) + "\n";
+        retval += "HASH?: " + String.valueOf(hashJoin) + "\n";
 
         retval += "IDX EXPRS:\n";
         int i = 0;
@@ -69,6 +73,11 @@ public class AccessPath {
         for (AbstractExpression expr : joinExprs)
             retval += "\t(" + String.valueOf(i++) + ") " + expr.toString() + "\n";
 
+        retval += "HASH JOIN EXPRS:\n";
+        i = 0;
+        for (AbstractExpression expr : hashJoinExprs)
+            retval += "\t(" + String.valueOf(i++) + ") " + expr.toString() + "\n";
+
         return retval;
     }
 }
@@ -34,6 +34,8 @@ import org.voltdb.catalog.ConnectorTableInfo;
 import org.voltdb.catalog.Database;
 import org.voltdb.catalog.Index;
 import org.voltdb.catalog.Table;
+import org.voltdb.compiler.DatabaseEstimates;
+import org.voltdb.compiler.ScalarValueHints;
 import org.voltdb.expressions.AbstractExpression;
 import org.voltdb.expressions.AggregateExpression;
 import org.voltdb.expressions.ConstantValueExpression;
@@ -75,6 +77,9 @@ import org.voltdb.utils.CatalogUtil;
  */
 public class PlanAssembler {
 
+    /** Alias prefix for the hidden partial count column of a pushed-down AVG */
+    private static final String AVG_COUNT_ALIAS_PREFIX = "$$_AVG_COUNT_";
+
     /** convenience pointer to the cluster object in the catalog */
     final Cluster m_catalogCluster;
     /** convenience pointer to the database object in the catalog */
@@ -92,6 +97,13 @@ public class PlanAssembler {
     /** Describes the specified and inferred partition context. */
     private final PartitioningForStatement m_partitioning;
 
+    /** Estimates and cost model used to compare partial join plans */
+    final DatabaseEstimates m_estimates;
+    final AbstractCostModel m_costModel;
+    final ScalarValueHints[] m_paramHints;
+    /** Joins of up to this many tables try every join order */
+    final int m_exhaustiveJoinTables;
+
     /**
      * Used to generate the table-touching parts of a plan. All join-order and
      * access path selection stuff is done by the SelectSubPlanAssember.
@@ -117,11 +129,24 @@ public class PlanAssembler {
      *            Catalog info about schema, metadata and procedures.
      * @param partitioning
      *            Describes the specified and inferred partition context.
+     * @param estimates
+     *            Table size estimates for costing partial join plans.
+     * @param costModel
+     *            The cost model to compare partial join plans with.
+     * @param paramHints
+     * @param exhaustiveJoinTables
+     *            Joins of up to this many tables try every join order.
      */
-    PlanAssembler(Cluster catalogCluster, Database catalogDb, PartitioningForStatement partitioning) {
+    PlanAssembler(Cluster catalogCluster, Database catalogDb, PartitioningForStatement partitioning,
+                  DatabaseEstimates estimates, AbstractCostModel costModel, ScalarValueHints[] paramHints,
+                  int exhaustiveJoinTables) {
         m_catalogCluster = catalogCluster;
         m_catalogDb = catalogDb;
         m_partitioning = partitioning;
+        m_estimates = estimates;
+        m_costModel = costModel;
+        m_paramHints = paramHints;
+        m_exhaustiveJoinTables = exhaustiveJoinTables;
     }
 
     String getSQLText() {
@@ -234,7 +259,9 @@ public class PlanAssembler {
                 "Illegal to read an export table.");
             }
             m_parsedSelect = (ParsedSelectStmt) parsedStmt;
-            subAssembler = new SelectSubPlanAssembler(m_catalogDb, parsedStmt, m_partitioning);
+            subAssembler = new SelectSubPlanAssembler(m_catalogCluster, m_catalogDb, parsedStmt, m_partitioning,
+                                                      m_estimates, m_costModel, m_paramHints,
+                                                      m_exhaustiveJoinTables);
         } else {
             // check that no modification happens to views
             if (tableListIncludesView(parsedStmt.tableList)) {
@@ -282,6 +309,27 @@ public class PlanAssembler {
         }
     }
 
+    /**
+     * Number of partial join plans costed while picking the join order for the current statement.
+     */
+    long getJoinPlansCosted() {
+        if (subAssembler instanceof SelectSubPlanAssembler) {
+            return ((SelectSubPlanAssembler) subAssembler).getJoinPlansCosted();
+        }
+        return 0;
+    }
+
+    /**
+     * Number of join plans an exhaustive search would have generated for the current statement
+     * that the join enumeration skipped.
+     */
+    long getJoinPlansPruned() {
+        if (subAssembler instanceof SelectSubPlanAssembler) {
+            return ((SelectSubPlanAssembler) subAssembler).getJoinPlansPruned();
+        }
+        return 0;
+    }
+
     /**
      * Generate a unique and correct plan for the current SQL statement context.
      * This method gets called repeatedly until it returns null, meaning there
@@ -965,7 +1013,20 @@ public class PlanAssembler {
             NodeSchema agg_schema = new NodeSchema();
             NodeSchema topAggSchema = new NodeSchema();
             boolean hasAggregates = false;
-            boolean isPushDownAgg = true;
+            /*
+             * Only split the aggregation into partial and final phases when
+             * every aggregate in the select list can be combined from
+             * per-partition results. Otherwise the pushed-down node would be
+             * computing something other than what the statement asked for.
+             */
+            boolean isPushDownAgg = (root instanceof ReceivePlanNode) && canPushDownAggregates();
+            // AVG is split into a partial SUM and a partial COUNT. The COUNT
+            // columns are carried past the display columns and a projection on
+            // top of the coordinator divides them back out.
+            int hiddenColumnIndex = m_parsedSelect.displayColumns.size();
+            NodeSchema hiddenSchema = new NodeSchema();
+            NodeSchema finalSchema = new NodeSchema();
+            boolean hasSplitAverage = false;
             // TODO: Aggregates could theoretically ONLY appear in the ORDER BY clause but not the display columns, but we don't support that yet.
             for (ParsedSelectStmt.ParsedColInfo col : m_parsedSelect.displayColumns)
             {
@@ -973,6 +1034,7 @@ public class PlanAssembler {
                 AbstractExpression agg_input_expr = null;
                 SchemaColumn schema_col = null;
                 SchemaColumn topSchemaCol = null;
+                SchemaColumn finalSchemaCol = null;
                 ExpressionType agg_expression_type = rootExpr.getExpressionType();
                 if (rootExpr.hasAnySubexpressionOfClass(AggregateExpression.class)) {
                     // If the rootExpr is not itself an AggregateExpression but simply contains one (or more)
@@ -1028,25 +1090,39 @@ public class PlanAssembler {
                     tve.setColumnAlias(col.alias);
                     tve.setTableName("VOLT_TEMP_TABLE");
                     boolean is_distinct = ((AggregateExpression)rootExpr).m_distinct;
-                    aggNode.addAggregate(agg_expression_type, is_distinct,
-                                         outputColumnIndex, agg_input_expr);
+                    if (isPushDownAgg && agg_expression_type == ExpressionType.AGGREGATE_AVG) {
+                        // The partial sum takes the place of the average in
+                        // the pushed-down output, typed the way SUM would be.
+                        AggregateExpression partialSum = new AggregateExpression(ExpressionType.AGGREGATE_SUM);
+                        partialSum.setLeft(agg_input_expr);
+                        partialSum.finalizeValueTypes();
+                        tve.setValueType(partialSum.getValueType());
+                        tve.setValueSize(partialSum.getValueSize());
+                        aggNode.addAggregate(ExpressionType.AGGREGATE_SUM, is_distinct,
+                                             outputColumnIndex, agg_input_expr);
+                    } else {
+                        aggNode.addAggregate(agg_expression_type, is_distinct,
+                                             outputColumnIndex, agg_input_expr);
+                    }
                     schema_col = new SchemaColumn("VOLT_TEMP_TABLE",
                                                   "",
                                                   col.alias,
                                                   tve);
 
                     /*
-                     * Special case count(*), count(), sum(), min() and max() to
-                     * push them down to each partition. It will do the
-                     * push-down if the select columns only contains the listed
-                     * aggregate operators and other group-by columns. If the
-                     * select columns includes any other aggregates, it will not
-                     * do the push-down. - nshi
+                     * Special case count(*), count(), sum(), avg(), min() and
+                     * max() to push them down to each partition. It will do
+                     * the push-down if the select columns only contains the
+                     * listed aggregate operators and other group-by columns.
+                     * If the select columns includes any other aggregates, it
+                     * will not do the push-down. - nshi
                      */
-                    if (!is_distinct &&
-                        (agg_expression_type == ExpressionType.AGGREGATE_COUNT_STAR ||
-                         agg_expression_type == ExpressionType.AGGREGATE_COUNT ||
-                         agg_expression_type == ExpressionType.AGGREGATE_SUM))
+                    if (!isPushDownAgg) {
+                        // The whole aggregation runs in one place.
+                    }
+                    else if (agg_expression_type == ExpressionType.AGGREGATE_COUNT_STAR ||
+                             agg_expression_type == ExpressionType.AGGREGATE_COUNT ||
+                             agg_expression_type == ExpressionType.AGGREGATE_SUM)
                     {
                         /*
                          * For count(*), count() and sum(), the pushed-down
@@ -1057,8 +1133,9 @@ public class PlanAssembler {
                          * the same as the output schema of the push-down
                          * aggregate node.
                          *
-                         * If DISTINCT is specified, don't do push-down for
-                         * count() and sum()
+                         * If DISTINCT is specified, the push-down is only
+                         * allowed when no distinct value can be counted on
+                         * more than one partition.
                          */
 
                         // Output column for the sum() aggregate node
@@ -1100,11 +1177,63 @@ public class PlanAssembler {
                                                 tve);
                         topSchemaCol = schema_col;
                     }
+                    else if (agg_expression_type == ExpressionType.AGGREGATE_AVG)
+                    {
+                        /*
+                         * For avg(), the pushed-down aggregate node computes
+                         * sum() into this column and count() into a hidden
+                         * column past the display columns. The coordinator
+                         * sums up both, and the final projection divides the
+                         * sum by the count. Integer and decimal division
+                         * truncate the same way the EE's own AVG does.
+                         */
+                        TupleValueExpression countExpr = new TupleValueExpression();
+                        countExpr.setValueType(VoltType.BIGINT);
+                        countExpr.setValueSize(VoltType.BIGINT.getLengthInBytesForFixedTypes());
+                        countExpr.setColumnIndex(hiddenColumnIndex);
+                        countExpr.setColumnName("");
+                        countExpr.setColumnAlias(AVG_COUNT_ALIAS_PREFIX + col.alias);
+                        countExpr.setTableName("VOLT_TEMP_TABLE");
+                        aggNode.addAggregate(ExpressionType.AGGREGATE_COUNT, is_distinct,
+                                             hiddenColumnIndex, agg_input_expr);
+                        hiddenSchema.addColumn(new SchemaColumn("VOLT_TEMP_TABLE",
+                                                                "",
+                                                                countExpr.getColumnAlias(),
+                                                                countExpr));
+
+                        topAggNode.addAggregate(ExpressionType.AGGREGATE_SUM,
+                                                false,
+                                                outputColumnIndex,
+                                                tve);
+                        topAggNode.addAggregate(ExpressionType.AGGREGATE_SUM,
+                                                false,
+                                                hiddenColumnIndex,
+                                                countExpr);
+                        topSchemaCol = schema_col;
+
+                        OperatorExpression average;
+                        try {
+                            average = new OperatorExpression(ExpressionType.OPERATOR_DIVIDE,
+                                                             (AbstractExpression) tve.clone(),
+                                                             (AbstractExpression) countExpr.clone());
+                        } catch (CloneNotSupportedException e) {
+                            throw new RuntimeException(e.getMessage());
+                        }
+                        average.setValueType(rootExpr.getValueType());
+                        average.setValueSize(rootExpr.getValueSize());
+                        finalSchemaCol = new SchemaColumn("VOLT_TEMP_TABLE",
+                                                          "",
+                                                          col.alias,
+                                                          average);
+                        hiddenColumnIndex++;
+                        hasSplitAverage = true;
+                    }
                     else
                     {
                         /*
-                         * Unsupported aggregate (AVG for example)
-                         * or some expression of aggregates.
+                         * Unsupported aggregate or some expression of
+                         * aggregates. canPushDownAggregates() should have
+                         * caught these.
                          */
                         isPushDownAgg = false;
                     }
@@ -1136,11 +1265,18 @@ public class PlanAssembler {
                                                     schema_col.getExpression());
                 }
 
+                if (finalSchemaCol == null) {
+                    finalSchemaCol = schema_col.copyAndReplaceWithTVE();
+                }
+                finalSchema.addColumn(finalSchemaCol);
                 agg_schema.addColumn(schema_col);
                 topAggSchema.addColumn(topSchemaCol);
                 outputColumnIndex++;
                 topOutputColumnIndex++;
             }
+            for (SchemaColumn hiddenCol : hiddenSchema.getColumns()) {
+                agg_schema.addColumn(hiddenCol);
+            }
 
             for (ParsedSelectStmt.ParsedColInfo col : m_parsedSelect.groupByColumns)
             {
@@ -1166,6 +1302,14 @@ public class PlanAssembler {
                 topAggNode = null;
             }
             root = pushDownAggregate(root, aggNode, topAggNode);
+
+            if (topAggNode != null && hasSplitAverage) {
+                ProjectionPlanNode finalProjection = new ProjectionPlanNode();
+                finalProjection.setOutputSchema(finalSchema);
+                finalProjection.addAndLinkChild(root);
+                finalProjection.generateOutputSchema(m_catalogDb);
+                root = finalProjection;
+            }
         }
         else
         {
@@ -1179,6 +1323,79 @@ public class PlanAssembler {
         return root;
     }
 
+    /**
+     * Check whether every aggregate in the select list can be computed as a
+     * partial aggregate on each partition and combined at the coordinator.
+     * COUNT, SUM, MIN and MAX combine directly and AVG combines as a SUM and a
+     * COUNT. Expressions of aggregates are not split.
+     */
+    private boolean canPushDownAggregates() {
+        for (ParsedSelectStmt.ParsedColInfo col : m_parsedSelect.displayColumns) {
+            AbstractExpression rootExpr = col.expression;
+            if ( ! rootExpr.hasAnySubexpressionOfClass(AggregateExpression.class)) {
+                continue;
+            }
+            if ( ! (rootExpr instanceof AggregateExpression)) {
+                return false;
+            }
+            switch (rootExpr.getExpressionType()) {
+            case AGGREGATE_MIN:
+            case AGGREGATE_MAX:
+                // DISTINCT makes no difference to min() and max().
+                break;
+            case AGGREGATE_COUNT:
+            case AGGREGATE_COUNT_STAR:
+            case AGGREGATE_SUM:
+            case AGGREGATE_AVG:
+                if (((AggregateExpression) rootExpr).m_distinct &&
+                    ! isDistinctAggregatePushable(rootExpr.getLeft())) {
+                    return false;
+                }
+                break;
+            default:
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A DISTINCT aggregate can only be combined from per-partition results if
+     * no distinct value can show up on more than one partition. That holds when
+     * the aggregated value is the partition column, or when the statement
+     * groups by the partition column so that every group lives on one partition.
+     */
+    private boolean isDistinctAggregatePushable(AbstractExpression aggInput) {
+        if (m_partitioning.getCountOfPartitionedTables() != 1) {
+            return false;
+        }
+        if (isPartitionColumn(aggInput)) {
+            return true;
+        }
+        for (ParsedSelectStmt.ParsedColInfo col : m_parsedSelect.groupByColumns) {
+            if (isPartitionColumn(col.expression)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isPartitionColumn(AbstractExpression expr) {
+        if ( ! (expr instanceof TupleValueExpression)) {
+            return false;
+        }
+        TupleValueExpression tve = (TupleValueExpression) expr;
+        for (Table table : m_parsedSelect.tableList) {
+            if (table.getIsreplicated() || ! table.getTypeName().equalsIgnoreCase(tve.getTableName())) {
+                continue;
+            }
+            Column partitionCol = table.getPartitioncolumn();
+            // Note getTypeName gets the column name.
+            return (partitionCol != null) && partitionCol.getTypeName().equalsIgnoreCase(tve.getColumnName());
+        }
+        return false;
+    }
+
     /**
      * Push the given aggregate if the plan is distributed, then add the
      * coordinator node on top of the send/receive pair. If the plan
@@ -1186,9 +1403,9 @@ public class PlanAssembler {
      * is added at the top of the plan.
      *
      * Note: this works in part because the push-down node is also an acceptable
-     * top level node if the plan is not distributed. This wouldn't be true
-     * if we started pushing down something like (sum, count) to calculate
-     * a distributed average.
+     * top level node if the plan is not distributed. A distributed average
+     * is pushed down as (sum, count), which is why handleAggregationOperators
+     * only splits aggregates when the plan is actually distributed.
      *
      * @param root
      *            The root node
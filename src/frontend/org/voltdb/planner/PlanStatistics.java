@@ -42,7 +42,7 @@ public class PlanStatistics {
     /**
      * Initialize an empty map for each possible level.
      */
-    PlanStatistics() {
+    public PlanStatistics() {
         m_levelCount = 0;
         m_levels = new ArrayList<HashMap<StatsField, Long>>();
         for (int i = 0; i < MAX_LEVELS; i++)
@@ -67,6 +67,8 @@ public class QueryPlanner {
 
     // generated by plan(..)
     boolean m_wasParameterizedPlan = false;
+    long m_joinPlansPruned = 0;
+    long m_estimatedPlanTimeSaved = 0;
 
     /**
      * Initialize planner with physical schema info and a reference to HSQLDB parser.
@@ -98,6 +100,34 @@ public class QueryPlanner {
                         AbstractCostModel costModel,
                         ScalarValueHints[] paramHints,
                         String joinOrder)
+    {
+        this(sql, stmtName, procName, catalogCluster, catalogDb, partitioning, HSQL, estimates,
+             suppressDebugOutput, maxTablesPerJoin, costModel, paramHints, joinOrder,
+             SelectSubPlanAssembler.DEFAULT_EXHAUSTIVE_JOIN_TABLES);
+    }
+
+    /**
+     * Initialize planner with physical schema info and a reference to HSQLDB parser,
+     * choosing how many tables a join may have before it stops trying every join order.
+     *
+     * @param exhaustiveJoinTables Joins of up to this many tables try every join order.
+     * @see #QueryPlanner(String, String, String, Cluster, Database, PartitioningForStatement,
+     *      HSQLInterface, DatabaseEstimates, boolean, int, AbstractCostModel, ScalarValueHints[], String)
+     */
+    public QueryPlanner(String sql,
+                        String stmtName,
+                        String procName,
+                        Cluster catalogCluster,
+                        Database catalogDb,
+                        PartitioningForStatement partitioning,
+                        HSQLInterface HSQL,
+                        DatabaseEstimates estimates,
+                        boolean suppressDebugOutput,
+                        int maxTablesPerJoin,
+                        AbstractCostModel costModel,
+                        ScalarValueHints[] paramHints,
+                        String joinOrder,
+                        int exhaustiveJoinTables)
     {
         assert(sql != null);
         assert(stmtName != null);
@@ -112,7 +142,8 @@ public class QueryPlanner {
         m_stmtName = stmtName;
         m_procName = procName;
         m_HSQL = HSQL;
-        m_assembler = new PlanAssembler(catalogCluster, catalogDb, partitioning);
+        m_assembler = new PlanAssembler(catalogCluster, catalogDb, partitioning, estimates, costModel, paramHints,
+                                        exhaustiveJoinTables);
         m_db = catalogDb;
         m_cluster = catalogCluster;
         m_estimates = estimates;
@@ -281,6 +312,20 @@ public class QueryPlanner {
         return m_wasParameterizedPlan;
     }
 
+    /**
+     * @return How many of the join plans an exhaustive search would have generated were skipped
+     */
+    public long getJoinPlansPruned() {
+        return m_joinPlansPruned;
+    }
+
+    /**
+     * @return Estimated nanoseconds the skipped join plans would have taken to generate and cost
+     */
+    public long getEstimatedPlanTimeSaved() {
+        return m_estimatedPlanTimeSaved;
+    }
+
     private CompiledPlan compileFromXML(VoltXMLElement xmlSQL, String[] paramValues) {
         // Get a parsed statement from the xml
         // The callers of compilePlan are ready to catch any exceptions thrown here.
@@ -291,7 +336,8 @@ public class QueryPlanner {
             return null;
         }
         if ((parsedStmt.tableList.size() > m_maxTablesPerJoin) && (parsedStmt.joinOrder == null)) {
-            m_recentErrorMsg = "Failed to parse SQL statement: " + m_sql + " because a join of > 5 tables was requested"
+            m_recentErrorMsg = "Failed to parse SQL statement: " + m_sql + " because a join of > " + m_maxTablesPerJoin +
+                               " tables was requested"
                                + " without specifying a join order. See documentation for instructions on manually" +
                                  " specifying a join order";
             return null;
@@ -312,6 +358,8 @@ public class QueryPlanner {
 
         PlanStatistics stats = null;
 
+        final long startTime = System.nanoTime();
+
         // set up the plan assembler for this statement
         m_assembler.setupForNewPlans(parsedStmt);
 
@@ -377,6 +425,14 @@ public class QueryPlanner {
             }
         }
 
+        // Estimate what generating the plans the join enumeration skipped would have cost
+        // from the time it took to cost the ones it didn't skip
+        m_joinPlansPruned = m_assembler.getJoinPlansPruned();
+        if (m_joinPlansPruned > 0) {
+            double perPlan = (System.nanoTime() - startTime) / (double) Math.max(1, m_assembler.getJoinPlansCosted());
+            m_estimatedPlanTimeSaved = (long) Math.min(Long.MAX_VALUE, perPlan * m_joinPlansPruned);
+        }
+
         // make sure we got a winner
         if (bestPlan == null) {
             m_recentErrorMsg = "Unable to plan for statement. Error unknown.";
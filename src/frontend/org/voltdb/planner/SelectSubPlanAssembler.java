@@ -22,12 +22,17 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 
+import org.voltdb.catalog.Cluster;
 import org.voltdb.catalog.Database;
 import org.voltdb.catalog.Table;
+import org.voltdb.compiler.DatabaseEstimates;
+import org.voltdb.compiler.ScalarValueHints;
 import org.voltdb.expressions.AbstractExpression;
 import org.voltdb.expressions.ExpressionUtil;
 import org.voltdb.plannodes.AbstractPlanNode;
+import org.voltdb.plannodes.HashJoinPlanNode;
 import org.voltdb.plannodes.IndexScanPlanNode;
 import org.voltdb.plannodes.NestLoopIndexPlanNode;
 import org.voltdb.plannodes.NestLoopPlanNode;
@@ -44,6 +49,26 @@ import org.voltdb.types.JoinType;
  */
 public class SelectSubPlanAssembler extends SubPlanAssembler {
 
+    /**
+     * Joins of up to this many tables try every join order. Larger joins only keep the
+     * cheapest plan for each subset of the tables as they are built up. The default covers
+     * every join that was allowed before the join table limit was raised, so their plans
+     * don't change. Planners that don't pass their own cutoff use this one.
+     */
+    static final int DEFAULT_EXHAUSTIVE_JOIN_TABLES = Integer.getInteger("plannerExhaustiveJoinTables", 5);
+
+    /** Used to cost partial join plans */
+    final Cluster m_cluster;
+    final DatabaseEstimates m_estimates;
+    final AbstractCostModel m_costModel;
+    final ScalarValueHints[] m_paramHints;
+
+    /** Partial join plans costed by the join enumeration */
+    long m_joinPlansCosted = 0;
+
+    /** Join plans an exhaustive search would have generated, if known */
+    long m_exhaustiveJoinPlans = 0;
+
     /** The list of generated plans. This allows their generation in batches.*/
     ArrayDeque<AbstractPlanNode> m_plans = new ArrayDeque<AbstractPlanNode>();
 
@@ -52,14 +77,25 @@ public class SelectSubPlanAssembler extends SubPlanAssembler {
 
     /**
      *
+     * @param cluster The catalog's Cluster object.
      * @param db The catalog's Database object.
      * @param parsedStmt The parsed and dissected statement object describing the sql to execute.
      * @param m_partitioning in/out param first element is partition key value, forcing a single-partition statement if non-null,
      * second may be an inferred partition key if no explicit single-partitioning was specified
+     * @param estimates Table size estimates for costing partial join plans.
+     * @param costModel The cost model to compare partial join plans with.
+     * @param paramHints
+     * @param exhaustiveJoinTables Joins of up to this many tables try every join order.
      */
-    SelectSubPlanAssembler(Database db, AbstractParsedStmt parsedStmt, PartitioningForStatement partitioning)
+    SelectSubPlanAssembler(Cluster cluster, Database db, AbstractParsedStmt parsedStmt, PartitioningForStatement partitioning,
+                           DatabaseEstimates estimates, AbstractCostModel costModel, ScalarValueHints[] paramHints,
+                           int exhaustiveJoinTables)
     {
         super(db, parsedStmt, partitioning);
+        m_cluster = cluster;
+        m_estimates = estimates;
+        m_costModel = costModel;
+        m_paramHints = paramHints;
         //If a join order was provided
         if (parsedStmt.joinOrder != null) {
             //Extract the table names from the , separated list
@@ -114,9 +150,139 @@ public class SelectSubPlanAssembler extends SubPlanAssembler {
                 throw new RuntimeException(sb.toString());
             }
             m_joinOrders.add(tables);
-        } else {
+        } else if (parsedStmt.tableList.size() <= exhaustiveJoinTables) {
             queueAllJoinOrders();
+        } else {
+            queueBestJoinPlan();
+        }
+    }
+
+    long getJoinPlansCosted() {
+        return m_joinPlansCosted;
+    }
+
+    long getJoinPlansPruned() {
+        return Math.max(0, m_exhaustiveJoinPlans - m_joinPlansCosted);
+    }
+
+    /**
+     * A way found to join a subset of the tables, in the same inner-to-outer
+     * order as the join orders in m_joinOrders, with its estimated cost and output size.
+     */
+    private static class JoinPlan {
+        final Table[] joinOrder;
+        final AccessPath[] accessPath;
+        final double cost;
+        final long tuples;
+
+        JoinPlan(Table[] joinOrder, AccessPath[] accessPath, double cost, long tuples) {
+            this.joinOrder = joinOrder;
+            this.accessPath = accessPath;
+            this.cost = cost;
+            this.tuples = tuples;
+        }
+
+        boolean dominates(JoinPlan other) {
+            return cost <= other.cost && tuples <= other.tuples;
+        }
+    }
+
+    /**
+     * Add a plan to the plans kept for a subset of the tables unless one of them is at least as
+     * cheap and outputs no more tuples, dropping any kept plans the new one beats on both.
+     */
+    private static void addJoinPlan(ArrayList<JoinPlan> plans, JoinPlan candidate) {
+        for (JoinPlan plan : plans) {
+            if (plan.dominates(candidate)) {
+                return;
+            }
+        }
+        Iterator<JoinPlan> iter = plans.iterator();
+        while (iter.hasNext()) {
+            if (candidate.dominates(iter.next())) {
+                iter.remove();
+            }
         }
+        plans.add(candidate);
+    }
+
+    /**
+     * Selinger style join enumeration. Builds left-deep plans up one table at a time, so the work
+     * grows with the number of subsets of the tables rather than the number of permutations.
+     * The join operators estimate different output sizes for the same tables, and a larger output
+     * makes joining the next table more expensive, so for each subset this keeps every plan that
+     * no other plan beats on both cost and output size rather than just the cheapest one.
+     * The plans kept for the full set of tables are handed out by nextPlan for the planner to cost.
+     */
+    @SuppressWarnings("unchecked")
+    private void queueBestJoinPlan() {
+        assert(m_parsedStmt.multiTableSelectionList.size() == 0);
+        assert(m_parsedStmt.noTableSelectionList.size() == 0);
+
+        final Table[] tables = m_parsedStmt.tableList.toArray(new Table[m_parsedStmt.tableList.size()]);
+        final int allTables = (1 << tables.length) - 1;
+        final ArrayList<JoinPlan>[] bestPlans = new ArrayList[allTables + 1];
+        // How many plans an exhaustive search generates for each subset, to report what was saved.
+        // A double because it grows factorially.
+        final double[] exhaustivePlans = new double[allTables + 1];
+        final boolean deferSendReceivePair = m_partitioning.getCountOfPartitionedTables() > 1;
+
+        bestPlans[0] = new ArrayList<JoinPlan>();
+        bestPlans[0].add(new JoinPlan(new Table[0], new AccessPath[0], 0, 0));
+        exhaustivePlans[0] = 1;
+
+        // Every subset is numerically greater than its subsets, so they are complete by the time it is extended
+        for (int joined = 0; joined < allTables; joined++) {
+            if (bestPlans[joined] == null || bestPlans[joined].isEmpty()) {
+                continue;
+            }
+            for (int ii = 0; ii < tables.length; ii++) {
+                final int bit = 1 << ii;
+                if ((joined & bit) != 0) {
+                    continue;
+                }
+                if (bestPlans[joined | bit] == null) {
+                    bestPlans[joined | bit] = new ArrayList<JoinPlan>();
+                }
+                // The access paths only depend on which tables are already joined
+                final ArrayList<AccessPath> paths =
+                    getRelevantAccessPathsForTable(tables[ii], bestPlans[joined].get(0).joinOrder);
+                exhaustivePlans[joined | bit] += exhaustivePlans[joined] * paths.size();
+
+                for (JoinPlan outer : bestPlans[joined]) {
+                    final Table[] joinOrder = new Table[outer.joinOrder.length + 1];
+                    joinOrder[0] = tables[ii];
+                    System.arraycopy(outer.joinOrder, 0, joinOrder, 1, outer.joinOrder.length);
+                    for (AccessPath path : paths) {
+                        final AccessPath[] accessPath = new AccessPath[joinOrder.length];
+                        accessPath[0] = path;
+                        System.arraycopy(outer.accessPath, 0, accessPath, 1, outer.accessPath.length);
+
+                        final AbstractPlanNode plan =
+                            getSelectSubPlanForAccessPathsIterative(joinOrder, accessPath, deferSendReceivePair);
+                        final double cost = getPlanCost(plan);
+                        m_joinPlansCosted++;
+                        addJoinPlan(bestPlans[joined | bit],
+                                    new JoinPlan(joinOrder, accessPath, cost, plan.getEstimatedOutputTupleCount()));
+                    }
+                }
+            }
+        }
+
+        m_exhaustiveJoinPlans = (long) Math.min(Long.MAX_VALUE, exhaustivePlans[allTables]);
+        for (JoinPlan best : bestPlans[allTables]) {
+            m_plans.add(getSelectSubPlanForAccessPath(best.joinOrder, best.accessPath, deferSendReceivePair));
+        }
+    }
+
+    /**
+     * Cost a partial plan the same way the query planner costs complete plans.
+     */
+    private double getPlanCost(AbstractPlanNode plan) {
+        PlanStatistics stats = new PlanStatistics();
+        boolean result = plan.computeEstimatesRecursively(stats, m_cluster, m_db, m_estimates, m_paramHints);
+        assert(result);
+        return m_costModel.getPlanCost(stats);
     }
 
     /**
@@ -339,6 +505,24 @@ public class SelectSubPlanAssembler extends SubPlanAssembler {
 
             retval = nlijNode;
         }
+        else if (accessPath.hashJoin) {
+            HashJoinPlanNode hashNode = new HashJoinPlanNode();
+            // all the join clauses are still checked for tuples with equal keys
+            hashNode.setPredicate(ExpressionUtil.combine(joinClauses));
+            hashNode.setJoinType(JoinType.INNER);
+            for (AbstractExpression expr : accessPath.hashJoinExprs) {
+                hashNode.addJoinKeys(expr.getLeft(), expr.getRight());
+            }
+
+            // same child order as the nest loop join, the new table's scan first
+            hashNode.addAndLinkChild(nljAccessPlan);
+
+            hashNode.addAndLinkChild(subPlan);
+            // now generate the output schema for this join
+            hashNode.generateOutputSchema(m_db);
+
+            retval = hashNode;
+        }
         else {
             NestLoopPlanNode nljNode = new NestLoopPlanNode();
             if ((joinClauses != null) && (joinClauses.size() > 0))
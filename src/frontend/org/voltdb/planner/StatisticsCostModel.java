@@ -0,0 +1,192 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.planner;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.voltdb.VoltTable;
+import org.voltdb.VoltTableRow;
+import org.voltdb.compiler.DatabaseEstimates;
+import org.voltdb.compiler.DatabaseEstimates.IndexEstimates;
+import org.voltdb.compiler.DatabaseEstimates.TableEstimates;
+
+/**
+ * Costs a plan by the tuples it reads plus the index levels it traverses. The
+ * estimates the plan nodes compute those from come from the table and index
+ * statistics of the local sites rather than fixed guesses once the sites have
+ * reported them, so index and join choices follow the data.
+ *
+ * Each site reports its statistics every REFRESH_INTERVAL milliseconds from its
+ * stats tick, so the estimates follow the data without a catalog update.
+ * Fragments run against one partition at a time, so a table is estimated at
+ * the size of its largest local partition.
+ */
+public class StatisticsCostModel extends AbstractCostModel {
+
+    /**
+     * How often each site reports its statistics
+     */
+    public static final long REFRESH_INTERVAL = Long.getLong("plannerStatisticsRefreshInterval", 60 * 1000);
+
+    private static class SiteStatistics {
+        final long m_time;
+        final Map<String, Long> m_tuples = new HashMap<String, Long>();
+        final Map<String, Map<String, IndexEstimates>> m_indexes = new HashMap<String, Map<String, IndexEstimates>>();
+
+        SiteStatistics(long time) {
+            m_time = time;
+        }
+    }
+
+    private static final ConcurrentHashMap<Long, SiteStatistics> s_siteStatistics =
+            new ConcurrentHashMap<Long, SiteStatistics>();
+
+    /*
+     * Merged estimates of all the sites. Replaced rather than modified so
+     * planner threads can copy it without locking.
+     */
+    private static volatile DatabaseEstimates s_estimates = new DatabaseEstimates();
+
+    /**
+     * @return Whether the site last reported its statistics more than REFRESH_INTERVAL ago
+     */
+    public static boolean isRefreshDue(long siteId, long now) {
+        SiteStatistics last = s_siteStatistics.get(siteId);
+        return last == null || now - last.m_time >= REFRESH_INTERVAL;
+    }
+
+    /**
+     * Record a site's current TABLE and INDEX statistics and merge them into the estimates.
+     * The tables' row positions are left alone, they may be shared with the stats agent.
+     *
+     * @param siteId Site the statistics are from
+     * @param tableStats TABLE statistics of the site, not interval based, or null
+     * @param indexStats INDEX statistics of the site, not interval based, or null
+     * @param now Current time in milliseconds
+     */
+    public static void updateSiteStatistics(long siteId, VoltTable tableStats, VoltTable indexStats, long now) {
+        SiteStatistics siteStats = new SiteStatistics(now);
+        if (tableStats != null) {
+            for (int ii = 0; ii < tableStats.getRowCount(); ii++) {
+                VoltTableRow row = tableStats.fetchRow(ii);
+                siteStats.m_tuples.put(row.getString("TABLE_NAME"), row.getLong("TUPLE_COUNT"));
+            }
+        }
+        if (indexStats != null) {
+            for (int ii = 0; ii < indexStats.getRowCount(); ii++) {
+                VoltTableRow row = indexStats.fetchRow(ii);
+                String tableName = row.getString("TABLE_NAME");
+                Map<String, IndexEstimates> indexes = siteStats.m_indexes.get(tableName);
+                if (indexes == null) {
+                    indexes = new HashMap<String, IndexEstimates>();
+                    siteStats.m_indexes.put(tableName, indexes);
+                }
+                IndexEstimates index = new IndexEstimates();
+                index.entries = row.getLong("ENTRY_COUNT");
+                index.distinctKeys = row.getLong("DISTINCT_KEY_COUNT");
+                indexes.put(row.getString("INDEX_NAME"), index);
+            }
+        }
+        s_siteStatistics.put(siteId, siteStats);
+        mergeSiteStatistics();
+    }
+
+    private static synchronized void mergeSiteStatistics() {
+        Map<String, TableEstimates> tables = new HashMap<String, TableEstimates>();
+        for (SiteStatistics siteStats : s_siteStatistics.values()) {
+            for (Entry<String, Long> e : siteStats.m_tuples.entrySet()) {
+                TableEstimates table = getOrCreate(tables, e.getKey());
+                table.maxTuples = Math.max(table.maxTuples, Math.max(1, e.getValue()));
+                table.minTuples = Math.min(table.minTuples, e.getValue());
+            }
+            for (Entry<String, Map<String, IndexEstimates>> e : siteStats.m_indexes.entrySet()) {
+                TableEstimates table = getOrCreate(tables, e.getKey());
+                for (Entry<String, IndexEstimates> ie : e.getValue().entrySet()) {
+                    IndexEstimates merged = table.indexEstimates.get(ie.getKey());
+                    if (merged == null) {
+                        merged = new IndexEstimates();
+                        table.indexEstimates.put(ie.getKey(), merged);
+                    }
+                    merged.entries = Math.max(merged.entries, ie.getValue().entries);
+                    merged.distinctKeys = Math.max(merged.distinctKeys, ie.getValue().distinctKeys);
+                }
+            }
+        }
+
+        DatabaseEstimates estimates = new DatabaseEstimates();
+        for (Entry<String, TableEstimates> e : tables.entrySet()) {
+            TableEstimates table = e.getValue();
+            if (table.maxTuples == 0) {
+                // only index statistics, don't guess the table is empty
+                table.maxTuples = new TableEstimates().maxTuples;
+            }
+            table.minTuples = Math.min(table.minTuples, table.maxTuples);
+            estimates.setEstimatesForTable(e.getKey(), table);
+        }
+        s_estimates = estimates;
+    }
+
+    private static TableEstimates getOrCreate(Map<String, TableEstimates> tables, String tableName) {
+        TableEstimates table = tables.get(tableName);
+        if (table == null) {
+            table = new TableEstimates();
+            table.maxTuples = 0;
+            table.minTuples = Long.MAX_VALUE;
+            tables.put(tableName, table);
+        }
+        return table;
+    }
+
+    /**
+     * @return Estimates from the most recent statistics, for one statement. Tables
+     * there are no statistics for yet get the default estimates.
+     */
+    public static DatabaseEstimates getEstimates() {
+        return new DatabaseEstimates(s_estimates);
+    }
+
+    /**
+     * Forget all reported statistics, for tests.
+     */
+    static synchronized void clear() {
+        s_siteStatistics.clear();
+        s_estimates = new DatabaseEstimates();
+    }
+
+    @Override
+    public double getPlanCost(PlanStatistics stats) {
+        double cost = 0;
+
+        for (int i = 0; i < stats.getLevelCount(); i++) {
+            HashMap<StatsField, Long> level = stats.getStatisticsForLevel(i);
+            Long tuplesRead = level.get(StatsField.TUPLES_READ);
+            if (tuplesRead != null) {
+                cost += tuplesRead;
+            }
+            Long indexLevels = level.get(StatsField.TREE_INDEX_LEVELS_TRAVERSED);
+            if (indexLevels != null) {
+                cost += indexLevels;
+            }
+        }
+
+        return cost;
+    }
+}
@@ -117,6 +117,12 @@ public abstract class SubPlanAssembler {
             }
         }
 
+        // an equi-join with the tables joined so far can also hash one of the inputs
+        AccessPath hashPath = getRelevantHashJoinPath(table, naivePath);
+        if (hashPath != null) {
+            paths.add(hashPath);
+        }
+
         CatalogMap<Index> indexes = table.getIndexes();
 
         for (Index index : indexes) {
@@ -129,6 +135,49 @@ public abstract class SubPlanAssembler {
         return paths;
     }
 
+    /**
+     * Given the sequential scan path of a table, find the join clauses that equate an
+     * expression over just this table with one over the tables joined before it. If
+     * there are any, return a path that hash joins the scan on them, otherwise null.
+     *
+     * @param table The table we want data from.
+     * @param naivePath The sequential scan access path of the table.
+     * @return A hash join access path or null if the join has no usable keys.
+     */
+    protected AccessPath getRelevantHashJoinPath(Table table, AccessPath naivePath)
+    {
+        AccessPath retval = null;
+        for (AbstractExpression expr : naivePath.joinExprs) {
+            if (expr.getExpressionType() != ExpressionType.COMPARE_EQUAL) {
+                continue;
+            }
+            ComparisonExpression normalizedExpr = (ComparisonExpression) expr;
+            if ( ! isOperandDependentOnTable(normalizedExpr.getLeft(), table)) {
+                normalizedExpr = normalizedExpr.reverseOperator();
+            }
+            AbstractExpression tableKey = normalizedExpr.getLeft();
+            AbstractExpression otherKey = normalizedExpr.getRight();
+            // Each key must be computable from the tuples of one side of the join
+            if ( ! isOperandOnlyOnTable(tableKey, table) ||
+                 isOperandDependentOnTable(otherKey, table) ||
+                 ExpressionUtil.getTupleValueExpressions(otherKey).isEmpty()) {
+                continue;
+            }
+            // The EE hashes the key values as they are, so equal keys must have equal types
+            if (tableKey.getValueType() != otherKey.getValueType()) {
+                continue;
+            }
+            if (retval == null) {
+                retval = new AccessPath();
+                retval.hashJoin = true;
+                retval.otherExprs.addAll(naivePath.otherExprs);
+                retval.joinExprs.addAll(naivePath.joinExprs);
+            }
+            retval.hashJoinExprs.add(normalizedExpr);
+        }
+        return retval;
+    }
+
     /**
      * A utility class for returning the results of a match between an indexed expression and a query filter
      * expression that uses it in some form in some useful fashion.
@@ -497,6 +546,16 @@ public abstract class SubPlanAssembler {
         return false;
     }
 
+    private boolean isOperandOnlyOnTable(AbstractExpression expr, Table table) {
+        List<TupleValueExpression> tves = ExpressionUtil.getTupleValueExpressions(expr);
+        for (TupleValueExpression tve : tves) {
+            if ( ! table.getTypeName().equals(tve.getTableName())) {
+                return false;
+            }
+        }
+        return ! tves.isEmpty();
+    }
+
     private List<AbstractExpression> bindingForIndexedFilterOperand(Table table,
         AbstractExpression indexableExpr, AbstractExpression otherExpr,
         AbstractExpression coveringExpr, int coveringColId)
@@ -40,6 +40,19 @@ public abstract class AbstractJoinPlanNode extends AbstractPlanNode {
     protected JoinType m_joinType = JoinType.INNER;
     protected AbstractExpression m_predicate;
 
+    // Cap on estimated tuple counts so estimates for long joins don't overflow when multiplied and summed
+    static final long MAX_ESTIMATED_TUPLES = 1L << 48;
+
+    static long multiplyEstimates(long a, long b) {
+        if (a <= 0 || b <= 0) {
+            return 0;
+        }
+        if (a > MAX_ESTIMATED_TUPLES / b) {
+            return MAX_ESTIMATED_TUPLES;
+        }
+        return a * b;
+    }
+
     protected AbstractJoinPlanNode() {
         super();
     }
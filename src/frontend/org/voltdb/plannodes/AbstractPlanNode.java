@@ -44,16 +44,22 @@ public abstract class AbstractPlanNode implements JSONString, Comparable<Abstrac
 
     /**
      * Internal PlanNodeId counter. Note that this member is static, which means
-     * all PlanNodes will have a unique id
+     * all PlanNodes will have a unique id. The counter is kept per thread so
+     * that concurrent planner threads don't hand out ids from the same sequence.
      */
-    private static int NEXT_PLAN_NODE_ID = 1;
+    private static final ThreadLocal<int[]> NEXT_PLAN_NODE_ID = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[] { 1 };
+        }
+    };
 
     /*
      * IDs only need to be unique for a single plan.
      * Reset between plans
      */
     public static final void resetPlanNodeIds() {
-        NEXT_PLAN_NODE_ID = 1;
+        NEXT_PLAN_NODE_ID.get()[0] = 1;
     }
 
     public enum Members {
@@ -95,7 +101,7 @@ public abstract class AbstractPlanNode implements JSONString, Comparable<Abstrac
      * Instantiates a new plan node.
      */
     protected AbstractPlanNode() {
-        m_id = NEXT_PLAN_NODE_ID++;
+        m_id = NEXT_PLAN_NODE_ID.get()[0]++;
     }
 
     public void overrideId(int newId) {
@@ -262,6 +268,15 @@ public abstract class AbstractPlanNode implements JSONString, Comparable<Abstrac
         return true;
     }
 
+    /**
+     * Accessor for the number of tuples this node is estimated to output.
+     * Only meaningful after computeEstimatesRecursively has been called.
+     * @return the estimate
+     */
+    public long getEstimatedOutputTupleCount() {
+        return m_estimatedOutputTupleCount;
+    }
+
     /**
      * Gets the id.
      *
@@ -0,0 +1,191 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.plannodes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json_voltpatches.JSONArray;
+import org.json_voltpatches.JSONException;
+import org.json_voltpatches.JSONObject;
+import org.json_voltpatches.JSONString;
+import org.json_voltpatches.JSONStringer;
+import org.voltdb.catalog.Cluster;
+import org.voltdb.catalog.Database;
+import org.voltdb.compiler.DatabaseEstimates;
+import org.voltdb.compiler.ScalarValueHints;
+import org.voltdb.expressions.AbstractExpression;
+import org.voltdb.expressions.ExpressionUtil;
+import org.voltdb.expressions.TupleValueExpression;
+import org.voltdb.planner.PlanStatistics;
+import org.voltdb.planner.StatsField;
+import org.voltdb.types.PlanNodeType;
+
+/**
+ * Equi-join of its two children. The EE builds a hash table on the join keys of
+ * the smaller input and probes it with the tuples of the other one. The join
+ * predicate is still evaluated for every pair of tuples whose keys match.
+ */
+public class HashJoinPlanNode extends AbstractJoinPlanNode {
+
+    public enum Members {
+        OUTER_KEY_EXPRESSIONS,
+        INNER_KEY_EXPRESSIONS;
+    }
+
+    // Key expressions over the tuples of the first (outer) and second (inner) child,
+    // the i-th outer key is compared for equality with the i-th inner key
+    protected List<AbstractExpression> m_outerKeyExpressions = new ArrayList<AbstractExpression>();
+    protected List<AbstractExpression> m_innerKeyExpressions = new ArrayList<AbstractExpression>();
+
+    public HashJoinPlanNode() {
+        super();
+    }
+
+    @Override
+    public PlanNodeType getPlanNodeType() {
+        return PlanNodeType.HASHJOIN;
+    }
+
+    @Override
+    public void validate() throws Exception {
+        super.validate();
+
+        if (m_outerKeyExpressions.isEmpty()) {
+            throw new Exception("ERROR: No join keys for HashJoinPlanNode '" + this + "'");
+        }
+        if (m_outerKeyExpressions.size() != m_innerKeyExpressions.size()) {
+            throw new Exception("ERROR: Mismatched join keys for HashJoinPlanNode '" + this + "'");
+        }
+        for (int ii = 0; ii < m_outerKeyExpressions.size(); ii++) {
+            m_outerKeyExpressions.get(ii).validate();
+            m_innerKeyExpressions.get(ii).validate();
+        }
+    }
+
+    /**
+     * Add a pair of equal join keys
+     * @param outerKey Expression over the tuples of the first child
+     * @param innerKey Expression over the tuples of the second child
+     */
+    public void addJoinKeys(AbstractExpression outerKey, AbstractExpression innerKey) {
+        // PlanNodes all need private deep copies of expressions
+        // so that the resolveColumnIndexes results
+        // don't get bashed by other nodes or subsequent planner runs
+        try {
+            m_outerKeyExpressions.add((AbstractExpression) outerKey.clone());
+            m_innerKeyExpressions.add((AbstractExpression) innerKey.clone());
+        }
+        catch (CloneNotSupportedException e) {
+            // This shouldn't ever happen
+            e.printStackTrace();
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+
+    public List<AbstractExpression> getOuterKeyExpressions() {
+        return m_outerKeyExpressions;
+    }
+
+    public List<AbstractExpression> getInnerKeyExpressions() {
+        return m_innerKeyExpressions;
+    }
+
+    @Override
+    public boolean computeEstimatesRecursively(PlanStatistics stats, Cluster cluster, Database db, DatabaseEstimates estimates, ScalarValueHints[] paramHints) {
+        boolean result = super.computeEstimatesRecursively(stats, cluster, db, estimates, paramHints);
+        assert(m_children.size() == 2);
+        final long outerTuples = m_children.get(0).m_estimatedOutputTupleCount;
+        final long innerTuples = m_children.get(1).m_estimatedOutputTupleCount;
+        // each input is read once, to build the hash table or to probe it,
+        // and each key is assumed to match about one tuple of the larger input
+        final long joinedTuples = Math.max(outerTuples, innerTuples);
+        // The hash table is a temporary index over the smaller input that uses temp table
+        // memory. Cost its build like inserting into a tree so an existing index on the
+        // join keys is preferred when the inputs are of similar size.
+        final long buildTuples = Math.min(outerTuples, innerTuples);
+        final long buildLevels = (long) Math.ceil(Math.log(Math.max(2, buildTuples)) / Math.log(2));
+        final long buildCost = multiplyEstimates(buildTuples, buildLevels + 1);
+        stats.incrementStatistic(0, StatsField.TUPLES_READ,
+                                 Math.min(MAX_ESTIMATED_TUPLES, outerTuples + innerTuples + joinedTuples + buildCost));
+        m_estimatedOutputTupleCount = joinedTuples;
+        return result;
+    }
+
+    @Override
+    public void resolveColumnIndexes()
+    {
+        super.resolveColumnIndexes();
+
+        // each side's keys are evaluated against that side's tuples only
+        resolveKeyColumnIndexes(m_outerKeyExpressions, m_children.get(0).getOutputSchema());
+        resolveKeyColumnIndexes(m_innerKeyExpressions, m_children.get(1).getOutputSchema());
+    }
+
+    private static void resolveKeyColumnIndexes(List<AbstractExpression> keys, NodeSchema schema)
+    {
+        for (AbstractExpression key : keys)
+        {
+            for (TupleValueExpression tve : ExpressionUtil.getTupleValueExpressions(key))
+            {
+                int index = schema.getIndexOfTve(tve);
+                if (index == -1)
+                {
+                    throw new RuntimeException("Unable to find index for hash join key TVE: " +
+                                               tve.toString());
+                }
+                tve.setColumnIndex(index);
+            }
+        }
+    }
+
+    @Override
+    public void toJSONString(JSONStringer stringer) throws JSONException {
+        super.toJSONString(stringer);
+        stringer.key(Members.OUTER_KEY_EXPRESSIONS.name()).array();
+        for (AbstractExpression ae : m_outerKeyExpressions) {
+            assert (ae instanceof JSONString);
+            stringer.value(ae);
+        }
+        stringer.endArray();
+        stringer.key(Members.INNER_KEY_EXPRESSIONS.name()).array();
+        for (AbstractExpression ae : m_innerKeyExpressions) {
+            assert (ae instanceof JSONString);
+            stringer.value(ae);
+        }
+        stringer.endArray();
+    }
+
+    @Override
+    public void loadFromJSONObject( JSONObject jobj, Database db ) throws JSONException {
+        super.loadFromJSONObject(jobj, db);
+        JSONArray jarray = jobj.getJSONArray( Members.OUTER_KEY_EXPRESSIONS.name() );
+        for( int i = 0 ; i < jarray.length(); i++ ) {
+            m_outerKeyExpressions.add( AbstractExpression.fromJSONObject(jarray.getJSONObject( i ), db));
+        }
+        jarray = jobj.getJSONArray( Members.INNER_KEY_EXPRESSIONS.name() );
+        for( int i = 0 ; i < jarray.length(); i++ ) {
+            m_innerKeyExpressions.add( AbstractExpression.fromJSONObject(jarray.getJSONObject( i ), db));
+        }
+    }
+
+    @Override
+    protected String explainPlanForNode(String indent) {
+        return "HASH JOIN on " + m_outerKeyExpressions.size() + " key(s)";
+    }
+}
@@ -85,6 +85,9 @@ public class IndexScanPlanNode extends AbstractScanPlanNode {
     // this index scan is going to use
     protected Index m_catalogIndex = null;
 
+    // Entries per key assumed for non-unique indexes whose distinct key count isn't known
+    private static final long DEFAULT_ENTRIES_PER_KEY = 10;
+
     private ArrayList<AbstractExpression> m_bindings = null;
 
     public IndexScanPlanNode() {
@@ -307,6 +310,14 @@ public class IndexScanPlanNode extends AbstractScanPlanNode {
         Table target = db.getTables().getIgnoreCase(m_targetTableName);
         assert(target != null);
         DatabaseEstimates.TableEstimates tableEstimates = estimates.getEstimatesForTable(target.getTypeName());
+
+        // with statistics for the index, estimate from the number of keys and how many of them the scan covers
+        DatabaseEstimates.IndexEstimates indexEstimates = tableEstimates.indexEstimates.get(m_targetIndexName);
+        if (indexEstimates != null) {
+            computeEstimatesFromStatistics(stats, indexEstimates);
+            return true;
+        }
+
         stats.incrementStatistic(0, StatsField.TREE_INDEX_LEVELS_TRAVERSED, (long)(Math.log(tableEstimates.maxTuples)));
 
         // get the width of the index and number of columns used
@@ -351,6 +362,44 @@ public class IndexScanPlanNode extends AbstractScanPlanNode {
         return true;
     }
 
+    /**
+     * Estimate the tuples the scan reads from the observed size of the index. Each component
+     * of the key is assumed to be equally selective, and a range on the last component
+     * to match a third of what its equality would.
+     */
+    private void computeEstimatesFromStatistics(PlanStatistics stats, DatabaseEstimates.IndexEstimates indexEstimates) {
+        final long entries = Math.max(1, indexEstimates.entries);
+        long distinctKeys = indexEstimates.distinctKeys;
+        if (distinctKeys <= 0) {
+            distinctKeys = m_catalogIndex.getUnique() ? entries : Math.max(1, entries / DEFAULT_ENTRIES_PER_KEY);
+        }
+
+        final int colCount = m_catalogIndex.getColumns().size();
+        final int keyWidth = m_searchkeyExpressions.size();
+        double selectivity = 1.0;
+        if (keyWidth > 0 && colCount > 0) {
+            double equalityWidth = (m_lookupType == IndexLookupType.EQ) ? keyWidth : keyWidth - 1;
+            selectivity = Math.pow(1.0 / distinctKeys, Math.min(1.0, equalityWidth / colCount));
+            if (m_lookupType != IndexLookupType.EQ) {
+                selectivity /= 3.0;
+            }
+        }
+        long tuplesToRead = Math.max(1, (long) (entries * selectivity));
+
+        // minor priorities for index types (tiebreakers)
+        if (m_catalogIndex.getType() == IndexType.HASH_TABLE.getValue()) {
+            tuplesToRead += 2;
+            stats.incrementStatistic(0, StatsField.TREE_INDEX_LEVELS_TRAVERSED, 1);
+        } else {
+            tuplesToRead += 3;
+            stats.incrementStatistic(0, StatsField.TREE_INDEX_LEVELS_TRAVERSED,
+                                     (long) Math.ceil(Math.log(entries) / Math.log(2)));
+        }
+
+        stats.incrementStatistic(0, StatsField.TUPLES_READ, tuplesToRead);
+        m_estimatedOutputTupleCount = tuplesToRead;
+    }
+
     @Override
     public void toJSONString(JSONStringer stringer) throws JSONException {
         super.toJSONString(stringer);
@@ -21,10 +21,15 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.TreeMap;
 
+import org.voltdb.catalog.Cluster;
 import org.voltdb.catalog.Database;
+import org.voltdb.compiler.DatabaseEstimates;
+import org.voltdb.compiler.ScalarValueHints;
 import org.voltdb.expressions.AbstractExpression;
 import org.voltdb.expressions.ExpressionUtil;
 import org.voltdb.expressions.TupleValueExpression;
+import org.voltdb.planner.PlanStatistics;
+import org.voltdb.planner.StatsField;
 import org.voltdb.types.PlanNodeType;
 
 public class NestLoopIndexPlanNode extends AbstractJoinPlanNode {
@@ -62,6 +67,27 @@ public class NestLoopIndexPlanNode extends AbstractJoinPlanNode {
             join(inlineScan.getOutputSchema()).copyAndReplaceWithTVE();
     }
 
+    @Override
+    public boolean computeEstimatesRecursively(PlanStatistics stats, Cluster cluster, Database db, DatabaseEstimates estimates, ScalarValueHints[] paramHints) {
+        // the outer side
+        boolean result = super.computeEstimatesRecursively(stats, cluster, db, estimates, paramHints);
+        final long outerTuples = m_estimatedOutputTupleCount;
+
+        // the inlined index scan is probed once for every outer tuple
+        IndexScanPlanNode inlineScan =
+            (IndexScanPlanNode) m_inlineNodes.get(PlanNodeType.INDEXSCAN);
+        assert(inlineScan != null);
+        PlanStatistics probeStats = new PlanStatistics();
+        inlineScan.computeEstimatesRecursively(probeStats, cluster, db, estimates, paramHints);
+        final long levelsPerProbe = Math.max(0, probeStats.getStatistic(0, StatsField.TREE_INDEX_LEVELS_TRAVERSED));
+
+        final long joinedTuples = multiplyEstimates(outerTuples, inlineScan.m_estimatedOutputTupleCount);
+        stats.incrementStatistic(0, StatsField.TUPLES_READ, joinedTuples);
+        stats.incrementStatistic(0, StatsField.TREE_INDEX_LEVELS_TRAVERSED, multiplyEstimates(outerTuples, levelsPerProbe));
+        m_estimatedOutputTupleCount = joinedTuples;
+        return result;
+    }
+
     @Override
     public void resolveColumnIndexes()
     {
@@ -17,6 +17,12 @@
 
 package org.voltdb.plannodes;
 
+import org.voltdb.catalog.Cluster;
+import org.voltdb.catalog.Database;
+import org.voltdb.compiler.DatabaseEstimates;
+import org.voltdb.compiler.ScalarValueHints;
+import org.voltdb.planner.PlanStatistics;
+import org.voltdb.planner.StatsField;
 import org.voltdb.types.PlanNodeType;
 
 public class NestLoopPlanNode extends AbstractJoinPlanNode {
@@ -30,6 +36,18 @@ public class NestLoopPlanNode extends AbstractJoinPlanNode {
         return PlanNodeType.NESTLOOP;
     }
 
+    @Override
+    public boolean computeEstimatesRecursively(PlanStatistics stats, Cluster cluster, Database db, DatabaseEstimates estimates, ScalarValueHints[] paramHints) {
+        boolean result = super.computeEstimatesRecursively(stats, cluster, db, estimates, paramHints);
+        assert(m_children.size() == 2);
+        // the inner side is scanned again for every outer tuple
+        final long joinedTuples = multiplyEstimates(m_children.get(0).m_estimatedOutputTupleCount,
+                                                    m_children.get(1).m_estimatedOutputTupleCount);
+        stats.incrementStatistic(0, StatsField.TUPLES_READ, joinedTuples);
+        m_estimatedOutputTupleCount = joinedTuples;
+        return result;
+    }
+
     @Override
     protected String explainPlanForNode(String indent) {
         return "NEST LOOP JOIN";
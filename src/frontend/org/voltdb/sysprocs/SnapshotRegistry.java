@@ -45,7 +45,9 @@ public class SnapshotRegistry {
 
     public static class Snapshot {
         public final long txnId;
+        public final long timeStarted;
         public final long timeFinished;
+        public final boolean isRestore;
 
         public final String path;
         public final String nonce;
@@ -63,7 +65,9 @@ public class SnapshotRegistry {
             this.path = path;
             this.nonce = nonce;
             this.format = format;
+            timeStarted = org.voltdb.TransactionIdManager.getTimestampFromTransactionId(txnId);
             timeFinished = 0;
+            isRestore = false;
             synchronized (this.tables) {
                 for (org.voltdb.catalog.Table table : tables) {
                     String filename =
@@ -79,11 +83,29 @@ public class SnapshotRegistry {
             bytesWritten = 0;
         }
 
+        /*
+         * A restore has no tables up front, they are added as the restore
+         * reads them from disk
+         */
+        private Snapshot(long txnId, String path, String nonce, long timeStarted) {
+            this.txnId = txnId;
+            this.path = path;
+            this.nonce = nonce;
+            this.timeStarted = timeStarted;
+            format = SnapshotFormat.NATIVE;
+            timeFinished = 0;
+            isRestore = true;
+            result = false;
+            bytesWritten = 0;
+        }
+
         private Snapshot(Snapshot incomplete, long timeFinished) {
             txnId = incomplete.txnId;
             path = incomplete.path;
             nonce = incomplete.nonce;
             format = incomplete.format;
+            timeStarted = incomplete.timeStarted;
+            isRestore = incomplete.isRestore;
             this.timeFinished = timeFinished;
             synchronized (tables) {
                 tables.putAll(incomplete.tables);
@@ -123,6 +145,34 @@ public class SnapshotRegistry {
             }
         }
 
+        /**
+         * Account for bytes of a table read by a restore, creating the table
+         * entry the first time it is seen. A non-null error marks the table failed.
+         */
+        public void updateRestoredTable(String name, String filename, long bytes, Throwable error) {
+            synchronized (tables) {
+                Table t = tables.get(name);
+                if (t == null) {
+                    t = new Table(name, filename);
+                }
+                tables.put(name, new Table(t, t.size + bytes, error != null ? error : t.error));
+            }
+        }
+
+        /**
+         * Bytes accounted to the tables so far, used to report the throughput
+         * of a snapshot that is still in progress
+         */
+        public long getTableBytes() {
+            long bytes = 0;
+            synchronized (tables) {
+                for (Table t : tables.values()) {
+                    bytes += t.size;
+                }
+            }
+            return bytes;
+        }
+
         public Table removeTable(String name) {
             synchronized (tables) {
                 return tables.remove(name);
@@ -170,6 +220,19 @@ public class SnapshotRegistry {
         return s;
     }
 
+    public static synchronized Snapshot startRestore(long txnId, String path, String nonce) {
+        final Snapshot s = new Snapshot(txnId, path, nonce, System.currentTimeMillis());
+
+        m_snapshots.add(s);
+        if (m_snapshots.size() > m_maxStatusHistory) {
+            Iterator<Snapshot> iter = m_snapshots.iterator();
+            iter.next();
+            iter.remove();
+        }
+
+        return s;
+    }
+
     public static synchronized void discardSnapshot(Snapshot s) {
         m_snapshots.remove(s);
     }
@@ -38,6 +38,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -87,6 +88,7 @@ import org.voltdb.utils.CompressionService;
 import org.voltdb.utils.VoltFile;
 
 import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 @ProcInfo (
         singlePartition = false
@@ -140,6 +142,13 @@ public class SnapshotRestore extends VoltSystemProcedure
     private static HashSet<String>  m_initializedTableSaveFileNames = new HashSet<String>();
     private static ArrayDeque<TableSaveFile> m_saveFiles = new ArrayDeque<TableSaveFile>();
 
+    /*
+     * The first error restoring the table whose save files are in m_saveFiles.
+     * Once set every site on this host stops taking chunks and reports it instead
+     * of finishing the table without the data that was lost.
+     */
+    private static Throwable m_saveFilesError = null;
+
     private static synchronized void initializeTableSaveFiles(
             String filePath,
             String fileNonce,
@@ -157,6 +166,7 @@ public class SnapshotRestore extends VoltSystemProcedure
         if (!m_initializedTableSaveFileNames.add(tableName)) {
             return;
         }
+        m_saveFilesError = null;
 
         // To avoid pulling duplicate rows when we have multiple files
         // that contain the data for a partition, we're going to assign
@@ -172,16 +182,21 @@ public class SnapshotRestore extends VoltSystemProcedure
             relevantPartitionSet.add(part_id);
         }
 
+        // All the files are read at the same time so split the read ahead
+        // between them rather than giving each file the whole budget
+        final int readAheadChunks =
+                Math.max(2, (st.getLocalSites().length * 4) / Math.max(1, originalHostIds.length));
         for (int originalHostId : originalHostIds) {
             final File f = getSaveFileForPartitionedTable(filePath, fileNonce,
                     tableName,
                     originalHostId);
             TableSaveFile savefile = getTableSaveFile(
                     f,
-                    st.getLocalSites().length * 4,
+                    readAheadChunks,
                     relevantPartitionSet.toArray(new Integer[relevantPartitionSet.size()]));
 
             m_saveFiles.offer(savefile);
+            savefile.startReadAhead();
             for (int part_id : savefile.getPartitionIds())
             {
                 relevantPartitionSet.remove(part_id);
@@ -195,6 +210,7 @@ public class SnapshotRestore extends VoltSystemProcedure
     }
 
     private static synchronized boolean hasMoreChunks() throws IOException {
+        checkSaveFilesError();
         boolean hasMoreChunks = false;
         while (!hasMoreChunks && m_saveFiles.peek() != null) {
             TableSaveFile f = m_saveFiles.peek();
@@ -210,19 +226,60 @@ public class SnapshotRestore extends VoltSystemProcedure
         return hasMoreChunks;
     }
 
+    /*
+     * Take chunks from the files round robin so every file's reader and the
+     * chunk processors stay busy instead of draining one file at a time
+     */
     private static synchronized BBContainer getNextChunk() throws IOException {
+        checkSaveFilesError();
         BBContainer c = null;
         while (c == null && m_saveFiles.peek() != null) {
-            TableSaveFile f = m_saveFiles.peek();
-            c = f.getNextChunk();
+            TableSaveFile f = m_saveFiles.poll();
+            try {
+                c = f.getNextChunk();
+            } catch (IOException e) {
+                m_saveFiles.offer(f);
+                abandonSaveFiles(e);
+                throw e;
+            } catch (RuntimeException e) {
+                m_saveFiles.offer(f);
+                abandonSaveFiles(e);
+                throw e;
+            }
             if (c == null) {
                 f.close();
-                m_saveFiles.poll();
+            } else {
+                m_saveFiles.offer(f);
             }
         }
         return c;
     }
 
+    private static void checkSaveFilesError() throws IOException {
+        if (m_saveFilesError != null) {
+            throw new IOException("Restore of the table was abandoned: " +
+                    m_saveFilesError.getMessage(), m_saveFilesError);
+        }
+    }
+
+    /*
+     * Close every save file of the table being restored and remember why so
+     * the other sites fail the table too instead of reporting success without
+     * the rest of its data
+     */
+    private static synchronized void abandonSaveFiles(Throwable cause) {
+        if (m_saveFilesError == null) {
+            m_saveFilesError = cause;
+        }
+        TableSaveFile f;
+        while ((f = m_saveFiles.poll()) != null) {
+            try {
+                f.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
     @Override
     public void init()
     {
@@ -424,6 +481,7 @@ public class SnapshotRestore extends VoltSystemProcedure
                 // can't be attempting to set and clear this HashSet simultaneously
                 m_initializedTableSaveFileNames.clear();
                 m_saveFiles.clear();//Tests will reused a VoltDB process that fails a restore
+                m_saveFilesError = null;
 
                 m_filePath = (String) params.toArray()[0];
                 m_fileNonce = (String) params.toArray()[1];
@@ -529,6 +587,7 @@ public class SnapshotRestore extends VoltSystemProcedure
             }
             catch (IOException e)
             {
+                recordRestoredBytes(table_name, getSaveFileForReplicatedTable(table_name).getName(), 0, e);
                 String hostname = CoreUtils.getHostnameOrAddress();
                 VoltTable result = constructResultsTable();
                 result.addRow(m_hostId, hostname, CoreUtils.getSiteIdFromHSId(m_siteId), table_name, -1, "FAILURE",
@@ -549,6 +608,12 @@ public class SnapshotRestore extends VoltSystemProcedure
                         continue;//Should be equivalent to break
                     }
 
+                    // Every site reads the whole file, only count it once per host
+                    if (context.isLowestSiteId()) {
+                        recordRestoredBytes(table_name,
+                                getSaveFileForReplicatedTable(table_name).getName(), c.b.remaining(), null);
+                    }
+
                     if (needsConversion == null) {
                         VoltTable old_table =
                                 PrivateVoltTableFactory.createVoltTableFromBuffer(c.b.duplicate(), true);
@@ -576,6 +641,7 @@ public class SnapshotRestore extends VoltSystemProcedure
                     }
                     catch (VoltAbortException e)
                     {
+                        recordRestoredBytes(table_name, getSaveFileForReplicatedTable(table_name).getName(), 0, e);
                         result_str = "FAILURE";
                         error_msg = e.getMessage();
                         break;
@@ -583,6 +649,7 @@ public class SnapshotRestore extends VoltSystemProcedure
                 }
 
             } catch (IOException e) {
+                recordRestoredBytes(table_name, getSaveFileForReplicatedTable(table_name).getName(), 0, e);
                 String hostname = CoreUtils.getHostnameOrAddress();
                 VoltTable result = constructResultsTable();
                 result.addRow(m_hostId, hostname, CoreUtils.getSiteIdFromHSId(m_siteId), table_name, -1, "FAILURE",
@@ -590,6 +657,7 @@ public class SnapshotRestore extends VoltSystemProcedure
                         " error: " + e.getMessage());
                 return new DependencyPair(dependency_id, result);
             } catch (VoltTypeException e) {
+                recordRestoredBytes(table_name, getSaveFileForReplicatedTable(table_name).getName(), 0, e);
                 String hostname = CoreUtils.getHostnameOrAddress();
                 VoltTable result = constructResultsTable();
                 result.addRow(m_hostId, hostname, CoreUtils.getSiteIdFromHSId(m_siteId), table_name, -1, "FAILURE",
@@ -830,6 +898,16 @@ public class SnapshotRestore extends VoltSystemProcedure
             responseBuffer.putLong(m_site.getCorrespondingSiteId());
             responseBuffer.putLong(m.getHSId());
 
+            /*
+             * The @SnapshotStatus entry for this restore is created before the coordinator
+             * hears from this site, so it exists before any table work reaches the host,
+             * and is finished however the run loop exits
+             */
+            if (context.isLowestSiteId()) {
+                m_restoreRecord =
+                        SnapshotRegistry.startRestore(context.getCurrentTxnId(), m_filePath, m_fileNonce);
+            }
+
             BinaryPayloadMessage bpm = new BinaryPayloadMessage(new byte[0], responseBuffer.array());
             m.send(coordinatorHSId, bpm);
             bpm = null;
@@ -856,28 +934,35 @@ public class SnapshotRestore extends VoltSystemProcedure
              * Loop until the termination signal is received. Execute any plan fragments that
              * are received
              */
-            while (true) {
-                VoltMessage vm = m.recvBlocking(1000);
-                if (vm == null) continue;
-
-                if (vm instanceof FragmentTaskMessage) {
-                    FragmentTaskMessage ftm = (FragmentTaskMessage)vm;
-                    TRACE_LOG.trace(
-                            CoreUtils.hsIdToString(context.getSiteId()) + " received fragment id " +
-                    ftm.getFragmentId(0));
-                    DependencyPair dp =
-                            m_runner.executePlanFragment(
-                                    m_runner.getTxnState(),
-                                    null,
-                                    ftm.getFragmentId(0),
-                                    ftm.getParameterSetForFragment(0));
-                    FragmentResponseMessage frm = new FragmentResponseMessage(ftm, m.getHSId());
-                    frm.addDependency(dp.depId, dp.dependency);
-                    m.send(ftm.getCoordinatorHSId(), frm);
-                } else if (vm instanceof BinaryPayloadMessage) {
-                    //Null result table is intentional
-                    //The results of the process are propagated through a future in performTableRestoreWork
-                    return new DependencyPair( DEP_restoreAsyncRunLoop, constructResultsTable());
+            try {
+                while (true) {
+                    VoltMessage vm = m.recvBlocking(1000);
+                    if (vm == null) continue;
+
+                    if (vm instanceof FragmentTaskMessage) {
+                        FragmentTaskMessage ftm = (FragmentTaskMessage)vm;
+                        TRACE_LOG.trace(
+                                CoreUtils.hsIdToString(context.getSiteId()) + " received fragment id " +
+                        ftm.getFragmentId(0));
+                        DependencyPair dp =
+                                m_runner.executePlanFragment(
+                                        m_runner.getTxnState(),
+                                        null,
+                                        ftm.getFragmentId(0),
+                                        ftm.getParameterSetForFragment(0));
+                        FragmentResponseMessage frm = new FragmentResponseMessage(ftm, m.getHSId());
+                        frm.addDependency(dp.depId, dp.dependency);
+                        m.send(ftm.getCoordinatorHSId(), frm);
+                    } else if (vm instanceof BinaryPayloadMessage) {
+                        //Null result table is intentional
+                        //The results of the process are propagated through a future in performTableRestoreWork
+                        return new DependencyPair( DEP_restoreAsyncRunLoop, constructResultsTable());
+                    }
+                }
+            } finally {
+                if (context.isLowestSiteId() && m_restoreRecord != null) {
+                    SnapshotRegistry.finishSnapshot(m_restoreRecord);
+                    m_restoreRecord = null;
                 }
             }
         } else if (fragmentId ==
@@ -1595,6 +1680,7 @@ public class SnapshotRestore extends VoltSystemProcedure
         }
         catch (IOException e)
         {
+            recordRestoredBytes(tableName, getSaveFileForReplicatedTable(tableName).getName(), 0, e);
             VoltTable result = constructResultsTable();
             result.addRow(m_hostId, hostname, CoreUtils.getSiteIdFromHSId(m_siteId), tableName, -1, "FAILURE",
                     "Unable to load table: " + tableName +
@@ -1615,6 +1701,8 @@ public class SnapshotRestore extends VoltSystemProcedure
                 if (c == null) {
                     continue;//Should be equivalent to break
                 }
+                recordRestoredBytes(tableName,
+                        getSaveFileForReplicatedTable(tableName).getName(), c.b.remaining(), null);
 
                 if (needsConversion == null) {
                     VoltTable old_table =
@@ -1662,6 +1750,7 @@ public class SnapshotRestore extends VoltSystemProcedure
                 results = executeSysProcPlanFragments(pfs, m_mbox);
             }
         } catch (IOException e) {
+            recordRestoredBytes(tableName, getSaveFileForReplicatedTable(tableName).getName(), 0, e);
             VoltTable result = PrivateVoltTableFactory.createUninitializedVoltTable();
             result = constructResultsTable();
             result.addRow(m_hostId, hostname, CoreUtils.getSiteIdFromHSId(m_siteId), tableName, -1, "FAILURE",
@@ -1669,6 +1758,7 @@ public class SnapshotRestore extends VoltSystemProcedure
                     " error: " + e.getMessage());
             return result;
         } catch (VoltTypeException e) {
+            recordRestoredBytes(tableName, getSaveFileForReplicatedTable(tableName).getName(), 0, e);
             VoltTable result = PrivateVoltTableFactory.createUninitializedVoltTable();
             result = constructResultsTable();
             result.addRow(m_hostId, hostname, CoreUtils.getSiteIdFromHSId(m_siteId), tableName, -1, "FAILURE",
@@ -1704,6 +1794,9 @@ public class SnapshotRestore extends VoltSystemProcedure
         }
         catch (IOException e)
         {
+            recordRestoredBytes(tableName,
+                    getSaveFileForPartitionedTable(m_filePath, m_fileNonce, tableName, originalHostIds[0]).getName(),
+                    0, e);
             VoltTable result = constructResultsTable();
             result.addRow(m_hostId, hostname, CoreUtils.getSiteIdFromHSId(m_siteId), tableName, relevantPartitionIds[0], "FAILURE",
                     "Unable to load table: " + tableName +
@@ -1714,39 +1807,26 @@ public class SnapshotRestore extends VoltSystemProcedure
         VoltTable[] results = new VoltTable[] { constructResultsTable() };
         results[0].addRow(m_hostId, hostname, CoreUtils.getSiteIdFromHSId(m_siteId), tableName, 0,
                 "SUCCESS", "NO DATA TO DISTRIBUTE");
-        final Table new_catalog_table = getCatalogTable(tableName);
-        Boolean needsConversion = null;
-        org.voltcore.utils.DBBPool.BBContainer c = null;
+        final PartitionedChunkPreparer preparer =
+                new PartitionedChunkPreparer(tableName,
+                        getSaveFileForPartitionedTable(m_filePath, m_fileNonce, tableName, originalHostIds[0]).getName(),
+                        ctx.getNumberOfPartitions());
+        Future<byte[][]> nextChunk = null;
         try {
-            while (hasMoreChunks())
+            /*
+             * Keep one chunk prepared ahead. While the fragments for a chunk are
+             * in flight the next one is read, split and compressed. Waiting for
+             * the fragment responses before taking another chunk bounds how much
+             * each site has outstanding at the target partitions.
+             */
+            nextChunk = m_restoreChunkPreparer.submit(preparer);
+            while (true)
             {
-                VoltTable table = null;
-
-                c = null;
-                c = getNextChunk();
-                if (c == null) {
-                    continue;//Should be equivalent to break
-                }
-
-                if (needsConversion == null) {
-                    VoltTable old_table = PrivateVoltTableFactory.createVoltTableFromBuffer(c.b.duplicate(), true);
-                    needsConversion = SavedTableConverter.needsConversion(old_table, new_catalog_table);
-                }
-
-                final VoltTable old_table = PrivateVoltTableFactory.createVoltTableFromBuffer(c.b, true);
-                if (needsConversion) {
-                    table = SavedTableConverter.convertTable(old_table,
-                            new_catalog_table);
-                } else {
-                    table = old_table;
-                }
-
-
-                byte[][] partitioned_tables =
-                        createPartitionedTables(tableName, table, ctx.getNumberOfPartitions());
-                if (c != null) {
-                    c.discard();
+                byte[][] partitioned_tables = nextChunk.get();
+                if (partitioned_tables == null) {
+                    break;
                 }
+                nextChunk = m_restoreChunkPreparer.submit(preparer);
 
                 int[] dependencyIds = new int[sites_to_partitions.size()];
                 SynthesizedPlanFragment[] pfs =
@@ -1784,17 +1864,76 @@ public class SnapshotRestore extends VoltSystemProcedure
                 results = executeSysProcPlanFragments(pfs, m_mbox);
             }
         } catch (Exception e) {
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            /*
+             * Stop the other sites and the chunk prepared ahead from taking
+             * any more of the table, what they would load is incomplete
+             */
+            abandonSaveFiles(cause);
+            if (nextChunk != null) {
+                nextChunk.cancel(false);
+            }
+            recordRestoredBytes(tableName, preparer.m_filename, 0, cause);
             VoltTable result = PrivateVoltTableFactory.createUninitializedVoltTable();
             result = constructResultsTable();
             result.addRow(m_hostId, hostname, CoreUtils.getSiteIdFromHSId(m_siteId), tableName, relevantPartitionIds[0],
                     "FAILURE", "Unable to load table: " + tableName +
-                    " error: " + e.getMessage());
+                    " error: " + cause.getMessage());
             return result;
         }
 
         return results[0];
     }
 
+    /*
+     * Pulls the next chunk of a partitioned table from the save files on this host,
+     * converts it if the schema changed and splits it into compressed per partition
+     * tables. Returns null once the save files are exhausted. Only one is outstanding
+     * per site at a time.
+     */
+    private class PartitionedChunkPreparer implements Callable<byte[][]> {
+        private final String m_tableName;
+        private final String m_filename;
+        private final int m_numberOfPartitions;
+        private final Table m_newCatalogTable;
+        private Boolean m_needsConversion = null;
+
+        private PartitionedChunkPreparer(String tableName, String filename, int numberOfPartitions) {
+            m_tableName = tableName;
+            m_filename = filename;
+            m_numberOfPartitions = numberOfPartitions;
+            m_newCatalogTable = getCatalogTable(tableName);
+        }
+
+        @Override
+        public byte[][] call() throws Exception {
+            BBContainer c = null;
+            while (c == null) {
+                if (!hasMoreChunks()) {
+                    return null;
+                }
+                c = getNextChunk();
+            }
+
+            try {
+                recordRestoredBytes(m_tableName, m_filename, c.b.remaining(), null);
+
+                if (m_needsConversion == null) {
+                    VoltTable old_table = PrivateVoltTableFactory.createVoltTableFromBuffer(c.b.duplicate(), true);
+                    m_needsConversion = SavedTableConverter.needsConversion(old_table, m_newCatalogTable);
+                }
+
+                VoltTable table = PrivateVoltTableFactory.createVoltTableFromBuffer(c.b, true);
+                if (m_needsConversion) {
+                    table = SavedTableConverter.convertTable(table, m_newCatalogTable);
+                }
+                return createPartitionedTables(m_tableName, table, m_numberOfPartitions);
+            } finally {
+                c.discard();
+            }
+        }
+    }
+
     private byte[][] createPartitionedTables(String tableName,
             VoltTable loadedTable, int number_of_partitions) throws Exception
             {
@@ -1852,6 +1991,14 @@ public class SnapshotRestore extends VoltSystemProcedure
         return m_database.getTables().get(tableName);
     }
 
+    private static void recordRestoredBytes(String tableName, String filename, long bytes, Throwable error)
+    {
+        final SnapshotRegistry.Snapshot restoreRecord = m_restoreRecord;
+        if (restoreRecord != null) {
+            restoreRecord.updateRestoredTable(tableName, filename, bytes, error);
+        }
+    }
+
     private Mailbox m_mbox;
     private final Map<Long, Long> m_actualToGenerated = new HashMap<Long, Long>();
     private Database m_database;
@@ -1859,4 +2006,16 @@ public class SnapshotRestore extends VoltSystemProcedure
     private int m_hostId;
     private static volatile String m_filePath;
     private static volatile String m_fileNonce;
+
+    /*
+     * The @SnapshotStatus entry for the restore in progress on this host
+     */
+    private static volatile SnapshotRegistry.Snapshot m_restoreRecord;
+
+    /*
+     * Splits and compresses the next chunk for a site while that site is
+     * waiting on the fragments that deliver the previous one
+     */
+    private static final ListeningExecutorService m_restoreChunkPreparer =
+            CoreUtils.getListeningExecutorService("Restore Chunk Preparer", CoreUtils.availableProcessors());
 }
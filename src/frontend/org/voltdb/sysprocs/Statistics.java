@@ -38,7 +38,10 @@ import org.voltdb.VoltType;
 import org.voltdb.catalog.CatalogMap;
 import org.voltdb.catalog.Table;
 import org.voltdb.dtxn.DtxnConstants;
+import org.voltdb.export.ExportDataSource;
+import org.voltdb.export.ExportManager;
 import org.voltcore.logging.VoltLogger;
+import org.voltcore.network.VoltNetworkPool;
 import org.voltcore.utils.Pair;
 
 /**
@@ -95,6 +98,26 @@ public class Statistics extends VoltSystemProcedure {
     static final int DEP_liveClientDataAggregator = (int)
         SysProcFragmentId.PF_liveClientDataAggregator;
 
+    static final int DEP_exportData = (int)
+        SysProcFragmentId.PF_exportData | DtxnConstants.MULTIPARTITION_DEPENDENCY;
+    static final int DEP_exportDataAggregator = (int)
+        SysProcFragmentId.PF_exportDataAggregator;
+
+    static final int DEP_latencyData = (int)
+        SysProcFragmentId.PF_latencyData | DtxnConstants.MULTIPARTITION_DEPENDENCY;
+    static final int DEP_latencyDataAggregator = (int)
+        SysProcFragmentId.PF_latencyDataAggregator;
+
+    static final int DEP_stageLatencyData = (int)
+        SysProcFragmentId.PF_stageLatencyData | DtxnConstants.MULTIPARTITION_DEPENDENCY;
+    static final int DEP_stageLatencyDataAggregator = (int)
+        SysProcFragmentId.PF_stageLatencyDataAggregator;
+
+    static final int DEP_snapshotWriteLaneData = (int)
+        SysProcFragmentId.PF_snapshotWriteLaneData | DtxnConstants.MULTIPARTITION_DEPENDENCY;
+    static final int DEP_snapshotWriteLaneDataAggregator = (int)
+        SysProcFragmentId.PF_snapshotWriteLaneDataAggregator;
+
     static final int DEP_partitionCount = (int)
         SysProcFragmentId.PF_partitionCount;
 //    static final int DEP_initiatorAggregator = (int)
@@ -121,6 +144,14 @@ public class Statistics extends VoltSystemProcedure {
         registerPlanFragment(SysProcFragmentId.PF_starvationDataAggregator);
         registerPlanFragment(SysProcFragmentId.PF_liveClientData);
         registerPlanFragment(SysProcFragmentId.PF_liveClientDataAggregator);
+        registerPlanFragment(SysProcFragmentId.PF_exportData);
+        registerPlanFragment(SysProcFragmentId.PF_exportDataAggregator);
+        registerPlanFragment(SysProcFragmentId.PF_latencyData);
+        registerPlanFragment(SysProcFragmentId.PF_latencyDataAggregator);
+        registerPlanFragment(SysProcFragmentId.PF_stageLatencyData);
+        registerPlanFragment(SysProcFragmentId.PF_stageLatencyDataAggregator);
+        registerPlanFragment(SysProcFragmentId.PF_snapshotWriteLaneData);
+        registerPlanFragment(SysProcFragmentId.PF_snapshotWriteLaneDataAggregator);
     }
 
     @Override
@@ -275,6 +306,93 @@ public class Statistics extends VoltSystemProcedure {
             VoltTable result = unionTables(dependencies.get(DEP_initiatorData));
             return new DependencyPair(DEP_initiatorAggregator, result);
         }
+        //LATENCY statistics
+        else if (fragmentId == SysProcFragmentId.PF_latencyData) {
+            // latency stats are registered with the initiators index like initiator stats
+            assert(params.toArray().length == 2);
+            final boolean interval =
+                ((Byte)params.toArray()[0]).byteValue() == 0 ? false : true;
+            final Long now = (Long)params.toArray()[1];
+            ArrayList<Long> catalogIds = new ArrayList<Long>();
+            catalogIds.add(0L);
+            VoltTable result = VoltDB.instance().
+            getStatsAgent().getStats(
+                                     SysProcSelector.LATENCY,
+                                     catalogIds,
+                                     interval,
+                                     now);
+
+            // Choose the lowest site ID on this host to do the scan
+            // All other sites should just return empty results tables.
+            if (!context.isLowestSiteId())
+            {
+                // Hacky way to generate an empty table with the correct schema
+                result.clearRowData();
+            }
+            return new DependencyPair(DEP_latencyData, result);
+        }
+        else if (fragmentId == SysProcFragmentId.PF_latencyDataAggregator) {
+            VoltTable result = unionTables(dependencies.get(DEP_latencyData));
+            return new DependencyPair(DEP_latencyDataAggregator, result);
+        }
+        //STAGELATENCY statistics
+        else if (fragmentId == SysProcFragmentId.PF_stageLatencyData) {
+            // stage latency stats are registered by the client interface, one per host
+            assert(params.toArray().length == 2);
+            final boolean interval =
+                ((Byte)params.toArray()[0]).byteValue() == 0 ? false : true;
+            final Long now = (Long)params.toArray()[1];
+            ArrayList<Long> catalogIds = new ArrayList<Long>();
+            catalogIds.add(0L);
+            VoltTable result = VoltDB.instance().
+            getStatsAgent().getStats(
+                                     SysProcSelector.STAGELATENCY,
+                                     catalogIds,
+                                     interval,
+                                     now);
+
+            // Choose the lowest site ID on this host to do the scan
+            // All other sites should just return empty results tables.
+            if (!context.isLowestSiteId())
+            {
+                // Hacky way to generate an empty table with the correct schema
+                result.clearRowData();
+            }
+            return new DependencyPair(DEP_stageLatencyData, result);
+        }
+        else if (fragmentId == SysProcFragmentId.PF_stageLatencyDataAggregator) {
+            VoltTable result = unionTables(dependencies.get(DEP_stageLatencyData));
+            return new DependencyPair(DEP_stageLatencyDataAggregator, result);
+        }
+        //SNAPSHOTWRITELANES statistics
+        else if (fragmentId == SysProcFragmentId.PF_snapshotWriteLaneData) {
+            // snapshot write lanes are shared by every site on the host
+            assert(params.toArray().length == 2);
+            final boolean interval =
+                ((Byte)params.toArray()[0]).byteValue() == 0 ? false : true;
+            final Long now = (Long)params.toArray()[1];
+            ArrayList<Long> catalogIds = new ArrayList<Long>();
+            catalogIds.add(0L);
+            VoltTable result = VoltDB.instance().
+            getStatsAgent().getStats(
+                                     SysProcSelector.SNAPSHOTWRITELANES,
+                                     catalogIds,
+                                     interval,
+                                     now);
+
+            // Choose the lowest site ID on this host to do the scan
+            // All other sites should just return empty results tables.
+            if (!context.isLowestSiteId())
+            {
+                // Hacky way to generate an empty table with the correct schema
+                result.clearRowData();
+            }
+            return new DependencyPair(DEP_snapshotWriteLaneData, result);
+        }
+        else if (fragmentId == SysProcFragmentId.PF_snapshotWriteLaneDataAggregator) {
+            VoltTable result = unionTables(dependencies.get(DEP_snapshotWriteLaneData));
+            return new DependencyPair(DEP_snapshotWriteLaneDataAggregator, result);
+        }
         else if (fragmentId == SysProcFragmentId.PF_nodeMemory) {
             assert(params.toArray().length == 2);
             final boolean interval =
@@ -339,7 +457,10 @@ public class Statistics extends VoltSystemProcedure {
                                       counters[0],
                                       counters[1],
                                       counters[2],
-                                      counters[3]);
+                                      counters[3],
+                                      (int)counters[VoltNetworkPool.IOSTATS_NETWORK_THREAD],
+                                      counters[VoltNetworkPool.IOSTATS_HANDLER_MICROS],
+                                      counters[VoltNetworkPool.IOSTATS_MIGRATIONS]);
                     }
                 } catch (Exception e) {
                     HOST_LOG.warn("Error retrieving stats", e);
@@ -393,6 +514,37 @@ public class Statistics extends VoltSystemProcedure {
             VoltTable result = unionTables(dependencies.get(DEP_liveClientData));
             return new DependencyPair(DEP_liveClientDataAggregator, result);
         }
+        else if (fragmentId == SysProcFragmentId.PF_exportData) {
+            // Export data sources are per node, the lowest site ID on this
+            // host reports them and all other sites return empty tables.
+            VoltTable result = new VoltTable(exportColumnInfo);
+            if (context.isLowestSiteId()) {
+                assert(params.toArray().length == 2);
+                final boolean interval =
+                    ((Byte)params.toArray()[0]).byteValue() == 0 ? false : true;
+                final Long now = (Long)params.toArray()[1];
+                final String hostname = VoltDB.instance().getHostMessenger().getHostname();
+                for (ExportDataSource source : ExportManager.getExportDataSources()) {
+                    final long counters[] = source.getStats(interval, now);
+                    result.addRow(
+                                  now,
+                                  context.getHostId(),
+                                  hostname,
+                                  source.getGeneration(),
+                                  source.getPartitionId(),
+                                  source.getTableName(),
+                                  counters[0],
+                                  counters[1],
+                                  counters[2],
+                                  counters[3]);
+                }
+            }
+            return new DependencyPair(DEP_exportData, result);
+        }
+        else if (fragmentId == SysProcFragmentId.PF_exportDataAggregator) {
+            VoltTable result = unionTables(dependencies.get(DEP_exportData));
+            return new DependencyPair(DEP_exportDataAggregator, result);
+        }
         assert (false);
         return null;
     }
@@ -406,16 +558,33 @@ public class Statistics extends VoltSystemProcedure {
         new ColumnInfo( "BYTES_READ", VoltType.BIGINT),
         new ColumnInfo( "MESSAGES_READ", VoltType.BIGINT),
         new ColumnInfo( "BYTES_WRITTEN", VoltType.BIGINT),
-        new ColumnInfo( "MESSAGES_WRITTEN", VoltType.BIGINT)
+        new ColumnInfo( "MESSAGES_WRITTEN", VoltType.BIGINT),
+        new ColumnInfo( "NETWORK_THREAD", VoltType.INTEGER),
+        new ColumnInfo( "HANDLER_MICROS", VoltType.BIGINT),
+        new ColumnInfo( "MIGRATIONS", VoltType.BIGINT)
     };
 
 
+    private static final ColumnInfo exportColumnInfo[] = new ColumnInfo[] {
+        new ColumnInfo( "TIMESTAMP", VoltType.BIGINT),
+        new ColumnInfo( VoltSystemProcedure.CNAME_HOST_ID, VoltSystemProcedure.CTYPE_ID),
+        new ColumnInfo( "HOSTNAME", VoltType.STRING),
+        new ColumnInfo( "GENERATION", VoltType.BIGINT),
+        new ColumnInfo( VoltSystemProcedure.CNAME_PARTITION_ID, VoltSystemProcedure.CTYPE_ID),
+        new ColumnInfo( "TABLE_NAME", VoltType.STRING),
+        new ColumnInfo( "BYTES_PUSHED", VoltType.BIGINT),
+        new ColumnInfo( "BYTES_DRAINED", VoltType.BIGINT),
+        new ColumnInfo( "BACKLOG_BYTES", VoltType.BIGINT),
+        new ColumnInfo( "DRAIN_BYTES_PER_SECOND", VoltType.BIGINT)
+    };
+
     /**
      * Returns a table stats.
      * requested.
      * @param ctx          Internal. Not exposed to the end-user.
      * @param selector     Selector requested TABLE, PROCEDURE, INITIATOR,
-     *                     PARTITIONCOUNT, IOSTATS, MANAGEMENT, INDEX
+     *                     PARTITIONCOUNT, IOSTATS, MANAGEMENT, INDEX, EXPORT,
+     *                     LATENCY, STAGELATENCY, SNAPSHOTWRITELANES
      * @param interval     1 for interval statistics. 0 for full statistics.
      * @return             The returned schema is specific to the selector.
      * @throws VoltAbortException
@@ -477,6 +646,18 @@ public class Statistics extends VoltSystemProcedure {
         else if (selector.toUpperCase().equals(SysProcSelector.LIVECLIENTS.name())) {
             results = getLiveClientData(interval, now);
         }
+        else if (selector.toUpperCase().equals(SysProcSelector.EXPORT.name())) {
+            results = getExportData(interval, now);
+        }
+        else if (selector.toUpperCase().equals(SysProcSelector.LATENCY.name())) {
+            results = getLatencyData(interval, now);
+        }
+        else if (selector.toUpperCase().equals(SysProcSelector.STAGELATENCY.name())) {
+            results = getStageLatencyData(interval, now);
+        }
+        else if (selector.toUpperCase().equals(SysProcSelector.SNAPSHOTWRITELANES.name())) {
+            results = getSnapshotWriteLaneData(interval, now);
+        }
         else if (selector.toUpperCase().equals(SysProcSelector.MANAGEMENT.name())) {
             VoltTable[] memoryResults = getMemoryData(interval, now);
             VoltTable[] tableResults = getTableData(interval, now);
@@ -761,4 +942,108 @@ public class Statistics extends VoltSystemProcedure {
         results = executeSysProcPlanFragments(pfs, DEP_liveClientDataAggregator);
         return results;
     }
+
+    private VoltTable[] getExportData(long interval, final long now) {
+        VoltTable[] results;
+        SynthesizedPlanFragment pfs[] = new SynthesizedPlanFragment[2];
+        // create a work fragment to gather export data from each of the nodes
+        pfs[1] = new SynthesizedPlanFragment();
+        pfs[1].fragmentId = SysProcFragmentId.PF_exportData;
+        pfs[1].outputDepId = DEP_exportData;
+        pfs[1].inputDepIds = new int[]{};
+        pfs[1].multipartition = true;
+        pfs[1].parameters = new ParameterSet();
+        pfs[1].parameters.setParameters((byte)interval, now);
+
+        // create a work fragment to aggregate the results.
+        pfs[0] = new SynthesizedPlanFragment();
+        pfs[0].fragmentId = SysProcFragmentId.PF_exportDataAggregator;
+        pfs[0].outputDepId = DEP_exportDataAggregator;
+        pfs[0].inputDepIds = new int[]{DEP_exportData};
+        pfs[0].multipartition = false;
+        pfs[0].parameters = new ParameterSet();
+
+        // distribute and execute these fragments providing pfs and id of the
+        // aggregator's output dependency table.
+        results = executeSysProcPlanFragments(pfs, DEP_exportDataAggregator);
+        return results;
+    }
+
+    private VoltTable[] getLatencyData(long interval, final long now) {
+        VoltTable[] results;
+        SynthesizedPlanFragment pfs[] = new SynthesizedPlanFragment[2];
+        // create a work fragment to gather latency data from each of the nodes
+        pfs[1] = new SynthesizedPlanFragment();
+        pfs[1].fragmentId = SysProcFragmentId.PF_latencyData;
+        pfs[1].outputDepId = DEP_latencyData;
+        pfs[1].inputDepIds = new int[]{};
+        pfs[1].multipartition = true;
+        pfs[1].parameters = new ParameterSet();
+        pfs[1].parameters.setParameters((byte)interval, now);
+
+        // create a work fragment to aggregate the results.
+        pfs[0] = new SynthesizedPlanFragment();
+        pfs[0].fragmentId = SysProcFragmentId.PF_latencyDataAggregator;
+        pfs[0].outputDepId = DEP_latencyDataAggregator;
+        pfs[0].inputDepIds = new int[]{DEP_latencyData};
+        pfs[0].multipartition = false;
+        pfs[0].parameters = new ParameterSet();
+
+        // distribute and execute these fragments providing pfs and id of the
+        // aggregator's output dependency table.
+        results = executeSysProcPlanFragments(pfs, DEP_latencyDataAggregator);
+        return results;
+    }
+
+    private VoltTable[] getStageLatencyData(long interval, final long now) {
+        VoltTable[] results;
+        SynthesizedPlanFragment pfs[] = new SynthesizedPlanFragment[2];
+        // create a work fragment to gather stage latency data from each of the nodes
+        pfs[1] = new SynthesizedPlanFragment();
+        pfs[1].fragmentId = SysProcFragmentId.PF_stageLatencyData;
+        pfs[1].outputDepId = DEP_stageLatencyData;
+        pfs[1].inputDepIds = new int[]{};
+        pfs[1].multipartition = true;
+        pfs[1].parameters = new ParameterSet();
+        pfs[1].parameters.setParameters((byte)interval, now);
+
+        // create a work fragment to aggregate the results.
+        pfs[0] = new SynthesizedPlanFragment();
+        pfs[0].fragmentId = SysProcFragmentId.PF_stageLatencyDataAggregator;
+        pfs[0].outputDepId = DEP_stageLatencyDataAggregator;
+        pfs[0].inputDepIds = new int[]{DEP_stageLatencyData};
+        pfs[0].multipartition = false;
+        pfs[0].parameters = new ParameterSet();
+
+        // distribute and execute these fragments providing pfs and id of the
+        // aggregator's output dependency table.
+        results = executeSysProcPlanFragments(pfs, DEP_stageLatencyDataAggregator);
+        return results;
+    }
+
+    private VoltTable[] getSnapshotWriteLaneData(long interval, final long now) {
+        VoltTable[] results;
+        SynthesizedPlanFragment pfs[] = new SynthesizedPlanFragment[2];
+        // create a work fragment to gather snapshot write lane data from each of the nodes
+        pfs[1] = new SynthesizedPlanFragment();
+        pfs[1].fragmentId = SysProcFragmentId.PF_snapshotWriteLaneData;
+        pfs[1].outputDepId = DEP_snapshotWriteLaneData;
+        pfs[1].inputDepIds = new int[]{};
+        pfs[1].multipartition = true;
+        pfs[1].parameters = new ParameterSet();
+        pfs[1].parameters.setParameters((byte)interval, now);
+
+        // create a work fragment to aggregate the results.
+        pfs[0] = new SynthesizedPlanFragment();
+        pfs[0].fragmentId = SysProcFragmentId.PF_snapshotWriteLaneDataAggregator;
+        pfs[0].outputDepId = DEP_snapshotWriteLaneDataAggregator;
+        pfs[0].inputDepIds = new int[]{DEP_snapshotWriteLaneData};
+        pfs[0].multipartition = false;
+        pfs[0].parameters = new ParameterSet();
+
+        // distribute and execute these fragments providing pfs and id of the
+        // aggregator's output dependency table.
+        results = executeSysProcPlanFragments(pfs, DEP_snapshotWriteLaneDataAggregator);
+        return results;
+    }
 }
@@ -46,6 +46,14 @@ public class SysProcFragmentId
     public static final long PF_liveClientDataAggregator = 21;
     public static final long PF_plannerData = 22;
     public static final long PF_plannerAggregator = 23;
+    public static final long PF_exportData = 24;
+    public static final long PF_exportDataAggregator = 25;
+    public static final long PF_latencyData = 26;
+    public static final long PF_latencyDataAggregator = 27;
+    public static final long PF_stageLatencyData = 32;
+    public static final long PF_stageLatencyDataAggregator = 33;
+    public static final long PF_snapshotWriteLaneData = 34;
+    public static final long PF_snapshotWriteLaneDataAggregator = 35;
 
     // @Shutdown
     public static final long PF_shutdownCommand = 28;
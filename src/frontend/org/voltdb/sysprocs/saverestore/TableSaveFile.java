@@ -24,14 +24,20 @@ import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
 import java.util.zip.CRC32;
 
 import org.voltdb.messaging.FastDeserializer;
 import org.voltdb.utils.CompressionService;
+import org.voltcore.utils.CoreUtils;
 import org.voltcore.utils.DBBPool;
 import org.voltcore.utils.DBBPool.BBContainer;
 import org.voltdb.EELibraryLoader;
@@ -39,6 +45,8 @@ import org.json_voltpatches.JSONException;
 import org.json_voltpatches.JSONObject;
 import org.json_voltpatches.JSONArray;
 
+import com.google.common.util.concurrent.ListeningExecutorService;
+
 /**
  * An abstraction around a table's save file for restore.  Deserializes the
  * meta-data that was stored when the table was saved and makes it available
@@ -356,13 +364,29 @@ public class TableSaveFile
                 throw new IOException(e);
             }
         }
+        final ArrayList<Future<Container>> pendingChunks;
         synchronized (this) {
-            while (!m_availableChunks.isEmpty()) {
-                m_availableChunks.poll().discard();
-            }
+            pendingChunks = new ArrayList<Future<Container>>(m_pendingChunks);
+            m_pendingChunks.clear();
             notifyAll();
         }
 
+        /*
+         * Chunks may still be in the middle of being decompressed, wait
+         * for them outside the lock so their buffers can be returned
+         */
+        for (Future<Container> pending : pendingChunks) {
+            try {
+                Container c = pending.get();
+                if (c != null) {
+                    c.discard();
+                }
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+            }
+        }
+
         /*
          * Free buffers used to pull snapshot data in process
          */
@@ -370,6 +394,7 @@ public class TableSaveFile
         while ((cont = m_buffers.poll()) != null) {
             cont.discard();
         }
+        m_compressedBuffers.clear();
     }
 
     public Set<Integer> getCorruptedPartitionIds() {
@@ -380,40 +405,68 @@ public class TableSaveFile
         return m_tableHeader;
     }
 
-    // Will get the next chunk of the table that is just over the chunk size
-    public synchronized BBContainer getNextChunk() throws IOException
-    {
-        if (m_chunkReaderException != null) {
-            throw m_chunkReaderException;
-        }
-        if (!m_hasMoreChunks) {
-            return m_availableChunks.poll();
-        }
-
-        if (m_chunkReader == null) {
+    /**
+     * Start the thread that reads chunks from disk without waiting for the first
+     * call to {@link #getNextChunk()}. Lets a restore prime the read ahead of every
+     * file it is going to consume so disk reads overlap across files.
+     */
+    public synchronized void startReadAhead() {
+        if (m_chunkReader == null && m_hasMoreChunks) {
             m_chunkReader = new ChunkReader();
             m_chunkReaderThread = new Thread(m_chunkReader, "ChunkReader");
             m_chunkReaderThread.start();
         }
+    }
 
-        Container c = null;
-        while (c == null && (m_hasMoreChunks || !m_availableChunks.isEmpty())) {
-            c = m_availableChunks.poll();
-            if (c == null) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
-                    throw new IOException(e);
+    // Will get the next chunk of the table that is just over the chunk size
+    public BBContainer getNextChunk() throws IOException
+    {
+        while (true) {
+            Future<Container> next = null;
+            synchronized (this) {
+                if (m_chunkReaderException != null) {
+                    throw m_chunkReaderException;
+                }
+                startReadAhead();
+                while (next == null) {
+                    next = m_pendingChunks.poll();
+                    if (next == null) {
+                        if (!m_hasMoreChunks) {
+                            return null;
+                        }
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                        if (m_chunkReaderException != null) {
+                            throw m_chunkReaderException;
+                        }
+                    }
                 }
             }
-            if (m_chunkReaderException != null) {
-                throw m_chunkReaderException;
+
+            /*
+             * Wait for decompression outside the lock so the reader can keep
+             * queueing chunks. Chunks that were skipped or corrupted
+             * come back null and have already released their read permit.
+             */
+            final Container c;
+            try {
+                c = next.get();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException)e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+            if (c != null) {
+                m_chunkReads.release();
+                return c;
             }
         }
-        if (c != null) {
-            m_chunkReads.release();
-        }
-        return c;
     }
 
     public synchronized boolean hasMoreChunks() throws IOException
@@ -421,7 +474,13 @@ public class TableSaveFile
         if (m_chunkReaderException != null) {
             throw m_chunkReaderException;
         }
-        return m_hasMoreChunks || !m_availableChunks.isEmpty();
+        return m_hasMoreChunks || !m_pendingChunks.isEmpty();
+    }
+
+    private void markAllPartitionsCorrupted() {
+        for (int partitionId : m_partitionIds) {
+            m_corruptedPartitions.add(partitionId);
+        }
     }
 
     private final FileChannel m_saveFile;
@@ -438,16 +497,23 @@ public class TableSaveFile
     private final int m_partitionIds[];
     private final int m_totalPartitions;
     private final long m_txnId;
-    private boolean m_hasMoreChunks = true;
+    private volatile boolean m_hasMoreChunks = true;
     private ConcurrentLinkedQueue<Container> m_buffers = new ConcurrentLinkedQueue<Container>();
-    private final ArrayDeque<Container> m_availableChunks = new ArrayDeque<Container>();
+    private final ConcurrentLinkedQueue<ByteBuffer> m_compressedBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    /**
+     * Chunks in the order they were read from disk. Each one completes once it
+     * has been decompressed and validated by a chunk processor, or with null if
+     * the chunk was skipped.
+     */
+    private final ArrayDeque<Future<Container>> m_pendingChunks = new ArrayDeque<Future<Container>>();
     private final HashSet<Integer> m_relevantPartitionIds;
 
     /**
      * Maintain a list of corrupted partitions. It is possible for uncorrupted partitions
      * to be recovered from a save file in the future
      */
-    private final HashSet<Integer> m_corruptedPartitions = new HashSet<Integer>();
+    private final Set<Integer> m_corruptedPartitions = Collections.synchronizedSet(new HashSet<Integer>());
 
     /**
      * Ignore corrupted chunks and continue validation of the rest of the chunks.
@@ -461,18 +527,154 @@ public class TableSaveFile
 
     private ChunkReader m_chunkReader = null;
     private Thread m_chunkReaderThread = null;
-    private IOException m_chunkReaderException = null;
+    private volatile IOException m_chunkReaderException = null;
+
+    /**
+     * Decompression and CRC validation for every save file being read. Reader threads
+     * only do disk I/O so several files can be streamed in parallel without being
+     * bound by one core each.
+     */
+    private static final ListeningExecutorService m_chunkProcessors =
+            CoreUtils.getListeningExecutorService("Restore Chunk Processor",
+                    Integer.getInteger("restoreChunkProcessors", CoreUtils.availableProcessors()));
 
     /**
-     * Thread to read chunks from the disk
+     * Decompress, validate and convert one chunk into the VoltTable serialization format
+     */
+    private class ChunkProcessor implements Callable<Container> {
+        private final Container m_chunk;
+        private final ByteBuffer m_compressed;
+        private final int m_chunkCRC;
+
+        private ChunkProcessor(Container chunk, ByteBuffer compressed, int chunkCRC) {
+            m_chunk = chunk;
+            m_compressed = compressed;
+            m_chunkCRC = chunkCRC;
+        }
+
+        @Override
+        public Container call() throws IOException {
+            try {
+                return process();
+            } catch (IOException e) {
+                chunkProcessingFailed(e);
+                throw e;
+            } catch (BufferUnderflowException e) {
+                throw chunkProcessingFailed(new IOException(e));
+            } catch (BufferOverflowException e) {
+                throw chunkProcessingFailed(new IOException(e));
+            } catch (IndexOutOfBoundsException e) {
+                throw chunkProcessingFailed(new IOException(e));
+            } catch (IllegalArgumentException e) {
+                throw chunkProcessingFailed(new IOException(e));
+            }
+        }
+
+        private IOException chunkProcessingFailed(IOException e) {
+            m_chunk.discard();
+            synchronized (TableSaveFile.this) {
+                m_hasMoreChunks = false;
+                if (m_chunkReaderException == null) {
+                    m_chunkReaderException = e;
+                }
+                TableSaveFile.this.notifyAll();
+            }
+            return e;
+        }
+
+        private Container process() throws IOException {
+            final Container c = m_chunk;
+            final int checksumStartPosition = m_tableHeader.capacity() + 4;
+            boolean completedRead = false;
+            int rowCount = 0;
+            try {
+                if (m_compressed != null) {
+                    /*
+                     * The uncompressed length includes space for the 4-byte row count
+                     * even though it is at the end, but we need to also leave at the end for the CRC calc
+                     */
+                    final int uncompressedLength = CompressionService.uncompressedLength(m_compressed);
+                    c.b.clear();
+                    c.b.limit(uncompressedLength + m_tableHeader.capacity() + 4);
+                    final ByteBuffer tableHeader = m_tableHeader.duplicate();
+                    tableHeader.position(0);
+                    c.b.put(tableHeader);
+                    c.b.position(checksumStartPosition);
+                    CompressionService.decompressBuffer(m_compressed, c.b);
+                    c.b.position(c.b.limit());
+                }
+                c.b.position(c.b.position() - 4);
+                rowCount = c.b.getInt();
+                c.b.position(checksumStartPosition);
+                completedRead = true;
+            } finally {
+                if (m_compressed != null) {
+                    m_compressedBuffers.offer(m_compressed);
+                }
+                if (!completedRead) {
+                    markAllPartitionsCorrupted();
+                }
+            }
+
+            /*
+             * Validate the rest of the chunk. This can fail if the data is corrupted
+             * or the length value was corrupted.
+             */
+            final int calculatedCRC = DBBPool.getBufferCRC32(c.b, c.b.position(), c.b.remaining());
+            if (calculatedCRC != m_chunkCRC) {
+                m_corruptedPartitions.add(c.partitionId);
+                if (m_continueOnCorruptedChunk) {
+                    c.discard();
+                    m_chunkReads.release();
+                    return null;
+                } else {
+                    throw new IOException("CRC mismatch in saved table chunk");
+                }
+            }
+
+            /*
+             * Skip irrelevant chunks after CRC is calculated. Always calulate the CRC
+             * in case it is the length value that is corrupted
+             */
+            if (m_relevantPartitionIds != null) {
+                if (!m_relevantPartitionIds.contains(c.partitionId)) {
+                    c.discard();
+                    m_chunkReads.release();
+                    return null;
+                }
+            }
+
+            /*
+             * The row count which was stored on disk at the end (and for the CRC calc)
+             * is now moved to the appropriate place for the table serialization format.
+             * Update the limit to reflect that.
+             *
+             * Surrounded in a try finally just in case there is overflow/underflow. Shouldn't
+             * happen but I could be wrong.
+             */
+            boolean success = false;
+            try {
+                c.b.limit(c.b.limit() - 4);
+                c.b.position(checksumStartPosition - 4);
+                c.b.putInt(rowCount);
+                c.b.position(0);
+                success = true;
+            } finally {
+                if (!success) {
+                    markAllPartitionsCorrupted();
+                }
+            }
+            return c;
+        }
+    }
+
+    /**
+     * Thread to read chunks from the disk. Decompression and validation are handed
+     * off to the chunk processors, the futures are queued in file order.
      */
     private class ChunkReader implements Runnable {
 
         private void readChunks() {
-            //For reading the compressed input.
-            ByteBuffer fileInputBuffer =
-                    ByteBuffer.allocateDirect(CompressionService.maxCompressedLength(DEFAULT_CHUNKSIZE));
-
             while (m_hasMoreChunks) {
 
                 /*
@@ -517,9 +719,7 @@ public class TableSaveFile
                     int generatedValue = (int)partitionIdCRC.getValue();
                     if (generatedValue != nextChunkPartitionIdCRC) {
                         chunkLengthB.position(0);
-                        for (int partitionId : m_partitionIds) {
-                            m_corruptedPartitions.add(partitionId);
-                        }
+                        markAllPartitionsCorrupted();
                         throw new IOException("Chunk partition ID CRC check failed. " +
                                 "This corrupts all partitions in this file");
                     }
@@ -539,7 +739,7 @@ public class TableSaveFile
                     }
 
                     if (isCompressed()) {
-                        if (nextChunkLength > fileInputBuffer.capacity()) {
+                        if (nextChunkLength > CompressionService.maxCompressedLength(DEFAULT_CHUNKSIZE)) {
                             throw new IOException("Corrupted TableSaveFile chunk has unreasonable length " +
                                     "> DEFAULT_CHUNKSIZE bytes");
                         }
@@ -550,25 +750,6 @@ public class TableSaveFile
                         }
                     }
 
-                    /*
-                     * Go fetch the compressed data so that the uncompressed size is known
-                     * and use that to set nextChunkLength to be the uncompressed length,
-                     * the code ahead that constructs the volt table is expecting
-                     * the uncompressed size/data since it is producing an uncompressed table
-                     */
-                    if (isCompressed()) {
-                        fileInputBuffer.clear();
-                        fileInputBuffer.limit(nextChunkLength);
-                        while (fileInputBuffer.hasRemaining()) {
-                            final int read = m_saveFile.read(fileInputBuffer);
-                            if (read == -1) {
-                                throw new EOFException();
-                            }
-                        }
-                        fileInputBuffer.flip();
-                        nextChunkLength = CompressionService.uncompressedLength(fileInputBuffer);
-                    }
-
                     /*
                      * Now allocate space to store the chunk using the VoltTable serialization representation.
                      * The chunk will contain an integer row count preceding it so it can
@@ -576,6 +757,7 @@ public class TableSaveFile
                      * partition id that is not part of the serialization format
                      */
                     Container c = getOutputBuffer(nextChunkPartitionId);
+                    ByteBuffer compressed = null;
 
                     /*
                      * If the length value is wrong or not all data made it to disk this read will
@@ -585,36 +767,39 @@ public class TableSaveFile
                      * propagating the error and closing the file.
                      */
                     boolean completedRead = false;
-                    int checksumStartPosition = 0;
-                    int rowCount = 0;
                     try {
-                        /*
-                         * Assemble a VoltTable out of the chunk of tuples.
-                         * Put in the header that was cached in the constructor,
-                         * then copy the tuple data. The row count is at the end
-                         * because it isn't known until serialization is complete.
-                         * It will have to be moved back to the beginning of the tuple data
-                         * after the header once the CRC has been calculated.
-                         */
-                        c.b.clear();
-                        //The length of the chunk already includes space for the 4-byte row count
-                        //even though it is at the end, but we need to also leave at the end for the CRC calc
                         if (isCompressed()) {
-                            c.b.limit(nextChunkLength  + m_tableHeader.capacity() + 4);
+                            /*
+                             * Only fetch the compressed data here, the chunk processor
+                             * decompresses it into the output buffer
+                             */
+                            compressed = getCompressedBuffer();
+                            compressed.limit(nextChunkLength);
+                            while (compressed.hasRemaining()) {
+                                final int read = m_saveFile.read(compressed);
+                                if (read == -1) {
+                                    throw new EOFException();
+                                }
+                            }
+                            compressed.flip();
                         } else {
+                            /*
+                             * Assemble a VoltTable out of the chunk of tuples.
+                             * Put in the header that was cached in the constructor,
+                             * then copy the tuple data. The row count is at the end
+                             * because it isn't known until serialization is complete.
+                             * It will have to be moved back to the beginning of the tuple data
+                             * after the header once the CRC has been calculated.
+                             */
+                            c.b.clear();
                             //Before compression the chunk length included the stuff added in the EE
                             //like the 2 CRCs and partition id. It is only -8 because we still need the 4-bytes
                             //of padding to move the row count in when constructing the volt table format.
                             c.b.limit((nextChunkLength - 8)  + m_tableHeader.capacity());
-                        }
-                        m_tableHeader.position(0);
-                        c.b.put(m_tableHeader);
-                        c.b.position(c.b.position() + 4);//Leave space for row count to be moved into
-                        checksumStartPosition = c.b.position();
-                        if (isCompressed()) {
-                            CompressionService.decompressBuffer(fileInputBuffer, c.b);
-                            c.b.position(c.b.limit());
-                        } else {
+                            final ByteBuffer tableHeader = m_tableHeader.duplicate();
+                            tableHeader.position(0);
+                            c.b.put(tableHeader);
+                            c.b.position(c.b.position() + 4);//Leave space for row count to be moved into
                             while (c.b.hasRemaining()) {
                                 final int read = m_saveFile.read(c.b);
                                 if (read == -1) {
@@ -622,71 +807,17 @@ public class TableSaveFile
                                 }
                             }
                         }
-                        c.b.position(c.b.position() - 4);
-                        rowCount = c.b.getInt();
-                        c.b.position(checksumStartPosition);
                         completedRead = true;
                     } finally {
                         if (!completedRead) {
-                            for (int partitionId : m_partitionIds) {
-                                m_corruptedPartitions.add(partitionId);
-                            }
-                        }
-                    }
-
-                    /*
-                     * Validate the rest of the chunk. This can fail if the data is corrupted
-                     * or the length value was corrupted.
-                     */
-                    final int calculatedCRC = DBBPool.getBufferCRC32(c.b, c.b.position(), c.b.remaining());
-                    if (calculatedCRC != nextChunkCRC) {
-                        m_corruptedPartitions.add(nextChunkPartitionId);
-                        if (m_continueOnCorruptedChunk) {
-                            c.discard();
-                            m_chunkReads.release();
-                            continue;
-                        } else {
-                            throw new IOException("CRC mismatch in saved table chunk");
-                        }
-                    }
-
-                    /*
-                     * Skip irrelevant chunks after CRC is calculated. Always calulate the CRC
-                     * in case it is the length value that is corrupted
-                     */
-                    if (m_relevantPartitionIds != null) {
-                        if (!m_relevantPartitionIds.contains(nextChunkPartitionId)) {
-                            c.discard();
-                            m_chunkReads.release();
-                            continue;
-                        }
-                    }
-
-                    /*
-                     * The row count which was stored on disk at the end (and for the CRC calc)
-                     * is now moved to the appropriate place for the table serialization format.
-                     * Update the limit to reflect that.
-                     *
-                     * Surrounded in a try finally just in case there is overflow/underflow. Shouldn't
-                     * happen but I could be wrong.
-                     */
-                    boolean success = false;
-                    try {
-                        c.b.limit(c.b.limit() - 4);
-                        c.b.position(checksumStartPosition - 4);
-                        c.b.putInt(rowCount);
-                        c.b.position(0);
-                        success = true;
-                    } finally {
-                        if (!success) {
-                            for (int partitionId : m_partitionIds) {
-                                m_corruptedPartitions.add(partitionId);
-                            }
+                            markAllPartitionsCorrupted();
                         }
                     }
 
+                    final Future<Container> chunk =
+                            m_chunkProcessors.submit(new ChunkProcessor(c, compressed, nextChunkCRC));
                     synchronized (TableSaveFile.this) {
-                        m_availableChunks.offer(c);
+                        m_pendingChunks.offer(chunk);
                         TableSaveFile.this.notifyAll();
                     }
                 } catch (EOFException eof) {
@@ -741,6 +872,18 @@ public class TableSaveFile
             c = new Container(c.b, c.address, c.m_origin, nextChunkPartitionId);
             return c;
         }
+        /*
+         * For reading the compressed input. Each chunk waiting on a chunk processor
+         * holds on to one, the number in flight is bounded by the read permits.
+         */
+        private ByteBuffer getCompressedBuffer() {
+            ByteBuffer b = m_compressedBuffers.poll();
+            if (b == null) {
+                b = ByteBuffer.allocateDirect(CompressionService.maxCompressedLength(DEFAULT_CHUNKSIZE));
+            }
+            b.clear();
+            return b;
+        }
         @Override
         public void run() {
             try {
@@ -30,11 +30,23 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.CoreUtils;
 import org.voltdb.CLIConfig;
+import org.voltdb.ParameterConverter;
+import org.voltdb.TheHashinator;
 import org.voltdb.VoltTable;
+import org.voltdb.VoltTable.ColumnInfo;
 import org.voltdb.VoltType;
 import org.voltdb.client.Client;
 import org.voltdb.client.ClientConfig;
@@ -49,6 +61,11 @@ import au.com.bytecode.opencsv_voltpatches.CSVReader;
  * CSVLoader is a simple utility to load data from a CSV formatted file to a
  * table (or pass it to any stored proc, but ignoring any result other than the
  * success code.).
+ *
+ * Rows loaded into a table are converted and bucketed by partition on a pool
+ * of worker threads and shipped in batches with @LoadSinglepartitionTable
+ * (or @LoadMultipartitionTable for replicated tables). Rows passed to a
+ * procedure are sent one at a time.
  */
 public class CSVLoader {
     public static String pathInvalidrowfile = "";
@@ -59,7 +76,9 @@ public class CSVLoader {
 
     private static final AtomicLong inCount = new AtomicLong(0);
     private static final AtomicLong outCount = new AtomicLong(0);
+    private static final AtomicLong batchCount = new AtomicLong(0);
     private static final int reportEveryNRows = 10000;
+    private static final int reportIntervalSeconds = 10;
     private static final int waitSeconds = 10;
     private static CSVConfig config = null;
     private static long latency = 0;
@@ -88,12 +107,10 @@ public class CSVLoader {
 
     private static final class MyCallback implements ProcedureCallback {
         private final long m_lineNum;
-        private final CSVConfig m_config;
         private final String m_rowdata;
 
-        MyCallback(long lineNumber, CSVConfig cfg, String rowdata) {
+        MyCallback(long lineNumber, String rowdata) {
             m_lineNum = lineNumber;
-            m_config = cfg;
             m_rowdata = rowdata;
         }
 
@@ -101,18 +118,7 @@ public class CSVLoader {
         public void clientCallback(ClientResponse response) throws Exception {
             if (response.getStatus() != ClientResponse.SUCCESS) {
                 m_log.error( response.getStatusString() );
-                synchronized (errorInfo) {
-                    if (!errorInfo.containsKey(m_lineNum)) {
-                        String[] info = { m_rowdata, response.getStatusString() };
-                        errorInfo.put(m_lineNum, info);
-                    }
-                    if (errorInfo.size() >= m_config.maxerrors) {
-                        m_log.error("The number of Failure row data exceeds " + m_config.maxerrors);
-                        produceFiles();
-                        close_cleanup();
-                        System.exit(-1);
-                    }
-                }
+                recordError(m_lineNum, m_rowdata, response.getStatusString());
                 return;
             }
 
@@ -173,6 +179,12 @@ public class CSVLoader {
         @Option(desc = "port to use when connecting to database (default: 21212)")
         int port = Client.VOLTDB_SERVER_PORT;
 
+        @Option(desc = "number of threads converting and partitioning rows for a table (default: number of cores)")
+        int threads = CoreUtils.availableProcessors();
+
+        @Option(desc = "number of rows per partition sent in each bulk insert into a table (default: 200)")
+        int batch = 200;
+
         @AdditionalArgs(desc = "insert the data into database by TABLENAME.insert procedure by default")
         String table = "";
 
@@ -191,6 +203,10 @@ public class CSVLoader {
                         + Integer.MAX_VALUE);
             if (port < 0)
                 exitWithMessageAndUsage("port number must be >= 0");
+            if (threads <= 0)
+                exitWithMessageAndUsage("threads must be > 0");
+            if (batch <= 0)
+                exitWithMessageAndUsage("batch must be > 0");
             if ((blank.equalsIgnoreCase("error") ||
                     blank.equalsIgnoreCase("null") ||
                     blank.equalsIgnoreCase("empty")) == false)
@@ -207,6 +223,327 @@ public class CSVLoader {
         }
     }
 
+    /**
+     * Loads the rows read from the file into a table. The reader hands chunks
+     * of records to a pool of workers, which validate and convert each row,
+     * hash its partition column with TheHashinator and append it to a
+     * per-partition VoltTable. A full table is shipped with
+     * @LoadSinglepartitionTable, or @LoadMultipartitionTable when the table
+     * is replicated. The server rejects a batch as a whole, so a failed batch
+     * is replayed row by row through the insert procedure to find and report
+     * the offending lines.
+     */
+    private static final class BatchLoader {
+        static final int CHUNK_SIZE = 500;
+        private static final int BATCHES_IN_FLIGHT_PER_PARTITION = 4;
+        private static final Chunk END = new Chunk(0, new ArrayList<String[]>());
+
+        private final Client m_client;
+        private final String m_tableName;
+        private final ColumnInfo[] m_columns;
+        private final Class<?>[] m_classes;
+        private final int m_partitionIndex;
+        private final int m_partitionCount;
+        private final String m_procName;
+        private final BlockingQueue<Chunk> m_chunks;
+        private final Semaphore m_inFlight;
+        private final int m_maxInFlight;
+        private final AtomicLong m_waits = new AtomicLong();
+        private final ExecutorService m_workers;
+        private final ExecutorService m_retrier;
+        private final ScheduledExecutorService m_reporter;
+        private final List<Future<?>> m_workerFutures = new ArrayList<Future<?>>();
+
+        private static final class Chunk {
+            final long m_firstLine;
+            final List<String[]> m_lines;
+
+            Chunk(long firstLine, List<String[]> lines) {
+                m_firstLine = firstLine;
+                m_lines = lines;
+            }
+        }
+
+        private final class Batch {
+            final VoltTable m_table = new VoltTable(m_columns);
+            final List<Long> m_lineNums = new ArrayList<Long>(config.batch);
+            final List<String[]> m_lines = new ArrayList<String[]>(config.batch);
+            final List<Object[]> m_values = new ArrayList<Object[]>(config.batch);
+
+            void add(long lineNum, String[] line, Object[] values) {
+                m_table.addRow(values);
+                m_lineNums.add(lineNum);
+                m_lines.add(line);
+                m_values.add(values);
+            }
+
+            int size() {
+                return m_lineNums.size();
+            }
+        }
+
+        private final class BatchCallback implements ProcedureCallback {
+            private final Batch m_batch;
+
+            BatchCallback(Batch batch) {
+                m_batch = batch;
+            }
+
+            @Override
+            public void clientCallback(ClientResponse response) throws Exception {
+                try {
+                    if (response.getStatus() == ClientResponse.SUCCESS) {
+                        inCount.addAndGet(m_batch.size());
+                        return;
+                    }
+                    m_log.warn("Bulk insert of " + m_batch.size() + " rows failed, retrying row by row: "
+                            + response.getStatusString());
+                    // Inserting blocks under backpressure, so don't do it on the network thread
+                    m_retrier.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            for (int i = 0; i < m_batch.size(); i++) {
+                                insertRow(m_batch.m_lineNums.get(i), m_batch.m_lines.get(i), m_batch.m_values.get(i));
+                            }
+                        }
+                    });
+                } finally {
+                    m_inFlight.release();
+                }
+            }
+        }
+
+        BatchLoader(Client client, String table, int columnCnt) throws Exception {
+            m_client = client;
+
+            // Column names and types in declaration order, and the partition column if any
+            VoltTable columnInfo = client.callProcedure("@SystemCatalog", "COLUMNS").getResults()[0];
+            String tableName = null;
+            ColumnInfo[] columns = new ColumnInfo[columnCnt];
+            VoltType[] types = new VoltType[columnCnt];
+            int partitionIndex = -1;
+            while (columnInfo.advanceRow()) {
+                if (!table.equalsIgnoreCase(columnInfo.getString("TABLE_NAME"))) {
+                    continue;
+                }
+                tableName = columnInfo.getString("TABLE_NAME");
+                int index = (int) columnInfo.getLong("ORDINAL_POSITION") - 1;
+                if (index < 0 || index >= columnCnt) {
+                    throw new RuntimeException("Column count of table " + tableName
+                            + " does not match its insert procedure");
+                }
+                types[index] = VoltType.typeFromString(columnInfo.getString("TYPE_NAME"));
+                columns[index] = new ColumnInfo(columnInfo.getString("COLUMN_NAME"), types[index]);
+                if ("PARTITION_COLUMN".equals(columnInfo.getString("REMARKS"))) {
+                    partitionIndex = index;
+                }
+            }
+            if (tableName == null) {
+                throw new RuntimeException("Table " + table + " does not exist");
+            }
+            for (ColumnInfo column : columns) {
+                if (column == null) {
+                    throw new RuntimeException("Column count of table " + tableName
+                            + " does not match its insert procedure");
+                }
+            }
+            m_tableName = tableName;
+            m_columns = columns;
+            m_classes = new Class<?>[columnCnt];
+            for (int i = 0; i < columnCnt; i++) {
+                m_classes[i] = types[i].classFromType();
+            }
+            m_partitionIndex = partitionIndex;
+
+            if (m_partitionIndex >= 0) {
+                VoltTable partitions =
+                        client.callProcedure("@Statistics", "PARTITIONCOUNT", 0).getResults()[0];
+                partitions.advanceRow();
+                m_partitionCount = (int) partitions.getLong("PARTITION_COUNT");
+                m_procName = "@LoadSinglepartitionTable";
+            } else {
+                m_partitionCount = 1;
+                m_procName = "@LoadMultipartitionTable";
+            }
+
+            m_chunks = new ArrayBlockingQueue<Chunk>(config.threads * 4);
+            m_maxInFlight = m_partitionCount * BATCHES_IN_FLIGHT_PER_PARTITION;
+            m_inFlight = new Semaphore(m_maxInFlight);
+            m_workers = Executors.newFixedThreadPool(config.threads,
+                    CoreUtils.getThreadFactory("CSVLoader worker"));
+            m_retrier = Executors.newSingleThreadExecutor(CoreUtils.getThreadFactory("CSVLoader retry"));
+            m_reporter = CoreUtils.getScheduledThreadPoolExecutor("CSVLoader progress", 1, 131072);
+        }
+
+        void start() {
+            m_log.info("Loading " + (m_partitionIndex >= 0 ?
+                    "partitioned table " + m_tableName + " across " + m_partitionCount + " partitions" :
+                    "replicated table " + m_tableName)
+                    + " with " + config.threads + " threads in batches of " + config.batch + " rows");
+            for (int i = 0; i < config.threads; i++) {
+                m_workerFutures.add(m_workers.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            work();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }));
+            }
+            m_reporter.scheduleAtFixedRate(new Runnable() {
+                private long m_lastCount = 0;
+                private long m_lastTime = start;
+
+                @Override
+                public void run() {
+                    long now = System.currentTimeMillis();
+                    long count = inCount.get();
+                    m_log.info("Read " + outCount.get() + " rows, inserted " + count + " rows ("
+                            + rate(count - m_lastCount, now - m_lastTime) + " rows/s, "
+                            + rate(count, now - start) + " rows/s overall)");
+                    m_lastCount = count;
+                    m_lastTime = now;
+                }
+            }, reportIntervalSeconds, reportIntervalSeconds, TimeUnit.SECONDS);
+        }
+
+        void submit(long firstLine, List<String[]> lines) throws InterruptedException {
+            m_chunks.put(new Chunk(firstLine, lines));
+        }
+
+        /**
+         * Wait for the workers to ship their last batches, for every batch to be
+         * acknowledged and for any row by row retries to complete.
+         */
+        void finish() throws Exception {
+            for (int i = 0; i < config.threads; i++) {
+                m_chunks.put(END);
+            }
+            try {
+                for (Future<?> f : m_workerFutures) {
+                    f.get();
+                }
+                m_inFlight.acquire(m_maxInFlight);
+                m_retrier.shutdown();
+                m_retrier.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } finally {
+                m_workers.shutdownNow();
+                m_retrier.shutdownNow();
+                m_reporter.shutdownNow();
+            }
+        }
+
+        long getWaits() {
+            return m_waits.get();
+        }
+
+        private void work() throws InterruptedException {
+            Batch[] batches = new Batch[m_partitionCount];
+            Chunk chunk;
+            while ((chunk = m_chunks.take()) != END) {
+                for (int i = 0; i < chunk.m_lines.size(); i++) {
+                    loadRow(batches, chunk.m_firstLine + i, chunk.m_lines.get(i));
+                }
+            }
+            for (Batch batch : batches) {
+                if (batch != null) {
+                    send(batch);
+                }
+            }
+        }
+
+        private void loadRow(Batch[] batches, long lineNum, String[] line) throws InterruptedException {
+            // keep the line as read for the error report
+            String[] row = line.clone();
+            String lineCheckResult = checkparams_trimspace(row, m_columns.length);
+            if (lineCheckResult != null) {
+                recordError(lineNum, rowData(line), lineCheckResult);
+                return;
+            }
+
+            Object[] values = new Object[row.length];
+            try {
+                for (int i = 0; i < row.length; i++) {
+                    values[i] = ParameterConverter.tryToMakeCompatible(
+                            m_classes[i].isPrimitive(), false, m_classes[i], null, row[i]);
+                }
+            } catch (Exception e) {
+                recordError(lineNum, rowData(line), e.getMessage());
+                return;
+            }
+
+            int partition = 0;
+            if (m_partitionIndex >= 0) {
+                if (row[m_partitionIndex] == null) {
+                    // The server routes a batch by the key of its first row, which a
+                    // NULL key can't stand in for. Let the insert procedure judge it.
+                    insertRow(lineNum, line, values);
+                    return;
+                }
+                partition = TheHashinator.hashToPartition(values[m_partitionIndex], m_partitionCount);
+            }
+
+            Batch batch = batches[partition];
+            if (batch == null) {
+                batch = batches[partition] = new Batch();
+            }
+            try {
+                batch.add(lineNum, line, values);
+            } catch (RuntimeException e) {
+                recordError(lineNum, rowData(line), e.getMessage());
+                return;
+            }
+            if (batch.size() >= config.batch) {
+                batches[partition] = null;
+                send(batch);
+            }
+        }
+
+        private void send(Batch batch) throws InterruptedException {
+            m_inFlight.acquire();
+            boolean queued = false;
+            try {
+                queued = call(new BatchCallback(batch), m_procName, m_tableName, batch.m_table);
+            } finally {
+                if (!queued) {
+                    m_inFlight.release();
+                }
+            }
+            batchCount.incrementAndGet();
+        }
+
+        private void insertRow(long lineNum, String[] line, Object[] values) {
+            String rowdata = rowData(line);
+            try {
+                if (!call(new MyCallback(lineNum, rowdata), insertProcedure, values)) {
+                    recordError(lineNum, rowdata, "Error: connection lost");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private boolean call(ProcedureCallback cb, String procName, Object... params)
+                throws InterruptedException {
+            try {
+                while (!m_client.callProcedure(cb, procName, params)) {
+                    m_waits.incrementAndGet();
+                    Thread.sleep(waitSeconds);
+                }
+                return true;
+            } catch (IOException e) {
+                m_log.error(e.getMessage(), e);
+                return false;
+            }
+        }
+
+        private static long rate(long count, long millis) {
+            return millis > 0 ? count * 1000 / millis : 0;
+        }
+    }
+
     public static void main(String[] args) throws IOException,
             InterruptedException {
         start = System.currentTimeMillis();
@@ -285,52 +622,63 @@ public class CSVLoader {
                 System.exit(-1);
             }
 
-            while ((config.limitrows-- > 0)
-                    && (line = csvReader.readNext()) != null) {
-                outCount.incrementAndGet();
-                boolean queued = false;
-                while (queued == false) {
-                    StringBuilder linedata = new StringBuilder();
-                    for (int i = 0; i < line.length; i++) {
-                        linedata.append("\"" + line[i] + "\"");
-                        if (i != line.length - 1)
-                            linedata.append(",");
+            if (!config.table.equals("")) {
+                BatchLoader loader = null;
+                try {
+                    loader = new BatchLoader(csvClient, config.table, columnCnt);
+                } catch (Exception e) {
+                    m_log.error(e.getMessage(), e);
+                    close_cleanup();
+                    System.exit(-1);
+                }
+                loader.start();
+                List<String[]> chunk = new ArrayList<String[]>(BatchLoader.CHUNK_SIZE);
+                long firstLine = 1;
+                while ((config.limitrows-- > 0)
+                        && (line = csvReader.readNext()) != null) {
+                    outCount.incrementAndGet();
+                    chunk.add(line);
+                    if (chunk.size() == BatchLoader.CHUNK_SIZE) {
+                        loader.submit(firstLine, chunk);
+                        chunk = new ArrayList<String[]>(BatchLoader.CHUNK_SIZE);
+                        firstLine = outCount.get() + 1;
                     }
-                    String[] correctedLine = line;
-                    cb = new MyCallback(outCount.get(), config,
-                            linedata.toString());
-                    String lineCheckResult;
-
-                    if ((lineCheckResult = checkparams_trimspace(correctedLine,
-                            columnCnt)) != null) {
-                        synchronized (errorInfo) {
-                            if (!errorInfo.containsKey(outCount.get())) {
-                                String[] info = { linedata.toString(),
-                                        lineCheckResult };
-                                errorInfo.put(outCount.get(), info);
-                            }
-                            if (errorInfo.size() >= config.maxerrors) {
-                                m_log.error("The number of Failure row data exceeds "
-                                        + config.maxerrors);
-                                produceFiles();
-                                close_cleanup();
-                                System.exit(-1);
-                            }
+                }
+                if (!chunk.isEmpty()) {
+                    loader.submit(firstLine, chunk);
+                }
+                loader.finish();
+                waits += loader.getWaits();
+            }
+            else {
+                while ((config.limitrows-- > 0)
+                        && (line = csvReader.readNext()) != null) {
+                    outCount.incrementAndGet();
+                    boolean queued = false;
+                    while (queued == false) {
+                        String linedata = rowData(line);
+                        String[] correctedLine = line;
+                        cb = new MyCallback(outCount.get(), linedata);
+                        String lineCheckResult;
+
+                        if ((lineCheckResult = checkparams_trimspace(correctedLine,
+                                columnCnt)) != null) {
+                            recordError(outCount.get(), linedata, lineCheckResult);
+                            break;
                         }
-                        break;
-                    }
 
-                    queued = csvClient.callProcedure(cb, insertProcedure,
-                            (Object[]) correctedLine);
+                        queued = csvClient.callProcedure(cb, insertProcedure,
+                                (Object[]) correctedLine);
 
-                    if (queued == false) {
-                        ++waits;
-                        if (lastOK == false) {
-                            ++shortWaits;
+                        if (queued == false) {
+                            ++waits;
+                            if (lastOK == false) {
+                                ++shortWaits;
+                            }
+                            Thread.sleep(waitSeconds);
                         }
-                        Thread.sleep(waitSeconds);
+                        lastOK = queued;
                     }
-                    lastOK = queued;
                 }
             }
             csvClient.drain();
@@ -381,6 +729,36 @@ public class CSVLoader {
         return null;
     }
 
+    private static String rowData(String[] line) {
+        StringBuilder linedata = new StringBuilder();
+        for (int i = 0; i < line.length; i++) {
+            linedata.append("\"" + line[i] + "\"");
+            if (i != line.length - 1)
+                linedata.append(",");
+        }
+        return linedata.toString();
+    }
+
+    private static void recordError(long lineNum, String rowdata, String message) {
+        synchronized (errorInfo) {
+            if (!errorInfo.containsKey(lineNum)) {
+                String[] info = { rowdata, message };
+                errorInfo.put(lineNum, info);
+            }
+            if (errorInfo.size() >= config.maxerrors) {
+                m_log.error("The number of Failure row data exceeds "
+                        + config.maxerrors);
+                produceFiles();
+                try {
+                    close_cleanup();
+                } catch (Exception e) {
+                    m_log.error(e.getMessage(), e);
+                }
+                System.exit(-1);
+            }
+        }
+    }
+
     private static void configuration() {
         if (config.file.equals(""))
             standin = true;
@@ -464,6 +842,10 @@ public class CSVLoader {
             // if prompted msg changed, change it also for test case
             out_reportfile.write("Number of rows that could not be inserted: "
                     + errorInfo.size() + "\n");
+            if (batchCount.get() > 0) {
+                out_reportfile.write("Number of bulk insert batches: "
+                        + batchCount.get() + "\n");
+            }
             out_reportfile.write("CSVLoader rate: " + outCount.get()
                     / elapsedTimeSec + " row/s\n");
 
@@ -487,6 +869,7 @@ public class CSVLoader {
             InterruptedException {
         inCount.set(0);
         outCount.set(0);
+        batchCount.set(0);
         errorInfo.clear();
 
         typeList.clear();
@@ -49,6 +49,7 @@ import javax.xml.validation.SchemaFactory;
 import org.mindrot.BCrypt;
 import org.voltcore.logging.Level;
 import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.WaitStrategy;
 import org.voltdb.VoltDB;
 import org.voltdb.VoltTable;
 import org.voltdb.VoltType;
@@ -70,6 +71,7 @@ import org.voltdb.catalog.PlanFragment;
 import org.voltdb.catalog.SnapshotSchedule;
 import org.voltdb.catalog.Systemsettings;
 import org.voltdb.catalog.Table;
+import org.voltdb.compiler.AdHocCompilerCache;
 import org.voltdb.compiler.ClusterConfig;
 import org.voltdb.compiler.deploymentfile.AdminModeType;
 import org.voltdb.compiler.deploymentfile.ClusterType;
@@ -717,6 +719,20 @@ public abstract class CatalogUtil {
             {
                 sb.append(ttt.getMaxsize()).append("\n");
             }
+            SystemSettingsType.Adhoccache ahc = sst.getAdhoccache();
+            if (ahc != null)
+            {
+                sb.append(" ADHOCCACHE ");
+                sb.append(ahc.getLiteralmaxsize()).append(",");
+                sb.append(ahc.getPlanmaxsize()).append("\n");
+            }
+            SystemSettingsType.Waitstrategy wst = sst.getWaitstrategy();
+            if (wst != null)
+            {
+                sb.append(" WAITSTRATEGY ");
+                sb.append(wst.getType().value()).append(",");
+                sb.append(wst.getSpinmicros()).append("\n");
+            }
         }
 
         sb.append(" EXPORT ");
@@ -1004,6 +1020,10 @@ public abstract class CatalogUtil {
             catDeployment.getSystemsettings().add("systemsettings");
         int maxtemptablesize = 100;
         int snapshotpriority = 6;
+        int adhocliteralcachesize = AdHocCompilerCache.DEFAULT_LITERAL_CACHE_MB;
+        int adhocplancachesize = AdHocCompilerCache.DEFAULT_CORE_CACHE_MB;
+        String waitstrategy = WaitStrategy.Type.BLOCK.name().toLowerCase();
+        int waitspinmicros = WaitStrategy.DEFAULT_SPIN_MICROS;
         if (deployment.getSystemsettings() != null)
         {
             Temptables temptables = deployment.getSystemsettings().getTemptables();
@@ -1015,9 +1035,39 @@ public abstract class CatalogUtil {
             if (snapshot != null) {
                 snapshotpriority = snapshot.getPriority();
             }
+            SystemSettingsType.Adhoccache adhoccache = deployment.getSystemsettings().getAdhoccache();
+            if (adhoccache != null) {
+                adhocliteralcachesize = adhoccache.getLiteralmaxsize();
+                adhocplancachesize = adhoccache.getPlanmaxsize();
+            }
+            SystemSettingsType.Waitstrategy ws = deployment.getSystemsettings().getWaitstrategy();
+            if (ws != null) {
+                waitstrategy = ws.getType().value();
+                waitspinmicros = ws.getSpinmicros();
+            }
         }
         syssettings.setMaxtemptablesize(maxtemptablesize);
         syssettings.setSnapshotpriority(snapshotpriority);
+        syssettings.setAdhocliteralcachesize(adhocliteralcachesize);
+        syssettings.setAdhocplancachesize(adhocplancachesize);
+        syssettings.setWaitstrategy(waitstrategy);
+        syssettings.setWaitspinmicros(waitspinmicros);
+    }
+
+    /**
+     * Get the wait strategy idle site and network threads should use. Catalogs
+     * without a deployment or without the setting get the blocking strategy.
+     */
+    public static WaitStrategy getWaitStrategy(Cluster cluster) {
+        Deployment deployment = cluster.getDeployment().get("deployment");
+        if (deployment == null) {
+            return WaitStrategy.BLOCK;
+        }
+        Systemsettings settings = deployment.getSystemsettings().get("systemsettings");
+        if (settings == null) {
+            return WaitStrategy.BLOCK;
+        }
+        return WaitStrategy.fromString(settings.getWaitstrategy(), settings.getWaitspinmicros());
     }
 
     private static void validateDirectory(String type, File path, boolean crashOnFailedValidation) {
@@ -24,12 +24,19 @@ import java.io.PrintWriter;
 import java.io.RandomAccessFile;
 import java.io.StringWriter;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.TreeMap;
-import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.voltcore.logging.VoltLogger;
 import org.voltcore.utils.DBBPool.BBContainer;
@@ -43,6 +50,11 @@ import org.voltcore.utils.DBBPool.BBContainer;
  * once all objects from the segment have been polled and all the containers returned by poll have been discarded.
  * Push is implemented by creating new segments at the head of the queue containing the objects to be pushed.
  *
+ * Segments are memory mapped by default so offers are copied straight into the page cache and polls
+ * return a view of the mapping instead of a copy. -DpbdMappedSegments=false selects segments that
+ * read and write through a FileChannel instead. Offers and polls take separate locks so a writer
+ * appending to the tail doesn't wait on a reader draining the head, and concurrent calls to sync
+ * share a single fsync.
  */
 public class PersistentBinaryDeque implements BinaryDeque {
 
@@ -51,10 +63,34 @@ public class PersistentBinaryDeque implements BinaryDeque {
      */
     private static final VoltLogger exportLog = new VoltLogger("EXPORT");
 
+    static final boolean MAPPED_SEGMENTS =
+            Boolean.valueOf(System.getProperty("pbdMappedSegments", "true"));
+
+    private static final int m_chunkSize = (1024 * 1024) * 64;
+
+    //Zeros written ahead of the data in a mapped write segment, never modified
+    private static final ByteBuffer m_preallocationZeros = ByteBuffer.allocateDirect(1024 * 1024 * 4);
+
     private final File m_path;
     private final String m_nonce;
-    private java.util.concurrent.atomic.AtomicLong m_sizeInBytes =
-        new java.util.concurrent.atomic.AtomicLong(0);
+    private final boolean m_mapped;
+    private final AtomicLong m_sizeInBytes = new AtomicLong(0);
+
+    /*
+     * m_writeLock guards the write segment, m_readLock guards the poll position.
+     * A poll only takes m_writeLock to steal the write segment. Anything that
+     * takes both locks takes m_readLock first.
+     */
+    private final ReentrantLock m_readLock = new ReentrantLock();
+    private final ReentrantLock m_writeLock = new ReentrantLock();
+
+    //Held for the duration of an fsync, callers that arrive during one wait
+    //for it and only sync again if they wrote something after it started
+    private final Object m_syncLock = new Object();
+    //Count of offers and pushes, guarded by m_writeLock
+    private long m_editCount = 0;
+    //Value of m_editCount when the last completed sync started
+    private long m_syncedEditCount = 0;
 
     /**
      * Objects placed in the deque are stored in file segments that are up to 64 megabytes.
@@ -62,34 +98,169 @@ public class PersistentBinaryDeque implements BinaryDeque {
      * to insert an object that exceeds the remaining space is made. A segment can be used
      * for reading and writing, but not both at the same time.
      *
+     * A segment file is the number of objects as an int followed by each object with an int length prefix.
      */
-    private class DequeSegment {
+    private abstract class DequeSegment {
         //Avoid unecessary sync with this flag
-        private boolean m_syncedSinceLastEdit = true;
-        private final File m_file;
-        private RandomAccessFile m_ras;
-        private FileChannel m_fc;
+        protected volatile boolean m_syncedSinceLastEdit = true;
+        protected final File m_file;
 
         //Index of the next object to read, not an offset into the file
         //The offset is maintained by the ByteBuffer. Used to determine if there is another object
-        private int m_objectReadIndex = 0;
+        protected int m_objectReadIndex = 0;
 
         //ID of this segment
-        private final Long m_index;
-        private static final int m_chunkSize = (1024 * 1024) * 64;
+        protected final Long m_index;
 
         //How many entries that have been polled have from this file have been discarded.
         //Once this == the number of entries the segment can close and delete itself
-        private int m_discardsUntilDeletion = 0;
+        protected final AtomicInteger m_discardsUntilDeletion = new AtomicInteger(0);
 
         public DequeSegment(Long index, File file) {
             m_index = index;
             m_file = file;
         }
 
+        protected abstract boolean isOpen();
+
+        protected abstract void open() throws IOException;
+
+        protected abstract void close() throws IOException;
+
+        protected abstract int getNumEntries() throws IOException;
+
+        protected abstract void initNumEntries() throws IOException;
+
+        /**
+         * Bytes of space available for inserting more entries
+         * @return
+         */
+        protected abstract int remaining() throws IOException;
+
+        protected abstract void offer(BBContainer objects[]) throws IOException;
+
+        /**
+         * Done offering to this segment, prepare it to be polled from the start
+         */
+        protected abstract void finishWriting() throws IOException;
+
+        /**
+         * Read the next object, the read position is just past its length prefix
+         */
+        protected abstract ByteBuffer readObject(int length) throws IOException;
+
+        protected abstract int readLength() throws IOException;
+
+        protected abstract void force() throws IOException;
+
+        //A white lie, don't include the object count prefix
+        //so that the size is 0 when there is no user data
+        protected abstract long sizeInBytes();
+
+        private void closeAndDelete() throws IOException {
+            close();
+            m_sizeInBytes.addAndGet(-sizeInBytes());
+            m_file.delete();
+        }
+
+        private void sync() throws IOException {
+            if (!m_syncedSinceLastEdit) {
+                //Cleared first so that an offer that lands during the force
+                //leaves the segment marked as needing another one
+                m_syncedSinceLastEdit = true;
+                try {
+                    force();
+                } catch (ClosedChannelException e) {
+                    //Polled, discarded and deleted while syncing
+                } catch (IOException e) {
+                    m_syncedSinceLastEdit = false;
+                    throw e;
+                }
+            }
+        }
+
+        private BBContainer poll() throws IOException {
+            if (!isOpen()) {
+                open();
+            }
+
+            //No more entries to read
+            if (m_objectReadIndex >= getNumEntries()) {
+                return null;
+            }
+
+            m_objectReadIndex++;
+
+            //If this is the last object to read from this segment
+            //increment the poll segment index so that the next poll
+            //selects the correct segment
+            if (m_objectReadIndex >= getNumEntries()) {
+                m_currentPollSegmentIndex++;
+            }
+
+            //Get the length prefix and then read the object
+            int length = readLength();
+            if (length < 1) {
+                throw new IOException("Read an invalid length");
+            }
+            ByteBuffer resultBuffer = readObject(length);
+
+            return new BBContainer( resultBuffer, 0L) {
+                private boolean discarded = false;
+
+                private final Throwable t = new Throwable();
+                @Override
+                public void discard() {
+                    if (!discarded) {
+                        discarded = true;
+                        if (m_discardsUntilDeletion.decrementAndGet() == 0) {
+                            m_finishedSegments.remove(m_index);
+                            try {
+                                closeAndDelete();
+                            } catch (IOException e) {
+                                exportLog.error(e);
+                            }
+                        }
+                    } else {
+                        exportLog.error("An export buffer was discarded multiple times");
+                    }
+                }
+
+                @Override
+                public void finalize() {
+                    if (!discarded && !m_closed) {
+                        exportLog.error(m_file + " had a buffer that was finalized without being discarded");
+                        StringWriter sw  = new StringWriter();
+                        PrintWriter pw = new PrintWriter(sw);
+                        t.printStackTrace(pw);
+                        exportLog.error(sw.toString());
+                        discard();
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Segment that reads and writes the file with FileChannel, polled objects are copied to the heap
+     */
+    private class FileChannelDequeSegment extends DequeSegment {
+        private RandomAccessFile m_ras;
+        private FileChannel m_fc;
+
+        public FileChannelDequeSegment(Long index, File file) {
+            super(index, file);
+        }
+
         private final ByteBuffer m_bufferForNumEntries = ByteBuffer.allocateDirect(4);
 
-        private int getNumEntries() throws IOException {
+        @Override
+        protected boolean isOpen() {
+            return m_fc != null;
+        }
+
+        @Override
+        protected int getNumEntries() throws IOException {
             if (m_fc == null) {
                 open();
             }
@@ -108,7 +279,8 @@ public class PersistentBinaryDeque implements BinaryDeque {
             }
         }
 
-        private void initNumEntries() throws IOException {
+        @Override
+        protected void initNumEntries() throws IOException {
             m_bufferForNumEntries.clear();
             m_bufferForNumEntries.putInt(0).flip();
             while (m_bufferForNumEntries.hasRemaining()) {
@@ -139,19 +311,17 @@ public class PersistentBinaryDeque implements BinaryDeque {
 
             //For when this buffer is eventually finished and starts being polled
             //Stored on disk and in memory
-            m_discardsUntilDeletion++;
+            m_discardsUntilDeletion.incrementAndGet();
         }
 
-        /**
-         * Bytes of space available for inserting more entries
-         * @return
-         */
-        private int remaining() throws IOException {
+        @Override
+        protected int remaining() throws IOException {
             //Subtract 4 for the length prefix
             return (int)(m_chunkSize - m_fc.position()) - 4;
         }
 
-        private void open() throws IOException {
+        @Override
+        protected void open() throws IOException {
             if (!m_file.exists()) {
                 m_syncedSinceLastEdit = false;
             }
@@ -162,17 +332,12 @@ public class PersistentBinaryDeque implements BinaryDeque {
             m_fc = m_ras.getChannel();
             m_fc.position(4);
             if (m_fc.size() >= 4) {
-                m_discardsUntilDeletion = getNumEntries();
+                m_discardsUntilDeletion.set(getNumEntries());
             }
         }
 
-        private void closeAndDelete() throws IOException {
-            close();
-            m_sizeInBytes.addAndGet(-sizeInBytes());
-            m_file.delete();
-        }
-
-        private void close() throws IOException {
+        @Override
+        protected void close() throws IOException {
             if (m_fc != null) {
                 m_fc.close();
                 m_ras = null;
@@ -180,33 +345,21 @@ public class PersistentBinaryDeque implements BinaryDeque {
             }
         }
 
-        private void sync() throws IOException {
-            if (!m_syncedSinceLastEdit) {
-                m_fc.force(true);
+        @Override
+        protected void force() throws IOException {
+            FileChannel fc = m_fc;
+            if (fc != null) {
+                fc.force(true);
             }
-            m_syncedSinceLastEdit = true;
         }
 
-        private BBContainer poll() throws IOException {
-            if (m_fc == null) {
-                open();
-            }
-
-            //No more entries to read
-            if (m_objectReadIndex >= getNumEntries()) {
-                return null;
-            }
-
-            m_objectReadIndex++;
-
-            //If this is the last object to read from this segment
-            //increment the poll segment index so that the next poll
-            //selects the correct segment
-            if (m_objectReadIndex >= getNumEntries()) {
-                m_currentPollSegmentIndex++;
-            }
+        @Override
+        protected void finishWriting() throws IOException {
+            m_fc.position(4);
+        }
 
-            //Get the length prefix and then read the object
+        @Override
+        protected int readLength() throws IOException {
             m_bufferForNumEntries.clear();
             while (m_bufferForNumEntries.hasRemaining()) {
                 int read = m_fc.read(m_bufferForNumEntries);
@@ -215,11 +368,11 @@ public class PersistentBinaryDeque implements BinaryDeque {
                 }
             }
             m_bufferForNumEntries.flip();
-            int length = m_bufferForNumEntries.getInt();
-            if (length < 1) {
-                throw new IOException("Read an invalid length");
-            }
+            return m_bufferForNumEntries.getInt();
+        }
 
+        @Override
+        protected ByteBuffer readObject(int length) throws IOException {
             ByteBuffer resultBuffer = ByteBuffer.allocate(length);
             while (resultBuffer.hasRemaining()) {
                 int read = m_fc.read(resultBuffer);
@@ -228,44 +381,11 @@ public class PersistentBinaryDeque implements BinaryDeque {
                 }
             }
             resultBuffer.flip();
-
-            return new BBContainer( resultBuffer, 0L) {
-                private boolean discarded = false;
-
-                private final Throwable t = new Throwable();
-                @Override
-                public void discard() {
-                    if (!discarded) {
-                        discarded = true;
-                        m_discardsUntilDeletion--;
-                        if (m_discardsUntilDeletion == 0) {
-                            m_finishedSegments.remove(m_index);
-                            try {
-                                closeAndDelete();
-                            } catch (IOException e) {
-                                exportLog.error(e);
-                            }
-                        }
-                    } else {
-                        exportLog.error("An export buffer was discarded multiple times");
-                    }
-                }
-
-                @Override
-                public void finalize() {
-                    if (!discarded && !m_closed) {
-                        exportLog.error(m_file + " had a buffer that was finalized without being discarded");
-                        StringWriter sw  = new StringWriter();
-                        PrintWriter pw = new PrintWriter(sw);
-                        t.printStackTrace(pw);
-                        exportLog.error(sw.toString());
-                        discard();
-                    }
-                }
-            };
+            return resultBuffer;
         }
 
-        private void offer(BBContainer objects[]) throws IOException {
+        @Override
+        protected void offer(BBContainer objects[]) throws IOException {
             int length = 0;
             for (BBContainer obj : objects ) {
                 length += obj.b.remaining();
@@ -303,19 +423,213 @@ public class PersistentBinaryDeque implements BinaryDeque {
             incrementNumEntries();
         }
 
-        //A white lie, don't include the object count prefix
-        //so that the size is 0 when there is no user data
-        private long sizeInBytes() {
+        @Override
+        protected long sizeInBytes() {
+            return m_file.length() - 4;
+        }
+    }
+
+    /**
+     * Segment that maps the file. A new segment maps the full 64 megabytes read/write and objects
+     * are copied into the mapping. The mapping leaves the file sparse, and storing to a page with no
+     * disk block behind it on a full disk raises SIGBUS instead of an IOException, so zeros are
+     * written through the channel ahead of the data to allocate the blocks first. When writing is
+     * finished the file is truncated to the data written and the same mapping is used to poll. Existing segments are mapped read only. Polled objects are
+     * slices of the mapping, which stays valid until the last of them is collected even after
+     * the segment is closed and its file deleted. A segment file is never truncated while it
+     * has outstanding slices.
+     */
+    private class MappedDequeSegment extends DequeSegment {
+        private RandomAccessFile m_ras;
+        private FileChannel m_fc;
+        private MappedByteBuffer m_buf;
+        //True while the segment is mapped for writing and the file is longer than the data
+        private boolean m_writing = false;
+        //End of the data written while m_writing, including the object count
+        private int m_writePosition = 0;
+        //End of the zeros written ahead of the data while m_writing
+        private long m_allocated = 0;
+        private int m_numEntries = 0;
+
+        public MappedDequeSegment(Long index, File file) {
+            super(index, file);
+        }
+
+        @Override
+        protected boolean isOpen() {
+            return m_buf != null;
+        }
+
+        @Override
+        protected void open() throws IOException {
+            if (!m_file.exists()) {
+                m_syncedSinceLastEdit = false;
+            }
+            if (m_ras != null) {
+                throw new IOException(m_file + " was already opened");
+            }
+            m_ras = new RandomAccessFile( m_file, "rw");
+            m_fc = m_ras.getChannel();
+            final long size = m_fc.size();
+            if (size >= 4) {
+                m_buf = m_fc.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                m_numEntries = m_buf.getInt(0);
+                m_discardsUntilDeletion.set(m_numEntries);
+            } else {
+                m_buf = m_fc.map(FileChannel.MapMode.READ_WRITE, 0, m_chunkSize);
+                m_writing = true;
+                m_writePosition = 4;
+                m_allocated = 0;
+                allocateThrough(m_writePosition);
+            }
+            m_buf.position(4);
+        }
+
+        @Override
+        protected void close() throws IOException {
+            if (m_fc != null) {
+                if (m_writing) {
+                    finishWriting();
+                }
+                m_fc.close();
+                m_ras = null;
+                m_fc = null;
+                m_buf = null;
+            }
+        }
+
+        @Override
+        protected int getNumEntries() throws IOException {
+            if (m_buf == null) {
+                open();
+            }
+            return m_numEntries;
+        }
+
+        @Override
+        protected void initNumEntries() throws IOException {
+            m_numEntries = 0;
+            m_buf.putInt(0, 0);
+            m_syncedSinceLastEdit = false;
+        }
+
+        @Override
+        protected int remaining() throws IOException {
+            //Subtract 4 for the length prefix
+            return m_chunkSize - m_writePosition - 4;
+        }
+
+        @Override
+        protected void offer(BBContainer objects[]) throws IOException {
+            assert(m_writing);
+            int length = 0;
+            for (BBContainer obj : objects ) {
+                length += obj.b.remaining();
+            }
+
+            if (remaining() < length) {
+                throw new IOException(m_file + " has insufficient space");
+            }
+            allocateThrough(m_writePosition + 4 + length);
+
+            m_buf.putInt(length);
+            int objectIndex = 0;
+            for (BBContainer obj : objects ) {
+                boolean success = false;
+                try {
+                    m_buf.put(obj.b);
+                    obj.discard();
+                    success = true;
+                    objectIndex++;
+                } finally {
+                    if (!success) {
+                        for (int ii = objectIndex; ii < objects.length; ii++) {
+                            objects[ii].discard();
+                        }
+                        m_buf.position(m_writePosition);
+                    }
+                }
+            }
+            m_writePosition = m_buf.position();
+            //Count the object only once all of it is in the file
+            m_buf.putInt(0, ++m_numEntries);
+            m_syncedSinceLastEdit = false;
+            m_sizeInBytes.addAndGet(4 + length);
+            m_discardsUntilDeletion.incrementAndGet();
+        }
+
+        /**
+         * Write zeros past the allocated part of the file until it reaches position, so a
+         * full disk fails the write with an IOException before anything is stored through
+         * the mapping
+         */
+        private void allocateThrough(long position) throws IOException {
+            while (m_allocated < position) {
+                ByteBuffer zeros = m_preallocationZeros.duplicate();
+                zeros.limit((int)Math.min(zeros.capacity(), m_chunkSize - m_allocated));
+                while (zeros.hasRemaining()) {
+                    m_allocated += m_fc.write(zeros, m_allocated);
+                }
+            }
+        }
+
+        @Override
+        protected void finishWriting() throws IOException {
+            if (m_writing) {
+                m_writing = false;
+                //Nothing past the data is ever read, so the mapping stays usable
+                m_fc.truncate(m_writePosition);
+                m_buf.limit(m_writePosition);
+            }
+            m_buf.position(4);
+        }
+
+        @Override
+        protected int readLength() throws IOException {
+            if (m_buf.remaining() < 4) {
+                throw new EOFException();
+            }
+            return m_buf.getInt();
+        }
+
+        @Override
+        protected ByteBuffer readObject(int length) throws IOException {
+            if (m_buf.remaining() < length) {
+                throw new EOFException();
+            }
+            ByteBuffer resultBuffer = m_buf.slice();
+            resultBuffer.limit(length);
+            m_buf.position(m_buf.position() + length);
+            return resultBuffer;
+        }
+
+        @Override
+        protected void force() throws IOException {
+            //Written through the mapping, flush the mapping. A segment polled from
+            //disk is read only and has nothing to flush.
+            MappedByteBuffer buf = m_buf;
+            if (buf != null && !buf.isReadOnly()) {
+                buf.force();
+            }
+        }
+
+        @Override
+        protected long sizeInBytes() {
+            if (m_writing) {
+                return m_writePosition - 4;
+            }
             return m_file.length() - 4;
         }
     }
 
     //Segments that are no longer being written to and can be polled
     //These segments are "immutable". They will not be modified until deletion
-    private final TreeMap<Long, DequeSegment> m_finishedSegments = new TreeMap<Long, DequeSegment>();
+    //Polled segments remove themselves from any thread once all their objects are discarded
+    private final ConcurrentSkipListMap<Long, DequeSegment> m_finishedSegments =
+        new ConcurrentSkipListMap<Long, DequeSegment>();
 
     //The current segment being written to
-    private DequeSegment m_writeSegment = null;
+    private volatile DequeSegment m_writeSegment = null;
 
     //Index of the segment being polled
     private Long m_currentPollSegmentIndex = 0L;
@@ -330,8 +644,16 @@ public class PersistentBinaryDeque implements BinaryDeque {
      * @throws IOException
      */
     public PersistentBinaryDeque(final String nonce, final File path) throws IOException {
+        this(nonce, path, MAPPED_SEGMENTS);
+    }
+
+    /**
+     * @param mapped Use memory mapped segments instead of FileChannel segments. The files are the same.
+     */
+    public PersistentBinaryDeque(final String nonce, final File path, boolean mapped) throws IOException {
         m_path = path;
         m_nonce = nonce;
+        m_mapped = mapped;
 
         if (!path.exists() || !path.canRead() || !path.canWrite() || !path.canExecute() || !path.isDirectory()) {
             throw new IOException(path + " is not usable ( !exists || !readable " +
@@ -340,26 +662,30 @@ public class PersistentBinaryDeque implements BinaryDeque {
 
         //Parse the files in the directory by name to find files
         //that are part of this deque
-        path.listFiles(new FileFilter() {
+        File segmentFiles[] = path.listFiles(new FileFilter() {
 
             @Override
             public boolean accept(File pathname) {
                 String name = pathname.getName();
-                if (name.startsWith(nonce) && name.endsWith(".pbd")) {
-                    if (pathname.length() == 4) {
-                        //Doesn't have any objects, just the object count
-                        pathname.delete();
-                        return false;
-                    }
-                    Long index = Long.valueOf(name.substring( nonce.length() + 1, name.length() - 4));
-                    DequeSegment ds = new DequeSegment( index, pathname);
-                    m_finishedSegments.put( index, ds);
-                    m_sizeInBytes.addAndGet(ds.sizeInBytes());
-                }
-                return false;
+                return name.startsWith(nonce) && name.endsWith(".pbd");
             }
 
         });
+        for (File pathname : segmentFiles) {
+            //A mapped segment that was being written when the process died is still
+            //extended to the full chunk, only count what its entries cover
+            final long dataLength = recoverSegmentFile(pathname);
+            if (dataLength <= 4) {
+                //Doesn't have any objects, just the object count
+                pathname.delete();
+                continue;
+            }
+            String name = pathname.getName();
+            Long index = Long.valueOf(name.substring( nonce.length() + 1, name.length() - 4));
+            DequeSegment ds = newSegment(index);
+            m_finishedSegments.put( index, ds);
+            m_sizeInBytes.addAndGet(ds.sizeInBytes());
+        }
 
         Long lastKey = null;
         for (Long key : m_finishedSegments.keySet()) {
@@ -381,37 +707,98 @@ public class PersistentBinaryDeque implements BinaryDeque {
             writeSegmentIndex = m_finishedSegments.lastKey() + 1;
         } catch (NoSuchElementException e) {}
 
-        m_writeSegment =
-            new DequeSegment(
-                    writeSegmentIndex,
-                    new VoltFile(m_path, m_nonce + "." + writeSegmentIndex + ".pbd"));
+        m_writeSegment = newSegment(writeSegmentIndex);
         m_writeSegment.open();
         m_writeSegment.initNumEntries();
     }
 
-    @Override
-    public synchronized void offer(BBContainer[] objects) throws IOException {
-        if (m_writeSegment == null) {
-            throw new IOException("Closed");
-        }
-        int needed = 0;
-        for (BBContainer b : objects) {
-            needed +=  b.b.remaining();
+    /**
+     * Walk the entries of a segment file from a previous process and truncate anything
+     * past the last one, so the file length matches the data in it.
+     * @return Length of the object count and the entries it counts
+     */
+    static long recoverSegmentFile(File file) throws IOException {
+        RandomAccessFile ras = new RandomAccessFile(file, "rw");
+        try {
+            final long fileLength = ras.length();
+            if (fileLength < 4) {
+                return fileLength;
+            }
+            final int numEntries = ras.readInt();
+            long dataLength = 4;
+            for (int ii = 0; ii < numEntries; ii++) {
+                if (dataLength + 4 > fileLength) {
+                    throw new IOException(file + " is missing entries, expected " + numEntries +
+                            " found " + ii);
+                }
+                ras.seek(dataLength);
+                final int length = ras.readInt();
+                if (length < 1 || dataLength + 4 + length > fileLength) {
+                    throw new IOException(file + " has an invalid length for entry " + ii);
+                }
+                dataLength += 4 + length;
+            }
+            if (dataLength < fileLength) {
+                exportLog.debug("Truncating " + file + " from " + fileLength + " to " +
+                        dataLength + " bytes of entries");
+                ras.getChannel().truncate(dataLength);
+            }
+            return dataLength;
+        } finally {
+            ras.close();
         }
+    }
 
-        if (needed > DequeSegment.m_chunkSize - 4) {
-            throw new IOException("Maxiumum object size is " + (DequeSegment.m_chunkSize - 4));
+    private DequeSegment newSegment(Long index) {
+        File file = new VoltFile(m_path, m_nonce + "." + index + ".pbd");
+        if (m_mapped) {
+            return new MappedDequeSegment(index, file);
+        } else {
+            return new FileChannelDequeSegment(index, file);
         }
+    }
 
-        if (m_writeSegment.remaining() < needed) {
-            openNewWriteSegment();
-        }
+    @Override
+    public void offer(BBContainer[] objects) throws IOException {
+        m_writeLock.lock();
+        try {
+            if (m_writeSegment == null) {
+                throw new IOException("Closed");
+            }
+            int needed = 0;
+            for (BBContainer b : objects) {
+                needed +=  b.b.remaining();
+            }
+
+            if (needed > m_chunkSize - 4) {
+                throw new IOException("Maxiumum object size is " + (m_chunkSize - 4));
+            }
+
+            if (m_writeSegment.remaining() < needed) {
+                openNewWriteSegment();
+            }
 
-        m_writeSegment.offer(objects);
+            m_writeSegment.offer(objects);
+            m_editCount++;
+        } finally {
+            m_writeLock.unlock();
+        }
     }
 
     @Override
-    public synchronized void push(BBContainer[][] objects) throws IOException {
+    public void push(BBContainer[][] objects) throws IOException {
+        m_readLock.lock();
+        m_writeLock.lock();
+        try {
+            pushLocked(objects);
+            m_editCount++;
+        } finally {
+            m_writeLock.unlock();
+            m_readLock.unlock();
+        }
+    }
+
+    private void pushLocked(BBContainer[][] objects) throws IOException {
         if (m_writeSegment == null) {
             throw new IOException("Closed");
         }
@@ -423,7 +810,7 @@ public class PersistentBinaryDeque implements BinaryDeque {
 
         //Take the objects that were provided and separate them into deques of objects
         //that will fit in a single write segment
-        int available = DequeSegment.m_chunkSize - 4;
+        int available = m_chunkSize - 4;
         for (BBContainer object[] : objects) {
             int needed = 4;
             for (BBContainer obj : object) {
@@ -431,12 +818,12 @@ public class PersistentBinaryDeque implements BinaryDeque {
             }
 
             if (available - needed < 0) {
-                if (needed > DequeSegment.m_chunkSize - 4) {
-                    throw new IOException("Maximum object size is " + (DequeSegment.m_chunkSize - 4));
+                if (needed > m_chunkSize - 4) {
+                    throw new IOException("Maximum object size is " + (m_chunkSize - 4));
                 }
                 segments.offer( currentSegment );
                 currentSegment = new ArrayDeque<BBContainer[]>();
-                available = DequeSegment.m_chunkSize - 4;
+                available = m_chunkSize - 4;
             }
             available -= needed;
             currentSegment.add(object);
@@ -457,10 +844,7 @@ public class PersistentBinaryDeque implements BinaryDeque {
 
         while (segments.peek() != null) {
             ArrayDeque<BBContainer[]> currentSegmentContents = segments.poll();
-            DequeSegment writeSegment =
-                new DequeSegment(
-                        nextIndex,
-                        new VoltFile(m_path, m_nonce + "." + nextIndex + ".pbd"));
+            DequeSegment writeSegment = newSegment(nextIndex);
             m_currentPollSegmentIndex = nextIndex;
             writeSegment.open();
             writeSegment.initNumEntries();
@@ -470,89 +854,153 @@ public class PersistentBinaryDeque implements BinaryDeque {
                 writeSegment.offer(currentSegmentContents.pollFirst());
             }
 
-            writeSegment.m_fc.position(4);
+            writeSegment.finishWriting();
             m_finishedSegments.put(writeSegment.m_index, writeSegment);
         }
     }
 
+    /**
+     * Requires m_writeLock
+     */
     private void openNewWriteSegment() throws IOException {
         if (m_writeSegment == null) {
             throw new IOException("Closed");
         }
-        m_writeSegment.m_fc.position(4);
+        m_writeSegment.finishWriting();
         m_finishedSegments.put(m_writeSegment.m_index, m_writeSegment);
         Long nextIndex = m_writeSegment.m_index + 1;
-        m_writeSegment =
-            new DequeSegment(
-                    nextIndex,
-                    new VoltFile(m_path, m_nonce + "." + nextIndex + ".pbd"));
-        m_writeSegment.open();
-        m_writeSegment.initNumEntries();
+        DequeSegment writeSegment = newSegment(nextIndex);
+        writeSegment.open();
+        writeSegment.initNumEntries();
+        m_writeSegment = writeSegment;
     }
 
     @Override
-    public synchronized BBContainer poll() throws IOException {
-        if (m_writeSegment == null) {
-            throw new IOException("Closed");
-        }
-        DequeSegment segment = m_finishedSegments.get(m_currentPollSegmentIndex);
-        if (segment == null) {
-            assert(m_writeSegment.m_index.equals(m_currentPollSegmentIndex));
-            //See if we can steal the write segment, otherwise return null
-            if (m_writeSegment.getNumEntries() > 0) {
-                openNewWriteSegment();
+    public BBContainer poll() throws IOException {
+        m_readLock.lock();
+        try {
+            if (m_writeSegment == null) {
+                throw new IOException("Closed");
+            }
+            DequeSegment segment = m_finishedSegments.get(m_currentPollSegmentIndex);
+            if (segment == null) {
+                m_writeLock.lock();
+                try {
+                    //An offer may have filled the write segment and finished it
+                    //while this poll was waiting for the lock
+                    if (!m_finishedSegments.containsKey(m_currentPollSegmentIndex)) {
+                        assert(m_writeSegment.m_index.equals(m_currentPollSegmentIndex));
+                        //See if we can steal the write segment, otherwise return null
+                        if (m_writeSegment.getNumEntries() > 0) {
+                            openNewWriteSegment();
+                        } else {
+                            return null;
+                        }
+                    }
+                } finally {
+                    m_writeLock.unlock();
+                }
                 return poll();
-            } else {
-                return null;
             }
+            return segment.poll();
+        } finally {
+            m_readLock.unlock();
         }
-        return segment.poll();
     }
 
+    /**
+     * Everything offered or pushed before the call is on disk when it returns. If another thread
+     * is already syncing this waits for it, and then only syncs if that sync started too early
+     * to include everything this caller wrote.
+     */
     @Override
-    public synchronized void sync() throws IOException {
-        if (m_writeSegment == null) {
-            throw new IOException("Closed");
+    public void sync() throws IOException {
+        long needed;
+        m_writeLock.lock();
+        try {
+            if (m_writeSegment == null) {
+                throw new IOException("Closed");
+            }
+            needed = m_editCount;
+        } finally {
+            m_writeLock.unlock();
         }
-        m_writeSegment.sync();
-        for (DequeSegment segment : m_finishedSegments.values()) {
-            segment.sync();
+
+        synchronized (m_syncLock) {
+            if (m_syncedEditCount >= needed) {
+                return;
+            }
+            long syncing;
+            List<DequeSegment> segments = new ArrayList<DequeSegment>();
+            m_writeLock.lock();
+            try {
+                if (m_writeSegment == null) {
+                    throw new IOException("Closed");
+                }
+                syncing = m_editCount;
+                segments.add(m_writeSegment);
+                segments.addAll(m_finishedSegments.values());
+            } finally {
+                m_writeLock.unlock();
+            }
+            //Offers continue while the segments are forced
+            for (DequeSegment segment : segments) {
+                segment.sync();
+            }
+            m_syncedEditCount = syncing;
         }
     }
 
     @Override
-    public synchronized void close() throws IOException {
-        if (m_writeSegment == null) {
-            throw new IOException("Closed");
-        }
-        if (m_writeSegment.getNumEntries() > 0) {
-            m_finishedSegments.put(m_writeSegment.m_index, m_writeSegment);
-        } else {
-            m_writeSegment.closeAndDelete();
-        }
-        m_writeSegment = null;
-        for (DequeSegment segment : m_finishedSegments.values()) {
-            segment.close();
+    public void close() throws IOException {
+        m_readLock.lock();
+        m_writeLock.lock();
+        try {
+            if (m_writeSegment == null) {
+                throw new IOException("Closed");
+            }
+            if (m_writeSegment.getNumEntries() > 0) {
+                m_finishedSegments.put(m_writeSegment.m_index, m_writeSegment);
+            } else {
+                m_writeSegment.closeAndDelete();
+            }
+            m_writeSegment = null;
+            for (DequeSegment segment : m_finishedSegments.values()) {
+                segment.close();
+            }
+            m_closed = true;
+        } finally {
+            m_writeLock.unlock();
+            m_readLock.unlock();
         }
-        m_closed = true;
     }
 
     @Override
-    public synchronized boolean isEmpty() throws IOException {
-        if (m_writeSegment == null) {
-            throw new IOException("Closed");
-        }
-        DequeSegment segment = m_finishedSegments.get(m_currentPollSegmentIndex);
-        if (segment == null) {
-            assert(m_writeSegment.m_index.equals(m_currentPollSegmentIndex));
-            //See if we can steal the write segment, otherwise return null
-            if (m_writeSegment.getNumEntries() > 0) {
-                return false;
-            } else {
-                return true;
+    public boolean isEmpty() throws IOException {
+        m_readLock.lock();
+        try {
+            if (m_writeSegment == null) {
+                throw new IOException("Closed");
             }
+            DequeSegment segment = m_finishedSegments.get(m_currentPollSegmentIndex);
+            if (segment == null) {
+                m_writeLock.lock();
+                try {
+                    //An offer may have filled the write segment and finished it
+                    //while this call was waiting for the lock
+                    segment = m_finishedSegments.get(m_currentPollSegmentIndex);
+                    if (segment == null) {
+                        assert(m_writeSegment.m_index.equals(m_currentPollSegmentIndex));
+                        return m_writeSegment.getNumEntries() == 0;
+                    }
+                } finally {
+                    m_writeLock.unlock();
+                }
+            }
+            return segment.m_objectReadIndex >= segment.getNumEntries();
+        } finally {
+            m_readLock.unlock();
         }
-        return segment.m_objectReadIndex >= segment.getNumEntries();
     }
 
     @Override
@@ -561,21 +1009,39 @@ public class PersistentBinaryDeque implements BinaryDeque {
     }
 
     @Override
-    public synchronized void closeAndDelete() throws IOException {
-        m_writeSegment.closeAndDelete();
-        for (DequeSegment ds : m_finishedSegments.values()) {
-            ds.closeAndDelete();
+    public void closeAndDelete() throws IOException {
+        m_readLock.lock();
+        m_writeLock.lock();
+        try {
+            m_writeSegment.closeAndDelete();
+            for (DequeSegment ds : m_finishedSegments.values()) {
+                ds.closeAndDelete();
+            }
+        } finally {
+            m_writeLock.unlock();
+            m_readLock.unlock();
         }
     }
 
     @Override
-    public synchronized void parseAndTruncate(BinaryDequeTruncator truncator) throws IOException {
+    public void parseAndTruncate(BinaryDequeTruncator truncator) throws IOException {
+        m_readLock.lock();
+        m_writeLock.lock();
+        try {
+            parseAndTruncateLocked(truncator);
+        } finally {
+            m_writeLock.unlock();
+            m_readLock.unlock();
+        }
+    }
+
+    private void parseAndTruncateLocked(BinaryDequeTruncator truncator) throws IOException {
         if (m_finishedSegments.isEmpty()) {
             exportLog.debug("PBD " + m_nonce + " has no finished segments");
             return;
         }
         //+16 because I am not sure if the max chunk size is enforced right
-        ByteBuffer readBuffer = ByteBuffer.allocateDirect(DequeSegment.m_chunkSize + 16);
+        ByteBuffer readBuffer = ByteBuffer.allocateDirect(m_chunkSize + 16);
 
         /*
          * Iterator all the objects in all the segments and pass them to the truncator
@@ -586,6 +1052,10 @@ public class PersistentBinaryDeque implements BinaryDeque {
             readBuffer.clear();
             DequeSegment segment = entry.getValue();
             long segmentIndex = entry.getKey();
+            //Nothing has been polled yet, drop any view of the file the segment
+            //has because the file may be rewritten below
+            assert(segment.m_objectReadIndex == 0);
+            segment.close();
 
             File segmentFile = segment.m_file;
             RandomAccessFile ras = new RandomAccessFile(segmentFile, "rw");
@@ -717,10 +1187,7 @@ public class PersistentBinaryDeque implements BinaryDeque {
             writeSegmentIndex = m_finishedSegments.lastKey() + 1;
         } catch (NoSuchElementException e) {}
 
-        m_writeSegment =
-            new DequeSegment(
-                    writeSegmentIndex,
-                    new VoltFile(m_path, m_nonce + "." + writeSegmentIndex + ".pbd"));
+        m_writeSegment = newSegment(writeSegmentIndex);
         m_writeSegment.open();
         m_writeSegment.initNumEntries();
         if (m_finishedSegments.isEmpty()) {
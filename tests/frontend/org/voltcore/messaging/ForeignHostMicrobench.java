@@ -0,0 +1,222 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltcore.messaging;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.voltdb.ClientResponseImpl;
+import org.voltdb.StoredProcedureInvocation;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.messaging.FragmentTaskMessage;
+import org.voltdb.messaging.InitiateResponseMessage;
+import org.voltdb.messaging.InitiateTaskMessage;
+import org.voltdb.messaging.VoltDbMessageFactory;
+
+/**
+ * Measures time and bytes allocated per message for a ForeignHost round trip of
+ * FragmentTaskMessage and InitiateResponseMessage: framing the message into a direct
+ * network buffer the way NIOWriteStream does and decoding it the way handleRead does.
+ * Compares ForeignHost.MessageFrame with the previous framing, which serialized into a
+ * new HeapByteBuffer that was then copied into the network buffer, and decoded the
+ * destinations into a new long[].
+ * Allocation is read from the HotSpot per thread allocation counter and includes the
+ * decoded message itself, which both paths must create.
+ */
+public class ForeignHostMicrobench {
+
+    static abstract class Runner {
+        final String m_name;
+        Runner(String name) {
+            m_name = name;
+        }
+        // returns a value that depends on every message so the JIT can't drop the work
+        public abstract long run() throws Exception;
+    };
+
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static final VoltMessageFactory factory = new VoltDbMessageFactory();
+    // stands in for a pooled network buffer
+    static final ByteBuffer network = ByteBuffer.allocateDirect(1024 * 32);
+
+    static ByteBuffer legacyFrame(List<Long> destinations, VoltMessage message) throws Exception {
+        int len = 4 + 8 + 4 + 8 * destinations.size() + message.getSerializedSize();
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        buf.putInt(len - 4);
+        buf.putLong(message.m_sourceHSId);
+        buf.putInt(destinations.size());
+        for (int ii = 0; ii < destinations.size(); ii++) {
+            buf.putLong(destinations.get(ii));
+        }
+        message.flattenToBuffer(buf);
+        buf.flip();
+        return buf;
+    }
+
+    static long legacyDecode(ByteBuffer in) throws Exception {
+        final long sourceHSId = in.getLong();
+        final int destCount = in.getInt();
+        long recvDests[] = new long[destCount];
+        for (int i = 0; i < destCount; i++) {
+            recvDests[i] = in.getLong();
+        }
+        VoltMessage message = factory.createMessageFromBuffer(in, sourceHSId);
+        long sum = message.getSubject();
+        for (int i = 0; i < destCount; i++) {
+            sum += recvDests[i];
+        }
+        return sum;
+    }
+
+    static long frameDecode(ByteBuffer in) throws Exception {
+        final long sourceHSId = in.getLong();
+        final int destCount = in.getInt();
+        final int destsPosition = in.position();
+        in.position(destsPosition + 8 * destCount);
+        VoltMessage message = factory.createMessageFromBuffer(in, sourceHSId);
+        long sum = message.getSubject();
+        for (int i = 0; i < destCount; i++) {
+            sum += in.getLong(destsPosition + 8 * i);
+        }
+        return sum;
+    }
+
+    static long legacyRoundTrip(List<Long> destinations, VoltMessage message) throws Exception {
+        network.clear();
+        network.put(legacyFrame(destinations, message));
+        network.flip();
+        network.getInt();
+        return legacyDecode(network);
+    }
+
+    static long frameRoundTrip(ForeignHost.MessageFrame frame) throws Exception {
+        network.clear();
+        frame.serialize(network);
+        network.flip();
+        network.getInt();
+        return frameDecode(network);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = 1000000;
+        if (args.length >= 1) {
+            iterations = Integer.parseInt(args[0]);
+        }
+        final int count = iterations;
+
+        final FragmentTaskMessage fragment = new FragmentTaskMessage(9, 70654312, -75, 99, true, true, false);
+        ByteBuffer params = ByteBuffer.allocate(64);
+        params.putLong(1234);
+        params.flip();
+        fragment.addFragment(5, 12, params);
+        fragment.addFragment(10, 24, params.duplicate());
+        fragment.m_sourceHSId = 9;
+
+        StoredProcedureInvocation spi = new StoredProcedureInvocation();
+        spi.setClientHandle(25);
+        spi.setProcName("Vote");
+        spi.setParams(57, "phone number");
+        InitiateTaskMessage task = new InitiateTaskMessage(23, 8, 100045, true, false, spi, 2101);
+        VoltTable table = new VoltTable(new VoltTable.ColumnInfo("result", VoltType.BIGINT));
+        table.addRow(1);
+        final InitiateResponseMessage response = new InitiateResponseMessage(task);
+        response.setResults(new ClientResponseImpl(ClientResponse.SUCCESS,
+                new VoltTable[] { table }, null));
+        response.m_sourceHSId = 23;
+
+        final List<Long> fragmentDests = new ArrayList<Long>();
+        fragmentDests.add(1L << 32);
+        fragmentDests.add(2L << 32);
+        fragmentDests.add(3L << 32);
+        final List<Long> responseDests = new ArrayList<Long>();
+        responseDests.add(8L);
+
+        final Runner runners[] = new Runner[] {
+            new Runner("FragmentTaskMessage x3 heap frame") {
+                @Override
+                public long run() throws Exception {
+                    long sum = 0;
+                    for (int i = 0; i < count; i++) {
+                        sum += legacyRoundTrip(fragmentDests, fragment);
+                    }
+                    return sum;
+                }
+            },
+            new Runner("FragmentTaskMessage x3 MessageFrame") {
+                @Override
+                public long run() throws Exception {
+                    long sum = 0;
+                    for (int i = 0; i < count; i++) {
+                        sum += frameRoundTrip(new ForeignHost.MessageFrame(fragmentDests, fragment));
+                    }
+                    return sum;
+                }
+            },
+            new Runner("InitiateResponseMessage heap frame") {
+                @Override
+                public long run() throws Exception {
+                    long sum = 0;
+                    for (int i = 0; i < count; i++) {
+                        sum += legacyRoundTrip(responseDests, response);
+                    }
+                    return sum;
+                }
+            },
+            new Runner("InitiateResponseMessage MessageFrame") {
+                @Override
+                public long run() throws Exception {
+                    long sum = 0;
+                    for (int i = 0; i < count; i++) {
+                        sum += frameRoundTrip(new ForeignHost.MessageFrame(8L, response));
+                    }
+                    return sum;
+                }
+            }
+        };
+
+        long blackhole = 0;
+        for (Runner runner : runners) {
+            // warm up so the JIT has a chance to eliminate what it can
+            blackhole += runner.run();
+
+            final long startBytes = allocatedBytes();
+            final long startTime = System.nanoTime();
+            blackhole += runner.run();
+            final long time = System.nanoTime() - startTime;
+            final long bytes = allocatedBytes() - startBytes;
+
+            System.out.println(runner.m_name + ": " +
+                    (bytes / (double)count) + " bytes/message, " +
+                    (time / (double)count) + " ns/message");
+        }
+        System.out.println("(" + blackhole + ")");
+    }
+}
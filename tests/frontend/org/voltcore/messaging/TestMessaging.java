@@ -26,12 +26,17 @@ package org.voltcore.messaging;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.voltcore.utils.Pair;
 import org.voltcore.utils.PortGenerator;
 
 import junit.framework.TestCase;
@@ -462,6 +467,277 @@ public class TestMessaging extends TestCase {
         msg3.shutdown();
     }
 
+    public void testMultipleConnectionsPerHost() throws Exception {
+        final int connectionsPerHost = 3;
+        HostMessenger messengers[] = new HostMessenger[3];
+        for (int i = 0; i < messengers.length; i++) {
+            HostMessenger.Config config = getConfig();
+            config.connectionsPerHost = connectionsPerHost;
+            messengers[i] = new HostMessenger(config);
+            messengers[i].start();
+        }
+        for (HostMessenger messenger : messengers) {
+            messenger.waitForGroupJoin(messengers.length);
+        }
+
+        // every pair of hosts ends up using all the connections, the accepting
+        // side may attach the joining side's data connections a little later
+        long now = System.currentTimeMillis();
+        for (HostMessenger messenger : messengers) {
+            for (ForeignHost fh : messenger.m_foreignHosts.values()) {
+                while (fh.getConnectionCount() != connectionsPerHost) {
+                    assertTrue((System.currentTimeMillis() - now) < 10000);
+                    Thread.sleep(10);
+                }
+            }
+        }
+
+        Mailbox source = messengers[0].createMailbox();
+        List<Mailbox> destinations = new ArrayList<Mailbox>();
+        for (int i = 1; i < messengers.length; i++) {
+            for (int j = 0; j < connectionsPerHost + 1; j++) {
+                destinations.add(messengers[i].createMailbox());
+            }
+        }
+        long destinationHSIds[] = new long[destinations.size()];
+        for (int i = 0; i < destinationHSIds.length; i++) {
+            destinationHSIds[i] = destinations.get(i).getHSId();
+        }
+
+        // alternate single and multi destination sends, every destination must
+        // see every sequence number in order
+        final int messageCount = 500;
+        for (int seq = 0; seq < messageCount; seq++) {
+            MsgTest mt = new MsgTest();
+            mt.m_localValue = ByteBuffer.allocate(4).putInt(seq).array();
+            if (seq % 2 == 0) {
+                source.send(destinationHSIds, mt);
+            } else {
+                for (long hsId : destinationHSIds) {
+                    source.send(hsId, mt);
+                }
+            }
+        }
+
+        now = System.currentTimeMillis();
+        for (Mailbox mb : destinations) {
+            int expected = 0;
+            while (expected < messageCount) {
+                assertTrue((System.currentTimeMillis() - now) < 10000);
+                MsgTest mt = (MsgTest) mb.recv();
+                if (mt == null) {
+                    Thread.yield();
+                    continue;
+                }
+                assertEquals(expected++, ByteBuffer.wrap(mt.m_localValue).getInt());
+            }
+        }
+
+        // each connection is its own port, so each one gets its own row of counters
+        Map<Long, Pair<String, long[]>> stats = messengers[0].getNetwork().getIOStats(false);
+        assertTrue(stats.size() - 1 >= (messengers.length - 1) * connectionsPerHost);
+
+        for (HostMessenger messenger : messengers) {
+            messenger.shutdown();
+        }
+    }
+
+    public void testMessageFrameSharesBuffer() throws Exception {
+        final VoltMessageFactory factory = new VoltMessageFactory();
+        final ByteBuffer pooled = ByteBuffer.allocateDirect(1024);
+        // something already queued ahead of the frames
+        pooled.putInt(42);
+
+        List<Long> destinations = new ArrayList<Long>();
+        destinations.add(7L);
+        destinations.add(9L);
+        HeartbeatMessage first = new HeartbeatMessage(3, 100, 99);
+        first.m_sourceHSId = 11;
+        HeartbeatMessage second = new HeartbeatMessage(4, 200, 199);
+        second.m_sourceHSId = 12;
+
+        ForeignHost.MessageFrame frames[] = new ForeignHost.MessageFrame[] {
+                new ForeignHost.MessageFrame(destinations, first),
+                new ForeignHost.MessageFrame(5L, second) };
+        for (ForeignHost.MessageFrame frame : frames) {
+            final int start = pooled.position();
+            frame.serialize(pooled);
+            assertEquals(frame.getSerializedSize(), pooled.position() - start);
+        }
+
+        // the heap fallback produces the same bytes
+        ByteBuffer heap = frames[0].serialize()[0];
+        assertEquals(heap.limit(), heap.capacity());
+        assertEquals(frames[0].getSerializedSize(), heap.remaining());
+
+        pooled.flip();
+        assertEquals(42, pooled.getInt());
+        for (int ii = 0; ii < frames.length; ii++) {
+            final int length = pooled.getInt();
+            if (ii == 0) {
+                ByteBuffer framed = pooled.duplicate();
+                framed.limit(framed.position() + length);
+                heap.position(4);
+                assertEquals(heap, framed);
+            }
+            ByteBuffer in = pooled.slice();
+            in.limit(length);
+            pooled.position(pooled.position() + length);
+
+            final long source = in.getLong();
+            final int destCount = in.getInt();
+            long dests[] = new long[destCount];
+            for (int jj = 0; jj < destCount; jj++) {
+                dests[jj] = in.getLong();
+            }
+            HeartbeatMessage msg = (HeartbeatMessage)factory.createMessageFromBuffer(in, source);
+            if (ii == 0) {
+                assertEquals(11, msg.m_sourceHSId);
+                assertEquals(2, destCount);
+                assertEquals(7, dests[0]);
+                assertEquals(9, dests[1]);
+                assertEquals(99, msg.getLastSafeTxnId());
+            } else {
+                assertEquals(12, msg.m_sourceHSId);
+                assertEquals(1, destCount);
+                assertEquals(5, dests[0]);
+                assertEquals(199, msg.getLastSafeTxnId());
+            }
+        }
+        assertFalse(pooled.hasRemaining());
+    }
+
+    /*
+     * Holds on to the data connections opened by joining hosts until
+     * attachHeldDataConnections is called
+     */
+    private static class HoldingHostMessenger extends HostMessenger {
+        private final List<Pair<Integer, SocketChannel>> m_held =
+            new ArrayList<Pair<Integer, SocketChannel>>();
+
+        HoldingHostMessenger(Config config) {
+            super(config);
+        }
+
+        @Override
+        public void notifyOfDataConnection(int hostId, SocketChannel socket) {
+            synchronized (m_held) {
+                m_held.add(Pair.of(hostId, socket));
+            }
+        }
+
+        int getHeldDataConnectionCount() {
+            synchronized (m_held) {
+                return m_held.size();
+            }
+        }
+
+        void attachHeldDataConnections() {
+            synchronized (m_held) {
+                for (Pair<Integer, SocketChannel> held : m_held) {
+                    super.notifyOfDataConnection(held.getFirst(), held.getSecond());
+                }
+                m_held.clear();
+            }
+        }
+    }
+
+    public void testOrderingAcrossDataConnectionAttach() throws Exception {
+        final int connectionsPerHost = 3;
+        HostMessenger messengers[] = new HostMessenger[2];
+        try {
+            for (int i = 0; i < messengers.length; i++) {
+                HostMessenger.Config config = getConfig();
+                config.connectionsPerHost = connectionsPerHost;
+                messengers[i] = i == 0 ? new HoldingHostMessenger(config) : new HostMessenger(config);
+                messengers[i].start();
+            }
+            for (HostMessenger messenger : messengers) {
+                messenger.waitForGroupJoin(messengers.length);
+            }
+
+            // the leader accepts the joiner's data connections, they are held back
+            // so the leader has to send while only the primary connection is up
+            HoldingHostMessenger leader = (HoldingHostMessenger)messengers[0];
+            ForeignHost fh = leader.m_foreignHosts.get(messengers[1].getHostId());
+            long now = System.currentTimeMillis();
+            while (leader.getHeldDataConnectionCount() != connectionsPerHost - 1) {
+                assertTrue((System.currentTimeMillis() - now) < 10000);
+                Thread.sleep(10);
+            }
+            assertEquals(1, fh.getConnectionCount());
+
+            Mailbox source = messengers[0].createMailbox();
+            List<Mailbox> destinations = new ArrayList<Mailbox>();
+            for (int j = 0; j < connectionsPerHost + 1; j++) {
+                destinations.add(messengers[1].createMailbox());
+            }
+            long destinationHSIds[] = new long[destinations.size()];
+            for (int i = 0; i < destinationHSIds.length; i++) {
+                destinationHSIds[i] = destinations.get(i).getHSId();
+            }
+
+            // send half before and half after the data connections are attached
+            final int messageCount = 1000;
+            for (int seq = 0; seq < messageCount; seq++) {
+                if (seq == messageCount / 2) {
+                    leader.attachHeldDataConnections();
+                    assertEquals(connectionsPerHost, fh.getConnectionCount());
+                }
+                MsgTest mt = new MsgTest();
+                mt.m_localValue = ByteBuffer.allocate(4).putInt(seq).array();
+                if (seq % 2 == 0) {
+                    source.send(destinationHSIds, mt);
+                } else {
+                    for (long hsId : destinationHSIds) {
+                        source.send(hsId, mt);
+                    }
+                }
+            }
+
+            now = System.currentTimeMillis();
+            for (Mailbox mb : destinations) {
+                int expected = 0;
+                while (expected < messageCount) {
+                    assertTrue((System.currentTimeMillis() - now) < 10000);
+                    MsgTest mt = (MsgTest) mb.recv();
+                    if (mt == null) {
+                        Thread.yield();
+                        continue;
+                    }
+                    assertEquals(expected++, ByteBuffer.wrap(mt.m_localValue).getInt());
+                }
+            }
+        } finally {
+            for (HostMessenger messenger : messengers) {
+                if (messenger != null) {
+                    messenger.shutdown();
+                }
+            }
+        }
+    }
+
+    public void testMismatchedConnectionsPerHostIsRejected() throws Exception {
+        HostMessenger.Config config = getConfig();
+        config.connectionsPerHost = 3;
+        HostMessenger leader = new HostMessenger(config);
+        leader.start();
+        try {
+            config = getConfig();
+            config.connectionsPerHost = 2;
+            HostMessenger joiner = new HostMessenger(config);
+            try {
+                joiner.start();
+                fail("joined a cluster using a different number of connections per host");
+            } catch (RuntimeException e) {
+                assertTrue(e.getCause().getMessage().contains("connectionsPerHost"));
+            }
+            assertTrue(leader.m_foreignHosts.isEmpty());
+        } finally {
+            leader.shutdown();
+        }
+    }
+
     /*public void testForStress1() {
         final int siteCount = 3;
 
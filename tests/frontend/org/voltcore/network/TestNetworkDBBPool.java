@@ -0,0 +1,109 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltcore.network;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.voltcore.utils.DBBPool.BBContainer;
+
+public class TestNetworkDBBPool extends TestCase {
+
+    public void testSizeClasses() {
+        NetworkDBBPool pool = new NetworkDBBPool();
+        BBContainer small = pool.acquire();
+        assertEquals(NetworkDBBPool.BUFFER_SIZE, small.b.capacity());
+        BBContainer medium = pool.acquire(NetworkDBBPool.BUFFER_SIZE + 1);
+        assertEquals(NetworkDBBPool.SIZE_CLASSES[1], medium.b.capacity());
+        BBContainer large = pool.acquire(NetworkDBBPool.MAX_BUFFER_SIZE);
+        assertEquals(NetworkDBBPool.MAX_BUFFER_SIZE, large.b.capacity());
+        assertNull(pool.acquire(NetworkDBBPool.MAX_BUFFER_SIZE + 1));
+
+        small.discard();
+        medium.discard();
+        large.discard();
+        assertEquals(NetworkDBBPool.BUFFER_SIZE + NetworkDBBPool.SIZE_CLASSES[1] +
+                NetworkDBBPool.MAX_BUFFER_SIZE, pool.getPooledBytes());
+
+        // a returned buffer is reused by its own size class
+        BBContainer again = pool.acquire(NetworkDBBPool.BUFFER_SIZE + 1);
+        assertSame(medium.b, again.b);
+        again.discard();
+        pool.clear();
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+    public void testHighWaterMark() {
+        NetworkDBBPool pool = new NetworkDBBPool(NetworkDBBPool.BUFFER_SIZE * 4);
+        List<BBContainer> buffers = new ArrayList<BBContainer>();
+        for (int ii = 0; ii < 10; ii++) {
+            buffers.add(pool.acquire());
+        }
+        for (BBContainer cont : buffers) {
+            cont.discard();
+        }
+        // only the buffers under the high-water mark are kept
+        assertEquals(NetworkDBBPool.BUFFER_SIZE * 4, pool.getPooledBytes());
+        pool.clear();
+    }
+
+    public void testTrimReleasesIdleBuffers() {
+        NetworkDBBPool pool = new NetworkDBBPool();
+        List<BBContainer> buffers = new ArrayList<BBContainer>();
+        for (int ii = 0; ii < 8; ii++) {
+            buffers.add(pool.acquire());
+        }
+        for (BBContainer cont : buffers) {
+            cont.discard();
+        }
+        assertEquals(NetworkDBBPool.BUFFER_SIZE * 8, pool.getPooledBytes());
+
+        // first trim only starts tracking the spike's buffers
+        pool.trim();
+        assertEquals(NetworkDBBPool.BUFFER_SIZE * 8, pool.getPooledBytes());
+
+        // steady load of two buffers, the rest decays by half each period
+        for (int period = 0; period < 3; period++) {
+            BBContainer a = pool.acquire();
+            BBContainer b = pool.acquire();
+            a.discard();
+            b.discard();
+            pool.trim();
+        }
+        // 8 -> 5 -> 3 -> 2
+        assertEquals(NetworkDBBPool.BUFFER_SIZE * 2, pool.getPooledBytes());
+
+        // the two buffers in use every period are never trimmed
+        for (int period = 0; period < 5; period++) {
+            BBContainer a = pool.acquire();
+            BBContainer b = pool.acquire();
+            a.discard();
+            b.discard();
+            pool.trim();
+        }
+        assertEquals(NetworkDBBPool.BUFFER_SIZE * 2, pool.getPooledBytes());
+        pool.clear();
+    }
+}
@@ -0,0 +1,180 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltcore.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.voltcore.utils.Pair;
+
+public class TestVoltNetworkPool extends TestCase {
+
+    /** Echoes every message back and records which network thread handled it */
+    static class EchoHandler extends VoltProtocolHandler {
+        final LinkedBlockingQueue<Pair<Integer, String>> m_received =
+            new LinkedBlockingQueue<Pair<Integer, String>>();
+
+        @Override
+        public int getMaxRead() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public void handleMessage(ByteBuffer message, Connection c) throws IOException {
+            final int value = message.getInt();
+            m_received.offer(Pair.of(value, Thread.currentThread().getName()));
+            ByteBuffer echo = ByteBuffer.allocate(8);
+            echo.putInt(4);
+            echo.putInt(value);
+            echo.flip();
+            c.writeStream().enqueue(echo);
+        }
+
+        @Override
+        public Runnable offBackPressure() {
+            return new Runnable() {
+                @Override
+                public void run() {}
+            };
+        }
+
+        @Override
+        public Runnable onBackPressure() {
+            return new Runnable() {
+                @Override
+                public void run() {}
+            };
+        }
+
+        @Override
+        public QueueMonitor writestreamMonitor() {
+            return null;
+        }
+    }
+
+    private static void sendAndCheckEchoes(
+            SocketChannel client, EchoHandler handler, int start, int count, String expectedThread)
+            throws Exception {
+        ByteBuffer out = ByteBuffer.allocate(8 * count);
+        for (int ii = start; ii < start + count; ii++) {
+            out.putInt(4);
+            out.putInt(ii);
+        }
+        out.flip();
+        while (out.hasRemaining()) {
+            client.write(out);
+        }
+        for (int ii = start; ii < start + count; ii++) {
+            Pair<Integer, String> received = handler.m_received.poll(10, TimeUnit.SECONDS);
+            assertNotNull(received);
+            assertEquals(ii, received.getFirst().intValue());
+            assertEquals(expectedThread, received.getSecond());
+        }
+        ByteBuffer in = ByteBuffer.allocate(8 * count);
+        while (in.hasRemaining()) {
+            if (client.read(in) < 0) {
+                fail("Connection closed");
+            }
+        }
+        in.flip();
+        for (int ii = start; ii < start + count; ii++) {
+            assertEquals(4, in.getInt());
+            assertEquals(ii, in.getInt());
+        }
+    }
+
+    public void testMigrateConnection() throws Exception {
+        VoltNetworkPool pool = new VoltNetworkPool(2);
+        pool.start();
+        ServerSocketChannel listener = ServerSocketChannel.open();
+        listener.socket().bind(new InetSocketAddress("localhost", 0));
+        SocketChannel client = SocketChannel.open(
+                new InetSocketAddress("localhost", listener.socket().getLocalPort()));
+        SocketChannel server = listener.accept();
+        try {
+            EchoHandler handler = new EchoHandler();
+            Connection c = pool.registerChannel(server, handler);
+
+            Map<Long, Pair<String, long[]>> stats = pool.getIOStats(false);
+            final int firstThread = (int)stats.get(c.connectionId()).getSecond()[VoltNetworkPool.IOSTATS_NETWORK_THREAD];
+            sendAndCheckEchoes(client, handler, 0, 100, "Volt Network - " + firstThread);
+
+            final int secondThread = 1 - firstThread;
+            assertTrue(pool.migrateConnection(c.connectionId(), secondThread));
+            // already there
+            assertFalse(pool.migrateConnection(c.connectionId(), secondThread));
+            sendAndCheckEchoes(client, handler, 100, 100, "Volt Network - " + secondThread);
+
+            // the counters moved with the connection
+            stats = pool.getIOStats(false);
+            long counters[] = stats.get(c.connectionId()).getSecond();
+            assertEquals(200, counters[1]);
+            assertEquals(200 * 8, counters[2]);
+            assertEquals(secondThread, counters[VoltNetworkPool.IOSTATS_NETWORK_THREAD]);
+            assertEquals(1, counters[VoltNetworkPool.IOSTATS_MIGRATIONS]);
+            assertTrue(counters[VoltNetworkPool.IOSTATS_HANDLER_MICROS] > 0);
+            assertEquals(-1, stats.get(-1L).getSecond()[VoltNetworkPool.IOSTATS_NETWORK_THREAD]);
+
+            // and back again, tasks and unregistration follow the connection
+            assertTrue(pool.migrateConnection(c.connectionId(), firstThread));
+            final LinkedBlockingQueue<String> taskThread = new LinkedBlockingQueue<String>();
+            c.queueTask(new Runnable() {
+                @Override
+                public void run() {
+                    taskThread.offer(Thread.currentThread().getName());
+                }
+            });
+            assertEquals("Volt Network - " + firstThread, taskThread.poll(10, TimeUnit.SECONDS));
+            sendAndCheckEchoes(client, handler, 200, 100, "Volt Network - " + firstThread);
+
+            c.unregister().get();
+            assertFalse(pool.getIOStats(false).containsKey(c.connectionId()));
+        } finally {
+            client.close();
+            server.close();
+            listener.close();
+            pool.shutdown();
+        }
+    }
+
+    public void testNetworkLoads() throws Exception {
+        VoltNetworkPool pool = new VoltNetworkPool(3);
+        List<long[]> loads = pool.getNetworkLoads();
+        assertEquals(3, loads.size());
+        for (long load[] : loads) {
+            assertEquals(4, load.length);
+            assertEquals(0, load[0]);
+        }
+        // nothing to balance between idle threads
+        pool.balance();
+    }
+}
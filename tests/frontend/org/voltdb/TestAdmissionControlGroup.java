@@ -30,6 +30,15 @@ public class TestAdmissionControlGroup extends TestCase {
     private static class ACGMember implements AdmissionControlGroup.ACGMember {
         private int onBackpressure = 0;
         private int offBackpressure = 0;
+        private final long connectionId;
+
+        ACGMember() {
+            this(32);
+        }
+
+        ACGMember(long connectionId) {
+            this.connectionId = connectionId;
+        }
 
         @Override
         public void onBackpressure() {
@@ -43,103 +52,238 @@ public class TestAdmissionControlGroup extends TestCase {
 
         @Override
         public long connectionId() {
-            return 32;
+            return connectionId;
         }
 
     }
 
     private AdmissionControlGroup acg;
     private ACGMember member;
+    private AdmissionControlGroup.Member m;
 
     @Override
     public void setUp() {
         acg = new AdmissionControlGroup(1024 * 1024 * 8, 1000);
         member = new ACGMember();
-        acg.addMember(member);
+        m = acg.addMember(member, "user", false);
     }
 
     public void testBackpressureViaQueue() {
-        acg.queue(1024 * 1024 * 8 + 1);
+        m.queue(1024 * 1024 * 8 + 1);
         assertEquals(1, member.onBackpressure);
-        assertTrue(acg.hasBackPressure());
+        assertTrue(m.hasBackPressure());
 
         //For the condition to end it has to go to less .8 of max
-        acg.queue(-10);
+        m.queue(-10);
         assertEquals(0, member.offBackpressure);
-        assertTrue(acg.hasBackPressure());
-        acg.queue(-1024 * 1024 * 2);
+        assertTrue(m.hasBackPressure());
+        m.queue(-1024 * 1024 * 2);
         assertEquals(1, member.offBackpressure);
-        assertFalse(acg.hasBackPressure());
+        assertFalse(m.hasBackPressure());
     }
 
     public void testBackpressureViaQueueAndIncrease() {
-        acg.queue(1024 * 1024 * 4 + 1);
+        m.queue(1024 * 1024 * 4 + 1);
         assertEquals(0, member.onBackpressure);
-        assertFalse(acg.hasBackPressure());
-        acg.increaseBackpressure(1024 * 1024 * 4);
+        assertFalse(m.hasBackPressure());
+        m.increaseBackpressure(1024 * 1024 * 4);
         assertEquals(1, member.onBackpressure);
-        assertTrue(acg.hasBackPressure());
-        acg.increaseBackpressure(1024 * 1024 * 1);
+        assertTrue(m.hasBackPressure());
+        m.increaseBackpressure(1024 * 1024 * 1);
 
         //Shouldn't signal backpressure twice, it's edge triggered
         assertEquals(1, member.onBackpressure);
 
-        acg.reduceBackpressure(1024 * 1024 * 5);
+        m.reduceBackpressure(1024 * 1024 * 5);
         assertEquals(1, member.offBackpressure);
-        assertFalse(acg.hasBackPressure());
+        assertFalse(m.hasBackPressure());
 
         //Again, it's edge triggered, should still be one
-        acg.reduceBackpressure(1);
+        m.reduceBackpressure(1);
         assertEquals(1, member.offBackpressure);
 
         //Should cause backpressure again
-        acg.queue(1024 * 1024 * 5);
-        assertTrue(acg.hasBackPressure());
+        m.queue(1024 * 1024 * 5);
+        assertTrue(m.hasBackPressure());
         assertEquals(2, member.onBackpressure);
 
         //Remove the member, shouldn't get backpressure notification
-        acg.removeMember(member);
-        acg.queue(-1024 * 1024 * 5);
+        acg.removeMember(m);
+        m.queue(-1024 * 1024 * 5);
         assertFalse(acg.hasBackPressure());
         assertEquals(1, member.offBackpressure);
     }
 
     public void testNegativeTxnBytes() {
-        acg.queue(1024 * 1024 * -9);
+        m.queue(1024 * 1024 * -9);
         assertEquals(0, member.offBackpressure);
         assertEquals(0, member.onBackpressure);
 
         //The negative thing should have normalized to 0
-        acg.queue(1024 * 1024 * 8 + 1);
+        m.queue(1024 * 1024 * 8 + 1);
         assertEquals(1, member.onBackpressure);
     }
 
     public void testNegativeTxnCount() {
-        acg.reduceBackpressure(1);
-        acg.reduceBackpressure(1);
-        acg.reduceBackpressure(1);
-        acg.reduceBackpressure(1);
+        m.reduceBackpressure(1);
+        m.reduceBackpressure(1);
+        m.reduceBackpressure(1);
+        m.reduceBackpressure(1);
         for (int ii = 0; ii < 1001; ii++) {
-            acg.increaseBackpressure(1);
+            m.increaseBackpressure(1);
         }
-        assertTrue(acg.hasBackPressure());
+        assertTrue(m.hasBackPressure());
         assertEquals(1, member.onBackpressure);
         assertEquals(0, member.offBackpressure);
         for (int ii = 0; ii < 1001; ii++) {
-            acg.reduceBackpressure(1);
+            m.reduceBackpressure(1);
         }
-        assertFalse(acg.hasBackPressure());
+        assertFalse(m.hasBackPressure());
         assertEquals(1, member.offBackpressure);
 
     }
 
     public void testArgs() {
         try {
-            acg.increaseBackpressure(-1);
+            m.increaseBackpressure(-1);
             fail();
         } catch (IllegalArgumentException e) {}
         try {
-            acg.reduceBackpressure(-1);
+            m.reduceBackpressure(-1);
         } catch (IllegalArgumentException e) {}
     }
+
+    public void testFairShare() {
+        ACGMember lightMember = new ACGMember(33);
+        AdmissionControlGroup.Member light = acg.addMember(lightMember, "user", false);
+
+        //A few transactions from the light member
+        for (int ii = 0; ii < 10; ii++) {
+            light.increaseBackpressure(100);
+        }
+
+        //The flooder gets throttled once the group is over the limit
+        for (int ii = 0; ii < 991; ii++) {
+            m.increaseBackpressure(100);
+        }
+        assertTrue(acg.hasBackPressure());
+        assertEquals(1, member.onBackpressure);
+        assertTrue(m.hasBackPressure());
+
+        //but the light member is under its share and keeps reading
+        light.increaseBackpressure(100);
+        assertEquals(0, lightMember.onBackpressure);
+        assertFalse(light.hasBackPressure());
+
+        //The flooder resumes once the group is under .8 of the limit
+        for (int ii = 0; ii < 201; ii++) {
+            m.reduceBackpressure(100);
+        }
+        assertEquals(0, member.offBackpressure);
+        m.reduceBackpressure(100);
+        assertEquals(1, member.offBackpressure);
+        assertFalse(m.hasBackPressure());
+    }
+
+    public void testAdminWeight() {
+        ACGMember adminMember = new ACGMember(33);
+        AdmissionControlGroup.Member admin = acg.addMember(adminMember, "admin", true);
+        for (int ii = 0; ii < 1001; ii++) {
+            admin.increaseBackpressure(1);
+        }
+        //The admin's share is 4/5 of the limit, so it is throttled
+        assertEquals(1, adminMember.onBackpressure);
+        m.increaseBackpressure(1);
+        assertEquals(0, member.onBackpressure);
+    }
+
+    public void testUserQuota() {
+        acg = new AdmissionControlGroup(1024 * 1024 * 8, 1000, 100);
+        ACGMember otherMember = new ACGMember(33);
+        ACGMember otherUserMember = new ACGMember(34);
+        m = acg.addMember(member, "user", false);
+        AdmissionControlGroup.Member other = acg.addMember(otherMember, "user", false);
+        AdmissionControlGroup.Member otherUser = acg.addMember(otherUserMember, "other", false);
+
+        for (int ii = 0; ii < 100; ii++) {
+            m.increaseBackpressure(1);
+        }
+        assertEquals(0, member.onBackpressure);
+
+        //The quota is shared by the connections of the user
+        other.increaseBackpressure(1);
+        assertEquals(1, otherMember.onBackpressure);
+        assertFalse(acg.hasBackPressure());
+
+        //Other users are unaffected
+        otherUser.increaseBackpressure(1);
+        assertEquals(0, otherUserMember.onBackpressure);
+
+        //Members whose user goes under the quota are resumed on the next adjustment
+        for (int ii = 0; ii < 21; ii++) {
+            m.reduceBackpressure(1);
+        }
+        assertEquals(0, otherMember.offBackpressure);
+        acg.adjustToSiteQueueDepth(0);
+        assertEquals(1, otherMember.offBackpressure);
+    }
+
+    public void testAdaptiveLimit() {
+        assertEquals(1000, acg.getPendingTxnLimit());
+
+        //Backs off while the site queues are deep, but not below a tenth of the max
+        acg.adjustToSiteQueueDepth(1000);
+        assertEquals(750, acg.getPendingTxnLimit());
+        for (int ii = 0; ii < 100; ii++) {
+            acg.adjustToSiteQueueDepth(1000);
+        }
+        assertEquals(100, acg.getPendingTxnLimit());
+
+        for (int ii = 0; ii < 101; ii++) {
+            m.increaseBackpressure(1);
+        }
+        assertEquals(1, member.onBackpressure);
+
+        //Recovers once the queues drain
+        acg.adjustToSiteQueueDepth(0);
+        assertEquals(150, acg.getPendingTxnLimit());
+        assertEquals(1, member.offBackpressure);
+        for (int ii = 0; ii < 100; ii++) {
+            acg.adjustToSiteQueueDepth(0);
+        }
+        assertEquals(1000, acg.getPendingTxnLimit());
+    }
+
+    public void testDeadThreadStripesArePruned() throws Exception {
+        //Admit more than the group allows on a thread that then exits
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                for (int ii = 0; ii < 1001; ii++) {
+                    m.increaseBackpressure(1);
+                }
+                m.logTransactionCompleted("localhost", "proc", 1, 100, (byte)1);
+            }
+        };
+        t.start();
+        t.join();
+        assertEquals(1, acg.getStripeCount());
+        assertTrue(acg.hasBackPressure());
+
+        //What it left outstanding still counts once its stripe is gone
+        acg.adjustToSiteQueueDepth(0);
+        assertEquals(0, acg.getStripeCount());
+        assertTrue(acg.hasBackPressure());
+        assertEquals(1, acg.getLatencies().getTotalCount());
+
+        //and is released by the thread completing the work
+        for (int ii = 0; ii < 1001; ii++) {
+            m.reduceBackpressure(1);
+        }
+        assertEquals(1, acg.getStripeCount());
+        assertFalse(acg.hasBackPressure());
+        assertEquals(1, member.offBackpressure);
+        acg.pruneStripes();
+        assertEquals(1, acg.getStripeCount());
+    }
 }
@@ -39,6 +39,7 @@ import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.never;
@@ -61,11 +62,13 @@ import org.voltcore.messaging.HostMessenger;
 import org.voltcore.messaging.LocalObjectMessage;
 import org.voltcore.network.Connection;
 import org.voltcore.network.VoltNetworkPool;
+import org.voltcore.network.WriteStream;
 import org.voltdb.ClientInterface.ClientInputHandler;
 import org.voltdb.VoltDB.Configuration;
 import org.voltdb.VoltTable.ColumnInfo;
 import org.voltdb.catalog.Catalog;
 import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ProcedureInvocation;
 import org.voltdb.compiler.AdHocPlannedStatement;
 import org.voltdb.compiler.AdHocPlannedStmtBatch;
 import org.voltdb.compiler.AdHocPlannerWork;
@@ -465,6 +468,109 @@ public class TestClientInterface {
         when(m_volt.getMode()).thenReturn(OperationMode.RUNNING);
     }
 
+    @Test
+    public void testBatchMessage() throws IOException {
+        when(m_initiator.createTransaction(anyLong(), anyString(), anyBoolean(),
+                                           any(StoredProcedureInvocation.class),
+                                           anyBoolean(), anyBoolean(), anyBoolean(),
+                                           any(int[].class), anyInt(), anyObject(),
+                                           anyInt(), anyLong(), anyBoolean())).thenReturn(true);
+
+        ByteBuffer invocations[] = new ByteBuffer[] {
+                createMsg("hello", 1), createMsg("hellooooo", 1), createMsg("hello", 2) };
+        int size = 1 + 4;
+        for (ByteBuffer invocation : invocations) {
+            size += 4 + invocation.remaining();
+        }
+        ByteBuffer msg = ByteBuffer.allocate(size);
+        msg.put(ProcedureInvocation.BATCH_MARKER);
+        msg.putInt(invocations.length);
+        for (ByteBuffer invocation : invocations) {
+            msg.putInt(invocation.remaining());
+            msg.put(invocation);
+        }
+        msg.flip();
+
+        Connection c = mock(Connection.class);
+        WriteStream ws = mock(WriteStream.class);
+        doReturn(ws).when(c).writeStream();
+        ClientInputHandler handler = m_ci.new ClientInputHandler("", "", false);
+        handler.handleMessage(msg, c);
+
+        // Both valid invocations are initiated and the error for the invalid one is returned
+        ArgumentCaptor<StoredProcedureInvocation> invocationCaptor =
+                ArgumentCaptor.forClass(StoredProcedureInvocation.class);
+        verify(m_initiator, times(2)).createTransaction(anyLong(), anyString(), anyBoolean(),
+                                                        invocationCaptor.capture(),
+                                                        anyBoolean(), anyBoolean(), anyBoolean(),
+                                                        any(int[].class), anyInt(), anyObject(),
+                                                        anyInt(), anyLong(), anyBoolean());
+        assertEquals(1, invocationCaptor.getAllValues().get(0).getParameterAtIndex(0));
+        assertEquals(2, invocationCaptor.getAllValues().get(1).getParameterAtIndex(0));
+        ArgumentCaptor<ByteBuffer[]> errorCaptor = ArgumentCaptor.forClass(ByteBuffer[].class);
+        verify(ws).enqueue(errorCaptor.capture());
+        assertEquals(1, errorCaptor.getValue().length);
+    }
+
+    @Test
+    public void testMalformedBatchMessage() throws IOException {
+        ByteBuffer first = createMsg("hello", 1);
+        ByteBuffer second = createMsg("hello", 2);
+        Connection c = mock(Connection.class);
+        WriteStream ws = mock(WriteStream.class);
+        doReturn(ws).when(c).writeStream();
+        ClientInputHandler handler = m_ci.new ClientInputHandler("", "", false);
+
+        // A length running past the end of the message, the intact invocation before it gets an error
+        ByteBuffer msg = ByteBuffer.allocate(1 + 4 + 4 + first.remaining() + 4 + second.remaining());
+        msg.put(ProcedureInvocation.BATCH_MARKER);
+        msg.putInt(2);
+        msg.putInt(first.remaining());
+        msg.put(first);
+        msg.putInt(second.remaining() + 100);
+        msg.put(second);
+        msg.flip();
+        handler.handleMessage(msg, c);
+        ArgumentCaptor<ByteBuffer[]> errorCaptor = ArgumentCaptor.forClass(ByteBuffer[].class);
+        verify(ws).enqueue(errorCaptor.capture());
+        assertEquals(1, errorCaptor.getValue().length);
+        ByteBuffer error = errorCaptor.getValue()[0];
+        error.getInt();
+        ClientResponseImpl response = new ClientResponseImpl();
+        response.initFromBuffer(error);
+        assertEquals(ClientResponse.GRACEFUL_FAILURE, response.getStatus());
+        assertTrue(response.getStatusString().contains("malformed"));
+
+        // Negative and oversized counts and lengths are rejected without reading past the message
+        first.rewind();
+        for (int count : new int[] { -1, Integer.MAX_VALUE }) {
+            msg = ByteBuffer.allocate(1 + 4 + 4 + first.remaining());
+            msg.put(ProcedureInvocation.BATCH_MARKER);
+            msg.putInt(count);
+            msg.putInt(first.remaining());
+            msg.put(first);
+            msg.flip();
+            first.rewind();
+            handler.handleMessage(msg, c);
+        }
+        msg = ByteBuffer.allocate(1 + 4 + 4);
+        msg.put(ProcedureInvocation.BATCH_MARKER);
+        msg.putInt(1);
+        msg.putInt(-5);
+        msg.flip();
+        handler.handleMessage(msg, c);
+        msg = ByteBuffer.allocate(1 + 2);
+        msg.put(ProcedureInvocation.BATCH_MARKER);
+        msg.flip();
+        handler.handleMessage(msg, c);
+
+        verify(m_initiator, never()).createTransaction(anyLong(), anyString(), anyBoolean(),
+                                                       any(StoredProcedureInvocation.class),
+                                                       anyBoolean(), anyBoolean(), anyBoolean(),
+                                                       any(int[].class), anyInt(), anyObject(),
+                                                       anyInt(), anyLong(), anyBoolean());
+    }
+
     @Test
     public void testInvalidProcedure() throws IOException {
         ByteBuffer msg = createMsg("hellooooo", 1);
@@ -0,0 +1,195 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import junit.framework.TestCase;
+
+import org.voltcore.utils.DBBPool;
+import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltdb.DefaultSnapshotDataTarget.WriteLane;
+import org.voltdb.VoltTable.ColumnInfo;
+import org.voltdb.utils.CompressionService;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class TestDefaultSnapshotDataTarget extends TestCase {
+
+    private static final int LANES = 3;
+    private static final int CHUNKS = 100;
+
+    static {
+        System.setProperty("snapshotWriteLanes", Integer.toString(LANES));
+    }
+
+    private final List<File> m_files = new ArrayList<File>();
+
+    @Override
+    public void tearDown() {
+        for (File f : m_files) {
+            f.delete();
+        }
+    }
+
+    private DefaultSnapshotDataTarget createTarget() throws Exception {
+        File f = File.createTempFile("lane", ".vpt");
+        m_files.add(f);
+        VoltTable schema = new VoltTable(new ColumnInfo("VAL", VoltType.INTEGER));
+        return new DefaultSnapshotDataTarget(f, 0, "cluster", "database", "TABLE",
+                LANES, false, Arrays.asList(0, 1, 2), schema, 1);
+    }
+
+    /*
+     * A chunk is the partition id, two CRC placeholders and then a sequence
+     * number followed by padding that varies in length so compression and
+     * write times vary between chunks.
+     */
+    private static Callable<BBContainer> chunk(int partitionId, int sequence) {
+        final ByteBuffer b = ByteBuffer.allocateDirect(12 + 4 + (sequence % 7) * 4096);
+        b.putInt(partitionId);
+        b.putInt(0);
+        b.putInt(0);
+        b.putInt(sequence);
+        while (b.hasRemaining()) {
+            b.put((byte)sequence);
+        }
+        b.flip();
+        return new Callable<BBContainer>() {
+            @Override
+            public BBContainer call() {
+                return DBBPool.wrapBB(b);
+            }
+        };
+    }
+
+    /*
+     * Read back the sequence numbers of every chunk after the header,
+     * checking each was written for the expected partition.
+     */
+    private static List<Integer> readSequences(File f, long headerSize, int partitionId) throws Exception {
+        List<Integer> sequences = new ArrayList<Integer>();
+        FileInputStream fis = new FileInputStream(f);
+        try {
+            FileChannel channel = fis.getChannel();
+            channel.position(headerSize);
+            ByteBuffer prefix = ByteBuffer.allocate(16);
+            while (channel.read(prefix) == 16) {
+                prefix.flip();
+                final int length = prefix.getInt();
+                assertEquals(partitionId, prefix.getInt());
+                prefix.clear();
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                while (payload.hasRemaining()) {
+                    assertTrue(channel.read(payload) > 0);
+                }
+                ByteBuffer data = ByteBuffer.wrap(CompressionService.decompressBytes(payload.array()));
+                sequences.add(data.getInt());
+            }
+        } finally {
+            fis.close();
+        }
+        return sequences;
+    }
+
+    public void testLaneAssignmentIsRoundRobin() throws Exception {
+        List<DefaultSnapshotDataTarget> targets = new ArrayList<DefaultSnapshotDataTarget>();
+        for (int ii = 0; ii < LANES * 2; ii++) {
+            targets.add(createTarget());
+        }
+        final int first = targets.get(0).getWriteLaneId();
+        for (int ii = 0; ii < targets.size(); ii++) {
+            assertEquals((first + ii) % LANES, targets.get(ii).getWriteLaneId());
+        }
+        for (WriteLane lane : DefaultSnapshotDataTarget.getWriteLanes()) {
+            assertEquals(2, lane.getOpenTargets());
+        }
+        for (DefaultSnapshotDataTarget target : targets) {
+            target.close();
+        }
+        for (WriteLane lane : DefaultSnapshotDataTarget.getWriteLanes()) {
+            assertEquals(0, lane.getOpenTargets());
+        }
+    }
+
+    public void testSyncBudgetIsSplitAcrossLanes() {
+        WriteLane lanes[] = DefaultSnapshotDataTarget.getWriteLanes();
+        assertEquals(LANES, lanes.length);
+        for (WriteLane lane : lanes) {
+            assertEquals((1024 * 1024 * 256) / LANES, lane.getSyncBudget());
+        }
+    }
+
+    public void testWritesAreOrderedWithinEachFile() throws Exception {
+        List<DefaultSnapshotDataTarget> targets = new ArrayList<DefaultSnapshotDataTarget>();
+        List<Long> headerSizes = new ArrayList<Long>();
+        for (int ii = 0; ii < LANES; ii++) {
+            targets.add(createTarget());
+            // the header write is synchronous
+            headerSizes.add(m_files.get(ii).length());
+        }
+
+        // interleave the chunks for every file so all the lanes are busy at once
+        List<ListenableFuture<?>> writes = new ArrayList<ListenableFuture<?>>();
+        for (int seq = 0; seq < CHUNKS; seq++) {
+            for (int ii = 0; ii < targets.size(); ii++) {
+                writes.add(targets.get(ii).write(chunk(ii, seq), null));
+            }
+        }
+        for (ListenableFuture<?> write : writes) {
+            write.get();
+        }
+        for (DefaultSnapshotDataTarget target : targets) {
+            assertNull(target.getLastWriteException());
+            target.close();
+        }
+
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int seq = 0; seq < CHUNKS; seq++) {
+            expected.add(seq);
+        }
+        for (int ii = 0; ii < targets.size(); ii++) {
+            assertEquals(expected, readSequences(m_files.get(ii), headerSizes.get(ii), ii));
+        }
+
+        // every lane wrote one file and reports it
+        SnapshotWriteLaneStats stats = new SnapshotWriteLaneStats();
+        Object rows[][] = stats.getStatsRows(false, System.currentTimeMillis());
+        assertEquals(LANES, rows.length);
+        final int writesColumn = stats.columnNameToIndex.get("WRITES");
+        final int openColumn = stats.columnNameToIndex.get("OPEN_TARGETS");
+        for (Object row[] : rows) {
+            assertEquals(0, row[openColumn]);
+            // the header plus every chunk
+            assertEquals((long)(CHUNKS + 1), row[writesColumn]);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestLatencyHistogram extends TestCase {
+
+    // largest relative error allowed by the default precision
+    static final double ERROR = 1.0 / (1 << (LatencyHistogram.DEFAULT_SUB_BUCKET_BITS - 1));
+
+    static void assertWithinPrecision(long expected, long actual) {
+        assertTrue("expected " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= Math.max(1, expected * ERROR));
+    }
+
+    public void testEmpty() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getTotalCount());
+        assertEquals(0, h.getMinValue());
+        assertEquals(0, h.getMaxValue());
+        assertEquals(0, h.getValueAtPercentile(0.99));
+        assertEquals(0.0, h.getMean());
+    }
+
+    public void testSmallValuesAreExact() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int ii = 0; ii < 100; ii++) {
+            h.recordValue(ii);
+        }
+        assertEquals(100, h.getTotalCount());
+        assertEquals(0, h.getMinValue());
+        assertEquals(99, h.getMaxValue());
+        assertEquals(49, h.getValueAtPercentile(0.5));
+        assertEquals(98, h.getValueAtPercentile(0.99));
+        assertEquals(0, h.getValueAtPercentile(0.0));
+        assertEquals(99, h.getValueAtPercentile(1.0));
+        assertEquals(49.5, h.getMean());
+    }
+
+    public void testSubMillisecondPercentiles() {
+        // 99% at ~200us and a 1% tail at ~5ms, the old 1ms buckets put everything
+        // but the tail in bucket 0
+        LatencyHistogram h = new LatencyHistogram();
+        for (int ii = 0; ii < 9900; ii++) {
+            h.recordValue(150 + (ii % 100));
+        }
+        for (int ii = 0; ii < 100; ii++) {
+            h.recordValue(5000 + ii);
+        }
+        assertWithinPrecision(199, h.getValueAtPercentile(0.5));
+        assertWithinPrecision(249, h.getValueAtPercentile(0.99));
+        assertWithinPrecision(5089, h.getValueAtPercentile(0.999));
+        assertEquals(5099, h.getValueAtPercentile(1.0));
+        assertEquals(150, h.getMinValue());
+    }
+
+    public void testPrecisionAcrossRange() {
+        Random r = new Random(0);
+        for (int ii = 0; ii < 10000; ii++) {
+            long value = (long)Math.pow(2, r.nextDouble() * 32);
+            if (value > LatencyHistogram.HIGHEST_TRACKABLE_VALUE) {
+                continue;
+            }
+            LatencyHistogram h = new LatencyHistogram();
+            // the percentile is capped by the max, so record a larger value too
+            h.recordValue(value);
+            h.recordValue(LatencyHistogram.HIGHEST_TRACKABLE_VALUE);
+            assertWithinPrecision(value, h.getValueAtPercentile(0.5));
+        }
+    }
+
+    public void testOutOfRange() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.recordValue(-5);
+        h.recordValue(LatencyHistogram.HIGHEST_TRACKABLE_VALUE * 4);
+        assertEquals(2, h.getTotalCount());
+        assertEquals(0, h.getMinValue());
+        assertEquals(LatencyHistogram.HIGHEST_TRACKABLE_VALUE * 4, h.getMaxValue());
+        assertEquals(LatencyHistogram.HIGHEST_TRACKABLE_VALUE * 4, h.getValueAtPercentile(1.0));
+    }
+
+    public void testBadPercentile() {
+        LatencyHistogram h = new LatencyHistogram();
+        try {
+            h.getValueAtPercentile(1.5);
+            fail();
+        } catch (IllegalArgumentException e) {}
+    }
+
+    public void testAddAndDiff() {
+        Random r = new Random(1);
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        LatencyHistogram all = new LatencyHistogram();
+        for (int ii = 0; ii < 5000; ii++) {
+            long value = r.nextInt(20000);
+            (ii % 2 == 0 ? a : b).recordValue(value);
+            all.recordValue(value);
+        }
+        LatencyHistogram merged = a.copy();
+        merged.add(b);
+        assertEquals(all.getTotalCount(), merged.getTotalCount());
+        assertEquals(all.getMinValue(), merged.getMinValue());
+        assertEquals(all.getMaxValue(), merged.getMaxValue());
+        assertEquals(all.getMean(), merged.getMean());
+        for (double p : new double[] { 0.0, 0.5, 0.9, 0.99, 0.999, 1.0 }) {
+            assertEquals(all.getValueAtPercentile(p), merged.getValueAtPercentile(p));
+        }
+
+        LatencyHistogram older = merged.copy();
+        for (int ii = 0; ii < 1000; ii++) {
+            merged.recordValue(100000 + ii);
+        }
+        LatencyHistogram diff = LatencyHistogram.diff(merged, older);
+        assertEquals(1000, diff.getTotalCount());
+        assertWithinPrecision(100000, diff.getMinValue());
+        assertEquals(100999, diff.getMaxValue());
+        assertWithinPrecision(100499, diff.getValueAtPercentile(0.5));
+
+        try {
+            a.add(new LatencyHistogram(5));
+            fail();
+        } catch (IllegalArgumentException e) {}
+    }
+
+    public void testSerialization() {
+        Random r = new Random(2);
+        LatencyHistogram h = new LatencyHistogram();
+        for (int ii = 0; ii < 5000; ii++) {
+            h.recordValue(r.nextInt(1000000));
+        }
+        LatencyHistogram copy = LatencyHistogram.fromBytes(h.toBytes());
+        assertEquals(h.getTotalCount(), copy.getTotalCount());
+        assertEquals(h.getMinValue(), copy.getMinValue());
+        assertEquals(h.getMaxValue(), copy.getMaxValue());
+        assertEquals(h.getMean(), copy.getMean());
+        for (double p : new double[] { 0.0, 0.5, 0.9, 0.99, 0.999, 1.0 }) {
+            assertEquals(h.getValueAtPercentile(p), copy.getValueAtPercentile(p));
+        }
+
+        LatencyHistogram empty = LatencyHistogram.fromBytes(new LatencyHistogram().toBytes());
+        assertEquals(0, empty.getTotalCount());
+        assertEquals(0, empty.getMaxValue());
+    }
+
+    public void testCountsInRanges() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.recordValue(300);
+        h.recordValue(3200);
+        h.recordValue(3900);
+        h.recordValue(42000);
+        h.recordValue(1000000);
+        long byMs[] = h.getCountsInRanges(1000, 50);
+        assertEquals(1, byMs[0]);
+        assertEquals(2, byMs[3]);
+        assertEquals(1, byMs[41] + byMs[42]);
+        long total = 0;
+        for (long count : byMs) {
+            total += count;
+        }
+        // 1s is past the last range
+        assertEquals(4, total);
+    }
+}
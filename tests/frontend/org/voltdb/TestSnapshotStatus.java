@@ -0,0 +1,130 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import org.voltdb.VoltTable.ColumnInfo;
+import org.voltdb.sysprocs.SnapshotRegistry;
+import org.voltdb.sysprocs.SnapshotRegistry.Snapshot;
+
+public class TestSnapshotStatus extends TestCase {
+
+    private static final long MB = 1024 * 1024;
+
+    @Override
+    public void setUp() {
+        SnapshotRegistry.clear();
+    }
+
+    @Override
+    public void tearDown() {
+        SnapshotRegistry.clear();
+    }
+
+    private static Object column(SnapshotStatus status, Object row[], String name) {
+        ArrayList<ColumnInfo> columns = status.getColumnSchema();
+        for (int ii = 0; ii < columns.size(); ii++) {
+            if (columns.get(ii).name.equals(name)) {
+                return row[ii];
+            }
+        }
+        fail("No column " + name);
+        return null;
+    }
+
+    private static Object[] rowForTable(SnapshotStatus status, String table) {
+        for (Object row[] : status.getStatsRows(false, System.currentTimeMillis())) {
+            if (table.equals(column(status, row, "TABLE"))) {
+                return row;
+            }
+        }
+        fail("No row for table " + table);
+        return null;
+    }
+
+    public void testTypeIsLastColumn() {
+        SnapshotStatus status = new SnapshotStatus();
+        ArrayList<ColumnInfo> columns = status.getColumnSchema();
+        assertEquals(15, columns.size());
+        assertEquals("RESULT", columns.get(columns.size() - 2).name);
+        assertEquals("TYPE", columns.get(columns.size() - 1).name);
+    }
+
+    public void testRestoreInProgress() throws Exception {
+        Snapshot restore = SnapshotRegistry.startRestore(1, "/tmp/restore", "nonce");
+        restore.updateRestoredTable("PARTITIONED", "PARTITIONED-host_0.vpt", MB, null);
+        restore.updateRestoredTable("PARTITIONED", "PARTITIONED-host_0.vpt", MB, null);
+        restore.updateRestoredTable("REPLICATED", "REPLICATED.vpt", MB, null);
+        Thread.sleep(50);
+
+        SnapshotStatus status = new SnapshotStatus();
+        assertEquals(2, status.getStatsRows(false, System.currentTimeMillis()).length);
+
+        Object row[] = rowForTable(status, "PARTITIONED");
+        assertEquals("RESTORE", column(status, row, "TYPE"));
+        assertEquals("/tmp/restore", column(status, row, "PATH"));
+        assertEquals("nonce", column(status, row, "NONCE"));
+        assertEquals("PARTITIONED-host_0.vpt", column(status, row, "FILENAME"));
+        assertEquals(2 * MB, column(status, row, "SIZE"));
+        assertEquals(0L, column(status, row, "END_TIME"));
+        assertEquals("SUCCESS", column(status, row, "RESULT"));
+
+        // Throughput covers every table read so far, 3MB in no more than the time since the start
+        double elapsed = (System.currentTimeMillis() - restore.timeStarted) / 1000.0;
+        double throughput = (Double)column(status, row, "THROUGHPUT");
+        assertTrue(throughput > 0);
+        assertTrue(throughput >= 3 / elapsed);
+    }
+
+    public void testRestoreFinished() throws Exception {
+        Snapshot restore = SnapshotRegistry.startRestore(1, "/tmp/restore", "nonce");
+        restore.updateRestoredTable("GOOD", "GOOD.vpt", 2 * MB, null);
+        restore.updateRestoredTable("BAD", "BAD.vpt", MB, null);
+        restore.updateRestoredTable("BAD", "BAD.vpt", 0, new IOException("CRC mismatch"));
+        // A later chunk doesn't clear the error
+        restore.updateRestoredTable("BAD", "BAD.vpt", MB, null);
+        Thread.sleep(10);
+
+        Snapshot finished = SnapshotRegistry.finishSnapshot(restore);
+        assertTrue(finished.isRestore);
+        assertTrue(finished.timeFinished >= finished.timeStarted);
+        assertEquals(4 * MB, finished.bytesWritten);
+        assertFalse(finished.result);
+        assertEquals(1, SnapshotRegistry.getSnapshotHistory().size());
+
+        SnapshotStatus status = new SnapshotStatus();
+        Object good[] = rowForTable(status, "GOOD");
+        assertEquals("RESTORE", column(status, good, "TYPE"));
+        assertEquals(finished.timeFinished, column(status, good, "END_TIME"));
+        assertEquals("SUCCESS", column(status, good, "RESULT"));
+        assertTrue((Double)column(status, good, "THROUGHPUT") > 0);
+        Object bad[] = rowForTable(status, "BAD");
+        assertEquals(2 * MB, column(status, bad, "SIZE"));
+        assertEquals("FAILURE", column(status, bad, "RESULT"));
+    }
+}
@@ -0,0 +1,182 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import org.voltdb.messaging.TransactionStageTimes;
+import org.voltdb.messaging.TransactionStageTimes.Mark;
+
+public class TestStageLatencyStats extends TestCase {
+
+    private static final long UNSET = Long.MIN_VALUE;
+    private static final long US = 1000;
+    // the leader's clock has nothing to do with the client interface's
+    private static final long LEADER = 5000000000L;
+
+    private StatsAgent m_statsAgent;
+    private StageLatencyStats m_stats;
+
+    @Override
+    public void setUp() {
+        VoltDBInterface volt = mock(VoltDBInterface.class);
+        m_statsAgent = mock(StatsAgent.class);
+        doReturn(m_statsAgent).when(volt).getStatsAgent();
+        VoltDB.replaceVoltDBInstanceForTest(volt);
+        m_stats = new StageLatencyStats(0);
+    }
+
+    @Override
+    public void tearDown() {
+        VoltDB.replaceVoltDBInstanceForTest(null);
+    }
+
+    /*
+     * Build stage times with the given marks in nanoseconds, in Mark order
+     */
+    private static TransactionStageTimes times(long... marks) {
+        assertEquals(Mark.values().length, marks.length);
+        ByteBuffer buf = ByteBuffer.allocate(1 + 8 * marks.length);
+        buf.put((byte)1);
+        for (long mark : marks) {
+            buf.putLong(mark);
+        }
+        buf.flip();
+        return TransactionStageTimes.initFromBuffer(buf);
+    }
+
+    /*
+     * A transaction that took executionMicros to execute. Every other stage takes the same
+     * time in each transaction: 3us deserializing, 1us scheduling, nothing command logging,
+     * 7us queued at the site, 2us replicating, 20us on the network and 4us writing the response.
+     */
+    private static TransactionStageTimes transaction(long executionMicros) {
+        final long dispatched = 3 * US;
+        final long atLeader = (1 + 0 + 7 + executionMicros + 2) * US;
+        final long responseReceived = dispatched + atLeader + 20 * US;
+        return times(
+                0,                                          // RECEIVED
+                dispatched,                                 // DISPATCHED
+                LEADER,                                     // SCHEDULED
+                LEADER + 1 * US,                            // LOGGED
+                LEADER + 1 * US,                            // QUEUED
+                LEADER + 8 * US,                            // STARTED
+                LEADER + (8 + executionMicros) * US,        // EXECUTED
+                LEADER + atLeader,                          // RESPONDED
+                responseReceived,                           // RESPONSE_RECEIVED
+                responseReceived + 4 * US);                 // RESPONSE_WRITTEN
+    }
+
+    private Object[] row(Object rows[][], String stage) {
+        for (Object row[] : rows) {
+            if (stage.equals(row[m_stats.columnNameToIndex.get("STAGE")])) {
+                return row;
+            }
+        }
+        fail("No row for stage " + stage);
+        return null;
+    }
+
+    private long value(Object row[], String column) {
+        return (Long)row[m_stats.columnNameToIndex.get(column)];
+    }
+
+    private void assertStage(Object rows[][], String stage, long samples, long min, long max,
+                             long avg, long p50, long p95, long p99, long p99_9) {
+        Object row[] = row(rows, stage);
+        assertEquals(stage, samples, value(row, "SAMPLES"));
+        assertEquals(stage, min, value(row, "MIN"));
+        assertEquals(stage, max, value(row, "MAX"));
+        assertEquals(stage, avg, value(row, "AVG"));
+        assertEquals(stage, p50, value(row, "P50"));
+        assertEquals(stage, p95, value(row, "P95"));
+        assertEquals(stage, p99, value(row, "P99"));
+        assertEquals(stage, p99_9, value(row, "P99_9"));
+    }
+
+    public void testRegistered() {
+        verify(m_statsAgent).registerStatsSource(SysProcSelector.STAGELATENCY, 0, m_stats);
+    }
+
+    public void testPerStagePercentiles() {
+        // execution times of 1 to 100us, small enough to be recorded exactly
+        for (int ii = 100; ii >= 1; ii--) {
+            m_stats.logTransactionCompleted(transaction(ii));
+        }
+        // a transaction that never reached a leader only has client interface stages
+        m_stats.logTransactionCompleted(times(0, 3 * US, UNSET, UNSET, UNSET, UNSET, UNSET, UNSET,
+                                              UNSET, UNSET));
+
+        Object rows[][] = m_stats.getStatsRows(false, System.currentTimeMillis());
+        assertEquals(TransactionStageTimes.Stage.values().length, rows.length);
+
+        assertStage(rows, "EXECUTION", 100, 1, 100, 50, 50, 95, 99, 100);
+        assertStage(rows, "CI_DESERIALIZE", 101, 3, 3, 3, 3, 3, 3, 3);
+        assertStage(rows, "SCHEDULING", 100, 1, 1, 1, 1, 1, 1, 1);
+        assertStage(rows, "COMMAND_LOG", 100, 0, 0, 0, 0, 0, 0, 0);
+        assertStage(rows, "SITE_QUEUE", 100, 7, 7, 7, 7, 7, 7, 7);
+        assertStage(rows, "REPLICATION", 100, 2, 2, 2, 2, 2, 2, 2);
+        assertStage(rows, "NETWORK", 100, 20, 20, 20, 20, 20, 20, 20);
+        assertStage(rows, "RESPONSE_WRITE", 100, 4, 4, 4, 4, 4, 4, 4);
+
+        // the total is the execution time plus 37us, past where every value is exact
+        Object total[] = row(rows, "TOTAL");
+        assertEquals(100L, value(total, "SAMPLES"));
+        assertEquals(38L, value(total, "MIN"));
+        assertEquals(137L, value(total, "MAX"));
+        assertEquals(87L, value(total, "P50"));
+        assertTrue(Math.abs(value(total, "P99") - 136) <= 2);
+
+        // the serialized histogram holds the same samples
+        LatencyHistogram execution = LatencyHistogram.fromBytes(
+                (byte[])row(rows, "EXECUTION")[m_stats.columnNameToIndex.get("HISTOGRAM")]);
+        assertEquals(100, execution.getTotalCount());
+        assertEquals(95, execution.getValueAtPercentile(0.95));
+    }
+
+    public void testInterval() {
+        for (int ii = 1; ii <= 10; ii++) {
+            m_stats.logTransactionCompleted(transaction(ii));
+        }
+        Object rows[][] = m_stats.getStatsRows(true, System.currentTimeMillis());
+        assertStage(rows, "EXECUTION", 10, 1, 10, 5, 5, 10, 10, 10);
+
+        // only what was recorded since the last interval
+        m_stats.logTransactionCompleted(transaction(42));
+        rows = m_stats.getStatsRows(true, System.currentTimeMillis());
+        assertStage(rows, "EXECUTION", 1, 42, 42, 42, 42, 42, 42, 42);
+        rows = m_stats.getStatsRows(true, System.currentTimeMillis());
+        assertEquals(0L, value(row(rows, "EXECUTION"), "SAMPLES"));
+
+        // the cumulative rows still have everything
+        rows = m_stats.getStatsRows(false, System.currentTimeMillis());
+        assertStage(rows, "EXECUTION", 11, 1, 42, 8, 6, 42, 42, 42);
+    }
+}
@@ -247,5 +247,69 @@ public class TestTheHashinator extends TestCase {
         }
         try { ee.release(); } catch (Exception e) {}
     }
-}
 
+    public void testAddingPartitionOnlyMovesKeysToNewPartition() {
+        final int keyCount = 100000;
+        for (int partitionCount = 1; partitionCount < 64; partitionCount++) {
+            int moved = 0;
+            for (int i = 0; i < keyCount; i++) {
+                Object key = (i % 2 == 0) ? Long.valueOf(i) : ("key" + i);
+                int before = TheHashinator.hashToPartition(key, partitionCount);
+                int after = TheHashinator.hashToPartition(key, partitionCount + 1);
+                if (before != after) {
+                    // a key either stays put or moves to the partition that was added
+                    assertEquals(partitionCount, after);
+                    moved++;
+                }
+            }
+            // about 1 / (partitionCount + 1) of the keys should move, allow 20% slack
+            double expected = keyCount / (double)(partitionCount + 1);
+            assertTrue(Math.abs(moved - expected) < expected * 0.2);
+        }
+    }
+
+    public void testSequentialKeysSpreadEvenly() {
+        final int partitionCount = 12;
+        final int keyCount = 120000;
+        int counts[] = new int[partitionCount];
+        for (long i = 0; i < keyCount; i++) {
+            counts[TheHashinator.hashToPartition(i, partitionCount)]++;
+        }
+        for (int count : counts) {
+            assertTrue(Math.abs(count - keyCount / partitionCount) < keyCount / partitionCount * 0.05);
+        }
+    }
+
+    public void testStringHashMatchesUtf8Bytes() throws Exception {
+        // cover ASCII, 2 and 3 byte encodings, surrogate pairs and unpaired surrogates
+        final char samples[] = new char[] {
+                'a', 'Z', '0', 0x7f, 0x80, 0xe9, 0x7ff, 0x800, 0x4e2d, 0xfffd, 0xffff,
+                0xd83d, 0xde00, 0xdbff, 0xdfff };
+        for (int i = 0; i < 100000; i++) {
+            int partitionCount = r.nextInt(1000) + 1;
+            char chars[] = new char[r.nextInt(20)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = r.nextBoolean() ? samples[r.nextInt(samples.length)] : (char)r.nextInt(0x10000);
+            }
+            String valueToHash = new String(chars);
+            assertEquals(TheHashinator.hashinateBytes(valueToHash.getBytes("UTF-8"), partitionCount),
+                         TheHashinator.hashinateString(valueToHash, partitionCount));
+        }
+    }
+
+    public void testTypedHashMatchesObjectHash() {
+        final int partitionCount = 7;
+        for (int i = 0; i < 10000; i++) {
+            long value = r.nextLong();
+            assertEquals(TheHashinator.hashToPartition(value, partitionCount),
+                         TheHashinator.hashinateLong(value, partitionCount));
+            assertEquals(TheHashinator.hashToPartition((int)value, partitionCount),
+                         TheHashinator.hashinateLong((int)value, partitionCount));
+        }
+        assertEquals(0, TheHashinator.hashToPartition(VoltType.NULL_INTEGER, partitionCount));
+        assertEquals(0, TheHashinator.hashToPartition(VoltType.NULL_SMALLINT, partitionCount));
+        assertEquals(0, TheHashinator.hashToPartition(VoltType.NULL_TINYINT, partitionCount));
+        assertEquals(0, TheHashinator.hashinateString(null, partitionCount));
+        assertEquals(0, TheHashinator.hashinateBytes(null, partitionCount));
+    }
+}
@@ -0,0 +1,155 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Measures time and bytes allocated per key when picking a partition for BIGINT,
+ * VARCHAR and VARBINARY partition keys. Compares the boxed hashToPartition(Object)
+ * path with the typed hashinate methods, and the typed string hash with hashing
+ * the result of String.getBytes("UTF-8") as was done before.
+ * Allocation is read from the HotSpot per thread allocation counter.
+ */
+public class TheHashinatorMicrobench {
+
+    static abstract class Runner {
+        final String m_name;
+        Runner(String name) {
+            m_name = name;
+        }
+        // returns a value that depends on every key so the JIT can't drop the work
+        public abstract long run(int partitionCount) throws Exception;
+    };
+
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = 100;
+        if (args.length >= 1) {
+            iterations = Integer.parseInt(args[0]);
+        }
+        final int partitionCount = 24;
+        final int keyCount = 10000;
+
+        final Random r = new Random(0);
+        final long longKeys[] = new long[keyCount];
+        final String stringKeys[] = new String[keyCount];
+        final byte binaryKeys[][] = new byte[keyCount][];
+        for (int i = 0; i < keyCount; i++) {
+            longKeys[i] = r.nextLong();
+            stringKeys[i] = "customer-" + Long.toString(r.nextLong(), 36) + (i % 10 == 0 ? "\u00e9\u4e2d" : "");
+            binaryKeys[i] = new byte[16];
+            r.nextBytes(binaryKeys[i]);
+        }
+
+        final Runner runners[] = new Runner[] {
+            new Runner("BIGINT hashToPartition(Object)") {
+                @Override
+                public long run(int partitionCount) {
+                    long sum = 0;
+                    for (int i = 0; i < keyCount; i++) {
+                        sum += TheHashinator.hashToPartition((Object)longKeys[i], partitionCount);
+                    }
+                    return sum;
+                }
+            },
+            new Runner("BIGINT hashinateLong") {
+                @Override
+                public long run(int partitionCount) {
+                    long sum = 0;
+                    for (int i = 0; i < keyCount; i++) {
+                        sum += TheHashinator.hashinateLong(longKeys[i], partitionCount);
+                    }
+                    return sum;
+                }
+            },
+            new Runner("VARCHAR getBytes + hashinateBytes") {
+                @Override
+                public long run(int partitionCount) throws Exception {
+                    long sum = 0;
+                    for (int i = 0; i < keyCount; i++) {
+                        sum += TheHashinator.hashinateBytes(stringKeys[i].getBytes("UTF-8"), partitionCount);
+                    }
+                    return sum;
+                }
+            },
+            new Runner("VARCHAR hashinateString") {
+                @Override
+                public long run(int partitionCount) {
+                    long sum = 0;
+                    for (int i = 0; i < keyCount; i++) {
+                        sum += TheHashinator.hashinateString(stringKeys[i], partitionCount);
+                    }
+                    return sum;
+                }
+            },
+            new Runner("VARBINARY hashToPartition(Object)") {
+                @Override
+                public long run(int partitionCount) {
+                    long sum = 0;
+                    for (int i = 0; i < keyCount; i++) {
+                        sum += TheHashinator.hashToPartition((Object)binaryKeys[i], partitionCount);
+                    }
+                    return sum;
+                }
+            },
+            new Runner("VARBINARY hashinateBytes") {
+                @Override
+                public long run(int partitionCount) {
+                    long sum = 0;
+                    for (int i = 0; i < keyCount; i++) {
+                        sum += TheHashinator.hashinateBytes(binaryKeys[i], partitionCount);
+                    }
+                    return sum;
+                }
+            }
+        };
+
+        long blackhole = 0;
+        for (Runner runner : runners) {
+            // warm up so the JIT has a chance to eliminate what it can
+            for (int i = 0; i < iterations; i++) {
+                blackhole += runner.run(partitionCount);
+            }
+
+            final long startBytes = allocatedBytes();
+            final long startTime = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                blackhole += runner.run(partitionCount);
+            }
+            final long time = System.nanoTime() - startTime;
+            final long bytes = allocatedBytes() - startBytes;
+
+            final double keys = iterations * (double)keyCount;
+            System.out.println(runner.m_name + ": " +
+                    (bytes / keys) + " bytes/key, " +
+                    (time / keys) + " ns/key");
+        }
+        System.out.println("(" + blackhole + ")");
+    }
+}
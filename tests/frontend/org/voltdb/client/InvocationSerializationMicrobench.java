@@ -0,0 +1,117 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.client;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+/**
+ * Measures the bytes allocated per call when serializing a procedure invocation for
+ * the network. Compares flattening into a fresh HeapByteBuffer with flattening into a
+ * reused HeapByteBuffer, the way Distributer pools them. Both are then copied into a
+ * pooled DirectByteBuffer the way the network thread does.
+ * Allocation is read from the HotSpot per thread allocation counter.
+ */
+public class InvocationSerializationMicrobench {
+
+    static abstract class Runner {
+        final String m_name;
+        Runner(String name) {
+            m_name = name;
+        }
+        public abstract void run(ProcedureInvocation invocation, ByteBuffer pooled) throws Exception;
+    };
+
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = 1000000;
+        if (args.length >= 1) {
+            iterations = Integer.parseInt(args[0]);
+        }
+
+        final Runner runners[] = new Runner[] {
+            new Runner("heap buffer + copy") {
+                @Override
+                public void run(ProcedureInvocation invocation, ByteBuffer pooled) throws Exception {
+                    ByteBuffer buf = ByteBuffer.allocate(4 + invocation.getSerializedSize());
+                    buf.putInt(buf.capacity() - 4);
+                    invocation.flattenToBuffer(buf);
+                    buf.flip();
+                    pooled.clear();
+                    pooled.put(buf);
+                }
+            },
+            new Runner("pooled heap buffer + copy") {
+                final ByteBuffer m_reused = ByteBuffer.allocate(1024 * 4);
+                @Override
+                public void run(ProcedureInvocation invocation, ByteBuffer pooled) throws Exception {
+                    final int size = invocation.getSerializedSize();
+                    m_reused.clear();
+                    m_reused.putInt(size);
+                    invocation.flattenToBuffer(m_reused);
+                    m_reused.flip();
+                    pooled.clear();
+                    pooled.put(m_reused);
+                }
+            }
+        };
+
+        final ProcedureInvocation invocations[] = new ProcedureInvocation[] {
+            new ProcedureInvocation(1, "EmptyProcedure", 0L),
+            new ProcedureInvocation(2, "MultivariateEmptyProcedure", 0L, 0L, 0L,
+                    "String c_first", "String c_middle",
+                    "String c_last", "String c_street_1",
+                    "String c_street_2", "String d_city",
+                    "String d_state", "String d_zip",
+                    "String c_phone", 0L, "String c_credit", 0.0,
+                    0.0, 0.0, 0.0, 0L, 0L, "String c_data")
+        };
+        final ByteBuffer pooled = ByteBuffer.allocateDirect(1024 * 32);
+
+        for (ProcedureInvocation invocation : invocations) {
+            for (Runner runner : runners) {
+                // warm up so the JIT has a chance to eliminate what it can
+                for (int i = 0; i < iterations; i++) {
+                    runner.run(invocation, pooled);
+                }
+
+                final long startBytes = allocatedBytes();
+                final long startTime = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    runner.run(invocation, pooled);
+                }
+                final long time = System.nanoTime() - startTime;
+                final long bytes = allocatedBytes() - startBytes;
+
+                System.out.println(invocation.getProcName() + " " + runner.m_name + ": " +
+                        (bytes / (double)iterations) + " bytes/call, " +
+                        (time / (double)iterations) + " ns/call");
+            }
+        }
+    }
+}
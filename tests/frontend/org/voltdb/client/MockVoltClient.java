@@ -151,6 +151,12 @@ public class MockVoltClient implements Client, ReplicaProcCaller{
         return false;
     }
 
+    @Override
+    public boolean callProceduresBatch(ProcedureCallBatch batch) throws NoConnectionsException {
+        // TODO Auto-generated method stub
+        return false;
+    }
+
     @Override
     public void drain() {
         // TODO Auto-generated method stub
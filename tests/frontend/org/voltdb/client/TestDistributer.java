@@ -28,6 +28,7 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -59,6 +60,18 @@ public class TestDistributer extends TestCase {
 
         @Override
         public void handleMessage(ByteBuffer message, Connection c) {
+            if (message.get(message.position()) == ProcedureInvocation.BATCH_MARKER) {
+                batches.incrementAndGet();
+                message.get();
+                final int count = message.getInt();
+                for (int ii = 0; ii < count; ii++) {
+                    final int length = message.getInt();
+                    final ByteBuffer invocation = ByteBuffer.allocate(length);
+                    message.get(invocation.array());
+                    handleMessage(invocation, c);
+                }
+                return;
+            }
             try {
                 FastDeserializer fds = new FastDeserializer(message);
                 StoredProcedureInvocation spi = fds.readObject(StoredProcedureInvocation.class);
@@ -66,6 +79,7 @@ public class TestDistributer extends TestCase {
                 // record if we got a ping
                 if (spi.getProcName().equals("@Ping"))
                     gotPing = true;
+                lastInvocation = spi;
 
                 if (sendResponses.get()) {
                     VoltTable vt[] = new VoltTable[1];
@@ -114,6 +128,8 @@ public class TestDistributer extends TestCase {
 
         }
         AtomicInteger roundTrips = new AtomicInteger();
+        AtomicInteger batches = new AtomicInteger();
+        volatile StoredProcedureInvocation lastInvocation = null;
 
         @Override
         public Runnable offBackPressure() {
@@ -371,6 +387,148 @@ public class TestDistributer extends TestCase {
     }
 
 
+    @Test
+    public void testQueueBatch() throws Exception {
+
+        // Without affinity a batch goes to a single connection as a single message
+        MockVolt volt0, volt1;
+        int handle = 0;
+        volt0 = volt1 = null;
+        try {
+            volt0 = new MockVolt(20000);
+            volt0.start();
+            volt1 = new MockVolt(20001);
+            volt1.start();
+
+            Distributer dist = new Distributer(false,
+                    ClientConfig.DEFAULT_PROCEDURE_TIMOUT_MS,
+                    ClientConfig.DEFAULT_CONNECTION_TIMOUT_MS,
+                    false);
+            dist.createConnection("localhost", "", "", 20000);
+            dist.createConnection("localhost", "", "", 20001);
+
+            assertTrue(volt0.handler != null);
+            assertTrue(volt1.handler != null);
+
+            final AtomicInteger successes = new AtomicInteger();
+            final ProcedureInvocation invocations[] = new ProcedureInvocation[6];
+            final ProcedureCallback callbacks[] = new ProcedureCallback[6];
+            for (int ii = 0; ii < invocations.length; ii++) {
+                invocations[ii] = new ProcedureInvocation(++handle, "i1", new Integer(ii));
+                callbacks[ii] = new ProcedureCallback() {
+                    @Override
+                    public void clientCallback(ClientResponse clientResponse) {
+                        if (clientResponse.getStatus() == ClientResponse.SUCCESS) {
+                            successes.incrementAndGet();
+                        }
+                    }
+                };
+            }
+
+            assertTrue(dist.queueBatch(invocations, callbacks, true));
+            dist.drain();
+
+            assertEquals(6, successes.get());
+            assertEquals(6, volt0.handler.roundTrips.get() + volt1.handler.roundTrips.get());
+            assertEquals(1, volt0.handler.batches.get() + volt1.handler.batches.get());
+            assertTrue(volt0.handler.roundTrips.get() == 0 || volt1.handler.roundTrips.get() == 0);
+        }
+        finally {
+            if (volt0 != null) {
+                volt0.shutdown();
+                volt0.join();
+            }
+            if (volt1 != null) {
+                volt1.shutdown();
+                volt1.join();
+            }
+        }
+    }
+
+    public void testQueueBatchSplitAtMaxMessageSize() throws Exception {
+
+        // A batch that doesn't fit in one message is sent as several
+        MockVolt volt0 = null;
+        try {
+            volt0 = new MockVolt(20000);
+            volt0.start();
+
+            Distributer dist = new Distributer(false,
+                    ClientConfig.DEFAULT_PROCEDURE_TIMOUT_MS,
+                    ClientConfig.DEFAULT_CONNECTION_TIMOUT_MS,
+                    false);
+            dist.createConnection("localhost", "", "", 20000);
+            assertTrue(volt0.handler != null);
+
+            final AtomicInteger successes = new AtomicInteger();
+            final byte value[] = new byte[1024 * 1024 * 4];
+            final ProcedureInvocation invocations[] = new ProcedureInvocation[24];
+            final ProcedureCallback callbacks[] = new ProcedureCallback[invocations.length];
+            for (int ii = 0; ii < invocations.length; ii++) {
+                invocations[ii] = new ProcedureInvocation(ii + 1, "i1", value);
+                callbacks[ii] = new ProcedureCallback() {
+                    @Override
+                    public void clientCallback(ClientResponse clientResponse) {
+                        if (clientResponse.getStatus() == ClientResponse.SUCCESS) {
+                            successes.incrementAndGet();
+                        }
+                    }
+                };
+            }
+
+            assertTrue(dist.queueBatch(invocations, callbacks, true));
+            dist.drain();
+
+            // 12 of the 4 megabyte invocations fit under the 50 megabyte limit
+            assertEquals(invocations.length, successes.get());
+            assertEquals(invocations.length, volt0.handler.roundTrips.get());
+            assertEquals(2, volt0.handler.batches.get());
+        }
+        finally {
+            if (volt0 != null) {
+                volt0.shutdown();
+                volt0.join();
+            }
+        }
+    }
+
+    public void testParametersModifiedAfterQueue() throws Exception {
+
+        // What is sent is the invocation as it was when queue returned
+        MockVolt volt0 = null;
+        try {
+            volt0 = new MockVolt(20000);
+            volt0.start();
+
+            Distributer dist = new Distributer(false,
+                    ClientConfig.DEFAULT_PROCEDURE_TIMOUT_MS,
+                    ClientConfig.DEFAULT_CONNECTION_TIMOUT_MS,
+                    false);
+            dist.createConnection("localhost", "", "", 20000);
+            assertTrue(volt0.handler != null);
+
+            for (int size : new int[] { 16, 1024 * 64 }) {
+                final byte value[] = new byte[size];
+                Arrays.fill(value, (byte)1);
+                assertTrue(dist.queue(new ProcedureInvocation(size, "i1", value), new ProcCallback(), true));
+                Arrays.fill(value, (byte)2);
+                dist.drain();
+
+                final byte sent[] = (byte[])volt0.handler.lastInvocation.getParams().toArray()[0];
+                assertEquals(size, sent.length);
+                for (byte b : sent) {
+                    assertEquals(1, b);
+                }
+            }
+        }
+        finally {
+            if (volt0 != null) {
+                volt0.shutdown();
+                volt0.join();
+            }
+        }
+    }
+
     /**
      * Test connection timeouts.
      * Create a fake voltdb that runs all happy for a while, but
@@ -0,0 +1,129 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.voltdb.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.voltdb.ParameterSet;
+import org.voltdb.VoltDB;
+import org.voltdb.VoltType;
+import org.voltdb.planner.BoundPlan;
+import org.voltdb.planner.CorePlan;
+
+public class TestAdHocCompilerCache {
+
+    private static AdHocPlannedStatement makePlan(String sql) {
+        CorePlan core = new CorePlan(new byte[64], null, false, false, true, new VoltType[0], 0);
+        return new AdHocPlannedStatement(sql.getBytes(VoltDB.UTF8ENCODING), core,
+                                         new ParameterSet(), null, null, null);
+    }
+
+    @Test
+    public void testHitAndMiss() {
+        AdHocCompilerCache cache = new AdHocCompilerCache(1024 * 1024, 1024 * 1024);
+        String sql = "select * from foo where a = 1;";
+        assertNull(cache.getWithSQL(sql));
+        assertNull(cache.getWithParsedToken("token"));
+
+        cache.put(sql, "token", makePlan(sql));
+        assertNotNull(cache.getWithSQL(sql));
+        assertEquals(1, cache.getWithParsedToken("token").size());
+        assertEquals(1, cache.getLiteralCacheSize());
+        assertEquals(1, cache.getCoreCacheSize());
+        assertTrue(cache.getLiteralCacheBytes() > 0);
+        assertTrue(cache.getCoreCacheBytes() > 0);
+    }
+
+    @Test
+    public void testEvictionBySize() {
+        // Small enough that each stripe can only hold a handful of entries
+        final long maxBytes = 16 * 1024;
+        AdHocCompilerCache cache = new AdHocCompilerCache(maxBytes, maxBytes);
+        final int count = 2000;
+        for (int i = 0; i < count; i++) {
+            String sql = "select * from foo where a = " + i + ";";
+            cache.put(sql, "token" + i, makePlan(sql));
+        }
+        assertTrue(cache.getLiteralCacheBytes() <= maxBytes);
+        assertTrue(cache.getCoreCacheBytes() <= maxBytes);
+        assertTrue(cache.getLiteralCacheSize() < count);
+        assertTrue(cache.getCoreCacheSize() < count);
+        assertEquals(count, cache.getLiteralCacheSize() + cache.getLiteralEvictions());
+        assertEquals(count, cache.getCoreCacheSize() + cache.getCoreEvictions());
+
+        // The most recent insert is never the one evicted
+        String last = "select * from foo where a = " + (count - 1) + ";";
+        assertNotNull(cache.getWithSQL(last));
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final AdHocCompilerCache cache = new AdHocCompilerCache(64 * 1024, 64 * 1024);
+        final int threads = 8;
+        final int iterations = 5000;
+        ExecutorService es = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(es.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        for (int i = 0; i < iterations; i++) {
+                            int key = i % 500;
+                            String sql = "select * from foo where a = " + key + ";";
+                            cache.put(sql, "token" + key, makePlan(sql));
+                            cache.getWithSQL(sql);
+                            List<BoundPlan> plans = cache.getWithParsedToken("token" + key);
+                            if (plans != null) {
+                                for (BoundPlan plan : plans) {
+                                    assertNotNull(plan.core);
+                                }
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> f : futures) {
+                f.get();
+            }
+        } finally {
+            es.shutdown();
+        }
+        assertTrue(cache.getLiteralCacheBytes() <= 64 * 1024);
+        assertTrue(cache.getCoreCacheBytes() <= 64 * 1024);
+    }
+}
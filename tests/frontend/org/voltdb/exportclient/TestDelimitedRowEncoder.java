@@ -0,0 +1,233 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.exportclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+import org.voltdb.VoltDB;
+import org.voltdb.VoltType;
+import org.voltdb.export.ExportProtoMessage.AdvertisedDataSource;
+import org.voltdb.types.TimestampType;
+import org.voltdb.utils.Encoder;
+
+import au.com.bytecode.opencsv_voltpatches.CSVWriter;
+
+public class TestDelimitedRowEncoder extends TestCase
+{
+    static final VoltType[] COLUMN_TYPES =
+    {VoltType.TINYINT, VoltType.SMALLINT, VoltType.INTEGER,
+     VoltType.BIGINT, VoltType.FLOAT, VoltType.TIMESTAMP,
+     VoltType.STRING, VoltType.VARBINARY, VoltType.DECIMAL};
+
+    static final TimeZone TZ = TimeZone.getTimeZone("America/New_York");
+
+    /**
+     * Decodes rows the way ExportToFileClient did before it used DelimitedRowEncoder
+     */
+    static class ReferenceDecoder extends ExportDecoderBase {
+        final SimpleDateFormat m_dateFormat = new SimpleDateFormat(VoltDB.ODBC_DATE_FORMAT_STRING);
+
+        ReferenceDecoder(AdvertisedDataSource source) {
+            super(source);
+            m_dateFormat.setTimeZone(TZ);
+        }
+
+        String[] fields(byte[] rowData, int firstField) throws Exception {
+            Object[] row = decodeRow(rowData);
+            String[] fields = new String[m_tableSchema.size() - firstField];
+            for (int i = firstField; i < m_tableSchema.size(); i++) {
+                if (row[i] == null) {
+                    fields[i - firstField] = "NULL";
+                } else if (m_tableSchema.get(i) == VoltType.VARBINARY) {
+                    fields[i - firstField] = Encoder.hexEncode((byte[]) row[i]);
+                } else if (m_tableSchema.get(i) == VoltType.TIMESTAMP) {
+                    fields[i - firstField] =
+                        m_dateFormat.format(((TimestampType) row[i]).asApproximateJavaDate());
+                } else {
+                    fields[i - firstField] = row[i].toString();
+                }
+            }
+            return fields;
+        }
+
+        @Override
+        public boolean processRow(int rowSize, byte[] rowData) {
+            return true;
+        }
+
+        @Override
+        public void sourceNoLongerAdvertised(AdvertisedDataSource source) {
+        }
+    }
+
+    static List<VoltType> schema() {
+        return new ArrayList<VoltType>(Arrays.asList(COLUMN_TYPES));
+    }
+
+    static AdvertisedDataSource source() {
+        ArrayList<String> names = new ArrayList<String>();
+        for (int i = 0; i < COLUMN_TYPES.length; i++) {
+            names.add("c" + i);
+        }
+        return new AdvertisedDataSource(0, "foo", "yankeelover", 0, 32,
+                                        names, new ArrayList<VoltType>(schema()));
+    }
+
+    /**
+     * Serialize a row in the export encoding, null values are flagged in the null array
+     */
+    static byte[] row(Object... values) {
+        ByteBuffer buf = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] nulls = new byte[(values.length + 7) >> 3];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                nulls[i >> 3] |= (byte) (0x80 >>> (i & 7));
+            }
+        }
+        buf.put(nulls);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) continue;
+            switch (COLUMN_TYPES[i]) {
+            case FLOAT:
+                buf.putDouble((Double) values[i]);
+                break;
+            case STRING:
+            case DECIMAL: {
+                byte[] b = values[i].toString().getBytes(VoltDB.UTF8ENCODING);
+                buf.putInt(b.length);
+                buf.put(b);
+                break;
+            }
+            case VARBINARY: {
+                byte[] b = (byte[]) values[i];
+                buf.putInt(b.length);
+                buf.put(b);
+                break;
+            }
+            default:
+                buf.putLong(((Number) values[i]).longValue());
+            }
+        }
+        return Arrays.copyOf(buf.array(), buf.position());
+    }
+
+    static List<byte[]> rows() {
+        List<byte[]> rows = new ArrayList<byte[]>();
+        rows.add(row(1L, 2L, 3L, 4L, 5.5, 1350000000123456L, "hello", new byte[] { 0, 1, (byte) 0xfe },
+                     new BigDecimal("3.141592653589")));
+        rows.add(row(-128L, Short.MIN_VALUE, Integer.MIN_VALUE, Long.MIN_VALUE, -0.0, 0L,
+                     "", new byte[0], new BigDecimal("-0.000000000001")));
+        rows.add(row(127L, Short.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE, Double.MAX_VALUE,
+                     // before the epoch and after year 9999 take the SimpleDateFormat path
+                     -1234567890123L,
+                     "quote \" comma , backslash \\ tab \t cr \r nl \n done", new byte[] { (byte) 0xab },
+                     new BigDecimal("99999999999999999999999999.999999999999")));
+        rows.add(row(null, null, null, null, null, null, null, null, null));
+        // the encoder writes UTF-8, ExportDecoderBase decodes with the platform charset
+        String text = Charset.defaultCharset().equals(VoltDB.UTF8ENCODING) ?
+                "\u00e9t\u00e9 \u65e5\u672c \ud83d\ude00" : "text";
+        rows.add(row(0L, 0L, 0L, 0L, 1e-300, 253402318800000000L, text, null, null));
+        // across a daylight saving change in the test time zone
+        rows.add(row(0L, 0L, 0L, 0L, 0.0, 1352011000000000L, "dst", null, null));
+        rows.add(row(0L, 0L, 0L, 0L, 0.0, 1352016400000000L, "dst", null, null));
+        return rows;
+    }
+
+    void verify(DelimitedRowEncoder encoder, CSVWriter reference, StringWriter referenceOut,
+                int firstField) throws Exception {
+        ReferenceDecoder decoder = new ReferenceDecoder(source());
+        for (byte[] row : rows()) {
+            reference.writeNext(decoder.fields(row, firstField));
+            // rows are encoded in place, surrounded by other data
+            ByteBuffer block = ByteBuffer.allocate(row.length + 16).order(ByteOrder.LITTLE_ENDIAN);
+            block.putLong(42);
+            block.put(row);
+            block.putLong(42);
+            block.position(8);
+            encoder.appendRow(block);
+            assertEquals(8 + row.length, block.position());
+        }
+        reference.flush();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.writeTo(out);
+        assertEquals(referenceOut.toString(), new String(out.toByteArray(), VoltDB.UTF8ENCODING));
+    }
+
+    public void testCSV() throws Exception {
+        StringWriter sw = new StringWriter();
+        verify(DelimitedRowEncoder.csv(schema(), 0, TZ), new CSVWriter(sw), sw, 0);
+    }
+
+    public void testCSVFirstField() throws Exception {
+        StringWriter sw = new StringWriter();
+        verify(DelimitedRowEncoder.csv(schema(), 3, TZ), new CSVWriter(sw), sw, 3);
+    }
+
+    public void testFullDelimiters() throws Exception {
+        StringWriter sw = new StringWriter();
+        verify(new DelimitedRowEncoder(schema(), 0, '|', '\'', '\\', "\r\n", null, TZ),
+               new CSVWriter(sw, '|', '\'', '\\', "\r\n"), sw, 0);
+    }
+
+    public void testNonASCIIDelimiters() throws Exception {
+        StringWriter sw = new StringWriter();
+        verify(new DelimitedRowEncoder(schema(), 0, '\u00a6', '\u00ab', '\u00e9', "\n", null, TZ),
+               new CSVWriter(sw, '\u00a6', '\u00ab', '\u00e9', "\n"), sw, 0);
+    }
+
+    public void testTSV() throws Exception {
+        DelimitedRowEncoder encoder = DelimitedRowEncoder.tsv(schema(), 0, TZ);
+        ByteBuffer row = ByteBuffer.wrap(
+                row(1L, 2L, 3L, 4L, 0.5, 0L, "a\tb\\c\nd\re\"f", new byte[] { 10 }, null))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        encoder.appendRow(row);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.writeTo(out);
+        assertEquals("1\t2\t3\t4\t0.5\t1969-12-31 19:00:00.000\ta\tb\\\\c\\\nd\\\re\"f\t0A\tNULL\n",
+                     new String(out.toByteArray(), VoltDB.UTF8ENCODING));
+        encoder.reset();
+        assertEquals(0, encoder.size());
+    }
+
+    public void testTruncate() throws Exception {
+        DelimitedRowEncoder encoder = DelimitedRowEncoder.csv(schema(), 0, TZ);
+        encoder.appendRow(ByteBuffer.wrap(rows().get(0)).order(ByteOrder.LITTLE_ENDIAN));
+        final int size = encoder.size();
+        encoder.appendRow(ByteBuffer.wrap(rows().get(1)).order(ByteOrder.LITTLE_ENDIAN));
+        encoder.truncate(size);
+        assertEquals(size, encoder.size());
+    }
+}
@@ -57,6 +57,7 @@ import org.voltdb.messaging.FragmentResponseMessage;
 import org.voltdb.messaging.FragmentTaskMessage;
 import org.voltdb.messaging.InitiateResponseMessage;
 import org.voltdb.messaging.Iv2InitiateTaskMessage;
+import org.voltdb.messaging.TransactionStageTimes;
 
 import com.google.common.collect.ImmutableMap;
 
@@ -254,6 +255,44 @@ public class Iv2TestSpSchedulerDedupe extends TestCase
         verify(mbox, times(1)).send(eq(primary_hsid), eq(resp));
     }
 
+    @Test
+    public void testPrimaryKeepsOnlyItsOwnStageTimes() throws Exception
+    {
+        long txnid = TxnEgo.makeZero(0).getTxnId();
+        long primary_hsid = 1111l;
+
+        createObjs();
+        dut.setLeaderState(true);
+        List<Long> replicas = new ArrayList<Long>();
+        replicas.add(dut_hsid);
+        replicas.add(2l);
+        dut.updateReplicas(replicas);
+        Iv2InitiateTaskMessage sptask = createMsg(txnid, false, true, primary_hsid);
+        TransactionStageTimes leaderTimes = new TransactionStageTimes();
+        sptask.setStageTimes(leaderTimes);
+        dut.deliver(sptask);
+        ArgumentCaptor<Iv2InitiateTaskMessage> replmsg = ArgumentCaptor.forClass(Iv2InitiateTaskMessage.class);
+        verify(mbox, times(1)).send(eq(new long[] {2}), replmsg.capture());
+        assertNull(replmsg.getValue().getStageTimes());
+
+        ClientResponseImpl cr = mock(ClientResponseImpl.class);
+        InitiateResponseMessage resp = new InitiateResponseMessage(sptask);
+        resp.setResults(cr);
+        resp.m_sourceHSId = dut_hsid;
+        // a replica's times come from another host's clock, they must not replace the leader's
+        InitiateResponseMessage replresp = new InitiateResponseMessage(replmsg.getValue());
+        replresp.setResults(cr);
+        replresp.m_sourceHSId = 2l;
+        replresp.setStageTimes(new TransactionStageTimes());
+        dut.deliver(resp);
+        dut.deliver(replresp);
+
+        ArgumentCaptor<InitiateResponseMessage> sent = ArgumentCaptor.forClass(InitiateResponseMessage.class);
+        verify(mbox, times(1)).send(eq(primary_hsid), sent.capture());
+        assertSame(leaderTimes, sent.getValue().getStageTimes());
+        assertTrue(leaderTimes.isMarked(TransactionStageTimes.Mark.RESPONDED));
+    }
+
     @Test
     public void testPrimaryFragmentTaskResponseReplicas() throws Exception
     {
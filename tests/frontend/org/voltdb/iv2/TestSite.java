@@ -0,0 +1,162 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.iv2;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.voltdb.BackendTarget;
+import org.voltdb.CatalogContext;
+import org.voltdb.SiteProcedureConnection;
+import org.voltdb.StarvationTracker;
+import org.voltdb.VoltDB;
+import org.voltdb.jni.ExecutionEngine;
+
+public class TestSite extends TestCase
+{
+    static final int PARTITION_ID = 1;
+
+    Site m_site;
+    ExecutionEngine m_ee;
+    TxnEgo m_spHandle;
+
+    @Override
+    public void setUp()
+    {
+        SiteTaskerQueue queue = new SiteTaskerQueue();
+        queue.setStarvationTracker(new StarvationTracker(0));
+        m_site = new Site(queue, 0, BackendTarget.NONE, mock(CatalogContext.class), "", 0,
+                          PARTITION_ID, 2, VoltDB.START_ACTION.CREATE, 0, null, null, null);
+        m_ee = mock(ExecutionEngine.class);
+        m_site.m_ee = m_ee;
+        m_spHandle = TxnEgo.makeZero(PARTITION_ID);
+    }
+
+    /**
+     * A transaction that takes one undo token and then commits or rolls back, the way
+     * a procedure truncates the undo log when it completes
+     */
+    private <T extends TransactionTask> T mockTask(Class<T> taskClass, final boolean rollback,
+                                                   final Runnable whileRunning)
+    {
+        T task = mock(taskClass);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                if (whileRunning != null) {
+                    whileRunning.run();
+                }
+                SiteProcedureConnection site = (SiteProcedureConnection)invocation.getArguments()[0];
+                long beginUndoToken = site.getLatestUndoToken();
+                site.getNextUndoToken();
+                m_spHandle = m_spHandle.makeNext();
+                site.truncateUndoLog(rollback, beginUndoToken, m_spHandle.getTxnId(), m_spHandle.getTxnId());
+                return null;
+            }
+        }).when(task).run(any(SiteProcedureConnection.class));
+        return task;
+    }
+
+    private List<SiteTasker> batch(SiteTasker... tasks)
+    {
+        return new ArrayList<SiteTasker>(Arrays.asList(tasks));
+    }
+
+    public void testCommitsReleaseOnceAtEndOfBatch()
+    {
+        final long startToken = m_site.getLatestUndoToken();
+        m_site.runTaskBatch(batch(
+                mockTask(SpProcedureTask.class, false, null),
+                mockTask(SpProcedureTask.class, false, new Runnable() {
+                    @Override
+                    public void run() {
+                        // The first commit was deferred
+                        verify(m_ee, never()).releaseUndoToken(anyLong());
+                    }
+                }),
+                mockTask(SpProcedureTask.class, false, null)));
+
+        verify(m_ee, times(1)).releaseUndoToken(anyLong());
+        verify(m_ee).releaseUndoToken(startToken + 3);
+        verify(m_ee, never()).undoUndoToken(anyLong());
+
+        // Nothing is left pending for the next batch
+        m_site.runTaskBatch(batch());
+        verify(m_ee, times(1)).releaseUndoToken(anyLong());
+    }
+
+    public void testRollbackReleasesDeferredCommitFirst()
+    {
+        final long startToken = m_site.getLatestUndoToken();
+        m_site.runTaskBatch(batch(
+                mockTask(SpProcedureTask.class, false, null),
+                mockTask(SpProcedureTask.class, true, null)));
+
+        // The committed txn is released before the rollback undoes back to its token,
+        // otherwise the rollback would undo it too
+        InOrder inOrder = inOrder(m_ee);
+        inOrder.verify(m_ee).releaseUndoToken(startToken + 1);
+        inOrder.verify(m_ee).undoUndoToken(startToken + 1);
+        verify(m_ee, times(1)).releaseUndoToken(anyLong());
+    }
+
+    public void testDeferredReleaseDoesNotCrossNonSpTask()
+    {
+        final long startToken = m_site.getLatestUndoToken();
+        m_site.runTaskBatch(batch(
+                mockTask(SpProcedureTask.class, false, null),
+                mockTask(FragmentTask.class, false, new Runnable() {
+                    @Override
+                    public void run() {
+                        // Released before the fragment runs
+                        verify(m_ee).releaseUndoToken(startToken + 1);
+                    }
+                }),
+                mockTask(SpProcedureTask.class, false, null),
+                mockTask(SpProcedureTask.class, false, null)));
+
+        // The fragment releases its own token immediately, the two SP txns after
+        // it are released together
+        InOrder inOrder = inOrder(m_ee);
+        inOrder.verify(m_ee).releaseUndoToken(startToken + 1);
+        inOrder.verify(m_ee).releaseUndoToken(startToken + 2);
+        inOrder.verify(m_ee).releaseUndoToken(startToken + 4);
+        verify(m_ee, times(3)).releaseUndoToken(anyLong());
+    }
+}
@@ -0,0 +1,169 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.iv2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.voltcore.utils.WaitStrategy;
+import org.voltdb.SiteProcedureConnection;
+import org.voltdb.StarvationTracker;
+import org.voltdb.rejoin.TaskLog;
+
+public class TestSiteTaskerQueue extends TestCase
+{
+    static class NoopTask extends SiteTasker
+    {
+        @Override
+        public void run(SiteProcedureConnection siteConnection) {}
+
+        @Override
+        public void runForRejoin(SiteProcedureConnection siteConnection, TaskLog rejoinTaskLog) {}
+    }
+
+    public void testTakeBatchDrainsReadyTasksInOrder() throws Exception
+    {
+        SiteTaskerQueue queue = new SiteTaskerQueue();
+        queue.setStarvationTracker(new StarvationTracker(0));
+        List<SiteTasker> tasks = new ArrayList<SiteTasker>();
+        for (int i = 0; i < 5; i++) {
+            tasks.add(new NoopTask());
+            queue.offer(tasks.get(i));
+        }
+
+        List<SiteTasker> batch = new ArrayList<SiteTasker>();
+        assertEquals(3, queue.takeBatch(batch, 3));
+        assertEquals(tasks.subList(0, 3), batch);
+
+        batch.clear();
+        assertEquals(2, queue.takeBatch(batch, 3));
+        assertEquals(tasks.subList(3, 5), batch);
+        assertTrue(queue.isEmpty());
+    }
+
+    public void testTakeBatchBlocksUntilTaskArrives() throws Exception
+    {
+        final SiteTaskerQueue queue = new SiteTaskerQueue();
+        queue.setStarvationTracker(new StarvationTracker(0));
+        final SiteTasker task = new NoopTask();
+        Thread offerer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ignored) {}
+                queue.offer(task);
+            }
+        };
+        offerer.start();
+
+        List<SiteTasker> batch = new ArrayList<SiteTasker>();
+        assertEquals(1, queue.takeBatch(batch, 16));
+        assertSame(task, batch.get(0));
+        offerer.join();
+    }
+
+    static class CountingStarvationTracker extends StarvationTracker
+    {
+        final AtomicInteger m_spinWakeups = new AtomicInteger();
+
+        CountingStarvationTracker() {
+            super(0);
+        }
+
+        @Override
+        public void spinWakeup() {
+            super.spinWakeup();
+            m_spinWakeups.incrementAndGet();
+        }
+    }
+
+    private static Thread offerLater(final SiteTaskerQueue queue, final SiteTasker task, final long delayMs)
+    {
+        Thread offerer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException ignored) {}
+                queue.offer(task);
+            }
+        };
+        offerer.start();
+        return offerer;
+    }
+
+    public void testSpinningTakeFindsTaskWithoutParking() throws Exception
+    {
+        for (WaitStrategy.Type type : new WaitStrategy.Type[] {
+                WaitStrategy.Type.SPINYIELD, WaitStrategy.Type.BUSYSPIN }) {
+            SiteTaskerQueue queue = new SiteTaskerQueue();
+            CountingStarvationTracker tracker = new CountingStarvationTracker();
+            queue.setStarvationTracker(tracker);
+            // spin for up to 10 seconds so the task always shows up while spinning
+            queue.setWaitStrategy(new WaitStrategy(type, 10 * 1000 * 1000));
+            SiteTasker task = new NoopTask();
+            Thread offerer = offerLater(queue, task, 20);
+
+            assertSame(task, queue.take());
+            assertEquals(1, tracker.m_spinWakeups.get());
+            offerer.join();
+        }
+    }
+
+    public void testSpinningTakeParksAfterSpinDuration() throws Exception
+    {
+        SiteTaskerQueue queue = new SiteTaskerQueue();
+        CountingStarvationTracker tracker = new CountingStarvationTracker();
+        queue.setStarvationTracker(tracker);
+        queue.setWaitStrategy(WaitStrategy.fromString("busyspin", 100));
+        SiteTasker task = new NoopTask();
+        Thread offerer = offerLater(queue, task, 200);
+
+        assertSame(task, queue.take());
+        assertEquals(0, tracker.m_spinWakeups.get());
+        offerer.join();
+    }
+
+    public void testWaitStrategyFromString()
+    {
+        assertSame(WaitStrategy.BLOCK, WaitStrategy.fromString(null, 50));
+        assertSame(WaitStrategy.BLOCK, WaitStrategy.fromString("block", 50));
+        assertFalse(WaitStrategy.BLOCK.spins());
+
+        WaitStrategy ws = WaitStrategy.fromString("SpinYield", 25);
+        assertEquals(WaitStrategy.Type.SPINYIELD, ws.getType());
+        assertEquals(25 * 1000L, ws.getSpinNanos());
+        assertTrue(ws.spins());
+        assertEquals("SPINYIELD(25us)", ws.toString());
+
+        try {
+            WaitStrategy.fromString("sleepy", 25);
+            fail();
+        } catch (IllegalArgumentException expected) {}
+    }
+}
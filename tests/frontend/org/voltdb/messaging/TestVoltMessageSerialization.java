@@ -128,6 +128,59 @@ public class TestVoltMessageSerialization extends TestCase {
         assertEquals(iresponse.getTxnId(), iresponse2.getTxnId());
     }
 
+    public void testStageTimes() throws IOException {
+        StoredProcedureInvocation spi = new StoredProcedureInvocation();
+        spi.setClientHandle(25);
+        spi.setProcName("johnisgreat");
+        spi.setParams(57, "gooniestoo");
+
+        // the leader's clock is way off from the client interface's
+        TransactionStageTimes times = new TransactionStageTimes();
+        times.setMark(TransactionStageTimes.Mark.RECEIVED, 1000);
+        times.setMark(TransactionStageTimes.Mark.DISPATCHED, 4000);
+        times.setMark(TransactionStageTimes.Mark.SCHEDULED, -900000);
+        times.setMark(TransactionStageTimes.Mark.LOGGED, -898000);
+        times.setMark(TransactionStageTimes.Mark.QUEUED, -898000);
+        times.setMark(TransactionStageTimes.Mark.STARTED, -878000);
+
+        Iv2InitiateTaskMessage itask = new Iv2InitiateTaskMessage(23, 8, 10L, 100045, 99, false, true, spi, 2101, 3101, false);
+        Iv2InitiateTaskMessage itask2 = (Iv2InitiateTaskMessage) checkVoltMessage(itask);
+        assertNull(itask2.getStageTimes());
+
+        // the serialized task is what gets logged and replicated, it never carries the stage times
+        itask.setStageTimes(times);
+        final int unsampledSize = itask2.getSerializedSize();
+        assertEquals(unsampledSize, itask.getSerializedSize());
+        itask2 = (Iv2InitiateTaskMessage) checkVoltMessage(itask);
+        assertNull(itask2.getStageTimes());
+
+        TransactionStageTimes times2 = itask.getStageTimes();
+        assertTrue(times2.isMarked(TransactionStageTimes.Mark.STARTED));
+        assertFalse(times2.isMarked(TransactionStageTimes.Mark.EXECUTED));
+        assertEquals(20, times2.getStageMicros(TransactionStageTimes.Stage.SITE_QUEUE));
+        assertEquals(-1, times2.getStageMicros(TransactionStageTimes.Stage.EXECUTION));
+
+        times2.setMark(TransactionStageTimes.Mark.EXECUTED, -800000);
+        times2.setMark(TransactionStageTimes.Mark.RESPONDED, -790000);
+        InitiateResponseMessage iresponse = new InitiateResponseMessage(itask);
+        iresponse.setResults(new ClientResponseImpl(ClientResponse.SUCCESS, new VoltTable[0], null));
+        assertSame(times2, iresponse.getStageTimes());
+
+        InitiateResponseMessage iresponse2 = (InitiateResponseMessage) checkVoltMessage(iresponse);
+        TransactionStageTimes times3 = iresponse2.getStageTimes();
+        times3.setMark(TransactionStageTimes.Mark.RESPONSE_RECEIVED, 200000);
+        times3.setMark(TransactionStageTimes.Mark.RESPONSE_WRITTEN, 201000);
+        assertEquals(3, times3.getStageMicros(TransactionStageTimes.Stage.CI_DESERIALIZE));
+        assertEquals(2, times3.getStageMicros(TransactionStageTimes.Stage.SCHEDULING));
+        assertEquals(0, times3.getStageMicros(TransactionStageTimes.Stage.COMMAND_LOG));
+        assertEquals(78, times3.getStageMicros(TransactionStageTimes.Stage.EXECUTION));
+        assertEquals(10, times3.getStageMicros(TransactionStageTimes.Stage.REPLICATION));
+        // 196us round trip at the client interface, 110us of it spent at the leader
+        assertEquals(86, times3.getStageMicros(TransactionStageTimes.Stage.NETWORK));
+        assertEquals(1, times3.getStageMicros(TransactionStageTimes.Stage.RESPONSE_WRITE));
+        assertEquals(200, times3.getStageMicros(TransactionStageTimes.Stage.TOTAL));
+    }
+
     public void testFragmentTask() throws IOException {
         FragmentTaskMessage ft = new FragmentTaskMessage(9, 70654312, -75, 99, true, true, false);
         ft.addFragment(5, 12, ByteBuffer.allocate(0));
@@ -108,6 +108,16 @@ public class PlannerTestAideDeCamp {
         return m_currentPlan;
     }
 
+    /**
+     * Compile a statement, trying every join order only for joins of up to
+     * exhaustiveJoinTables tables, and return the head of the plan.
+     */
+    public CompiledPlan compileAdHocPlan(String sql, int exhaustiveJoinTables)
+    {
+        compile(sql, 0, null, null, true, false, exhaustiveJoinTables);
+        return m_currentPlan;
+    }
+
     public List<AbstractPlanNode> compile(String sql, int paramCount)
     {
         return compile(sql, paramCount, false, null);
@@ -131,6 +141,13 @@ public class PlannerTestAideDeCamp {
      * @param paramCount
      */
     public List<AbstractPlanNode> compile(String sql, int paramCount, String joinOrder, Object partitionParameter, boolean inferSP, boolean lockInSP)
+    {
+        return compile(sql, paramCount, joinOrder, partitionParameter, inferSP, lockInSP,
+                       SelectSubPlanAssembler.DEFAULT_EXHAUSTIVE_JOIN_TABLES);
+    }
+
+    private List<AbstractPlanNode> compile(String sql, int paramCount, String joinOrder, Object partitionParameter,
+                                           boolean inferSP, boolean lockInSP, int exhaustiveJoinTables)
     {
         Statement catalogStmt = proc.getStatements().add("stmt-" + String.valueOf(compileCounter++));
         catalogStmt.setSqltext(sql);
@@ -158,13 +175,13 @@ public class PlannerTestAideDeCamp {
         String name = catalogStmt.getParent().getTypeName() + "-" + catalogStmt.getTypeName();
 
         DatabaseEstimates estimates = new DatabaseEstimates();
-        TrivialCostModel costModel = new TrivialCostModel();
+        StatisticsCostModel costModel = new StatisticsCostModel();
         PartitioningForStatement partitioning = new PartitioningForStatement(partitionParameter, inferSP, lockInSP);
         QueryPlanner planner =
             new QueryPlanner(catalogStmt.getSqltext(), catalogStmt.getTypeName(),
                     catalogStmt.getParent().getTypeName(), catalog.getClusters().get("cluster"),
                     db, partitioning, hsql, estimates, false, StatementCompiler.DEFAULT_MAX_JOIN_TABLES,
-                    costModel, null, joinOrder);
+                    costModel, null, joinOrder, exhaustiveJoinTables);
 
         CompiledPlan plan = null;
         planner.parse();
@@ -23,7 +23,9 @@
 
 package org.voltdb.planner;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import junit.framework.TestCase;
 
@@ -31,6 +33,7 @@ import org.voltdb.catalog.CatalogMap;
 import org.voltdb.catalog.Cluster;
 import org.voltdb.catalog.Table;
 import org.voltdb.plannodes.*;
+import org.voltdb.types.PlanNodeType;
 
 public class TestJoinOrder extends TestCase {
     private PlannerTestAideDeCamp aide;
@@ -92,6 +95,70 @@ public class TestJoinOrder extends TestCase {
         }
     }
 
+    public void testEnumeratedJoinOrder() {
+        // Too many tables to try every join order, so only the best plans for each subset are kept
+        assertTrue(8 > SelectSubPlanAssembler.DEFAULT_EXHAUSTIVE_JOIN_TABLES);
+        AbstractPlanNode pn = compile("select * FROM T1, T2, T3, T4, T5, T6, T7, T8 " +
+                                      "WHERE T1.A = T2.B AND T2.B = T3.C AND T3.C = T4.D AND " +
+                                      "T4.D = T5.E AND T5.E = T6.F AND T6.F = T7.G AND T7.G = T8.H",
+                                      0, false, null);
+        Set<String> tables = new HashSet<String>();
+        for (AbstractScanPlanNode scan : pn.getScanNodeList()) {
+            tables.add(scan.getTargetTableName());
+        }
+        assertEquals(8, tables.size());
+        for (int ii = 1; ii <= 8; ii++) {
+            assertTrue(tables.contains("T" + ii));
+        }
+        // none of the join columns are indexed
+        assertEquals(7, pn.findAllNodesOfType(PlanNodeType.HASHJOIN).size());
+    }
+
+    public void testEnumeratedMatchesExhaustive() {
+        // Small enough for both searches, with an index so access paths matter too.
+        // In the last one the index join is cheapest for T9 and T1 but outputs more tuples
+        // than the hash join, which makes the nest loop join with T2 more expensive.
+        final String[] queries = {
+            "select * FROM T1, T2, T3, T9 WHERE T1.A = T2.B AND T2.B = T3.C AND T3.C = T9.I",
+            "select * FROM T1, T2, T9, T3, T4 WHERE T1.A = T9.J AND T9.I = T2.B AND T2.B = T3.C AND T4.D = T3.C",
+            "select * FROM T9, T1, T2 WHERE T9.I = T1.A AND T1.A < T2.B"
+        };
+        for (String sql : queries) {
+            CompiledPlan exhaustive = aide.compileAdHocPlan(sql, Integer.MAX_VALUE);
+            CompiledPlan enumerated = aide.compileAdHocPlan(sql, 1);
+
+            // Tables with the same estimates can tie, so compare the cost rather than the join order
+            assertEquals(sql, exhaustive.cost, enumerated.cost, 0.0);
+            assertEquals(sql, exhaustive.fullWinnerPlan.getScanNodeList().size(),
+                         enumerated.fullWinnerPlan.getScanNodeList().size());
+        }
+    }
+
+    public void testHashJoin() {
+        // an unindexed equi-join hashes
+        AbstractPlanNode pn = compile("select * FROM T1, T9 WHERE T1.A = T9.J", 0, false, null);
+        List<AbstractPlanNode> joins = pn.findAllNodesOfType(PlanNodeType.HASHJOIN);
+        assertEquals(1, joins.size());
+        HashJoinPlanNode join = (HashJoinPlanNode) joins.get(0);
+        assertEquals(1, join.getOuterKeyExpressions().size());
+        assertEquals(1, join.getInnerKeyExpressions().size());
+        assertNotNull(join.getPredicate());
+        assertTrue(pn.findAllNodesOfType(PlanNodeType.NESTLOOP).isEmpty());
+
+        // an index on the join column is probed instead
+        pn = compile("select * FROM T1, T9 WHERE T1.A = T9.I", 0, false, null);
+        assertEquals(1, pn.findAllNodesOfType(PlanNodeType.NESTLOOPINDEX).size());
+        assertTrue(pn.findAllNodesOfType(PlanNodeType.HASHJOIN).isEmpty());
+
+        // keys of different types and non-equality joins need a nest loop
+        pn = compile("select * FROM T1, T9 WHERE T1.A = T9.K", 0, false, null);
+        assertEquals(1, pn.findAllNodesOfType(PlanNodeType.NESTLOOP).size());
+        assertTrue(pn.findAllNodesOfType(PlanNodeType.HASHJOIN).isEmpty());
+        pn = compile("select * FROM T1, T9 WHERE T1.A < T9.J", 0, false, null);
+        assertEquals(1, pn.findAllNodesOfType(PlanNodeType.NESTLOOP).size());
+        assertTrue(pn.findAllNodesOfType(PlanNodeType.HASHJOIN).isEmpty());
+    }
+
     @Override
     protected void setUp() throws Exception {
         aide = new PlannerTestAideDeCamp(TestJoinOrder.class.getResource("testjoinorder-ddl.sql"),
@@ -23,6 +23,7 @@
 
 package org.voltdb.planner;
 
+import java.util.Arrays;
 import java.util.List;
 
 import junit.framework.TestCase;
@@ -34,7 +35,9 @@ import org.voltdb.plannodes.AbstractPlanNode;
 import org.voltdb.plannodes.AbstractScanPlanNode;
 import org.voltdb.plannodes.AggregatePlanNode;
 import org.voltdb.plannodes.DistinctPlanNode;
+import org.voltdb.plannodes.OrderByPlanNode;
 import org.voltdb.plannodes.PlanNodeList;
+import org.voltdb.plannodes.ProjectionPlanNode;
 import org.voltdb.types.ExpressionType;
 import org.voltdb.types.PlanNodeType;
 
@@ -116,9 +119,30 @@ public class TestPushDownAggregates extends TestCase {
 
     public void testAvgOnPartitionedTable() {
         List<AbstractPlanNode> pn = compile("SELECT AVG(A1) from T1", 0, false);
-        checkPushedDown(pn, true,
+        checkPushedDownAvg(pn,
+                           new ExpressionType[] {ExpressionType.AGGREGATE_SUM,
+                                                 ExpressionType.AGGREGATE_COUNT});
+    }
+
+    public void testAvgOnReplicatedTable() {
+        List<AbstractPlanNode> pn = compile("SELECT AVG(A1) from T1", 0, true);
+        checkPushedDown(pn, false,
                         new ExpressionType[] {ExpressionType.AGGREGATE_AVG},
                         null);
+        assertFalse(pn.get(0).toJSONString().contains("\"AGGREGATE_TYPE\":\"AGGREGATE_SUM\""));
+    }
+
+    public void testAvgWithGroupByAndOrderBy() {
+        List<AbstractPlanNode> pn =
+            compile("SELECT A1, AVG(PKEY) AS AP, COUNT(*) FROM T1 GROUP BY A1 ORDER BY AP", 0, false);
+        AbstractPlanNode p = pn.get(0).getChild(0).getChild(0);
+        assertTrue(p instanceof OrderByPlanNode);
+        checkPushedDownAvg(Arrays.asList(p, pn.get(1)),
+                           new ExpressionType[] {ExpressionType.AGGREGATE_SUM,
+                                                 ExpressionType.AGGREGATE_COUNT,
+                                                 ExpressionType.AGGREGATE_COUNT_STAR});
+        // The hidden partial count does not reach the client
+        assertEquals(3, pn.get(0).getOutputSchema().size());
     }
 
     public void testCountStarWithGroupBy() {
@@ -159,16 +183,15 @@ public class TestPushDownAggregates extends TestCase {
         List<AbstractPlanNode> pn =
             compile("SELECT count(*), count(PKEY), sum(PKEY), min(PKEY), max(PKEY), avg(PKEY)" +
                     " FROM T1", 0, false);
-        checkPushedDown(pn, true,
-                        new ExpressionType[] {ExpressionType.AGGREGATE_COUNT_STAR,
-                                              ExpressionType.AGGREGATE_COUNT,
-                                              ExpressionType.AGGREGATE_SUM,
-                                              ExpressionType.AGGREGATE_MIN,
-                                              ExpressionType.AGGREGATE_MAX,
-                                              ExpressionType.AGGREGATE_AVG},
-                        null);
+        checkPushedDownAvg(pn,
+                           new ExpressionType[] {ExpressionType.AGGREGATE_COUNT_STAR,
+                                                 ExpressionType.AGGREGATE_COUNT,
+                                                 ExpressionType.AGGREGATE_SUM,
+                                                 ExpressionType.AGGREGATE_MIN,
+                                                 ExpressionType.AGGREGATE_MAX});
     }
 
+
     public void testGroupByNotInDisplayColumn() {
         try {
             compile("SELECT count(A1) FROM T1 GROUP BY A1", 0, false);
@@ -199,6 +222,32 @@ public class TestPushDownAggregates extends TestCase {
                         null);
     }
 
+    public void testCountDistinctPartitionColumn() {
+        List<AbstractPlanNode> pn = compile("SELECT count(distinct PKEY) from T1", 0, false);
+        checkPushedDown(pn, true,
+                        new ExpressionType[] {ExpressionType.AGGREGATE_COUNT},
+                        new ExpressionType[] {ExpressionType.AGGREGATE_SUM});
+    }
+
+    public void testDistinctGroupByPartitionColumn() {
+        List<AbstractPlanNode> pn =
+            compile("SELECT PKEY, count(distinct A1), sum(distinct A1), max(distinct A1)" +
+                    " FROM T1 GROUP BY PKEY", 0, false);
+        checkPushedDown(pn, true,
+                        new ExpressionType[] {ExpressionType.AGGREGATE_COUNT,
+                                              ExpressionType.AGGREGATE_SUM,
+                                              ExpressionType.AGGREGATE_MAX},
+                        new ExpressionType[] {ExpressionType.AGGREGATE_SUM,
+                                              ExpressionType.AGGREGATE_MAX});
+    }
+
+    public void testAvgDistinct() {
+        List<AbstractPlanNode> pn = compile("SELECT avg(distinct A1) from T1", 0, false);
+        checkPushedDown(pn, true,
+                        new ExpressionType[] {ExpressionType.AGGREGATE_AVG},
+                        null);
+    }
+
     public void testSinglePartOffset() {
         List<AbstractPlanNode> pn =
                 compile("select PKEY from T1 order by PKEY limit 5 offset 1", 0, true);
@@ -315,6 +364,38 @@ public class TestPushDownAggregates extends TestCase {
         }
     }
 
+    /**
+     * Check that an AVG was split into a partial (sum, count) pair that the
+     * coordinator sums up and divides in a projection on top of its aggregate.
+     *
+     * @param np
+     *            The generated plan
+     * @param aggTypes
+     *            The expected aggregate types for the pushed-down aggregate
+     *            node.
+     */
+    private void checkPushedDownAvg(List<AbstractPlanNode> pn, ExpressionType[] aggTypes) {
+        assertTrue(pn.size() == 2);
+
+        AbstractPlanNode p = pn.get(0).getChild(0);
+        assertTrue(p instanceof ProjectionPlanNode);
+        assertTrue(p.toJSONString().contains("\"OPERATOR_DIVIDE\""));
+
+        p = p.getChild(0);
+        assertTrue(p instanceof AggregatePlanNode);
+        assertTrue(((AggregatePlanNode) p).m_isCoordinatingAggregator);
+        assertFalse(p.toJSONString().contains("\"AGGREGATE_TYPE\":\"AGGREGATE_AVG\""));
+        assertTrue(p.toJSONString().contains("\"AGGREGATE_TYPE\":\"AGGREGATE_SUM\""));
+
+        p = pn.get(1).getChild(0);
+        assertTrue(p instanceof AggregatePlanNode);
+        assertFalse(p.toJSONString().contains("\"AGGREGATE_TYPE\":\"AGGREGATE_AVG\""));
+        for (ExpressionType type : aggTypes) {
+            assertTrue(p.toJSONString().contains("\"AGGREGATE_TYPE\":\"" +
+                                                 type.toString() + "\""));
+        }
+    }
+
     /**
      * Check if the distinct node is pushed-down in the given plan.
      *
@@ -0,0 +1,111 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.planner;
+
+import junit.framework.TestCase;
+
+import org.voltdb.VoltTable;
+import org.voltdb.VoltTable.ColumnInfo;
+import org.voltdb.VoltType;
+import org.voltdb.compiler.DatabaseEstimates;
+import org.voltdb.compiler.DatabaseEstimates.IndexEstimates;
+import org.voltdb.compiler.DatabaseEstimates.TableEstimates;
+
+public class TestStatisticsCostModel extends TestCase {
+
+    @Override
+    protected void setUp() {
+        StatisticsCostModel.clear();
+    }
+
+    private static VoltTable tableStats(Object[]... rows) {
+        VoltTable t = new VoltTable(new ColumnInfo("TABLE_NAME", VoltType.STRING),
+                                    new ColumnInfo("TUPLE_COUNT", VoltType.BIGINT));
+        for (Object[] row : rows) {
+            t.addRow(row);
+        }
+        return t;
+    }
+
+    private static VoltTable indexStats(Object[]... rows) {
+        VoltTable t = new VoltTable(new ColumnInfo("INDEX_NAME", VoltType.STRING),
+                                    new ColumnInfo("TABLE_NAME", VoltType.STRING),
+                                    new ColumnInfo("ENTRY_COUNT", VoltType.BIGINT),
+                                    new ColumnInfo("DISTINCT_KEY_COUNT", VoltType.BIGINT));
+        for (Object[] row : rows) {
+            t.addRow(row);
+        }
+        return t;
+    }
+
+    public void testMergeSites() {
+        VoltTable t1 = tableStats(new Object[] { "T", 100L }, new Object[] { "EMPTY", 0L });
+        StatisticsCostModel.updateSiteStatistics(1, t1,
+                indexStats(new Object[] { "T_IDX", "T", 100L, 10L }), 1000);
+        StatisticsCostModel.updateSiteStatistics(2,
+                tableStats(new Object[] { "T", 300L }),
+                indexStats(new Object[] { "T_IDX", "T", 300L, -1L }), 1000);
+
+        // the caller's row position is left alone
+        assertEquals(-1, t1.getActiveRowIndex());
+
+        DatabaseEstimates estimates = StatisticsCostModel.getEstimates();
+        TableEstimates t = estimates.getEstimatesForTable("T");
+        assertEquals(300, t.maxTuples);
+        assertEquals(100, t.minTuples);
+        IndexEstimates idx = t.indexEstimates.get("T_IDX");
+        assertEquals(300, idx.entries);
+        assertEquals(10, idx.distinctKeys);
+
+        // empty tables still cost something to scan
+        assertEquals(1, estimates.getEstimatesForTable("EMPTY").maxTuples);
+        assertEquals(0, estimates.getEstimatesForTable("EMPTY").minTuples);
+
+        // tables without statistics get the defaults
+        assertEquals(new TableEstimates().maxTuples, estimates.getEstimatesForTable("OTHER").maxTuples);
+
+        // a newer report replaces the site's previous one
+        StatisticsCostModel.updateSiteStatistics(2, tableStats(new Object[] { "T", 50L }), null, 2000);
+        t = StatisticsCostModel.getEstimates().getEstimatesForTable("T");
+        assertEquals(100, t.maxTuples);
+        assertEquals(50, t.minTuples);
+        assertEquals(100, t.indexEstimates.get("T_IDX").entries);
+    }
+
+    public void testRefreshDue() {
+        assertTrue(StatisticsCostModel.isRefreshDue(1, 0));
+        StatisticsCostModel.updateSiteStatistics(1, tableStats(), indexStats(), 1000);
+        assertFalse(StatisticsCostModel.isRefreshDue(1, 1000 + StatisticsCostModel.REFRESH_INTERVAL - 1));
+        assertTrue(StatisticsCostModel.isRefreshDue(1, 1000 + StatisticsCostModel.REFRESH_INTERVAL));
+        assertTrue(StatisticsCostModel.isRefreshDue(2, 1000));
+    }
+
+    public void testPlanCost() {
+        PlanStatistics stats = new PlanStatistics();
+        stats.incrementStatistic(0, StatsField.TUPLES_READ, 10);
+        stats.incrementStatistic(1, StatsField.TUPLES_READ, 5);
+        stats.incrementStatistic(1, StatsField.TREE_INDEX_LEVELS_TRAVERSED, 3);
+        assertEquals(18.0, new StatisticsCostModel().getPlanCost(stats));
+    }
+}
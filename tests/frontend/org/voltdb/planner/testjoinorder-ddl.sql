@@ -29,3 +29,10 @@ CREATE TABLE T7 (
 CREATE TABLE T8 (
 	H INTEGER NOT NULL
 );
+
+CREATE TABLE T9 (
+	I INTEGER NOT NULL,
+	J INTEGER NOT NULL,
+	K BIGINT NOT NULL,
+	PRIMARY KEY (I)
+);
@@ -518,6 +518,40 @@ public class TestFixedSQLSuite extends RegressionSuite {
         }
     }
 
+    //
+    // Unindexed equi-joins are hash joins. Every pair of tuples with
+    // equal keys joins, NULL keys never do, and the rest of the join
+    // predicate is still applied.
+    //
+    public void testHashJoinDuplicateAndNullKeys()
+    throws IOException, ProcCallException
+    {
+        Client client = getClient();
+        client.callProcedure("@AdHoc", "insert into P1 values (0, 'a', 1, 1.0)");
+        client.callProcedure("@AdHoc", "insert into P1 values (1, 'b', 1, 1.0)");
+        client.callProcedure("@AdHoc", "insert into P1 values (2, 'c', 2, 1.0)");
+        client.callProcedure("@AdHoc", "insert into P1 values (3, 'd', NULL, 1.0)");
+        client.callProcedure("@AdHoc", "insert into R1 values (0, 'x', 1, 1.0)");
+        client.callProcedure("@AdHoc", "insert into R1 values (1, 'y', 1, 1.0)");
+        client.callProcedure("@AdHoc", "insert into R1 values (2, 'z', NULL, 1.0)");
+        client.callProcedure("@AdHoc", "insert into R1 values (3, 'w', 3, 1.0)");
+
+        VoltTable vt = client.callProcedure("@AdHoc",
+                "select P1.ID, R1.ID from P1, R1 where P1.NUM = R1.NUM").getResults()[0];
+        assertEquals(4, vt.getRowCount());
+        while (vt.advanceRow()) {
+            assertTrue(vt.getLong(0) <= 1);
+            assertTrue(vt.getLong(1) <= 1);
+        }
+
+        vt = client.callProcedure("@AdHoc",
+                "select P1.ID, R1.ID from P1, R1 where P1.NUM = R1.NUM and P1.ID <> R1.ID").getResults()[0];
+        assertEquals(2, vt.getRowCount());
+        while (vt.advanceRow()) {
+            assertEquals(1, vt.getLong(0) + vt.getLong(1));
+        }
+    }
+
     //
     // Regression test for broken SQL of the variety:
     //
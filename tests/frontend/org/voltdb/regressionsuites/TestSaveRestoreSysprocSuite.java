@@ -2035,7 +2035,7 @@ public class TestSaveRestoreSysprocSuite extends SaveRestoreBase {
         VoltTable statusResults[] = client.callProcedure("@SnapshotStatus").getResults();
         assertNotNull(statusResults);
         assertEquals( 1, statusResults.length);
-        assertEquals( 14, statusResults[0].getColumnCount());
+        assertEquals( 15, statusResults[0].getColumnCount());
 
         // Validate row count if requested.
         Integer resultRowCount = statusResults[0].getRowCount();
@@ -409,6 +409,43 @@ public class TestSqlAggregateSuite extends RegressionSuite {
         }
     }
 
+    // Multi-partition AVG and DISTINCT on the partition column are split into
+    // partial and final aggregates, so they must agree with the replicated table.
+    public void testPushedDownAggregatesMatchReplicated() throws IOException, ProcCallException
+    {
+        String[] queries = {"select NUM, avg(CASH), avg(RATIO), avg(ID), count(*) from %s group by NUM order by NUM",
+                            "select avg(ID), avg(NUM), min(ID), max(ID) from %s",
+                            "select count(distinct ID), sum(distinct ID), avg(distinct ID) from %s",
+                            "select ID, count(distinct NUM), avg(distinct NUM) from %s group by ID order by ID"};
+        Client client = getClient();
+        String[] tables = {"P1", "R1"};
+        for (String table : tables)
+        {
+            for (int i = 0; i < ROWS; ++i)
+            {
+                client.callProcedure("Insert", table, i, "desc",
+                                     new BigDecimal(i), i / 2, i + 0.5);
+            }
+        }
+        for (String query : queries)
+        {
+            VoltTable partitioned = client.callProcedure("@AdHoc", String.format(query, "P1")).getResults()[0];
+            VoltTable replicated = client.callProcedure("@AdHoc", String.format(query, "R1")).getResults()[0];
+            assertEquals(replicated.getRowCount(), partitioned.getRowCount());
+            assertEquals(replicated.getColumnCount(), partitioned.getColumnCount());
+            while (replicated.advanceRow())
+            {
+                assertTrue(partitioned.advanceRow());
+                for (int col = 0; col < replicated.getColumnCount(); ++col)
+                {
+                    VoltType type = replicated.getColumnType(col);
+                    assertEquals(type, partitioned.getColumnType(col));
+                    assertEquals(replicated.get(col, type), partitioned.get(col, type));
+                }
+            }
+        }
+    }
+
     // ENG-3645 crashed on an aggregates memory management issue.
     public void testEng3645() throws IOException, ProcCallException {
         Client client = getClient();
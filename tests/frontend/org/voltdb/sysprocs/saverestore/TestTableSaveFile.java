@@ -25,8 +25,14 @@ package org.voltdb.sysprocs.saverestore;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.CRC32;
 
 import junit.framework.TestCase;
@@ -60,6 +66,8 @@ public class TestTableSaveFile extends TestCase {
 
     static {
         org.voltdb.EELibraryLoader.loadExecutionEngineLibrary(true);
+        // Enough chunk processors that chunks can complete out of order
+        System.setProperty("restoreChunkProcessors", "4");
     }
 
     private void serializeChunk(VoltTable chunk,
@@ -299,4 +307,205 @@ public class TestTableSaveFile extends TestCase {
         }
         assertEquals(table, reaggregate_table);
     }
+
+    /*
+     * Offset of every chunk in a save file, each starts with its length,
+     * partition id, partition id CRC and data CRC
+     */
+    private static ArrayList<Long> getChunkOffsets(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            long offset = 4;
+            raf.seek(offset);
+            offset += 4 + raf.readInt();
+            raf.seek(offset);
+            offset += 4 + raf.readInt();
+            ArrayList<Long> offsets = new ArrayList<Long>();
+            while (offset < raf.length()) {
+                offsets.add(offset);
+                raf.seek(offset);
+                offset += 16 + raf.readInt();
+            }
+            return offsets;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void corruptChunkCRC(File f, long chunkOffset) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.seek(chunkOffset + 12);
+            int crc = raf.readInt();
+            raf.seek(chunkOffset + 12);
+            raf.writeInt(~crc);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static <T> T getWithTimeout(Callable<T> work) throws Exception {
+        ExecutorService es = Executors.newSingleThreadExecutor();
+        try {
+            return es.submit(work).get(60, TimeUnit.SECONDS);
+        } finally {
+            es.shutdownNow();
+        }
+    }
+
+    public void testChunksInOrderWithSeveralProcessors() throws Exception {
+        Pair<VoltTable, File> generated = generateTestTable(100000);
+        VoltTable table = generated.getFirst();
+        File f = generated.getSecond();
+
+        FileInputStream fis = new FileInputStream(f);
+        final TableSaveFile savefile = new TableSaveFile(fis.getChannel(), 16, null);
+        assertTrue(savefile.isCompressed());
+        savefile.startReadAhead();
+
+        int expectedPartitionId = 0;
+        VoltTable reaggregate_table = null;
+        while (savefile.hasMoreChunks()) {
+            final BBContainer c = savefile.getNextChunk();
+            if (c == null) {
+                continue;
+            }
+            assertEquals(expectedPartitionId++, ((TableSaveFile.Container)c).partitionId);
+            try {
+                VoltTable test_table = PrivateVoltTableFactory.createVoltTableFromBuffer(c.b, false);
+                if (reaggregate_table == null) {
+                    reaggregate_table = test_table.clone(10000);
+                }
+                while (test_table.advanceRow()) {
+                    reaggregate_table.add(test_table);
+                }
+            } finally {
+                c.discard();
+            }
+        }
+        assertEquals(100, expectedPartitionId);
+        assertEquals(table, reaggregate_table);
+        savefile.close();
+    }
+
+    public void testCRCMismatchFails() throws Exception {
+        File f = generateTestTable(10000).getSecond();
+        ArrayList<Long> offsets = getChunkOffsets(f);
+        assertEquals(10, offsets.size());
+        corruptChunkCRC(f, offsets.get(3));
+
+        FileInputStream fis = new FileInputStream(f);
+        final TableSaveFile savefile = new TableSaveFile(fis.getChannel(), 3, null);
+        int expectedPartitionId = 0;
+        try {
+            while (savefile.hasMoreChunks()) {
+                final BBContainer c = savefile.getNextChunk();
+                if (c == null) {
+                    continue;
+                }
+                assertEquals(expectedPartitionId++, ((TableSaveFile.Container)c).partitionId);
+                c.discard();
+            }
+            fail("Corrupted chunk was not detected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("CRC mismatch"));
+        }
+        // Every chunk before the corrupted one was delivered
+        assertEquals(3, expectedPartitionId);
+        assertTrue(savefile.getCorruptedPartitionIds().contains(3));
+        savefile.close();
+    }
+
+    public void testCRCMismatchContinueOnCorruption() throws Exception {
+        File f = generateTestTable(10000).getSecond();
+        ArrayList<Long> offsets = getChunkOffsets(f);
+        corruptChunkCRC(f, offsets.get(3));
+        corruptChunkCRC(f, offsets.get(7));
+
+        FileInputStream fis = new FileInputStream(f);
+        // A read ahead of 2 stalls unless skipped corrupt chunks return their permits
+        final TableSaveFile savefile = new TableSaveFile(fis.getChannel(), 2, null, true);
+        ArrayList<Integer> partitionIds = getWithTimeout(new Callable<ArrayList<Integer>>() {
+            @Override
+            public ArrayList<Integer> call() throws Exception {
+                ArrayList<Integer> partitionIds = new ArrayList<Integer>();
+                while (savefile.hasMoreChunks()) {
+                    final BBContainer c = savefile.getNextChunk();
+                    if (c == null) {
+                        continue;
+                    }
+                    partitionIds.add(((TableSaveFile.Container)c).partitionId);
+                    c.discard();
+                }
+                return partitionIds;
+            }
+        });
+        assertEquals(8, partitionIds.size());
+        assertFalse(partitionIds.contains(3));
+        assertFalse(partitionIds.contains(7));
+        for (int ii = 1; ii < partitionIds.size(); ii++) {
+            assertTrue(partitionIds.get(ii - 1) < partitionIds.get(ii));
+        }
+        assertEquals(2, savefile.getCorruptedPartitionIds().size());
+        assertTrue(savefile.getCorruptedPartitionIds().contains(3));
+        assertTrue(savefile.getCorruptedPartitionIds().contains(7));
+        savefile.close();
+    }
+
+    public void testIrrelevantPartitionsReleaseReadPermits() throws Exception {
+        File f = generateTestTable(100000).getSecond();
+
+        FileInputStream fis = new FileInputStream(f);
+        // Far more irrelevant chunks than read permits, leaking one stalls the reader
+        final TableSaveFile savefile = new TableSaveFile(fis.getChannel(), 2, new Integer[] { 50, 99 });
+        ArrayList<Integer> partitionIds = getWithTimeout(new Callable<ArrayList<Integer>>() {
+            @Override
+            public ArrayList<Integer> call() throws Exception {
+                ArrayList<Integer> partitionIds = new ArrayList<Integer>();
+                while (savefile.hasMoreChunks()) {
+                    final BBContainer c = savefile.getNextChunk();
+                    if (c == null) {
+                        continue;
+                    }
+                    partitionIds.add(((TableSaveFile.Container)c).partitionId);
+                    c.discard();
+                }
+                return partitionIds;
+            }
+        });
+        assertEquals(2, partitionIds.size());
+        assertEquals(50, partitionIds.get(0).intValue());
+        assertEquals(99, partitionIds.get(1).intValue());
+        savefile.close();
+    }
+
+    public void testCloseWithPendingChunks() throws Exception {
+        Pair<VoltTable, File> generated = generateTestTable(100000);
+        File f = generated.getSecond();
+
+        FileInputStream fis = new FileInputStream(f);
+        final TableSaveFile savefile = new TableSaveFile(fis.getChannel(), 32, null);
+        savefile.startReadAhead();
+        final BBContainer first = savefile.getNextChunk();
+        assertNotNull(first);
+
+        // Close while the reader and chunk processors still have chunks in flight
+        getWithTimeout(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                savefile.close();
+                return null;
+            }
+        });
+
+        // A chunk handed out before the close is still the caller's
+        try {
+            VoltTable test_table = PrivateVoltTableFactory.createVoltTableFromBuffer(first.b, false);
+            assertEquals(1000, test_table.getRowCount());
+            test_table.advanceRow();
+            assertEquals(0, test_table.getLong(0));
+        } finally {
+            first.discard();
+        }
+    }
 }
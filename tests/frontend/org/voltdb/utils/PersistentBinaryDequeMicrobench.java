@@ -0,0 +1,148 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2012 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.utils;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import org.voltcore.utils.DBBPool;
+import org.voltcore.utils.DBBPool.BBContainer;
+
+/**
+ * Measures PersistentBinaryDeque throughput with memory mapped segments and with
+ * FileChannel segments, using export sized blocks. Each run offers every block, syncing
+ * after every syncInterval offers the way export does when it acks, and then polls and
+ * discards every block after checking its first and last long. Several writer threads sync
+ * the same deque in the contended run so concurrent syncs can be folded into one fsync.
+ * Arguments are the number of blocks, the block size and the sync interval.
+ */
+public class PersistentBinaryDequeMicrobench {
+
+    static final File dir = new File(System.getProperty("java.io.tmpdir"), "pbd_microbench");
+
+    static void clear() {
+        if (dir.exists()) {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+        } else {
+            dir.mkdirs();
+        }
+    }
+
+    // offer copies the block before returning so each writer reuses one buffer
+    static BBContainer block(ByteBuffer b, long value) {
+        b.clear();
+        b.putLong(0, value);
+        b.putLong(b.limit() - 8, value);
+        return DBBPool.wrapBB(b);
+    }
+
+    static long offer(final PersistentBinaryDeque pbd, final int writers, final int count,
+            final int size, final int syncInterval) throws Exception {
+        final long start = System.nanoTime();
+        Thread threads[] = new Thread[writers];
+        for (int t = 0; t < writers; t++) {
+            final int writer = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    ByteBuffer b = ByteBuffer.allocateDirect(size);
+                    try {
+                        for (int i = writer; i < count; i += writers) {
+                            pbd.offer(new BBContainer[] { block(b, i) });
+                            if (i % syncInterval == 0) {
+                                pbd.sync();
+                            }
+                        }
+                        pbd.sync();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    // sum of the polled values so the JIT can't drop the reads
+    static long blackhole = 0;
+
+    static long poll(PersistentBinaryDeque pbd, int count, int size) throws Exception {
+        final long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            BBContainer cont = pbd.poll();
+            sum += cont.b.getLong(0) + cont.b.getLong(size - 8);
+            cont.discard();
+        }
+        if (pbd.poll() != null) {
+            throw new Exception("Polled more blocks than were offered");
+        }
+        blackhole += sum;
+        return System.nanoTime() - start;
+    }
+
+    static void report(String name, long time, int count, int size) {
+        System.out.println(name + ": " +
+                (count * (long)size * 1000.0 / time) + " MB/s, " +
+                (time / (double)count / 1000.0) + " us/block");
+    }
+
+    public static void main(String[] args) throws Exception {
+        int count = 2048;
+        int size = 1024 * 1024 * 2;
+        int syncInterval = 16;
+        if (args.length >= 3) {
+            count = Integer.parseInt(args[0]);
+            size = Integer.parseInt(args[1]);
+            syncInterval = Integer.parseInt(args[2]);
+        }
+
+        for (int pass = 0; pass < 2; pass++) {
+            // the first pass warms up the JIT and the page cache
+            if (pass == 1) {
+                System.out.println();
+            }
+            for (boolean mapped : new boolean[] { false, true }) {
+                final String name = mapped ? "mapped" : "FileChannel";
+                for (int writers : new int[] { 1, 4 }) {
+                    clear();
+                    PersistentBinaryDeque pbd = new PersistentBinaryDeque("bench", dir, mapped);
+                    long offerTime = offer(pbd, writers, count, size, syncInterval);
+                    long pollTime = poll(pbd, count, size);
+                    pbd.close();
+                    report(name + " offer+sync x" + writers, offerTime, count, size);
+                    report(name + " poll", pollTime, count, size);
+                }
+            }
+        }
+        clear();
+        dir.delete();
+        System.out.println("(" + blackhole + ")");
+    }
+}
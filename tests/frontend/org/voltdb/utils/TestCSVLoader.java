@@ -49,6 +49,7 @@ public class TestCSVLoader extends TestCase {
     private VoltDB.Configuration config;
     private VoltProjectBuilder builder;
     private Client client;
+    private int insertedRowCnt;
     protected static final VoltLogger m_log = new VoltLogger("CONSOLE");
 
     private String userName = System.getProperty("user.name");
@@ -358,6 +359,83 @@ public class TestCSVLoader extends TestCase {
         test_Interface( mySchema, myOptions, myData, invalidLineCnt );
     }
 
+    public void testBatchWithFailingRow() throws Exception
+    {
+        String mySchema =
+                "create table BLAH (" +
+                        "clm_integer integer default 0 not null, " + // column that is partitioned on
+                        "clm_tinyint tinyint default 0, " +
+                        "clm_string varchar(5) default null" +
+                        "); ";
+        String []myOptions = {
+                "-f" + path_csv,
+                "--reportdir=" + reportDir,
+                "--batch=4",
+                "BLAH"
+        };
+
+        // the string in line 5 is too long for the column, which only the server
+        // finds out, so the bulk insert of its batch fails and is replayed row by row
+        String []myData = new String[12];
+        for (int i = 0; i < myData.length; i++) {
+            myData[i] = (i + 1) + "," + (i + 1) + "," + (i == 4 ? "toolong" : "ok");
+        }
+        int invalidLineCnt = 1;
+        test_Interface( mySchema, myOptions, myData, invalidLineCnt );
+        assertEquals(myData.length - invalidLineCnt, insertedRowCnt);
+        assertInvalidRows("5");
+    }
+
+    public void testBatchWithNullPartitionKey() throws Exception
+    {
+        String mySchema =
+                "create table BLAH (" +
+                        "clm_integer integer default 0 not null, " + // column that is partitioned on
+                        "clm_tinyint tinyint default 0, " +
+                        "clm_string varchar(20) default null" +
+                        "); ";
+        String []myOptions = {
+                "-f" + path_csv,
+                "--reportdir=" + reportDir,
+                "--batch=4",
+                "BLAH"
+        };
+
+        // the NULL key bypasses the batch and is rejected by the insert procedure
+        String []myData = {
+                "1,1,first",
+                "2,2,second",
+                "NULL,3,third",
+                "4,4,fourth",
+                "5,5,fifth",
+                "6,6,sixth",
+                "7,7,seventh",
+                "8,8,eighth"
+        };
+        int invalidLineCnt = 1;
+        test_Interface( mySchema, myOptions, myData, invalidLineCnt );
+        assertEquals(myData.length - invalidLineCnt, insertedRowCnt);
+        assertInvalidRows("NULL");
+    }
+
+    /*
+     * Check the invalid row file holds exactly the rows whose first column
+     * has the given values.
+     */
+    private void assertInvalidRows(String... firstColumns) throws Exception {
+        BufferedReader invalidRows = new BufferedReader(new FileReader(CSVLoader.pathInvalidrowfile));
+        try {
+            for (String firstColumn : firstColumns) {
+                String line = invalidRows.readLine();
+                assertNotNull(line);
+                assertTrue(line, line.startsWith("\"" + firstColumn + "\","));
+            }
+            assertNull(invalidRows.readLine());
+        } finally {
+            invalidRows.close();
+        }
+    }
+
     public void test_Interface( String my_schema, String[] my_options, String[] my_data, int invalidLineCnt ) throws Exception {
         try{
             BufferedWriter out_csv = new BufferedWriter( new FileWriter( path_csv ) );
@@ -402,6 +480,7 @@ public class TestCSVLoader extends TestCase {
             modCount = client.callProcedure("@AdHoc", "SELECT * FROM BLAH;").getResults()[0];
             System.out.println("data inserted to table BLAH:\n" + modCount);
             int rowct = modCount.getRowCount();
+            insertedRowCnt = rowct;
 
             BufferedReader csvreport = new BufferedReader(new FileReader(CSVLoader.pathReportfile));
             int lineCount = 0;
@@ -31,8 +31,17 @@ import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.After;
 import org.junit.Before;
@@ -516,6 +525,230 @@ public class TestPersistentBinaryDeque {
         fail();
     }
 
+    private static BBContainer[] getSequencedObject(int writer, long sequence, int size) {
+        ByteBuffer buf = ByteBuffer.allocateDirect(size);
+        buf.putInt(writer);
+        buf.putLong(sequence);
+        buf.clear();
+        return new BBContainer[] { DBBPool.wrapBB(buf) };
+    }
+
+    /*
+     * Offer the objects from several writers, optionally syncing after each one, while
+     * a reader polls. Every writer's objects must come out complete and in order.
+     */
+    private void offerAndPollConcurrently(boolean mapped, final int writers, final int objectsPerWriter,
+                                          final int objectSize, final boolean sync) throws Exception {
+        m_pbd.close();
+        m_pbd = new PersistentBinaryDeque( TEST_NONCE, TEST_DIR, mapped);
+        final PersistentBinaryDeque pbd = m_pbd;
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        ExecutorService es = Executors.newFixedThreadPool(writers + 1);
+        try {
+            List<Future<Object>> writerFutures = new ArrayList<Future<Object>>();
+            for (int ii = 0; ii < writers; ii++) {
+                final int writer = ii;
+                writerFutures.add(es.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        try {
+                            for (long seq = 0; seq < objectsPerWriter; seq++) {
+                                pbd.offer(getSequencedObject(writer, seq, objectSize));
+                                if (sync) {
+                                    pbd.sync();
+                                }
+                            }
+                        } catch (Exception e) {
+                            failed.set(true);
+                            throw e;
+                        }
+                        return null;
+                    }
+                }));
+            }
+            Future<long[]> reader = es.submit(new Callable<long[]>() {
+                @Override
+                public long[] call() throws Exception {
+                    long nextSequence[] = new long[writers];
+                    int polled = 0;
+                    while (polled < writers * objectsPerWriter) {
+                        BBContainer cont = pbd.poll();
+                        if (cont == null) {
+                            if (failed.get()) {
+                                break;
+                            }
+                            //Races offers finishing the write segment the same way poll does
+                            pbd.isEmpty();
+                            Thread.yield();
+                            continue;
+                        }
+                        try {
+                            assertEquals(objectSize, cont.b.remaining());
+                            int writer = cont.b.getInt();
+                            assertEquals(nextSequence[writer]++, cont.b.getLong());
+                        } finally {
+                            cont.discard();
+                        }
+                        polled++;
+                    }
+                    return nextSequence;
+                }
+            });
+            for (Future<Object> f : writerFutures) {
+                f.get(5, TimeUnit.MINUTES);
+            }
+            long nextSequence[] = reader.get(5, TimeUnit.MINUTES);
+            for (int ii = 0; ii < writers; ii++) {
+                assertEquals(objectsPerWriter, nextSequence[ii]);
+            }
+        } finally {
+            es.shutdownNow();
+        }
+        assertNull(m_pbd.poll());
+        assertTrue(m_pbd.isEmpty());
+        assertEquals(0, m_pbd.sizeInBytes());
+    }
+
+    @Test
+    public void testConcurrentOfferPoll() throws Exception {
+        //Enough data to go through several segments while the reader follows the writer
+        offerAndPollConcurrently(true, 1, 3000, 64 * 1024, false);
+        offerAndPollConcurrently(false, 1, 3000, 64 * 1024, false);
+    }
+
+    @Test
+    public void testConcurrentOfferPollMultipleWriters() throws Exception {
+        offerAndPollConcurrently(true, 4, 1000, 64 * 1024, false);
+        offerAndPollConcurrently(false, 4, 1000, 64 * 1024, false);
+    }
+
+    @Test
+    public void testConcurrentOfferSync() throws Exception {
+        //Writers syncing after every offer share fsyncs and still see all their data
+        offerAndPollConcurrently(true, 4, 250, 1024, true);
+        offerAndPollConcurrently(false, 4, 250, 1024, true);
+    }
+
+    @Test
+    public void testSyncedDataSurvivesReopenOfBothSegmentTypes() throws Exception {
+        for (boolean writeMapped : new boolean[] { true, false }) {
+            for (boolean readMapped : new boolean[] { true, false }) {
+                m_pbd.close();
+                m_pbd = new PersistentBinaryDeque( TEST_NONCE, TEST_DIR, writeMapped);
+                for (long seq = 0; seq < 48; seq++) {
+                    m_pbd.offer(getSequencedObject(0, seq, 1024 * 1024 * 2));
+                }
+                m_pbd.sync();
+                m_pbd.close();
+
+                m_pbd = new PersistentBinaryDeque( TEST_NONCE, TEST_DIR, readMapped);
+                assertEquals(48 * (4 + 1024 * 1024 * 2), m_pbd.sizeInBytes());
+                for (long seq = 0; seq < 48; seq++) {
+                    BBContainer cont = m_pbd.poll();
+                    assertNotNull(cont);
+                    assertEquals(0, cont.b.getInt());
+                    assertEquals(seq, cont.b.getLong());
+                    cont.discard();
+                }
+                assertNull(m_pbd.poll());
+                assertEquals(0, m_pbd.sizeInBytes());
+            }
+        }
+    }
+
+    /*
+     * Stop using a deque without closing it, the way a crash would leave it, append a
+     * partially written entry past the last counted one and recover it in a new deque
+     */
+    private void crashAndRecover(boolean mapped) throws Exception {
+        final int objectSize = 1024 * 1024;
+        m_pbd.close();
+        PersistentBinaryDeque crashed = new PersistentBinaryDeque( TEST_NONCE, TEST_DIR, mapped);
+        for (long seq = 0; seq < 10; seq++) {
+            crashed.offer(getSequencedObject(0, seq, objectSize));
+        }
+        crashed.sync();
+
+        File writeSegment = new File(TEST_DIR, TEST_NONCE + ".0.pbd");
+        final long dataLength = 4 + 10 * (4 + objectSize);
+        if (mapped) {
+            //Still extended to the full chunk that was mapped for writing
+            assertEquals(1024 * 1024 * 64, writeSegment.length());
+        } else {
+            assertEquals(dataLength, writeSegment.length());
+        }
+        RandomAccessFile ras = new RandomAccessFile(writeSegment, "rw");
+        try {
+            ras.seek(dataLength);
+            ras.writeInt(objectSize);
+            ras.write(new byte[100]);
+        } finally {
+            ras.close();
+        }
+
+        m_pbd = new PersistentBinaryDeque( TEST_NONCE, TEST_DIR, mapped);
+        //Only the counted entries are data, not the rest of the file
+        assertEquals(10 * (4 + objectSize), m_pbd.sizeInBytes());
+        assertEquals(dataLength, writeSegment.length());
+        for (long seq = 0; seq < 10; seq++) {
+            BBContainer cont = m_pbd.poll();
+            assertNotNull(cont);
+            assertEquals(objectSize, cont.b.remaining());
+            assertEquals(0, cont.b.getInt());
+            assertEquals(seq, cont.b.getLong());
+            cont.discard();
+        }
+        assertNull(m_pbd.poll());
+        assertEquals(0, m_pbd.sizeInBytes());
+
+        //New offers go to a fresh segment after the recovered one
+        m_pbd.offer(getSequencedObject(0, 10, objectSize));
+        assertEquals(4 + objectSize, m_pbd.sizeInBytes());
+        BBContainer cont = m_pbd.poll();
+        assertEquals(0, cont.b.getInt());
+        assertEquals(10, cont.b.getLong());
+        cont.discard();
+        m_pbd.close();
+        m_pbd = new PersistentBinaryDeque( TEST_NONCE, TEST_DIR );
+    }
+
+    @Test
+    public void testCrashRecoveryMapped() throws Exception {
+        crashAndRecover(true);
+    }
+
+    @Test
+    public void testCrashRecoveryFileChannel() throws Exception {
+        crashAndRecover(false);
+    }
+
+    @Test
+    public void testRecoveryWithMissingEntries() throws Exception {
+        for (boolean mapped : new boolean[] { true, false }) {
+            m_pbd.close();
+            m_pbd = new PersistentBinaryDeque( TEST_NONCE, TEST_DIR, mapped);
+            m_pbd.offer(getSequencedObject(0, 0, 1024));
+            m_pbd.close();
+
+            //Claim more entries than the file holds
+            File segment = new File(TEST_DIR, TEST_NONCE + ".0.pbd");
+            RandomAccessFile ras = new RandomAccessFile(segment, "rw");
+            try {
+                ras.writeInt(2);
+            } finally {
+                ras.close();
+            }
+            try {
+                m_pbd = new PersistentBinaryDeque( TEST_NONCE, TEST_DIR, mapped);
+                fail();
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("missing entries"));
+            }
+            assertTrue(segment.delete());
+            m_pbd = new PersistentBinaryDeque( TEST_NONCE, TEST_DIR );
+        }
+    }
+
     @Before
     public void setUp() throws Exception {
         if (TEST_DIR.exists()) {